@@ -11,6 +11,7 @@ tokens {
     import java.util.LinkedList;
     import java.util.Stack;
     import org.antlr.v4.runtime.CommonToken;
+    import com.guaguaaaa.mymd.core.jfr.IndentationEvent;
 }
 
 @members {
@@ -20,6 +21,34 @@ tokens {
     private LinkedList<Token> pendingTokens = new LinkedList<>();
     // 标记当前是否处于行首 (初始为 true)
     private boolean atStartOfLine = true;
+    // 闭合定界符索引 (可选)，用于跳过注定失败的长距离扫描
+    private DelimiterIndex delimiters;
+
+    public void setDelimiterIndex(DelimiterIndex delimiters) {
+        this.delimiters = delimiters;
+    }
+
+    // 谓词在开始符之后求值，此时 _input.index() 指向开始符后的第一个字符
+    private boolean closes(int kind) {
+        if (delimiters == null) return true;
+        int from = _input.index();
+        switch (kind) {
+            case YAML_BLOCK: return delimiters.hasYamlClose(_tokenStartCharIndex, from);
+            case LATEX_ENV_BLOCK: return delimiters.hasLatexEnvClose(_tokenStartCharIndex, from);
+            case INLINE_MATH: return delimiters.hasInlineMathClose(_tokenStartCharIndex, from);
+            case BLOCK_MATH: return delimiters.hasBlockMathClose(_tokenStartCharIndex, from);
+            case CODE_BLOCK: return delimiters.hasCodeBlockClose(_tokenStartCharIndex, from);
+            default: return true;
+        }
+    }
+
+    @Override
+    public void notifyListeners(LexerNoViableAltException e) {
+        super.notifyListeners(e);
+        // 出错的字符已被跳过，本行剩余部分不再按行首缩进处理
+        atStartOfLine = false;
+    }
+
     @Override
     public Token nextToken() {
         // 1. 如果队列里有刚才生成的虚拟 Token (如 DEDENT)，优先返回
@@ -95,6 +124,11 @@ tokens {
     }
 
     private void processIndentation(int targetIndent, Token triggerToken) {
+        // JFR 事件默认关闭，未启用时 begin/shouldCommit 几乎没有开销
+        IndentationEvent event = new IndentationEvent();
+        event.begin();
+        int pendingBefore = pendingTokens.size();
+
         int current = indentLengths.peek();
         if (targetIndent > current) {
             indentLengths.push(targetIndent);
@@ -108,6 +142,16 @@ tokens {
                  throw new RuntimeException("Indentation Error: Unmatched indentation level. Expected " + indentLengths.peek() + ", found " + targetIndent);
             }
         }
+
+        if (event.shouldCommit()) {
+            int emitted = pendingTokens.size() - pendingBefore;
+            event.line = triggerToken.getLine();
+            event.indent = targetIndent;
+            event.depth = indentLengths.size() - 1;
+            event.indents = targetIndent > current ? emitted : 0;
+            event.dedents = targetIndent < current ? emitted : 0;
+            event.commit();
+        }
     }
 
     private void handleEOF() {
@@ -136,7 +180,7 @@ tokens {
 // ======================= Lexer Rules =======================
 
 YAML_BLOCK
-    : '---' [ \t]* [\r\n]+ ( . | [\r\n] )*?
+    : '---' [ \t]* [\r\n] {closes(YAML_BLOCK)}? [\r\n]* ( . | [\r\n] )*?
     [\r\n]+ '---'
     ;
 
@@ -155,7 +199,7 @@ ESCAPED_HYPHEN    : '\\-' ;
 ESCAPED_GRAVE     : '\\`' ;
 
 LATEX_ENV_BLOCK
-    : '\\begin{' [a-zA-Z0-9*]+ '}' ( . | [\r\n] )*? '\\end{' [a-zA-Z0-9*]+ '}'
+    : '\\begin{' [a-zA-Z0-9*]+ '}' {closes(LATEX_ENV_BLOCK)}? ( . | [\r\n] )*? '\\end{' [a-zA-Z0-9*]+ '}'
     ;
 
 fragment BALANCED_BRACES
@@ -199,10 +243,10 @@ LPAREN   : '(' ;
 RPAREN   : ')' ;
 
 BOLD_MARK : '**' ;
-INLINE_MATH : '$' ~[$]+ '$' ;
-BLOCK_MATH: '$$' ( . | [\r\n] )*? '$$' ;
+INLINE_MATH : '$' ~[$] {closes(INLINE_MATH)}? ~[$]* '$' ;
+BLOCK_MATH: '$$' {closes(BLOCK_MATH)}? ( . | [\r\n] )*? '$$' ;
 INLINE_CODE : '`' ~[`\r\n]+ '`' ;
-CODE_BLOCK : '```' ( . | [\r\n] )*? '```' ;
+CODE_BLOCK : '```' {closes(CODE_BLOCK)}? ( . | [\r\n] )*? '```' ;
 CITATION : '[' '@' [a-zA-Z0-9_:-]+ ']' ;
 REF_ID : '[' ~[ \t\r\n\]]+ ']' ;
 
@@ -2,6 +2,24 @@ parser grammar MyMDParser;
 
 options { tokenVocab=MyMDLexer; }
 
+@header {
+    import com.guaguaaaa.mymd.core.jfr.ParserRuleEvent;
+}
+
+@members {
+    // 在昂贵规则退出时提交 JFR 事件 (事件默认关闭)
+    private void commitRuleEvent(ParserRuleEvent event, String rule, ParserRuleContext ctx) {
+        if (event.shouldCommit()) {
+            Token stop = _input.LT(-1);
+            event.rule = rule;
+            event.startLine = ctx.start != null ? ctx.start.getLine() : 0;
+            event.startTokenIndex = ctx.start != null ? ctx.start.getTokenIndex() : -1;
+            event.stopTokenIndex = stop != null ? stop.getTokenIndex() : -1;
+            event.commit();
+        }
+    }
+}
+
 // ======================= Parser Rules =======================
 
 doc
@@ -40,6 +58,7 @@ header
 
 
 paragraph
+@init { ParserRuleEvent _ruleEvent = new ParserRuleEvent(); _ruleEvent.begin(); }
     : inlineNoBreak+
       (
         {
@@ -86,6 +105,7 @@ paragraph
           }?
       )
     ;
+    finally { commitRuleEvent(_ruleEvent, "paragraph", _localctx); }
 
 blockMath
     : BLOCK_MATH SPACE? REF_ID?
@@ -128,8 +148,10 @@ orderedListBlock
     ;
 
 orderedList
+@init { ParserRuleEvent _ruleEvent = new ParserRuleEvent(); _ruleEvent.begin(); }
     : orderedListItem+
     ;
+    finally { commitRuleEvent(_ruleEvent, "orderedList", _localctx); }
 
 orderedListItem
     : (ORDERED_LIST_ITEM | PLUS_ITEM)
@@ -144,8 +166,10 @@ orderedListItem
     ;
 
 nestedBody
+@init { ParserRuleEvent _ruleEvent = new ParserRuleEvent(); _ruleEvent.begin(); }
     : (block | PARAGRAPH_END | SOFT_BREAK | SPACE)+
     ;
+    finally { commitRuleEvent(_ruleEvent, "nestedBody", _localctx); }
 
 // ======================= Inline Rules =======================
 
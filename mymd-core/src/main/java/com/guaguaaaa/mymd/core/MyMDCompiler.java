@@ -1,37 +1,97 @@
 package com.guaguaaaa.mymd.core;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
 import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
 import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.ast.AstJson;
+import com.guaguaaaa.mymd.core.ast.Block;
+import com.guaguaaaa.mymd.core.ast.PandocAst;
 import com.guaguaaaa.mymd.core.ast.PandocNode;
+import com.guaguaaaa.mymd.core.ast.SourceMap;
+import com.guaguaaaa.mymd.core.bib.BibDatabase;
+import com.guaguaaaa.mymd.core.filter.FilterChain;
+import com.guaguaaaa.mymd.core.filter.PandocFilter;
+import com.guaguaaaa.mymd.core.parser.ArrayTokenStream;
+import com.guaguaaaa.mymd.core.parser.DelimiterIndex;
+import com.guaguaaaa.mymd.core.parser.DirectAstBuilder;
+import com.guaguaaaa.mymd.core.parser.FastBlockScanner;
 import com.guaguaaaa.mymd.core.parser.MyMDLexer;
 import com.guaguaaaa.mymd.core.parser.MyMDParser;
 import com.guaguaaaa.mymd.core.parser.PandocAstVisitor;
 import com.guaguaaaa.mymd.core.parser.SyntaxErrorCollector;
+import com.guaguaaaa.mymd.core.parser.TokenSnapshot;
+import com.guaguaaaa.mymd.core.sync.SyncMarkers;
+import com.guaguaaaa.mymd.core.text.TextCharStream;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 public class MyMDCompiler {
 
-    private static final Gson gson = new GsonBuilder().create();
+    private static final Gson gson = AstJson.GSON;
 
     public static CompilationResult compile(String source) {
+        return compile(source, new CompilerOptions());
+    }
+
+    public static CompilationResult compile(String source, CompilerOptions options) {
+        return compile(source, null, options);
+    }
+
+    /**
+     * Compiles {@code source} reusing {@code tokens}, the {@link TokenSnapshot} of the same text
+     * (e.g. the one the editor already lexed for highlighting), instead of running the lexer again.
+     * Falls back to lexing when the snapshot was made with other lexer options or its offsets
+     * would differ from the compiler's.
+     */
+    public static CompilationResult compile(String source, TokenSnapshot tokens, CompilerOptions options) {
         SyntaxErrorCollector errorListener = new SyntaxErrorCollector();
 
         try {
-            MyMDLexer lexer = new MyMDLexer(CharStreams.fromString(source));
-            lexer.removeErrorListeners();
-            lexer.addErrorListener(errorListener);
+            if (options.isFastPath() && !needsPositions(options)) {
+                FastBlockScanner scanner = new FastBlockScanner(source, options);
+                if (scanner.scan()) {
+                    List<Block> blocks = filter(scanner.getMetadata(), scanner.getBlocks(), options);
+                    return success(PandocAstVisitor.toPandocJson(scanner.getMetadata(), blocks), null, null,
+                            scanner.getLabels(), scanner.getCitations(), source, options);
+                }
+                // 出错时整篇重新走 ANTLR，保证诊断信息与常规流程一致
+            }
+
+            // 两条路径都用 ArrayTokenStream：token 只以 int 数组保存，不为每个 token 留一个对象
+            TokenStream tokenStream;
+            if (tokens != null && tokens.isUsableFor(options) && tokens.getText().length() == source.length()) {
+                tokenStream = tokens.newTokenStream(new TextCharStream(source), errorListener);
+            } else {
+                CharStream input = CharStreams.fromString(source);
+                MyMDLexer lexer = new MyMDLexer(input);
+                if (options.isLexerGuards()) {
+                    lexer.setDelimiterIndex(new DelimiterIndex(input, options.getMaxBlockLength(), options.getMaxInlineMathLength()));
+                }
+                lexer.removeErrorListeners();
+                lexer.addErrorListener(errorListener);
+                tokenStream = new ArrayTokenStream(lexer);
+            }
 
-            MyMDParser parser = new MyMDParser(new CommonTokenStream(lexer));
+            MyMDParser parser = new MyMDParser(tokenStream);
             parser.removeErrorListeners();
             parser.addErrorListener(errorListener);
 
+            if (options.isDirectAst()) {
+                return compileDirect(parser, errorListener, source, options);
+            }
+
             // parser.doc() 会触发 Lexer.nextToken()，所以 Lexer 的异常会在这里抛出
             ParseTree tree = parser.doc();
 
@@ -39,10 +99,14 @@ public class MyMDCompiler {
                 return new CompilationResult(null, null, errorListener.getErrors());
             }
 
-            PandocAstVisitor visitor = new PandocAstVisitor();
+            PandocAstVisitor visitor = new PandocAstVisitor(needsPositions(options) ? new SourceMap() : null);
             visitor.visit(tree);
-            String json = visitor.getPandocJson();
-            return new CompilationResult(null, json, Collections.emptyList());
+            List<Block> blocks = filter(visitor.getMetadata(), visitor.getBlocks(), options);
+            String json = options.isSyncMarkers()
+                    ? withSyncMarkers(visitor.getMetadata(), blocks, visitor.getSourceMap(), source)
+                    : PandocAstVisitor.toPandocJson(visitor.getMetadata(), blocks);
+            return success(json, positioned(visitor.getMetadata(), blocks, visitor.getSourceMap()),
+                    visitor.getSourceMap(), visitor.getLabels(), visitor.getCitations(), source, options);
 
         } catch (Exception e) {
             // 捕获所有运行时异常 (包括 Lexer 的 Indentation Error)
@@ -54,4 +118,77 @@ public class MyMDCompiler {
             return new CompilationResult(null, null, Collections.singletonList(error));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 不保留解析树：在解析过程中由 {@link DirectAstBuilder} 直接构建 AST
+     */
+    private static CompilationResult compileDirect(MyMDParser parser, SyntaxErrorCollector errorListener,
+                                                   String source, CompilerOptions options) {
+        DirectAstBuilder builder = new DirectAstBuilder(needsPositions(options) ? new SourceMap() : null);
+        parser.setBuildParseTree(false);
+        parser.addParseListener(builder);
+        parser.doc();
+
+        if (errorListener.hasErrors()) {
+            return new CompilationResult(null, null, errorListener.getErrors());
+        }
+        if (builder.getFailure() != null) {
+            throw builder.getFailure();
+        }
+
+        List<Block> blocks = filter(builder.getMetadata(), builder.getBlocks(), options);
+        String json = options.isSyncMarkers()
+                ? withSyncMarkers(builder.getMetadata(), blocks, builder.getSourceMap(), source)
+                : PandocAstVisitor.toPandocJson(builder.getMetadata(), blocks);
+        return success(json, positioned(builder.getMetadata(), blocks, builder.getSourceMap()),
+                builder.getSourceMap(), builder.getLabels(), builder.getCitations(), source, options);
+    }
+
+    /**
+     * 编译成功：按需附带悬空引用、重复标签和未知文献键的警告
+     */
+    private static CompilationResult success(String json, PandocAst ast, SourceMap sourceMap,
+                                             LabelIndex labels, LabelIndex citations,
+                                             String source, CompilerOptions options) {
+        List<Diagnostic> warnings = options.isReferenceCheck() ? labels.getDiagnostics(source) : Collections.emptyList();
+        BibDatabase bibliography = options.getBibliography();
+        if (bibliography != null) {
+            List<Diagnostic> unknown = bibliography.getDiagnostics(citations, source);
+            if (!unknown.isEmpty()) {
+                List<Diagnostic> merged = new ArrayList<>(warnings);
+                merged.addAll(unknown);
+                merged.sort(Comparator.comparingInt(d -> d.startIndex));
+                warnings = merged;
+            }
+        }
+        return new CompilationResult(ast, json, warnings, labels, citations, sourceMap);
+    }
+
+    /**
+     * 序列化之前运行 {@link CompilerOptions#getFilters()}；标签和引用索引仍来自过滤前的文档
+     */
+    private static List<Block> filter(JsonObject metadata, List<Block> blocks, CompilerOptions options) {
+        List<PandocFilter> filters = options.getFilters();
+        return filters.isEmpty() ? blocks : new FilterChain(filters).apply(blocks, metadata);
+    }
+
+    private static boolean needsPositions(CompilerOptions options) {
+        return options.isSourcePositions() || options.isSyncMarkers();
+    }
+
+    /**
+     * 在每个顶层块前插入 %mymd:offset 注释；AST 本身不变
+     */
+    private static String withSyncMarkers(JsonObject metadata, List<Block> blocks, SourceMap sourceMap, String source) {
+        return PandocAstVisitor.toPandocJson(metadata, SyncMarkers.insert(blocks, sourceMap, source));
+    }
+
+    /**
+     * 需要源码位置时才把 AST 本身随结果返回
+     */
+    private static PandocAst positioned(JsonObject metadata, List<Block> blocks, SourceMap sourceMap) {
+        if (sourceMap == null) return null;
+        Map<String, Object> meta = gson.fromJson(metadata, new TypeToken<Map<String, Object>>() {}.getType());
+        return new PandocAst(meta, blocks);
+    }
+}
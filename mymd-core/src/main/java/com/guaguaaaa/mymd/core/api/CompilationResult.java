@@ -1,20 +1,43 @@
 package com.guaguaaaa.mymd.core.api;
 
 import com.guaguaaaa.mymd.core.ast.PandocNode;
+import com.guaguaaaa.mymd.core.ast.SourceMap;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+
 import java.util.List;
 
 public class CompilationResult {
     public final PandocNode rootAst;
     public final String pandocJson;
     public final List<Diagnostic> diagnostics;
+    public final LabelIndex labels;
+    /** Citation keys used in the document; every site is a {@code CITATION} use. */
+    public final LabelIndex citations;
+    /** Offsets of the nodes of {@link #rootAst}; null unless {@code CompilerOptions.sourcePositions} was set. */
+    public final SourceMap sourceMap;
 
     public CompilationResult(PandocNode rootAst, String pandocJson, List<Diagnostic> diagnostics) {
+        this(rootAst, pandocJson, diagnostics, new LabelIndex(), new LabelIndex(), null);
+    }
+
+    public CompilationResult(PandocNode rootAst, String pandocJson, List<Diagnostic> diagnostics,
+                             LabelIndex labels, LabelIndex citations, SourceMap sourceMap) {
         this.rootAst = rootAst;
         this.pandocJson = pandocJson;
         this.diagnostics = diagnostics;
+        this.labels = labels;
+        this.citations = citations;
+        this.sourceMap = sourceMap;
     }
 
+    /**
+     * Whether compilation failed. Warnings alone do not count.
+     */
     public boolean hasErrors() {
-        return diagnostics != null && !diagnostics.isEmpty();
+        if (diagnostics == null) return false;
+        for (Diagnostic d : diagnostics) {
+            if (d.isError()) return true;
+        }
+        return false;
     }
 }
\ No newline at end of file
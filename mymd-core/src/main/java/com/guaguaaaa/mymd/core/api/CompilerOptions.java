@@ -0,0 +1,171 @@
+package com.guaguaaaa.mymd.core.api;
+
+import com.guaguaaaa.mymd.core.bib.BibDatabase;
+import com.guaguaaaa.mymd.core.filter.PandocFilter;
+
+import java.util.List;
+
+/**
+ * Tuning switches for {@code MyMDCompiler}. The defaults reproduce the classic
+ * parse-tree-then-visitor pipeline.
+ */
+public class CompilerOptions {
+
+    private boolean directAst = false;
+    private boolean fastPath = false;
+    private boolean lexerGuards = false;
+    private boolean referenceCheck = false;
+    private boolean sourcePositions = false;
+    private boolean syncMarkers = false;
+    private BibDatabase bibliography;
+    private List<PandocFilter> filters = List.of();
+    private int maxBlockLength = Integer.MAX_VALUE;
+    private int maxInlineMathLength = Integer.MAX_VALUE;
+
+    /**
+     * An independent copy with the same settings.
+     */
+    public CompilerOptions copy() {
+        CompilerOptions copy = new CompilerOptions();
+        copy.directAst = directAst;
+        copy.fastPath = fastPath;
+        copy.lexerGuards = lexerGuards;
+        copy.referenceCheck = referenceCheck;
+        copy.sourcePositions = sourcePositions;
+        copy.syncMarkers = syncMarkers;
+        copy.bibliography = bibliography;
+        copy.filters = filters;
+        copy.maxBlockLength = maxBlockLength;
+        copy.maxInlineMathLength = maxInlineMathLength;
+        return copy;
+    }
+
+    /**
+     * Whether the AST is built directly from parser callbacks instead of from a retained parse tree.
+     */
+    public boolean isDirectAst() {
+        return directAst;
+    }
+
+    public CompilerOptions setDirectAst(boolean directAst) {
+        this.directAst = directAst;
+        return this;
+    }
+
+    /**
+     * Whether plain paragraphs, headers and flat bullet lists are compiled by the hand-written
+     * {@code FastBlockScanner}, leaving only the remaining regions to ANTLR.
+     */
+    public boolean isFastPath() {
+        return fastPath;
+    }
+
+    public CompilerOptions setFastPath(boolean fastPath) {
+        this.fastPath = fastPath;
+        return this;
+    }
+
+    /**
+     * Whether the lexer checks a pre-built delimiter index before scanning for the end of a
+     * YAML, math, code or LaTeX environment block, so unterminated openers cost O(log n) instead of O(n).
+     */
+    public boolean isLexerGuards() {
+        return lexerGuards;
+    }
+
+    public CompilerOptions setLexerGuards(boolean lexerGuards) {
+        this.lexerGuards = lexerGuards;
+        return this;
+    }
+
+    /**
+     * Whether undefined references and duplicate labels are reported as warnings.
+     * The label index itself is always built and returned with the result.
+     */
+    public boolean isReferenceCheck() {
+        return referenceCheck;
+    }
+
+    public CompilerOptions setReferenceCheck(boolean referenceCheck) {
+        this.referenceCheck = referenceCheck;
+        return this;
+    }
+
+    /**
+     * Whether a {@code SourceMap} with the offsets of every block and inline is built and returned
+     * with the result, together with the AST itself. Implies the ANTLR pipeline: the fast path is skipped.
+     */
+    public boolean isSourcePositions() {
+        return sourcePositions;
+    }
+
+    public CompilerOptions setSourcePositions(boolean sourcePositions) {
+        this.sourcePositions = sourcePositions;
+        return this;
+    }
+
+    /**
+     * Whether a {@code %mymd:<offset>} LaTeX comment is written before every top-level block of the
+     * Pandoc JSON, so the generated .tex file can be mapped back to the source (see {@code SyncMarkers}).
+     * Needs source positions, so it also skips the fast path.
+     */
+    public boolean isSyncMarkers() {
+        return syncMarkers;
+    }
+
+    public CompilerOptions setSyncMarkers(boolean syncMarkers) {
+        this.syncMarkers = syncMarkers;
+        return this;
+    }
+
+    /**
+     * The bibliography citation keys are checked against; unknown keys are reported as warnings.
+     * Null (the default) skips the check.
+     */
+    public BibDatabase getBibliography() {
+        return bibliography;
+    }
+
+    public CompilerOptions setBibliography(BibDatabase bibliography) {
+        this.bibliography = bibliography;
+        return this;
+    }
+
+    /**
+     * Filters run over the AST in order before it is serialized (see {@code FilterChain}).
+     * The label and citation indexes are built from the unfiltered document. Empty by default.
+     */
+    public List<PandocFilter> getFilters() {
+        return filters;
+    }
+
+    public CompilerOptions setFilters(List<PandocFilter> filters) {
+        this.filters = List.copyOf(filters);
+        return this;
+    }
+
+    /**
+     * Longest YAML, display math, code or LaTeX environment block in code points when lexer guards are on.
+     * A longer block is lexed as if it were unterminated.
+     */
+    public int getMaxBlockLength() {
+        return maxBlockLength;
+    }
+
+    public CompilerOptions setMaxBlockLength(int maxBlockLength) {
+        this.maxBlockLength = maxBlockLength;
+        return this;
+    }
+
+    /**
+     * Longest inline math span in code points when lexer guards are on.
+     */
+    public int getMaxInlineMathLength() {
+        return maxInlineMathLength;
+    }
+
+    public CompilerOptions setMaxInlineMathLength(int maxInlineMathLength) {
+        this.maxInlineMathLength = maxInlineMathLength;
+        return this;
+    }
+}
@@ -1,22 +1,41 @@
 package com.guaguaaaa.mymd.core.api;
 
 public class Diagnostic {
+
+    /**
+     * Errors stop compilation; warnings (e.g. an undefined reference) are reported alongside the output.
+     */
+    public enum Severity {
+        ERROR,
+        WARNING
+    }
+
     public final int line;
     public final int column;
     public final int startIndex;
     public final int endIndex;
     public final String message;
+    public final Severity severity;
 
     public Diagnostic(int line, int column, int startIndex, int endIndex, String message) {
+        this(line, column, startIndex, endIndex, message, Severity.ERROR);
+    }
+
+    public Diagnostic(int line, int column, int startIndex, int endIndex, String message, Severity severity) {
         this.line = line;
         this.column = column;
         this.startIndex = startIndex;
         this.endIndex = endIndex;
         this.message = message;
+        this.severity = severity;
+    }
+
+    public boolean isError() {
+        return severity == Severity.ERROR;
     }
 
     @Override
     public String toString() {
-        return "Line " + line + ":" + column + " " + message;
+        return "Line " + line + ":" + column + " " + (isError() ? "" : "warning: ") + message;
     }
-}
\ No newline at end of file
+}
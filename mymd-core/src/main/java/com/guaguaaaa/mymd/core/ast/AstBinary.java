@@ -0,0 +1,335 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import com.google.gson.JsonElement;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of AST values, the counterpart of {@link AstJson} for caches.
+ * <p>
+ * Every value starts with a one-byte tag. Integers are zigzag varints, and every string (node
+ * types, words, ids) is an index into a table shared by the whole buffer, so a repeated word
+ * costs one or two bytes. Nodes are stored as type and content and come back through
+ * {@link PandocNodes}, so a decoded node has the same class and JSON as the one encoded.
+ */
+public final class AstBinary {
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int FALSE = 5;
+    private static final int TRUE = 6;
+    private static final int LIST = 7;
+    private static final int MAP = 8;
+    private static final int BLOCK = 9;
+    private static final int INLINE = 10;
+
+    private AstBinary() {
+    }
+
+    /**
+     * Encodes into a growing byte array. The string table is appended by {@link #writeStrings()}.
+     */
+    public static final class Writer {
+        private byte[] bytes = new byte[4096];
+        private int size;
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        /** Current position, i.e. the number of bytes written. */
+        public int position() {
+            return size;
+        }
+
+        public void writeInt(int value) {
+            ensure(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        public void writeBytes(byte[] data) {
+            ensure(data.length);
+            System.arraycopy(data, 0, bytes, size, data.length);
+            size += data.length;
+        }
+
+        /** Overwrites four bytes already written, e.g. a header field. */
+        public void setInt(int position, int value) {
+            bytes[position] = (byte) (value >>> 24);
+            bytes[position + 1] = (byte) (value >>> 16);
+            bytes[position + 2] = (byte) (value >>> 8);
+            bytes[position + 3] = (byte) value;
+        }
+
+        /** An unsigned varint; {@code value} must not be negative. */
+        public void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        /** A string as its index in the string table; null is written as 0. */
+        public void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = strings.size();
+                strings.add(value);
+                stringIds.put(value, id);
+            }
+            writeVarInt(id + 1);
+        }
+
+        public void writeValue(Object value) {
+            ensure(1);
+            if (value == null) {
+                bytes[size++] = NULL;
+            } else if (value instanceof String) {
+                bytes[size++] = STRING;
+                writeString((String) value);
+            } else if (value instanceof Block block) {
+                bytes[size++] = BLOCK;
+                writeString(block.t);
+                writeValue(block.c);
+            } else if (value instanceof Inline inline) {
+                bytes[size++] = INLINE;
+                writeString(inline.t);
+                writeValue(inline.c);
+            } else if (value instanceof List<?> list) {
+                bytes[size++] = LIST;
+                writeVarInt(list.size());
+                for (Object element : list) writeValue(element);
+            } else if (value instanceof Map<?, ?> map) {
+                bytes[size++] = MAP;
+                writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeString(String.valueOf(entry.getKey()));
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof Integer i) {
+                bytes[size++] = INT;
+                writeVarInt((i << 1) ^ (i >> 31));
+            } else if (value instanceof Long l) {
+                bytes[size++] = LONG;
+                writeLong(l);
+            } else if (value instanceof Number n) {
+                bytes[size++] = DOUBLE;
+                writeLong(Double.doubleToRawLongBits(n.doubleValue()));
+            } else if (value instanceof Boolean b) {
+                bytes[size++] = (byte) (b ? TRUE : FALSE);
+            } else if (value instanceof Enum<?> e) {
+                bytes[size++] = STRING;
+                writeString(e.name());
+            } else {
+                // 与 AstJson 写出的结构相同，读回时是 Map
+                writeValue(toPlain(value));
+            }
+        }
+
+        /**
+         * Appends the string table and returns its position: the count, the UTF-8 strings, then
+         * one int offset per string so that a reader can decode any of them on its own.
+         */
+        public int writeStrings() {
+            int[] offsets = new int[strings.size()];
+            for (int i = 0; i < strings.size(); i++) {
+                offsets[i] = size;
+                byte[] utf8 = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                writeVarInt(utf8.length);
+                writeBytes(utf8);
+            }
+            int table = size;
+            writeInt(strings.size());
+            for (int offset : offsets) writeInt(offset);
+            return table;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Decodes values from a buffer written by {@link Writer}. Strings are decoded on first use.
+     * Not thread-safe; give each thread its own reader over the same buffer.
+     */
+    public static final class Reader {
+        private final ByteBuffer buffer;
+        private final int tableOffset;
+        private final String[] strings;
+
+        /**
+         * @param buffer      the encoded bytes; positions are absolute indexes into it
+         * @param tableOffset position returned by {@link Writer#writeStrings()}
+         */
+        public Reader(ByteBuffer buffer, int tableOffset) {
+            this.buffer = buffer.duplicate();
+            this.tableOffset = tableOffset;
+            this.strings = new String[buffer.getInt(tableOffset)];
+        }
+
+        /** A reader over the same buffer that shares the strings decoded so far. */
+        private Reader(Reader other) {
+            this.buffer = other.buffer.duplicate();
+            this.tableOffset = other.tableOffset;
+            this.strings = other.strings;
+        }
+
+        public Reader copy() {
+            return new Reader(this);
+        }
+
+        public Reader position(int position) {
+            buffer.position(position);
+            return this;
+        }
+
+        public int readInt() {
+            return buffer.getInt();
+        }
+
+        public int readVarInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        public String readString() {
+            int id = readVarInt();
+            if (id == 0) return null;
+            String value = strings[id - 1];
+            if (value == null) {
+                int at = buffer.getInt(tableOffset + 4 * id);
+                ByteBuffer data = buffer.duplicate().position(at);
+                int length = readVarInt(data);
+                byte[] utf8 = new byte[length];
+                data.get(utf8);
+                value = new String(utf8, StandardCharsets.UTF_8);
+                strings[id - 1] = value;
+            }
+            return value;
+        }
+
+        public Object readValue() {
+            int tag = buffer.get();
+            switch (tag) {
+                case NULL -> {
+                    return null;
+                }
+                case STRING -> {
+                    return readString();
+                }
+                case INT -> {
+                    int zigzag = readVarInt();
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+                case LONG -> {
+                    return buffer.getLong();
+                }
+                case DOUBLE -> {
+                    return Double.longBitsToDouble(buffer.getLong());
+                }
+                case FALSE -> {
+                    return false;
+                }
+                case TRUE -> {
+                    return true;
+                }
+                case LIST -> {
+                    int n = readVarInt();
+                    List<Object> list = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) list.add(readValue());
+                    return list;
+                }
+                case MAP -> {
+                    int n = readVarInt();
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (int i = 0; i < n; i++) {
+                        String key = readString();
+                        map.put(key, readValue());
+                    }
+                    return map;
+                }
+                case BLOCK -> {
+                    String t = readString();
+                    return PandocNodes.block(t, readValue());
+                }
+                case INLINE -> {
+                    String t = readString();
+                    return PandocNodes.inline(t, readValue());
+                }
+                default -> throw new IllegalStateException("Bad value tag " + tag + " at " + (buffer.position() - 1));
+            }
+        }
+
+        private static int readVarInt(ByteBuffer data) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+    }
+
+    /**
+     * The plain form of a value {@link AstJson} writes as an object.
+     */
+    private static Object toPlain(Object value) {
+        if (value instanceof Citation citation) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("citationId", citation.citationId);
+            map.put("citationPrefix", citation.citationPrefix);
+            map.put("citationSuffix", citation.citationSuffix);
+            map.put("citationMode", citation.citationMode);
+            map.put("citationNoteNum", citation.citationNoteNum);
+            map.put("citationHash", citation.citationHash);
+            return map;
+        }
+        if (value instanceof MathNode.MathTypeObject type) {
+            return Map.of("t", type.t);
+        }
+        if (value instanceof ListAttributes attrs) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("startNumber", attrs.startNumber);
+            map.put("style", attrs.style.name());
+            map.put("delim", attrs.delim.name());
+            return map;
+        }
+        if (value instanceof JsonElement element) {
+            return AstJson.GSON.fromJson(element, Object.class);
+        }
+        throw new IllegalArgumentException("Cannot encode " + value.getClass().getName());
+    }
+}
@@ -0,0 +1,254 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written Gson adapters for the AST classes, and the shared {@link Gson} they are registered on.
+ * <p>
+ * Gson's reflective adapter looks up the runtime type of every {@code c} value and walks the
+ * fields of each node by reflection. The adapters here write the same JSON directly: a node's
+ * content only ever holds strings, numbers, lists, maps, other nodes, {@link Citation}s and the
+ * math type tag, and {@link #writeValue} switches over exactly those. Anything else (e.g. a
+ * {@link com.google.gson.JsonElement} in the metadata) still goes through {@link #GSON}.
+ * <p>
+ * Everything is read back with {@link PandocJsonReader}; a {@link Citation} or
+ * {@link ListAttributes} is built from the map it reads.
+ */
+public final class AstJson {
+
+    private static final TypeAdapter<Block> BLOCK = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Block block) throws IOException {
+            if (block == null) {
+                out.nullValue();
+                return;
+            }
+            writeNode(out, block.t, block.c);
+        }
+
+        @Override
+        public Block read(JsonReader in) throws IOException {
+            return readNode(in, Block.class);
+        }
+    };
+
+    private static final TypeAdapter<Inline> INLINE = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Inline inline) throws IOException {
+            if (inline == null) {
+                out.nullValue();
+                return;
+            }
+            writeNode(out, inline.t, inline.c);
+        }
+
+        @Override
+        public Inline read(JsonReader in) throws IOException {
+            return readNode(in, Inline.class);
+        }
+    };
+
+    private static final TypeAdapter<Citation> CITATION = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, Citation citation) throws IOException {
+            if (citation == null) {
+                out.nullValue();
+                return;
+            }
+            // 字段顺序与反射序列化（声明顺序）一致
+            out.beginObject();
+            out.name("citationId").value(citation.citationId);
+            out.name("citationPrefix");
+            writeValue(out, citation.citationPrefix);
+            out.name("citationSuffix");
+            writeValue(out, citation.citationSuffix);
+            out.name("citationMode");
+            writeValue(out, citation.citationMode);
+            out.name("citationNoteNum").value(citation.citationNoteNum);
+            out.name("citationHash").value(citation.citationHash);
+            out.endObject();
+        }
+
+        @Override
+        public Citation read(JsonReader in) throws IOException {
+            String path = in.getPath();
+            Object value = new PandocJsonReader(in).readValue();
+            if (value == null) return null;
+            if (!(value instanceof Map<?, ?> map) || !(map.get("citationId") instanceof String id)) {
+                throw new JsonParseException("Expected Citation at " + path);
+            }
+            // Citation 只能保存键，其余字段必须是默认值
+            Citation citation = new Citation(id);
+            Object defaults = new PandocJsonReader(new StringReader(GSON.toJson(citation))).readValue();
+            if (!defaults.equals(value)) {
+                throw new JsonParseException("Citation with non-default fields at " + path);
+            }
+            return citation;
+        }
+    };
+
+    private static final TypeAdapter<ListAttributes> LIST_ATTRIBUTES = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, ListAttributes attrs) throws IOException {
+            if (attrs == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("startNumber").value(attrs.startNumber);
+            out.name("style");
+            writeValue(out, attrs.style);
+            out.name("delim");
+            writeValue(out, attrs.delim);
+            out.endObject();
+        }
+
+        @Override
+        public ListAttributes read(JsonReader in) throws IOException {
+            String path = in.getPath();
+            Object value = new PandocJsonReader(in).readValue();
+            if (value == null) return null;
+            if (value instanceof Map<?, ?> map && map.size() == 3
+                    && map.get("startNumber") instanceof Integer start
+                    && map.get("style") instanceof String style
+                    && map.get("delim") instanceof String delim) {
+                try {
+                    return new ListAttributes(start, ListAttributes.Style.valueOf(style), ListAttributes.Delim.valueOf(delim));
+                } catch (IllegalArgumentException e) {
+                    throw new JsonParseException("Unknown list style or delimiter at " + path, e);
+                }
+            }
+            throw new JsonParseException("Expected ListAttributes at " + path);
+        }
+    };
+
+    private static final TypeAdapter<PandocAst> DOCUMENT = new TypeAdapter<>() {
+        @Override
+        public void write(JsonWriter out, PandocAst ast) throws IOException {
+            if (ast == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("pandoc-api-version");
+            writeValue(out, ast.getPandocApiVersion());
+            out.name("meta");
+            writeValue(out, ast.getMeta());
+            out.name("blocks");
+            writeValue(out, ast.getBlocks());
+            out.endObject();
+        }
+
+        @Override
+        public PandocAst read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return new PandocJsonReader(in).readDocument();
+        }
+    };
+
+    private static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> raw = type.getRawType();
+            if (Block.class.isAssignableFrom(raw)) return (TypeAdapter<T>) BLOCK;
+            if (Inline.class.isAssignableFrom(raw)) return (TypeAdapter<T>) INLINE;
+            if (raw == Citation.class) return (TypeAdapter<T>) CITATION;
+            if (raw == ListAttributes.class) return (TypeAdapter<T>) LIST_ATTRIBUTES;
+            if (raw == PandocAst.class) return (TypeAdapter<T>) DOCUMENT;
+            return null;
+        }
+    };
+
+    /**
+     * Shared instance with the AST adapters registered. Otherwise configured like
+     * {@code new GsonBuilder().create()}, so the output is unchanged.
+     */
+    public static final Gson GSON = new GsonBuilder().registerTypeAdapterFactory(FACTORY).create();
+
+    private AstJson() {
+    }
+
+    /**
+     * Writes an AST value: a node, a node's content or anything nested in it.
+     * Use a writer from {@link Gson#newJsonWriter} of {@link #GSON} to get its escaping and null handling.
+     */
+    public static void writeValue(JsonWriter out, Object value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else if (value instanceof String) {
+            out.value((String) value);
+        } else if (value instanceof Block) {
+            BLOCK.write(out, (Block) value);
+        } else if (value instanceof Inline) {
+            INLINE.write(out, (Inline) value);
+        } else if (value instanceof List || value instanceof Collection) {
+            out.beginArray();
+            for (Object element : (Collection<?>) value) writeValue(out, element);
+            out.endArray();
+        } else if (value instanceof Map) {
+            out.beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                out.name(String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+            out.endObject();
+        } else if (value instanceof Integer || value instanceof Long) {
+            out.value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            out.value((Number) value);
+        } else if (value instanceof Boolean) {
+            out.value((Boolean) value);
+        } else if (value instanceof MathNode.MathTypeObject) {
+            out.beginObject();
+            out.name("t").value(((MathNode.MathTypeObject) value).t);
+            out.endObject();
+        } else if (value instanceof Citation) {
+            CITATION.write(out, (Citation) value);
+        } else if (value instanceof Enum) {
+            out.value(((Enum<?>) value).name());
+        } else {
+            writeOther(out, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void writeOther(JsonWriter out, T value) throws IOException {
+        GSON.getAdapter((Class<T>) value.getClass()).write(out, value);
+    }
+
+    private static void writeNode(JsonWriter out, String t, Object c) throws IOException {
+        out.beginObject();
+        out.name("t").value(t);
+        // c 为 null 时由 JsonWriter 按 serializeNulls 省略，与反射序列化相同
+        out.name("c");
+        writeValue(out, c);
+        out.endObject();
+    }
+
+    private static <T> T readNode(JsonReader in, Class<T> type) throws IOException {
+        String path = in.getPath();
+        Object value = new PandocJsonReader(in).readValue();
+        if (value != null && !type.isInstance(value)) {
+            throw new JsonParseException("Expected " + type.getSimpleName() + " at " + path);
+        }
+        return type.cast(value);
+    }
+}
@@ -0,0 +1,13 @@
+package com.guaguaaaa.mymd.core.ast;
+
+/**
+ * A block read from Pandoc JSON that has no class of its own here (e.g. {@code Div}, {@code Table}),
+ * or whose content our class cannot represent (e.g. a {@code Header} with an identifier).
+ * The content is kept as read, so it is written back unchanged.
+ */
+public class GenericBlock extends Block {
+
+    public GenericBlock(String t, Object c) {
+        super(t, c);
+    }
+}
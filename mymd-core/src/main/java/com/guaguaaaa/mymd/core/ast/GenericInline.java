@@ -0,0 +1,13 @@
+package com.guaguaaaa.mymd.core.ast;
+
+/**
+ * An inline read from Pandoc JSON that has no class of its own here (e.g. {@code Span}, {@code SoftBreak}),
+ * or whose content our class cannot represent (e.g. a {@code Link} with a title).
+ * The content is kept as read, so it is written back unchanged.
+ */
+public class GenericInline extends Inline {
+
+    public GenericInline(String t, Object c) {
+        super(t, c);
+    }
+}
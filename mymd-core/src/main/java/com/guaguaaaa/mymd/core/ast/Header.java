@@ -25,4 +25,13 @@ public class Header extends Block {
                 content
         ));
     }
-}
\ No newline at end of file
+
+    public int getLevel() {
+        return (Integer) ((List<?>) c).get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Inline> getContent() {
+        return (List<Inline>) ((List<?>) c).get(2);
+    }
+}
@@ -9,6 +9,8 @@ public abstract class Inline implements PandocNode {
     public final String t;
     /** The content of the inline element. The type of this object depends on 't'. */
     public final Object c;
+    /** Index into a {@link SourceMap}; transient so it never reaches the Pandoc JSON. */
+    transient int sourceId = -1;
 
     /**
      * Constructs a new Inline node.
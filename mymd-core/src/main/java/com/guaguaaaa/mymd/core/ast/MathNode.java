@@ -6,8 +6,8 @@ import java.util.Arrays;
 public class MathNode extends Inline {
 
     // Helper inner class for generating the `{"t": "TypeName"}` JSON object format.
-    private static class MathTypeObject {
-        private final String t;
+    static class MathTypeObject {
+        final String t;
 
         public MathTypeObject(String t) {
             this.t = t;
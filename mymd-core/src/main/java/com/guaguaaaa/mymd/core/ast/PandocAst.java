@@ -6,16 +6,32 @@ import java.util.Map;
 
 public class PandocAst implements PandocNode {
     @SerializedName("pandoc-api-version")
-    private final List<Integer> pandocApiVersion = List.of(1, 23, 1);
+    private final List<Integer> pandocApiVersion;
 
     private final Map<String, Object> meta;
     private final List<Block> blocks;
 
     public PandocAst(Map<String, Object> meta, List<Block> blocks) {
+        this(List.of(1, 23, 1), meta, blocks);
+    }
+
+    /**
+     * @param pandocApiVersion version of the Pandoc JSON the document was read from
+     */
+    public PandocAst(List<Integer> pandocApiVersion, Map<String, Object> meta, List<Block> blocks) {
+        this.pandocApiVersion = pandocApiVersion;
         this.meta = meta;
         this.blocks = blocks;
     }
 
+    public List<Integer> getPandocApiVersion() {
+        return pandocApiVersion;
+    }
+
+    public Map<String, Object> getMeta() {
+        return meta;
+    }
+
     public List<Block> getBlocks() {
         return blocks;
     }
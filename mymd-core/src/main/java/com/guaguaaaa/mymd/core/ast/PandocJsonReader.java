@@ -0,0 +1,238 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads Pandoc JSON back into AST nodes, streaming from a {@link JsonReader} without building a
+ * {@link com.google.gson.JsonElement} tree.
+ * <p>
+ * A node becomes an instance of its class (e.g. {@link Para}) when that class would write the same
+ * JSON back; otherwise, and for node types MyMD never produces, it becomes a {@link GenericBlock}
+ * or {@link GenericInline} holding the content as read. Values that are not nodes become plain
+ * Java values: {@code String}, {@code Integer}/{@code Long}/{@code Double}, {@code Boolean},
+ * {@code List} and {@code LinkedHashMap}. Written with {@link AstJson}, a document read here comes
+ * out as the same JSON.
+ * <p>
+ * Large inputs can be read one top-level block at a time with {@link #hasNextBlock()} and
+ * {@link #nextBlock()}, so that only the current block is held in memory:
+ * <pre>{@code
+ * try (PandocJsonReader reader = new PandocJsonReader(Files.newBufferedReader(path))) {
+ *     while (reader.hasNextBlock()) process(reader.nextBlock());
+ * }
+ * }</pre>
+ * {@link #getMeta()} is available as soon as the first block is, because Pandoc writes
+ * {@code meta} before {@code blocks}.
+ */
+public class PandocJsonReader implements Closeable {
+
+    private static final int BEFORE = 0;
+    private static final int IN_BLOCKS = 1;
+    private static final int DONE = 2;
+
+    private final JsonReader in;
+    private int state = BEFORE;
+    private boolean sawBlocks;
+    private List<Integer> apiVersion = List.of();
+    private Map<String, Object> meta = new LinkedHashMap<>();
+
+    public PandocJsonReader(Reader reader) {
+        this(new JsonReader(reader));
+    }
+
+    public PandocJsonReader(JsonReader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the whole document. Holds every block in memory; see {@link #nextBlock()} for large inputs.
+     */
+    public PandocAst readDocument() throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        while (hasNextBlock()) blocks.add(nextBlock());
+        return apiVersion.isEmpty() ? new PandocAst(meta, blocks) : new PandocAst(apiVersion, meta, blocks);
+    }
+
+    /**
+     * Whether another top-level block follows. Reads the document header on the first call and the
+     * rest of the document after the last block.
+     */
+    public boolean hasNextBlock() throws IOException {
+        if (state == BEFORE) {
+            in.beginObject();
+            readFields();
+        }
+        if (state == IN_BLOCKS) {
+            if (in.hasNext()) return true;
+            in.endArray();
+            readFields();
+        }
+        return false;
+    }
+
+    public Block nextBlock() throws IOException {
+        if (!hasNextBlock()) throw new NoSuchElementException();
+        String path = in.getPath();
+        Object value = readValue();
+        if (!(value instanceof Block)) {
+            throw new JsonParseException("Expected a block at " + path);
+        }
+        return (Block) value;
+    }
+
+    /** The document's metadata; complete once a block has been read or the document has ended. */
+    public Map<String, Object> getMeta() {
+        return meta;
+    }
+
+    /** The {@code pandoc-api-version} of the document, or an empty list if not read yet. */
+    public List<Integer> getApiVersion() {
+        return apiVersion;
+    }
+
+    /**
+     * Reads the next value: a node, or the plain Java value of anything else.
+     */
+    public Object readValue() throws IOException {
+        switch (in.peek()) {
+            case BEGIN_ARRAY -> {
+                in.beginArray();
+                List<Object> list = new ArrayList<>();
+                while (in.hasNext()) list.add(readValue());
+                in.endArray();
+                return list;
+            }
+            case BEGIN_OBJECT -> {
+                return readObject();
+            }
+            case STRING -> {
+                return in.nextString();
+            }
+            case NUMBER -> {
+                return readNumber(in.nextString());
+            }
+            case BOOLEAN -> {
+                return in.nextBoolean();
+            }
+            case NULL -> {
+                in.nextNull();
+                return null;
+            }
+            default -> throw new JsonParseException("Unexpected " + in.peek() + " at " + in.getPath());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // ======================= Document =======================
+
+    /**
+     * 读顶层对象的字段，直到 blocks 数组开始（进入 IN_BLOCKS）或对象结束（DONE）
+     */
+    private void readFields() throws IOException {
+        while (in.hasNext()) {
+            String name = in.nextName();
+            switch (name) {
+                case "pandoc-api-version" -> apiVersion = readApiVersion();
+                case "meta" -> {
+                    String path = in.getPath();
+                    if (!(readValue() instanceof Map<?, ?> map)) {
+                        throw new JsonParseException("Expected an object at " + path);
+                    }
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> read = (Map<String, Object>) map;
+                    meta = read;
+                }
+                case "blocks" -> {
+                    if (sawBlocks) throw new JsonParseException("Duplicate blocks at " + in.getPath());
+                    sawBlocks = true;
+                    in.beginArray();
+                    state = IN_BLOCKS;
+                    return;
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        state = DONE;
+    }
+
+    private List<Integer> readApiVersion() throws IOException {
+        List<Integer> version = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) version.add(in.nextInt());
+        in.endArray();
+        return version;
+    }
+
+    // ======================= Values =======================
+
+    private static Object readNumber(String literal) {
+        try {
+            long value = Long.parseLong(literal);
+            return value == (int) value ? (Object) (int) value : (Object) value;
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(literal);
+        }
+    }
+
+    /**
+     * 只有 t、c 两个字段且 t 是节点类型名的对象才是节点，其余为 Map。
+     * 内容先于节点本身读完，所以字段顺序不影响结果
+     */
+    private Object readObject() throws IOException {
+        in.beginObject();
+        Object t = null;
+        Object c = null;
+        boolean hasT = false;
+        boolean hasC = false;
+        boolean cFirst = false;
+        Map<String, Object> map = null;
+        while (in.hasNext()) {
+            String name = in.nextName();
+            Object value = readValue();
+            if (map == null) {
+                if (name.equals("t") && !hasT) {
+                    t = value;
+                    hasT = true;
+                    continue;
+                }
+                if (name.equals("c") && !hasC) {
+                    c = value;
+                    hasC = true;
+                    cFirst = !hasT;
+                    continue;
+                }
+                map = startMap(t, hasT, c, hasC, cFirst);
+            }
+            map.put(name, value);
+        }
+        in.endObject();
+        if (map != null) return map;
+        if (t instanceof String type) {
+            if (PandocNodes.isBlockType(type)) return PandocNodes.block(type, c);
+            if (PandocNodes.isInlineType(type)) return PandocNodes.inline(type, c);
+        }
+        return startMap(t, hasT, c, hasC, cFirst);
+    }
+
+    private static Map<String, Object> startMap(Object t, boolean hasT, Object c, boolean hasC, boolean cFirst) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        if (hasC && cFirst) map.put("c", c);
+        if (hasT) map.put("t", t);
+        if (hasC && !cFirst) map.put("c", c);
+        return map;
+    }
+}
@@ -0,0 +1,247 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns a node type and its content, as read back from Pandoc JSON or a cache, into a node.
+ * <p>
+ * The result is an instance of the node's class (e.g. {@link Para}) when that class would write
+ * the same content; otherwise it is a {@link GenericBlock} or {@link GenericInline} holding the
+ * content unchanged. Content is made of plain values: strings, numbers, booleans, lists, maps
+ * and nodes.
+ */
+public final class PandocNodes {
+
+    private static final Set<String> BLOCK_TYPES = Set.of(
+            "Plain", "Para", "LineBlock", "CodeBlock", "RawBlock", "BlockQuote", "OrderedList",
+            "BulletList", "DefinitionList", "Header", "HorizontalRule", "Table", "Figure", "Div", "Null");
+
+    private static final Set<String> INLINE_TYPES = Set.of(
+            "Str", "Emph", "Underline", "Strong", "Strikeout", "Superscript", "Subscript", "SmallCaps",
+            "Quoted", "Cite", "Code", "Space", "SoftBreak", "LineBreak", "Math", "RawInline", "Link",
+            "Image", "Note", "Span");
+
+    private PandocNodes() {
+    }
+
+    /** Whether {@code t} is the name of a Pandoc block type. */
+    public static boolean isBlockType(String t) {
+        return BLOCK_TYPES.contains(t);
+    }
+
+    /** Whether {@code t} is the name of a Pandoc inline type. */
+    public static boolean isInlineType(String t) {
+        return INLINE_TYPES.contains(t);
+    }
+
+    public static Block block(String t, Object c) {
+        Block block = typedBlock(t, c);
+        return block != null ? block : new GenericBlock(t, c);
+    }
+
+    public static Inline inline(String t, Object c) {
+        Inline inline = typedInline(t, c);
+        return inline != null ? inline : new GenericInline(t, c);
+    }
+
+    /**
+     * 内容与构造函数生成的结构完全一致时才返回具体类型，否则返回 null
+     */
+    private static Block typedBlock(String t, Object c) {
+        switch (t) {
+            case "Para" -> {
+                List<Inline> content = inlines(c);
+                return content != null ? new Para(content) : null;
+            }
+            case "Header" -> {
+                List<?> parts = parts(c, 3);
+                if (parts == null || !(parts.get(0) instanceof Integer level) || !isEmptyAttr(parts.get(1))) return null;
+                List<Inline> content = inlines(parts.get(2));
+                return content != null ? new Header(level, content) : null;
+            }
+            case "CodeBlock" -> {
+                List<?> parts = parts(c, 2);
+                if (parts == null || !(parts.get(1) instanceof String text)) return null;
+                List<?> attr = parts(parts.get(0), 3);
+                if (attr == null || !"".equals(attr.get(0)) || !isEmptyList(attr.get(2))
+                        || !(attr.get(1) instanceof List<?> classes)) {
+                    return null;
+                }
+                if (classes.isEmpty()) return new CodeBlock(text, null);
+                if (classes.size() == 1 && classes.get(0) instanceof String language && !language.isBlank()) {
+                    return new CodeBlock(text, language);
+                }
+                return null;
+            }
+            case "RawBlock" -> {
+                List<?> parts = parts(c, 2);
+                if (parts == null || !(parts.get(0) instanceof String format) || !(parts.get(1) instanceof String text)) {
+                    return null;
+                }
+                return new RawBlock(format, text);
+            }
+            case "BlockQuote" -> {
+                List<Block> content = blocks(c);
+                return content != null ? new BlockQuote(content) : null;
+            }
+            case "BulletList" -> {
+                List<List<Block>> items = items(c);
+                return items != null ? new BulletList(items) : null;
+            }
+            case "OrderedList" -> {
+                List<?> parts = parts(c, 2);
+                if (parts == null) return null;
+                ListAttributes attrs = listAttributes(parts.get(0));
+                List<List<Block>> items = items(parts.get(1));
+                return attrs != null && items != null ? new OrderedList(attrs, items) : null;
+            }
+            case "HorizontalRule" -> {
+                return isEmptyList(c) ? new HorizontalRule() : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static Inline typedInline(String t, Object c) {
+        switch (t) {
+            case "Str" -> {
+                return c instanceof String text ? new Str(text) : null;
+            }
+            case "Space" -> {
+                return c == null ? new Space() : null;
+            }
+            case "LineBreak" -> {
+                return c == null ? new LineBreak() : null;
+            }
+            case "Emph" -> {
+                List<Inline> content = inlines(c);
+                return content != null ? new Emph(content) : null;
+            }
+            case "Strong" -> {
+                List<Inline> content = inlines(c);
+                return content != null ? new Strong(content) : null;
+            }
+            case "Code" -> {
+                List<?> parts = parts(c, 2);
+                if (parts == null || !isEmptyAttr(parts.get(0)) || !(parts.get(1) instanceof String text)) return null;
+                return new Code(text);
+            }
+            case "Math" -> {
+                List<?> parts = parts(c, 2);
+                if (parts == null || !(parts.get(1) instanceof String text)) return null;
+                String kind = tag(parts.get(0));
+                if (MathNode.MathType.INLINE_MATH.getPandocName().equals(kind)) {
+                    return new MathNode(MathNode.MathType.INLINE_MATH, text);
+                }
+                if (MathNode.MathType.DISPLAY_MATH.getPandocName().equals(kind)) {
+                    return new MathNode(MathNode.MathType.DISPLAY_MATH, text);
+                }
+                return null;
+            }
+            case "RawInline" -> {
+                List<?> parts = parts(c, 2);
+                if (parts == null || !(parts.get(0) instanceof String format) || !(parts.get(1) instanceof String text)) {
+                    return null;
+                }
+                return new RawInline(format, text);
+            }
+            case "Link", "Image" -> {
+                List<?> parts = parts(c, 3);
+                if (parts == null || !isEmptyAttr(parts.get(0))) return null;
+                List<Inline> content = inlines(parts.get(1));
+                List<?> target = parts(parts.get(2), 2);
+                if (content == null || target == null || !(target.get(0) instanceof String url)) return null;
+                if (t.equals("Link")) return "".equals(target.get(1)) ? new Link(content, url) : null;
+                return "fig:".equals(target.get(1)) ? new Image(content, url) : null;
+            }
+            case "Cite" -> {
+                return cite(c);
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 只识别 {@link Cite} 构造函数生成的形式：一个默认 Citation 加上 "[@key]" 的回退文本
+     */
+    private static Cite cite(Object c) {
+        List<?> parts = parts(c, 2);
+        if (parts == null) return null;
+        List<?> citations = parts(parts.get(0), 1);
+        List<?> fallback = parts(parts.get(1), 1);
+        if (citations == null || fallback == null || !(citations.get(0) instanceof Map<?, ?> citation)) return null;
+        if (citation.size() != 6 || !(citation.get("citationId") instanceof String id)) return null;
+        boolean defaults = isEmptyList(citation.get("citationPrefix"))
+                && isEmptyList(citation.get("citationSuffix"))
+                && "NormalCitation".equals(tag(citation.get("citationMode")))
+                && Integer.valueOf(1).equals(citation.get("citationNoteNum"))
+                && Integer.valueOf(0).equals(citation.get("citationHash"));
+        if (!defaults || !(fallback.get(0) instanceof Str str) || !("[@" + id + "]").equals(str.c)) return null;
+        return new Cite(id);
+    }
+
+    private static ListAttributes listAttributes(Object value) {
+        List<?> parts = parts(value, 3);
+        if (parts == null || !(parts.get(0) instanceof Integer start)) return null;
+        String style = tag(parts.get(1));
+        String delim = tag(parts.get(2));
+        if (style == null || delim == null) return null;
+        try {
+            return new ListAttributes(start, ListAttributes.Style.valueOf(style), ListAttributes.Delim.valueOf(delim));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** The name of a {@code {"t": name}} object, or null. */
+    private static String tag(Object value) {
+        if (value instanceof Map<?, ?> map && map.size() == 1 && map.get("t") instanceof String name) return name;
+        return null;
+    }
+
+    private static List<?> parts(Object value, int size) {
+        return value instanceof List<?> list && list.size() == size ? list : null;
+    }
+
+    private static boolean isEmptyList(Object value) {
+        return value instanceof List<?> list && list.isEmpty();
+    }
+
+    private static boolean isEmptyAttr(Object value) {
+        List<?> attr = parts(value, 3);
+        return attr != null && "".equals(attr.get(0)) && isEmptyList(attr.get(1)) && isEmptyList(attr.get(2));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Inline> inlines(Object value) {
+        if (!(value instanceof List<?> list)) return null;
+        for (Object element : list) {
+            if (!(element instanceof Inline)) return null;
+        }
+        return (List<Inline>) list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Block> blocks(Object value) {
+        if (!(value instanceof List<?> list)) return null;
+        for (Object element : list) {
+            if (!(element instanceof Block)) return null;
+        }
+        return (List<Block>) list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<Block>> items(Object value) {
+        if (!(value instanceof List<?> list)) return null;
+        for (Object element : list) {
+            if (blocks(element) == null) return null;
+        }
+        return (List<List<Block>>) list;
+    }
+}
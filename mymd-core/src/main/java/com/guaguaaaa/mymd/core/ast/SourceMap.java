@@ -0,0 +1,99 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Source offsets of {@link Block} and {@link Inline} nodes, kept beside the tree instead of in it.
+ * <p>
+ * Recording a node gives it an id in this map, and its start and end offsets are stored at
+ * {@code 2 * id} and {@code 2 * id + 1} of one int array: 8 bytes per node, plus the id, which
+ * fits into the padding of the node objects. Nodes built without a map keep id -1.
+ * <p>
+ * Offsets are those of the token stream the tree was built from (code point indices for
+ * {@code MyMDCompiler}); {@code end} is exclusive. An id is only meaningful for the map that assigned it.
+ */
+public class SourceMap {
+
+    private int[] offsets = new int[512];
+    private int size;
+
+    /**
+     * Records {@code node} if it is a block or inline that has no position yet.
+     * @return The node's id, or -1 if it cannot be recorded.
+     */
+    public int record(PandocNode node, int start, int end) {
+        if (idOf(node) >= 0) return idOf(node);
+        int id;
+        if (node instanceof Block block) {
+            id = block.sourceId = size++;
+        } else if (node instanceof Inline inline) {
+            id = inline.sourceId = size++;
+        } else {
+            return -1;
+        }
+        if (2 * id + 1 >= offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[2 * id] = start;
+        offsets[2 * id + 1] = end;
+        return id;
+    }
+
+    /**
+     * Records {@code node} as spanning from the first to the last recorded node of {@code children},
+     * e.g. a paragraph that was created around already positioned inlines.
+     */
+    public int recordSpan(PandocNode node, List<? extends PandocNode> children) {
+        int start = -1;
+        int end = -1;
+        for (PandocNode child : children) {
+            int id = idOf(child);
+            if (id < 0 || id >= size) continue;
+            if (start < 0) start = offsets[2 * id];
+            end = offsets[2 * id + 1];
+        }
+        return start >= 0 ? record(node, start, end) : -1;
+    }
+
+    /**
+     * Gives {@code node} the position of {@code original}, e.g. when a node is rewritten after it was built.
+     */
+    public int recordLike(PandocNode node, PandocNode original) {
+        int id = idOf(original);
+        return id >= 0 && id < size ? record(node, offsets[2 * id], offsets[2 * id + 1]) : -1;
+    }
+
+    /** The id {@code node} was recorded with, or -1. */
+    public static int idOf(PandocNode node) {
+        if (node instanceof Block block) return block.sourceId;
+        if (node instanceof Inline inline) return inline.sourceId;
+        return -1;
+    }
+
+    public boolean contains(PandocNode node) {
+        int id = idOf(node);
+        return id >= 0 && id < size;
+    }
+
+    /** Start offset of {@code node}, or -1 if it has no position. */
+    public int getStart(PandocNode node) {
+        return contains(node) ? offsets[2 * idOf(node)] : -1;
+    }
+
+    /** End offset (exclusive) of {@code node}, or -1 if it has no position. */
+    public int getEnd(PandocNode node) {
+        return contains(node) ? offsets[2 * idOf(node) + 1] : -1;
+    }
+
+    public int getStart(int id) {
+        return offsets[2 * id];
+    }
+
+    public int getEnd(int id) {
+        return offsets[2 * id + 1];
+    }
+
+    /** Number of recorded nodes; ids are {@code 0 .. size() - 1}. */
+    public int size() {
+        return size;
+    }
+}
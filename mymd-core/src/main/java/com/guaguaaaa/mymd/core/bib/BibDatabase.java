@@ -0,0 +1,410 @@
+package com.guaguaaaa.mymd.core.bib;
+
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * A BibTeX / BibLaTeX file indexed by citation key.
+ * <p>
+ * The file is memory-mapped and scanned once for entry boundaries; field values are not parsed.
+ * Keys map to byte ranges of the file, so checking a citation is a hash lookup and a pruned
+ * bibliography is written by copying the cited entries verbatim. The mapping is only used while
+ * loading: entry text is read back through the file channel, after checking that the file still
+ * has the size and modification time it was loaded with, so a file truncated or rewritten in place
+ * later gives an {@link IOException} instead of a fault in the mapping.
+ * <p>
+ * {@link #load(Path)} caches the last {@value #CACHE_CAPACITY} databases by path, size and
+ * modification time; loading a file that changed drops its stale entries. A file that was
+ * rewritten with the same content (same CRC32C) keeps its index. {@link #invalidate(Path)} drops a
+ * file's entries right away, e.g. when a file watcher reports a change.
+ */
+public class BibDatabase {
+
+    static final int CACHE_CAPACITY = 8;
+
+    private record CacheKey(Path path, long size, long modified) {
+    }
+
+    // 由自身保护；按访问顺序淘汰
+    private static final Map<CacheKey, BibDatabase> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, BibDatabase> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+
+    // crossref / xdata / xref 指向的父条目也必须写进裁剪后的文献库
+    private static final Pattern PARENT_FIELD = Pattern.compile(
+            "(?i)[,\\s](crossref|xdata|xref)\\s*=\\s*[{\"]?\\s*([^,{}\"\\s]+)");
+
+    private final Path path;
+    private final long size;
+    private final long hash;
+    private volatile long modified;
+
+    private final Map<String, Integer> keys;
+    private final int[] entryStart;
+    private final int[] entryEnd;
+    // @string 和 @preamble：条目可能用到其中的宏，裁剪时总是保留
+    private final int[] sharedStart;
+    private final int[] sharedEnd;
+
+    private BibDatabase(Path path, long modified, long size, long hash, ByteBuffer data) {
+        this.path = path;
+        this.modified = modified;
+        this.size = size;
+        this.hash = hash;
+
+        Scanner scanner = new Scanner(data);
+        scanner.scan();
+        this.keys = scanner.keys;
+        this.entryStart = Arrays.copyOf(scanner.entryStart, scanner.entries);
+        this.entryEnd = Arrays.copyOf(scanner.entryEnd, scanner.entries);
+        this.sharedStart = Arrays.copyOf(scanner.sharedStart, scanner.shared);
+        this.sharedEnd = Arrays.copyOf(scanner.sharedEnd, scanner.shared);
+    }
+
+    /**
+     * Returns the database for {@code file}, re-reading it only if it changed since the last call.
+     * @throws IOException if the file cannot be read or is larger than 2 GB.
+     */
+    public static BibDatabase load(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        long size = Files.size(path);
+        CacheKey key = new CacheKey(path, size, modified);
+        BibDatabase stale = null;
+        synchronized (cache) {
+            BibDatabase cached = cache.get(key);
+            if (cached != null) return cached;
+            // 同一文件的旧条目都已过期；同样大小的留着比较内容
+            for (Iterator<Map.Entry<CacheKey, BibDatabase>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<CacheKey, BibDatabase> entry = it.next();
+                if (!entry.getKey().path().equals(path)) continue;
+                if (entry.getValue().size == size) stale = entry.getValue();
+                it.remove();
+            }
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Bibliography too large: " + path);
+        }
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        long hash = crc.getValue();
+
+        BibDatabase database;
+        if (stale != null && stale.hash == hash) {
+            // 只是时间戳变了（例如保存了未修改的文件）：沿用已有索引
+            stale.modified = modified;
+            database = stale;
+        } else {
+            database = new BibDatabase(path, modified, size, hash, data);
+        }
+        synchronized (cache) {
+            cache.put(key, database);
+        }
+        return database;
+    }
+
+    /**
+     * Drops the cached databases of {@code file}, so the next {@link #load} reads it again.
+     */
+    public static void invalidate(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        synchronized (cache) {
+            cache.keySet().removeIf(key -> key.path().equals(path));
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** CRC32C of the file content. */
+    public long getHash() {
+        return hash;
+    }
+
+    /** Number of entries with a key. */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean contains(String key) {
+        return keys.containsKey(key);
+    }
+
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(keys.keySet());
+    }
+
+    /**
+     * The source text of the entry for {@code key}, or null.
+     * @throws IOException if the file cannot be read or changed since it was loaded.
+     */
+    public String getEntry(String key) throws IOException {
+        Integer entry = keys.get(key);
+        if (entry == null) return null;
+        try (FileChannel channel = open()) {
+            return text(channel, entryStart[entry], entryEnd[entry]);
+        }
+    }
+
+    /**
+     * Citations whose key is not in this database, as warnings.
+     * @param source The compiled text the citation offsets refer to.
+     */
+    public List<Diagnostic> getDiagnostics(LabelIndex citations, String source) {
+        List<LabelSite> unknown = new ArrayList<>();
+        for (String id : citations.getIds()) {
+            if (!keys.containsKey(id)) unknown.addAll(citations.getUses(id));
+        }
+        return LabelIndex.toWarnings(unknown, site -> "Unknown citation key: " + site.id, source);
+    }
+
+    /**
+     * Writes a bibliography that holds only the entries for {@code citedKeys}, the entries they
+     * cross-reference, and every {@code @string} and {@code @preamble}. Unknown keys are ignored.
+     * Entries are copied byte for byte in file order.
+     * @return The number of keyed entries written.
+     */
+    public int writePruned(Collection<String> citedKeys, Path target) throws IOException {
+        try (FileChannel source = open()) {
+            BitSet selected = new BitSet(entryStart.length);
+            Deque<Integer> pending = new ArrayDeque<>();
+            for (String key : citedKeys) {
+                Integer entry = keys.get(key);
+                if (entry != null && !selected.get(entry)) {
+                    selected.set(entry);
+                    pending.add(entry);
+                }
+            }
+            while (!pending.isEmpty()) {
+                int entry = pending.poll();
+                Matcher m = PARENT_FIELD.matcher(text(source, entryStart[entry], entryEnd[entry]));
+                while (m.find()) {
+                    Integer parent = keys.get(m.group(2));
+                    if (parent != null && !selected.get(parent)) {
+                        selected.set(parent);
+                        pending.add(parent);
+                    }
+                }
+            }
+
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < sharedStart.length; i++) {
+                    write(source, out, sharedStart[i], sharedEnd[i]);
+                }
+                for (int entry = selected.nextSetBit(0); entry >= 0; entry = selected.nextSetBit(entry + 1)) {
+                    write(source, out, entryStart[entry], entryEnd[entry]);
+                }
+            }
+            return selected.cardinality();
+        }
+    }
+
+    /**
+     * Opens the file for reading entries, failing if it no longer is the file that was indexed.
+     */
+    private FileChannel open() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() != size || Files.getLastModifiedTime(path).toMillis() != modified) {
+                throw new IOException("Bibliography changed since it was loaded: " + path);
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void write(FileChannel source, FileChannel out, int start, int end) throws IOException {
+        ByteBuffer slice = read(source, start, end);
+        while (slice.hasRemaining()) out.write(slice);
+        ByteBuffer newline = ByteBuffer.wrap(new byte[]{'\n', '\n'});
+        while (newline.hasRemaining()) out.write(newline);
+    }
+
+    private static String text(FileChannel source, int start, int end) throws IOException {
+        return StandardCharsets.UTF_8.decode(read(source, start, end)).toString();
+    }
+
+    private static ByteBuffer read(FileChannel source, int start, int end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(end - start);
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Bibliography was truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Finds entry boundaries the way BibTeX does: text outside {@code @type{...}} is a comment,
+     * and an entry ends at its balancing brace (or parenthesis).
+     */
+    private static final class Scanner {
+        private final ByteBuffer data;
+        private final int length;
+
+        final Map<String, Integer> keys = new HashMap<>();
+        int[] entryStart = new int[64];
+        int[] entryEnd = new int[64];
+        int entries;
+        int[] sharedStart = new int[4];
+        int[] sharedEnd = new int[4];
+        int shared;
+
+        Scanner(ByteBuffer data) {
+            this.data = data;
+            this.length = data.limit();
+        }
+
+        void scan() {
+            int pos = 0;
+            while (pos < length) {
+                if (data.get(pos) != '@') {
+                    pos++;
+                    continue;
+                }
+                int at = pos;
+                pos = skipSpace(pos + 1);
+                int typeStart = pos;
+                while (pos < length && isTypeChar(data.get(pos))) pos++;
+                String type = ascii(typeStart, pos).toLowerCase(Locale.ROOT);
+                pos = skipSpace(pos);
+                if (pos >= length) break;
+                byte open = data.get(pos);
+                if (open != '{' && open != '(') continue;
+
+                int end = entryEnd(pos, open == '(');
+                switch (type) {
+                    case "comment":
+                        break;
+                    case "string":
+                    case "preamble":
+                        addShared(at, end);
+                        break;
+                    default:
+                        addEntry(at, end, pos + 1);
+                        break;
+                }
+                pos = end;
+            }
+        }
+
+        private void addEntry(int start, int end, int keyStart) {
+            keyStart = skipSpace(keyStart);
+            int keyEnd = keyStart;
+            while (keyEnd < end) {
+                byte b = data.get(keyEnd);
+                if (b == ',' || b == '}' || b == ')' || isSpace(b)) break;
+                keyEnd++;
+            }
+            if (keyEnd == keyStart) return;
+            byte[] key = new byte[keyEnd - keyStart];
+            data.get(keyStart, key);
+            // 重复的键以第一条为准，与 BibTeX 一致
+            if (keys.putIfAbsent(new String(key, StandardCharsets.UTF_8), entries) != null) return;
+
+            if (entries == entryStart.length) {
+                entryStart = Arrays.copyOf(entryStart, entries * 2);
+                entryEnd = Arrays.copyOf(entryEnd, entries * 2);
+            }
+            entryStart[entries] = start;
+            entryEnd[entries] = end;
+            entries++;
+        }
+
+        private void addShared(int start, int end) {
+            if (shared == sharedStart.length) {
+                sharedStart = Arrays.copyOf(sharedStart, shared * 2);
+                sharedEnd = Arrays.copyOf(sharedEnd, shared * 2);
+            }
+            sharedStart[shared] = start;
+            sharedEnd[shared] = end;
+            shared++;
+        }
+
+        /**
+         * Offset just past the delimiter closing the entry opened at {@code open}; the end of the
+         * file if it is never closed. Delimiters inside braces or a top-level quoted value do not count.
+         */
+        private int entryEnd(int open, boolean parenthesis) {
+            int depth = 0;
+            boolean quoted = false;
+            for (int pos = open + 1; pos < length; pos++) {
+                byte b = data.get(pos);
+                if (b == '"' && depth == 0) {
+                    // "..." 字段值里的括号不结束条目
+                    quoted = !quoted;
+                } else if (quoted && depth == 0 && b != '{') {
+                    continue;
+                } else if (b == '{') {
+                    depth++;
+                } else if (b == '}') {
+                    if (depth == 0) {
+                        if (!parenthesis) return pos + 1;
+                    } else {
+                        depth--;
+                    }
+                } else if (b == ')' && parenthesis && depth == 0) {
+                    return pos + 1;
+                }
+            }
+            return length;
+        }
+
+        private int skipSpace(int pos) {
+            while (pos < length && isSpace(data.get(pos))) pos++;
+            return pos;
+        }
+
+        private String ascii(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            data.get(start, bytes);
+            return new String(bytes, StandardCharsets.US_ASCII);
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+        }
+
+        private static boolean isTypeChar(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+        }
+    }
+}
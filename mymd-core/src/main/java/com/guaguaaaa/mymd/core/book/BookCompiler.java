@@ -0,0 +1,322 @@
+package com.guaguaaaa.mymd.core.book;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.ast.AstJson;
+import com.guaguaaaa.mymd.core.ast.Cite;
+import com.guaguaaaa.mymd.core.ast.RawBlock;
+import com.guaguaaaa.mymd.core.ast.Space;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a book split over several files. The main file lists its chapters in the front matter:
+ * <pre>
+ * ---
+ * title: My Thesis
+ * chapters:
+ *   - chapters/intro.mymd
+ *   - chapters/method.mymd
+ * ---
+ * </pre>
+ * Paths are relative to the main file. Every chapter is compiled on its own, in parallel, and
+ * written as a Pandoc JSON fragment to {@code mymd-build/chapters/} next to the main file. A
+ * chapter whose text is unchanged since the last build is not compiled again, and a fragment whose
+ * JSON is unchanged is not rewritten, so {@link BookUnit#dirty} tells which LaTeX fragments need
+ * to be regenerated. Inputs of that conversion other than the JSON, such as the bibliography and
+ * the citation style, are passed to {@link #build(String, String)} as a stamp, which is kept next
+ * to each fragment; a changed stamp marks every chapter dirty. The main file becomes the assembly that {@code \include}s them.
+ * <p>
+ * Labels and references are checked across the whole book, so a reference to another chapter is
+ * not reported as undefined. Chapters cannot list chapters of their own.
+ * <p>
+ * An instance keeps the compiled chapters of one book in memory; it is safe to call
+ * {@link #build(String)} from one thread at a time.
+ */
+public class BookCompiler {
+
+    /** Directory next to the main file that holds the fragments. No leading dot: TeX refuses to write .aux files into hidden directories. */
+    public static final String BUILD_DIR = "mymd-build";
+
+    private static final Pattern FRONT_MATTER = Pattern.compile(
+            "\\A---[ \\t]*\\r?\\n(.*?)\\r?\\n(?:---|\\.\\.\\.)[ \\t]*(?:\\r?\\n|\\z)", Pattern.DOTALL);
+    private static final Gson gson = AstJson.GSON;
+
+    private record Compiled(String text, CompilationResult result) {
+    }
+
+    private final Path mainFile;
+    private final Path chapterDir;
+    private final CompilerOptions options;
+    private final Executor executor;
+    // 源文件 -> 上次编译的文本和结果；文本不变就不再编译
+    private final Map<Path, Compiled> compiled = new ConcurrentHashMap<>();
+
+    public BookCompiler(Path mainFile, CompilerOptions options) {
+        this(mainFile, options, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param options Used for every unit. The reference check runs once over the whole book instead
+     *                of per unit, and sync markers are only written for the main file.
+     * @param executor Runs the chapter compilations.
+     */
+    public BookCompiler(Path mainFile, CompilerOptions options, Executor executor) {
+        this.mainFile = mainFile.toAbsolutePath().normalize();
+        this.chapterDir = this.mainFile.resolveSibling(BUILD_DIR).resolve("chapters");
+        this.options = options;
+        this.executor = executor;
+    }
+
+    /**
+     * The parsed YAML front matter of {@code source}, or an empty map if there is none or it is not
+     * a mapping.
+     */
+    public static Map<?, ?> readFrontMatter(String source) {
+        Matcher m = FRONT_MATTER.matcher(source);
+        if (!m.find()) return Collections.emptyMap();
+        try {
+            return new Yaml().load(m.group(1)) instanceof Map<?, ?> map ? map : Collections.emptyMap();
+        } catch (RuntimeException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * The {@code chapters} list of the YAML front matter, or an empty list if there is none.
+     */
+    public static List<String> readChapters(String mainSource) {
+        Object chapters = readFrontMatter(mainSource).get("chapters");
+        if (chapters instanceof String single) return List.of(single);
+        if (!(chapters instanceof List<?> list)) return Collections.emptyList();
+        List<String> result = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (item != null && !String.valueOf(item).isBlank()) result.add(String.valueOf(item).trim());
+        }
+        return result;
+    }
+
+    /**
+     * Compiles the main file (whose current text is {@code mainSource}) and its chapters, which are
+     * read from disk.
+     * @throws IOException if a fragment cannot be written.
+     */
+    public BookResult build(String mainSource) throws IOException {
+        return build(mainSource, "");
+    }
+
+    /**
+     * Like {@link #build(String)}, for fragments that also depend on {@code renderStamp}.
+     * @param renderStamp Everything besides the JSON that goes into a chapter's LaTeX fragment,
+     *                    e.g. the bibliography hash and the CSL style.
+     * @throws IOException if a fragment cannot be written.
+     */
+    public BookResult build(String mainSource, String renderStamp) throws IOException {
+        List<String> chapterPaths = readChapters(mainSource);
+        Set<String> names = new HashSet<>();
+        names.add("main");
+
+        CompletableFuture<CompilationResult> mainFuture = CompletableFuture.supplyAsync(
+                () -> compile(mainFile, mainSource, true), executor);
+        List<Path> sources = new ArrayList<>();
+        List<String> unitNames = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<CompletableFuture<CompilationResult>> futures = new ArrayList<>();
+        for (String chapterPath : chapterPaths) {
+            Path source = mainFile.resolveSibling(chapterPath).normalize();
+            sources.add(source);
+            unitNames.add(uniqueName(source, names));
+            String text;
+            try {
+                text = stripTrailingLineBreaks(Files.readString(source, StandardCharsets.UTF_8));
+            } catch (NoSuchFileException e) {
+                texts.add("");
+                futures.add(CompletableFuture.completedFuture(error("Chapter not found: " + chapterPath)));
+                continue;
+            } catch (IOException e) {
+                texts.add("");
+                futures.add(CompletableFuture.completedFuture(error("Cannot read chapter " + chapterPath + ": " + e.getMessage())));
+                continue;
+            }
+            texts.add(text);
+            futures.add(CompletableFuture.supplyAsync(() -> compile(source, text, false), executor));
+        }
+
+        CompilationResult mainResult = join(mainFuture);
+        List<CompilationResult> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<CompilationResult> future : futures) results.add(join(future));
+
+        // 全书范围的标签索引：引用其他章节的标签不算悬空
+        LabelIndex bookLabels = new LabelIndex();
+        bookLabels.addAll(mainResult.labels);
+        for (CompilationResult result : results) bookLabels.addAll(result.labels);
+
+        BookUnit main = new BookUnit(mainFile, "main", mainSource, mainResult,
+                diagnostics(mainResult, bookLabels, mainSource), null, null, false);
+        List<BookUnit> chapters = new ArrayList<>(results.size());
+        boolean failed = main.hasErrors();
+        for (int i = 0; i < results.size(); i++) {
+            CompilationResult result = results.get(i);
+            List<Diagnostic> diagnostics = diagnostics(result, bookLabels, texts.get(i));
+            Path json = chapterDir.resolve(unitNames.get(i) + ".json");
+            Path tex = chapterDir.resolve(unitNames.get(i) + ".tex");
+            Path stamp = chapterDir.resolve(unitNames.get(i) + ".stamp");
+            boolean dirty = false;
+            if (!result.hasErrors()) {
+                // 两个文件都要写，不能短路
+                boolean changed = writeIfChanged(json, result.pandocJson);
+                changed |= writeIfChanged(stamp, renderStamp);
+                dirty = changed || !Files.exists(tex);
+            } else {
+                failed = true;
+            }
+            chapters.add(new BookUnit(sources.get(i), unitNames.get(i), texts.get(i), result, diagnostics, json, tex, dirty));
+        }
+
+        if (failed) return new BookResult(main, chapters, null, null);
+        return new BookResult(main, chapters, assemble(main, chapters), stitch(main, chapters));
+    }
+
+    private CompilationResult compile(Path source, String text, boolean isMain) {
+        Compiled previous = compiled.get(source);
+        if (previous != null && previous.text.equals(text)) return previous.result;
+
+        CompilerOptions unitOptions = options.copy().setReferenceCheck(false);
+        if (!isMain) unitOptions.setSyncMarkers(false);
+        CompilationResult result = MyMDCompiler.compile(text, unitOptions);
+        compiled.put(source, new Compiled(text, result));
+        return result;
+    }
+
+    /**
+     * A unit's own diagnostics plus its dangling references and duplicate labels with respect to the whole book.
+     */
+    private List<Diagnostic> diagnostics(CompilationResult result, LabelIndex bookLabels, String text) {
+        if (!options.isReferenceCheck() || result.hasErrors()) return result.diagnostics;
+        List<LabelSite> problems = new ArrayList<>();
+        for (LabelSite site : result.labels.getSites()) {
+            boolean problem = site.isDefinition()
+                    ? bookLabels.getDefinitions(site.id).size() > 1
+                    : bookLabels.getDefinition(site.id) == null;
+            if (problem) problems.add(site);
+        }
+        if (problems.isEmpty()) return result.diagnostics;
+        List<Diagnostic> merged = new ArrayList<>(result.diagnostics);
+        merged.addAll(LabelIndex.toWarnings(problems, bookLabels::describeProblem, text));
+        merged.sort(Comparator.comparingInt(d -> d.startIndex));
+        return merged;
+    }
+
+    /**
+     * 主文件的块之后按顺序 \include 各章的 LaTeX 片段；各章引用的文献键作为 nocite，
+     * 使主文档的 citeproc 生成全书的参考文献
+     */
+    private String assemble(BookUnit main, List<BookUnit> chapters) {
+        JsonObject root = JsonParser.parseString(main.result.pandocJson).getAsJsonObject();
+        JsonArray blocks = root.getAsJsonArray("blocks");
+        Path baseDir = mainFile.getParent();
+        for (BookUnit chapter : chapters) {
+            String target = baseDir.relativize(chapter.texFragment).toString().replace('\\', '/');
+            target = target.substring(0, target.length() - ".tex".length());
+            blocks.add(gson.toJsonTree(new RawBlock("latex", "\\include{" + target + "}")));
+        }
+
+        Set<String> cited = new TreeSet<>();
+        for (BookUnit chapter : chapters) cited.addAll(chapter.result.citations.getIds());
+        JsonObject meta = root.getAsJsonObject("meta");
+        if (!cited.isEmpty() && !meta.has("nocite")) {
+            JsonArray inlines = new JsonArray();
+            for (String key : cited) {
+                if (!inlines.isEmpty()) inlines.add(gson.toJsonTree(new Space()));
+                inlines.add(gson.toJsonTree(new Cite(key)));
+            }
+            JsonObject nocite = new JsonObject();
+            nocite.addProperty("t", "MetaInlines");
+            nocite.add("c", inlines);
+            meta.add("nocite", nocite);
+        }
+        return gson.toJson(root);
+    }
+
+    private String stitch(BookUnit main, List<BookUnit> chapters) {
+        JsonObject root = JsonParser.parseString(main.result.pandocJson).getAsJsonObject();
+        JsonArray blocks = root.getAsJsonArray("blocks");
+        for (BookUnit chapter : chapters) {
+            JsonElement chapterBlocks = JsonParser.parseString(chapter.result.pandocJson).getAsJsonObject().get("blocks");
+            blocks.addAll(chapterBlocks.getAsJsonArray());
+        }
+        return gson.toJson(root);
+    }
+
+    /**
+     * @return true if the file was written, false if it already had this content.
+     */
+    private static boolean writeIfChanged(Path file, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (Files.exists(file) && Arrays.equals(Files.readAllBytes(file), bytes)) return false;
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes);
+        return true;
+    }
+
+    /**
+     * 语法不接受文件末尾的换行，而其他编辑器保存的章节文件通常以换行结尾；去掉不影响任何偏移
+     */
+    private static String stripTrailingLineBreaks(String text) {
+        int end = text.length();
+        while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r')) end--;
+        return text.substring(0, end);
+    }
+
+    private static String uniqueName(Path source, Set<String> taken) {
+        String fileName = source.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String stem = (dot > 0 ? fileName.substring(0, dot) : fileName).replaceAll("[^A-Za-z0-9_-]", "_");
+        String name = stem;
+        for (int n = 2; !taken.add(name); n++) name = stem + "_" + n;
+        return name;
+    }
+
+    private static CompilationResult error(String message) {
+        return new CompilationResult(null, null, List.of(new Diagnostic(0, 0, 0, 0, message)));
+    }
+
+    private static CompilationResult join(CompletableFuture<CompilationResult> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            String msg = e.getCause() != null ? e.getCause().toString() : e.toString();
+            return error("Compiler Error: " + msg);
+        }
+    }
+}
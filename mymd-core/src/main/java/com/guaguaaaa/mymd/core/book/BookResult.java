@@ -0,0 +1,53 @@
+package com.guaguaaaa.mymd.core.book;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The output of {@link BookCompiler#build(String)}.
+ */
+public class BookResult {
+    public final BookUnit main;
+    /** Chapters in the order of the front matter. */
+    public final List<BookUnit> chapters;
+    /**
+     * Pandoc JSON of the main file with an {@code \include} of every chapter's LaTeX fragment after
+     * its own blocks, and the citation keys of all chapters as {@code nocite}, so that one citeproc
+     * run over it produces the bibliography of the whole book. Null if a unit has errors.
+     */
+    public final String assemblyJson;
+    /** Pandoc JSON of the whole book in one document, for output formats without {@code \include}. */
+    public final String stitchedJson;
+
+    public BookResult(BookUnit main, List<BookUnit> chapters, String assemblyJson, String stitchedJson) {
+        this.main = main;
+        this.chapters = Collections.unmodifiableList(chapters);
+        this.assemblyJson = assemblyJson;
+        this.stitchedJson = stitchedJson;
+    }
+
+    /** The main file followed by the chapters. */
+    public List<BookUnit> getUnits() {
+        List<BookUnit> units = new ArrayList<>(chapters.size() + 1);
+        units.add(main);
+        units.addAll(chapters);
+        return units;
+    }
+
+    /** Chapters whose LaTeX fragment has to be regenerated. */
+    public List<BookUnit> getDirtyChapters() {
+        List<BookUnit> dirty = new ArrayList<>();
+        for (BookUnit chapter : chapters) {
+            if (chapter.dirty) dirty.add(chapter);
+        }
+        return dirty;
+    }
+
+    public boolean hasErrors() {
+        for (BookUnit unit : getUnits()) {
+            if (unit.hasErrors()) return true;
+        }
+        return false;
+    }
+}
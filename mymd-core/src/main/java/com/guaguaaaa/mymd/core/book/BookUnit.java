@@ -0,0 +1,50 @@
+package com.guaguaaaa.mymd.core.book;
+
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * One compilation unit of a book: the main file or one of its chapters.
+ */
+public class BookUnit {
+    /** The file the unit was read from. */
+    public final Path source;
+    /** File name stem of the fragments, unique within the book; {@code "main"} for the main file. */
+    public final String name;
+    /** The text that was compiled. */
+    public final String text;
+    public final CompilationResult result;
+    /** The unit's own diagnostics plus cross-reference problems found across the whole book. */
+    public final List<Diagnostic> diagnostics;
+    /** Pandoc JSON of the unit alone; null for the main file, whose blocks go into the assembly. */
+    public final Path jsonFragment;
+    /** Where the LaTeX fragment for {@code \include} belongs; null for the main file. */
+    public final Path texFragment;
+    /**
+     * Whether {@link #jsonFragment} changed in this build, i.e. the LaTeX fragment has to be
+     * regenerated. Also true if the LaTeX fragment does not exist yet.
+     */
+    public final boolean dirty;
+
+    public BookUnit(Path source, String name, String text, CompilationResult result, List<Diagnostic> diagnostics,
+                    Path jsonFragment, Path texFragment, boolean dirty) {
+        this.source = source;
+        this.name = name;
+        this.text = text;
+        this.result = result;
+        this.diagnostics = diagnostics;
+        this.jsonFragment = jsonFragment;
+        this.texFragment = texFragment;
+        this.dirty = dirty;
+    }
+
+    public boolean hasErrors() {
+        for (Diagnostic d : diagnostics) {
+            if (d.isError()) return true;
+        }
+        return false;
+    }
+}
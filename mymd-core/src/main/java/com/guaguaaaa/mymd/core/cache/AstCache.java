@@ -0,0 +1,206 @@
+package com.guaguaaaa.mymd.core.cache;
+
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.ast.AstBinary;
+import com.guaguaaaa.mymd.core.ast.Block;
+import com.guaguaaaa.mymd.core.ast.PandocAst;
+import com.guaguaaaa.mymd.core.book.BookCompiler;
+import com.guaguaaaa.mymd.core.incremental.OutlineEntry;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the compiled AST of a document on disk, so that reopening it shows the outline and the
+ * label index without parsing.
+ * <p>
+ * The cache of {@code dir/doc.mymd} is {@code dir/mymd-build/cache/doc.mymd.ast}. It is keyed by
+ * the SHA-256 of the source text: {@link #load} returns null unless the text is exactly the one
+ * that was compiled. The file is memory-mapped and read through {@link CachedAst}, which decodes
+ * the outline and labels up front and each block only when it is asked for.
+ * <p>
+ * File layout (big-endian ints): a fixed header of {@link #HEADER_SIZE} bytes, then the sections,
+ * then the shared string table of {@link AstBinary}.
+ * <pre>
+ * magic, format version, SHA-256 (32 bytes), source length,
+ * offsets of: string table, outline, labels, citations, meta, block index; block count
+ * </pre>
+ */
+public final class AstCache {
+
+    public static final String CACHE_DIR = "cache";
+    public static final String EXTENSION = ".ast";
+
+    static final int MAGIC = 0x4D594D41; // "MYMA"
+    /**
+     * Bump whenever the layout or the encoding of a section changes; older files are then ignored.
+     * Enum constants are stored by name, so adding one does not need a new version.
+     */
+    static final int FORMAT_VERSION = 2;
+
+    static final int HASH_AT = 8;
+    static final int LENGTH_AT = HASH_AT + 32;
+    static final int STRINGS_AT = LENGTH_AT + 4;
+    static final int OUTLINE_AT = STRINGS_AT + 4;
+    static final int LABELS_AT = OUTLINE_AT + 4;
+    static final int CITATIONS_AT = LABELS_AT + 4;
+    static final int META_AT = CITATIONS_AT + 4;
+    static final int BLOCKS_AT = META_AT + 4;
+    static final int BLOCK_COUNT_AT = BLOCKS_AT + 4;
+    static final int HEADER_SIZE = BLOCK_COUNT_AT + 4;
+
+    private AstCache() {
+    }
+
+    /** Where the cache of {@code source} is stored. */
+    public static Path cacheFile(Path source) {
+        Path file = source.toAbsolutePath().normalize();
+        return file.resolveSibling(BookCompiler.BUILD_DIR).resolve(CACHE_DIR)
+                .resolve(file.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Writes the cache of {@code source}. The file is written next to its final name and then
+     * moved over it, so a reader never sees half a cache.
+     *
+     * @param text    the text that was compiled
+     * @param outline all outline entries of {@code text} in document order
+     * @param result  a successful compilation of {@code text}; its root must be a {@link PandocAst}
+     */
+    public static void store(Path source, String text, List<OutlineEntry> outline, CompilationResult result)
+            throws IOException {
+        if (!(result.rootAst instanceof PandocAst ast)) {
+            throw new IllegalArgumentException("No AST to cache");
+        }
+        AstBinary.Writer out = new AstBinary.Writer();
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeBytes(sha256(text));
+        out.writeInt(text.length());
+        // 各段偏移稍后回填
+        while (out.position() < HEADER_SIZE) out.writeInt(0);
+
+        out.setInt(OUTLINE_AT, out.position());
+        out.writeVarInt(outline.size());
+        for (OutlineEntry entry : outline) {
+            out.writeString(entry.kind.name());
+            out.writeVarInt(entry.level);
+            out.writeString(entry.title);
+            out.writeString(entry.labelId);
+            out.writeVarInt(entry.start);
+            out.writeVarInt(entry.end);
+        }
+
+        out.setInt(LABELS_AT, out.position());
+        writeSites(out, result.labels);
+        out.setInt(CITATIONS_AT, out.position());
+        writeSites(out, result.citations);
+
+        out.setInt(META_AT, out.position());
+        out.writeValue(ast.getPandocApiVersion());
+        out.writeValue(ast.getMeta());
+
+        List<Block> blocks = ast.getBlocks();
+        int[] blockAt = new int[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            blockAt[i] = out.position();
+            out.writeValue(blocks.get(i));
+        }
+        out.setInt(BLOCKS_AT, out.position());
+        for (int at : blockAt) out.writeInt(at);
+        out.setInt(BLOCK_COUNT_AT, blocks.size());
+
+        out.setInt(STRINGS_AT, out.writeStrings());
+
+        Path target = cacheFile(source);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, out.toByteArray());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Maps the cache of {@code source} if it was stored for exactly {@code text}.
+     *
+     * @return null if there is no cache, it was written for another text or by another format
+     *         version, or its outline and labels cannot be decoded
+     * @throws IOException if the cache exists but cannot be read
+     */
+    public static CachedAst load(Path source, String text) throws IOException {
+        Path file = cacheFile(source);
+        if (!Files.isRegularFile(file)) return null;
+        long size = Files.size(file);
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) return null;
+
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (data.getInt(0) != MAGIC || data.getInt(4) != FORMAT_VERSION) return null;
+        // 先比长度，长度不同时不必计算哈希
+        if (data.getInt(LENGTH_AT) != text.length()) return null;
+        byte[] hash = new byte[32];
+        data.get(HASH_AT, hash);
+        if (!Arrays.equals(hash, sha256(text))) return null;
+        try {
+            return new CachedAst(data);
+        } catch (RuntimeException e) {
+            // 文件损坏（截断、偏移越界、未知的枚举名）时当作没有缓存，由调用方重新编译
+            return null;
+        }
+    }
+
+    private static void writeSites(AstBinary.Writer out, LabelIndex index) {
+        List<LabelSite> sites = index != null ? index.getSites() : Collections.emptyList();
+        out.writeVarInt(sites.size());
+        for (LabelSite site : sites) {
+            out.writeString(site.id);
+            out.writeString(site.kind.name());
+            out.writeVarInt(site.start);
+            out.writeVarInt(site.end);
+        }
+    }
+
+    static LabelIndex readSites(AstBinary.Reader in) {
+        LabelIndex index = new LabelIndex();
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            String id = in.readString();
+            LabelSite.Kind kind = LabelSite.Kind.valueOf(in.readString());
+            int start = in.readVarInt();
+            index.add(new LabelSite(id, kind, start, in.readVarInt()));
+        }
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> asMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    private static byte[] sha256(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.guaguaaaa.mymd.core.cache;
+
+import com.guaguaaaa.mymd.core.ast.AstBinary;
+import com.guaguaaaa.mymd.core.ast.Block;
+import com.guaguaaaa.mymd.core.ast.PandocAst;
+import com.guaguaaaa.mymd.core.incremental.OutlineEntry;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A document read back from its {@link AstCache} file.
+ * <p>
+ * The outline and the label and citation indexes are small and decoded when the cache is
+ * loaded. Blocks stay in the mapping until {@link #getBlock} is called for them; a decoded block is
+ * kept, so every call for the same index returns the same object.
+ */
+public class CachedAst {
+
+    private final ByteBuffer data;
+    private final AstBinary.Reader reader;
+    private final List<OutlineEntry> outlineEntries;
+    private final List<OutlineEntry> outline;
+    private final LabelIndex labels;
+    private final LabelIndex citations;
+    private final Block[] blocks;
+    private final int blockIndex;
+
+    CachedAst(ByteBuffer data) {
+        this.data = data;
+        this.reader = new AstBinary.Reader(data, data.getInt(AstCache.STRINGS_AT));
+        this.blocks = new Block[data.getInt(AstCache.BLOCK_COUNT_AT)];
+        this.blockIndex = data.getInt(AstCache.BLOCKS_AT);
+
+        reader.position(data.getInt(AstCache.OUTLINE_AT));
+        int count = reader.readVarInt();
+        List<OutlineEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            OutlineEntry.Kind kind = OutlineEntry.Kind.valueOf(reader.readString());
+            int level = reader.readVarInt();
+            String title = reader.readString();
+            String labelId = reader.readString();
+            int start = reader.readVarInt();
+            entries.add(new OutlineEntry(kind, level, title, labelId, start, reader.readVarInt(), i));
+        }
+        this.outlineEntries = Collections.unmodifiableList(entries);
+        this.outline = OutlineEntry.nest(entries);
+
+        this.labels = AstCache.readSites(reader.position(data.getInt(AstCache.LABELS_AT)));
+        this.citations = AstCache.readSites(reader.position(data.getInt(AstCache.CITATIONS_AT)));
+    }
+
+    /** Headers nested by level, as {@link com.guaguaaaa.mymd.core.incremental.IncrementalDocument#getOutline()}. */
+    public List<OutlineEntry> getOutline() {
+        return outline;
+    }
+
+    /** All outline entries in document order; {@code getOutlineEntries().get(e.index)} is {@code e}. */
+    public List<OutlineEntry> getOutlineEntries() {
+        return outlineEntries;
+    }
+
+    /** Label definitions and references, as in {@code CompilationResult.labels}. */
+    public LabelIndex getLabels() {
+        return labels;
+    }
+
+    /** Bibliography citations, as in {@code CompilationResult.citations}. */
+    public LabelIndex getCitations() {
+        return citations;
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    /** Decodes the top-level block {@code index} on first use. */
+    public synchronized Block getBlock(int index) {
+        Block block = blocks[index];
+        if (block == null) {
+            block = (Block) reader.position(data.getInt(blockIndex + 4 * index)).readValue();
+            blocks[index] = block;
+        }
+        return block;
+    }
+
+    /** The top-level blocks as a list that decodes each element when it is read. */
+    public List<Block> getBlocks() {
+        return new AbstractList<>() {
+            @Override
+            public Block get(int index) {
+                return getBlock(index);
+            }
+
+            @Override
+            public int size() {
+                return blocks.length;
+            }
+        };
+    }
+
+    /** The whole document, with every block decoded. */
+    public synchronized PandocAst toPandocAst() {
+        reader.position(data.getInt(AstCache.META_AT));
+        @SuppressWarnings("unchecked")
+        List<Integer> apiVersion = (List<Integer>) reader.readValue();
+        Map<String, Object> meta = AstCache.asMap(reader.readValue());
+        return new PandocAst(apiVersion, meta, new ArrayList<>(getBlocks()));
+    }
+}
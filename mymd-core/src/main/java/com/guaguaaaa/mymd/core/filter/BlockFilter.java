@@ -0,0 +1,31 @@
+package com.guaguaaaa.mymd.core.filter;
+
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.ast.Block;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A block-local filter: what it makes of a top-level block depends on that block alone, not on
+ * its neighbours or the metadata.
+ * <p>
+ * {@link FilterChain} passes each block through a run of consecutive block filters in one go and
+ * spreads the blocks over a {@link java.util.concurrent.ForkJoinPool}, so {@link #apply(Block)}
+ * may be called from several threads at once.
+ */
+@FunctionalInterface
+public interface BlockFilter extends PandocFilter {
+
+    /**
+     * @return the blocks replacing {@code block}: usually a list of just it, possibly none or several
+     */
+    List<Block> apply(Block block);
+
+    @Override
+    default List<Block> apply(List<Block> blocks, JsonObject metadata) {
+        List<Block> result = new ArrayList<>(blocks.size());
+        for (Block block : blocks) result.addAll(apply(block));
+        return result;
+    }
+}
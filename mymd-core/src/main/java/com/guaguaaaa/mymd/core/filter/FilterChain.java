@@ -0,0 +1,124 @@
+package com.guaguaaaa.mymd.core.filter;
+
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.ast.Block;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Applies a list of {@link PandocFilter}s in order.
+ * <p>
+ * Consecutive {@link BlockFilter}s are fused into one pass: each top-level block goes through all
+ * of them before the next block is looked at, instead of one pass over the document per filter.
+ * Such a pass is split across a {@link ForkJoinPool} once the document has enough blocks; the
+ * result keeps the order of the blocks. Any other filter sees the whole document and runs on the
+ * calling thread, between the passes before and after it.
+ */
+public class FilterChain {
+
+    /** Fewer blocks than this are filtered on the calling thread. */
+    static final int PARALLEL_THRESHOLD = 64;
+    private static final int MIN_LEAF_SIZE = 16;
+
+    private final List<PandocFilter> filters;
+    private final ForkJoinPool pool;
+
+    public FilterChain(List<PandocFilter> filters) {
+        this(filters, ForkJoinPool.commonPool());
+    }
+
+    public FilterChain(List<PandocFilter> filters, ForkJoinPool pool) {
+        this.filters = List.copyOf(filters);
+        this.pool = pool;
+    }
+
+    public boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    /**
+     * Runs every filter over the document.
+     *
+     * @param metadata passed on to filters that are not block-local, which may modify it
+     * @return the filtered top-level blocks; {@code blocks} itself when there are no filters
+     */
+    public List<Block> apply(List<Block> blocks, JsonObject metadata) {
+        List<Block> current = blocks;
+        int i = 0;
+        while (i < filters.size()) {
+            if (filters.get(i) instanceof BlockFilter) {
+                int end = i;
+                while (end < filters.size() && filters.get(end) instanceof BlockFilter) end++;
+                BlockFilter[] run = filters.subList(i, end).toArray(new BlockFilter[0]);
+                current = applyRun(run, current);
+                i = end;
+            } else {
+                current = filters.get(i).apply(current, metadata);
+                i++;
+            }
+        }
+        return current;
+    }
+
+    private List<Block> applyRun(BlockFilter[] run, List<Block> blocks) {
+        List<Block> source = blocks instanceof RandomAccess ? blocks : new ArrayList<>(blocks);
+        int parallelism = pool.getParallelism();
+        if (source.size() < PARALLEL_THRESHOLD || parallelism <= 1) {
+            List<Block> result = new ArrayList<>(source.size());
+            for (Block block : source) applyRun(run, 0, block, result);
+            return result;
+        }
+        // 每个线程约分到 4 段，便于负载均衡
+        int leafSize = Math.max(MIN_LEAF_SIZE, source.size() / (parallelism * 4));
+        return pool.invoke(new RunTask(run, source, 0, source.size(), leafSize));
+    }
+
+    /**
+     * 把 block 依次交给 run[index..] 中的每个过滤器，结果追加到 out
+     */
+    private static void applyRun(BlockFilter[] run, int index, Block block, List<Block> out) {
+        if (index == run.length) {
+            out.add(block);
+            return;
+        }
+        for (Block next : run[index].apply(block)) {
+            applyRun(run, index + 1, next, out);
+        }
+    }
+
+    private static final class RunTask extends RecursiveTask<List<Block>> {
+        private final BlockFilter[] run;
+        private final List<Block> blocks;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        RunTask(BlockFilter[] run, List<Block> blocks, int from, int to, int leafSize) {
+            this.run = run;
+            this.blocks = blocks;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected List<Block> compute() {
+            if (to - from <= leafSize) {
+                List<Block> result = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) applyRun(run, 0, blocks.get(i), result);
+                return result;
+            }
+            int mid = (from + to) >>> 1;
+            RunTask left = new RunTask(run, blocks, from, mid, leafSize);
+            left.fork();
+            List<Block> right = new RunTask(run, blocks, mid, to, leafSize).compute();
+            List<Block> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.guaguaaaa.mymd.core.filter;
+
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.ast.Block;
+
+import java.util.List;
+
+/**
+ * An in-process counterpart of a Pandoc JSON filter: rewrites the AST after parsing and before
+ * serialization, without an external process or a JSON round trip.
+ * <p>
+ * A filter that only ever looks at one top-level block at a time should implement
+ * {@link BlockFilter} instead, so that {@link FilterChain} can run it in parallel.
+ *
+ * @see com.guaguaaaa.mymd.core.api.CompilerOptions#setFilters
+ */
+@FunctionalInterface
+public interface PandocFilter {
+
+    /**
+     * Rewrites the document.
+     *
+     * @param blocks   the top-level blocks; must not be modified
+     * @param metadata the document metadata, which may be modified in place
+     * @return the new top-level blocks; may be {@code blocks} itself if nothing changed
+     */
+    List<Block> apply(List<Block> blocks, JsonObject metadata);
+}
@@ -0,0 +1,25 @@
+package com.guaguaaaa.mymd.core.highlight;
+
+import java.util.List;
+
+/**
+ * A styled range of the source. Offsets are token start/stop indices as reported by the lexer.
+ */
+public class HighlightSpan {
+    public final int start;
+    public final int end;
+    public final int tokenType;
+    public final List<String> styles;
+
+    public HighlightSpan(int start, int end, int tokenType, List<String> styles) {
+        this.start = start;
+        this.end = end;
+        this.tokenType = tokenType;
+        this.styles = styles;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end + " " + styles;
+    }
+}
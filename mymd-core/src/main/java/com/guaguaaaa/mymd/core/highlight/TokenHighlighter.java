@@ -0,0 +1,161 @@
+package com.guaguaaaa.mymd.core.highlight;
+
+import com.guaguaaaa.mymd.core.parser.DelimiterIndex;
+import com.guaguaaaa.mymd.core.parser.MyMDLexer;
+import com.guaguaaaa.mymd.core.parser.TokenSnapshot;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UI-independent syntax highlighting: maps MyMD tokens to style class names.
+ * <p>
+ * The style names are the CSS classes of the JavaFX editor ({@code header}, {@code math},
+ * {@code bold}, ...). Other front ends (the compile daemon, the language server) reuse the
+ * same classification so every editor colours a document the same way.
+ */
+public class TokenHighlighter {
+
+    /**
+     * 计算语法高亮，只返回带样式的 Token
+     */
+    public static List<HighlightSpan> computeSpans(String text) {
+        return computeSpans(CharStreams.fromString(text));
+    }
+
+    /**
+     * 对任意字符流计算高亮，例如编辑器文档的 {@code TextCharStream}（偏移为 UTF-16）
+     */
+    public static List<HighlightSpan> computeSpans(CharStream input) {
+        MyMDLexer lexer = new MyMDLexer(input);
+        // 每次按键都会重新高亮，未闭合的 $ / ``` / \begin{ 不应让 Lexer 反复扫描到文件末尾
+        lexer.setDelimiterIndex(new DelimiterIndex(input));
+        lexer.removeErrorListeners();
+
+        // 获取所有 Token 列表，以便支持 Lookahead (向前看)
+        return computeSpans(lexer.getAllTokens());
+    }
+
+    /**
+     * 对共享的 Token 快照计算高亮，不再单独跑一遍 Lexer（EOF 不参与高亮）
+     */
+    public static List<HighlightSpan> computeSpans(TokenSnapshot snapshot) {
+        List<Token> tokens = snapshot.getTokens();
+        int n = tokens.size();
+        if (n > 0 && snapshot.getType(n - 1) == Token.EOF) tokens = tokens.subList(0, n - 1);
+        return computeSpans(tokens);
+    }
+
+    /**
+     * 对已有的 Token 序列计算高亮 (粗体/斜体状态, 列表行首判断, 图片前瞻)
+     */
+    public static List<HighlightSpan> computeSpans(List<? extends Token> tokens) {
+        List<HighlightSpan> spans = new ArrayList<>();
+
+        // 状态标记
+        boolean isBold = false;
+        boolean isItalic = false;
+        boolean isLineStart = true;
+
+        // 使用索引循环，以便访问 i+1
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            int tokenType = token.getType();
+            if (tokenType == MyMDLexer.INDENT || tokenType == MyMDLexer.DEDENT) continue;
+
+            List<String> styles = new ArrayList<>();
+
+            // 处理粗体 **
+            if (tokenType == MyMDLexer.BOLD_MARK) {
+                isBold = !isBold;
+                styles.add("bold-marker");
+                isLineStart = false;
+            }
+            // 处理斜体 *
+            else if (tokenType == MyMDLexer.STAR) {
+                isItalic = !isItalic;
+                styles.add("italic-marker");
+                isLineStart = false;
+            }
+            // 处理列表
+            else if (tokenType == MyMDLexer.DASH) {
+                if (isLineStart) {
+                    styles.add("list-marker");
+                }
+                isLineStart = false;
+            }
+            // 处理图片
+            else if (tokenType == MyMDLexer.BANG) {
+                if (i + 1 < tokens.size() && tokens.get(i + 1).getType() == MyMDLexer.LBRACKET) {
+                    styles.add("image-marker");
+                }
+                isLineStart = false;
+            }
+            else if (tokenType == MyMDLexer.HARD_BREAK || tokenType == MyMDLexer.PARAGRAPH_END || tokenType == MyMDLexer.SOFT_BREAK) {
+                isBold = false;
+                isItalic = false;
+                isLineStart = true;
+            }
+            else if (tokenType == MyMDLexer.SPACE) {
+                // 空格不改变行首状态
+            }
+            else {
+                isLineStart = false;
+            }
+
+            // 基础样式映射
+            String baseStyle = getStyleClass(tokenType);
+            if (baseStyle != null) {
+                styles.add(baseStyle);
+            }
+
+            // 样式叠加 (在粗体/斜体内部的普通文字)
+            if (baseStyle == null && !styles.contains("list-marker") && !styles.contains("image-marker")) {
+                if (isBold) styles.add("bold");
+                if (isItalic) styles.add("italic");
+            }
+
+            if (!styles.isEmpty()) {
+                spans.add(new HighlightSpan(token.getStartIndex(), token.getStopIndex() + 1, tokenType, styles));
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Token 类型到 CSS 类名的静态映射
+     */
+    public static String getStyleClass(int tokenType) {
+        switch (tokenType) {
+            case MyMDLexer.YAML_BLOCK:
+                return "yaml-marker";
+
+            case MyMDLexer.H1:
+            case MyMDLexer.H2:
+            case MyMDLexer.H3:
+            case MyMDLexer.H4:
+            case MyMDLexer.H5:
+            case MyMDLexer.H6:
+                return "header";
+
+            case MyMDLexer.CODE_BLOCK: return "code-block";
+            case MyMDLexer.INLINE_CODE: return "inline-code";
+
+            case MyMDLexer.BLOCK_MATH:
+            case MyMDLexer.INLINE_MATH: return "math";
+
+            case MyMDLexer.GT: return "blockquote";
+
+            case MyMDLexer.LBRACKET:
+            case MyMDLexer.RBRACKET:
+            case MyMDLexer.LPAREN:
+            case MyMDLexer.RPAREN:
+                return "link-marker";
+
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.guaguaaaa.mymd.core.incremental;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A {@link CharStream} over a whole document that starts reading at an arbitrary offset.
+ * <p>
+ * Indices are UTF-16 code units (the editor's and LSP's offsets), and token start/stop indices
+ * are absolute document offsets. The stream remembers the furthest position the lexer looked at,
+ * which is what a segment's tokens depend on.
+ */
+final class DocumentCharStream implements CharStream {
+
+    private final CharSequence text;
+    private int p;
+    private int maxRead;
+
+    DocumentCharStream(CharSequence text, int start) {
+        this.text = text;
+        this.p = start;
+        this.maxRead = start;
+    }
+
+    /** The furthest offset read so far; {@code text.length()} means the lexer saw EOF. */
+    int getMaxRead() {
+        return maxRead;
+    }
+
+    /** Reads a character outside the lexer and records the dependency. */
+    int peek(int index) {
+        if (index > maxRead) maxRead = Math.min(index, text.length());
+        return index < text.length() ? text.charAt(index) : IntStream.EOF;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) return 0;
+        int index = i > 0 ? p + i - 1 : p + i;
+        if (index < 0) return IntStream.EOF;
+        return peek(index);
+    }
+
+    @Override
+    public void consume() {
+        if (p >= text.length()) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p++;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void seek(int index) {
+        p = Math.min(index, text.length());
+    }
+
+    @Override
+    public int size() {
+        return text.length();
+    }
+
+    @Override
+    public String getSourceName() {
+        return UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = interval.a;
+        int stop = Math.min(interval.b, text.length() - 1);
+        if (start >= text.length() || stop < start) return "";
+        return text.subSequence(start, stop + 1).toString();
+    }
+}
@@ -0,0 +1,30 @@
+package com.guaguaaaa.mymd.core.incremental;
+
+/**
+ * A header found in the document. {@code start}/{@code end} cover the whole header line,
+ * {@code nameStart} is where the title text begins (after the {@code #} marker).
+ */
+public class HeaderSymbol {
+    public final int level;
+    public final String name;
+    public final int start;
+    public final int nameStart;
+    public final int end;
+
+    public HeaderSymbol(int level, String name, int start, int nameStart, int end) {
+        this.level = level;
+        this.name = name;
+        this.start = start;
+        this.nameStart = nameStart;
+        this.end = end;
+    }
+
+    HeaderSymbol shift(int delta) {
+        return delta == 0 ? this : new HeaderSymbol(level, name, start + delta, nameStart + delta, end + delta);
+    }
+
+    @Override
+    public String toString() {
+        return "H" + level + " " + name + " " + start + "-" + end;
+    }
+}
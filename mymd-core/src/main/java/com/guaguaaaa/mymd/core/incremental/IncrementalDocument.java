@@ -0,0 +1,541 @@
+package com.guaguaaaa.mymd.core.incremental;
+
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.ast.Block;
+import com.guaguaaaa.mymd.core.ast.Header;
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.highlight.TokenHighlighter;
+import com.guaguaaaa.mymd.core.parser.DirectAstBuilder;
+import com.guaguaaaa.mymd.core.parser.MyMDLexer;
+import com.guaguaaaa.mymd.core.parser.MyMDParser;
+import com.guaguaaaa.mymd.core.parser.SyntaxErrorCollector;
+import com.guaguaaaa.mymd.core.text.PieceTable;
+import com.guaguaaaa.mymd.core.text.TextSnapshot;
+import com.guaguaaaa.mymd.core.util.InlineText;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An editable document whose diagnostics, highlight spans and headers are kept up to date by
+ * re-analysing only the blocks an edit can influence.
+ * <p>
+ * The text is cut into segments at blank lines after which the grammar cannot continue the
+ * current construct (the next line starts at column 0, and does not look like a list item while
+ * list nesting is open). Each segment is lexed and parsed on its own, and remembers how far the
+ * lexer looked ahead. An edit re-analyses from the first segment whose lookahead reaches the edit
+ * and stops as soon as a new segment boundary lands on the (shifted) start of an untouched old
+ * segment; everything after that is reused with its offsets shifted.
+ * <p>
+ * Label definitions and references of all segments are kept in one {@link LabelIndex}; an edit
+ * only removes the sites of the replaced segments and adds those of the new ones.
+ * <p>
+ * The outline (headers and equation / figure labels) is rebuilt lazily from the per-segment
+ * results. Its {@linkplain #getOutlineVersion() version} only changes when the re-analysed
+ * segments' headers or labels differ from those they replaced, so views can skip rebuilding
+ * their tree for edits that merely move entries.
+ * <p>
+ * The text is kept in a {@link PieceTable}, so applying an edit does not copy the document;
+ * segments are lexed from a snapshot of it.
+ * <p>
+ * Offsets are UTF-16 code units, as in the editor and in LSP. Not thread-safe.
+ */
+public class IncrementalDocument {
+
+    private final PieceTable text;
+    private final LineIndex lines;
+    private final List<Segment> segments = new ArrayList<>();
+    private final LabelIndex labels = new LabelIndex();
+    // 标签记录的是分析时的偏移，需要所属段的平移量
+    private final Map<LabelSite, Segment> labelOwners = new IdentityHashMap<>();
+
+    private int outlineVersion;
+    private List<OutlineEntry> outline;
+    private List<OutlineEntry> outlineEntries;
+
+    private int lastReanalyzedLength;
+    private int lastReanalyzedSegments;
+
+    public IncrementalDocument(String text) {
+        this.text = new PieceTable(text);
+        this.lines = new LineIndex(text);
+        reanalyze(0, 0, 0, 0);
+    }
+
+    /**
+     * Replaces the text between {@code start} and {@code end} with {@code replacement}
+     * and updates the analysis.
+     */
+    public void applyEdit(int start, int end, String replacement) {
+        if (start < 0 || end < start || end > text.length()) {
+            throw new IllegalArgumentException("Invalid edit range " + start + "-" + end + " for length " + text.length());
+        }
+        int delta = replacement.length() - (end - start);
+        text.replace(start, end, replacement);
+        lines.update(start, end, replacement);
+
+        // 第一个前瞻范围触及编辑位置的段（包括在编辑位置处做边界判断的前一段）
+        int first = 0;
+        while (first < segments.size() - 1 && segments.get(first).lookaheadEnd() < start) first++;
+        reanalyze(first, end, delta, segments.get(first).start);
+    }
+
+    /**
+     * Analyses segments from {@code from} (new offsets) and replaces old segments starting at index
+     * {@code first} until a new boundary coincides with an old segment that starts at or after
+     * {@code editEnd} (old offsets).
+     */
+    private void reanalyze(int first, int editEnd, int delta, int from) {
+        List<Segment> fresh = new ArrayList<>();
+        int resync = first;
+        int pos = from;
+        while (true) {
+            Segment segment = analyzeSegment(pos);
+            fresh.add(segment);
+            int next = segment.end();
+            if (next >= text.length()) {
+                resync = segments.size();
+                break;
+            }
+            while (resync < segments.size()
+                    && (segments.get(resync).start < editEnd || segments.get(resync).start + delta < next)) {
+                resync++;
+            }
+            if (resync < segments.size() && segments.get(resync).start + delta == next) break;
+            pos = next;
+        }
+
+        lastReanalyzedLength = fresh.get(fresh.size() - 1).end() - from;
+        lastReanalyzedSegments = fresh.size();
+
+        List<Segment> tail = segments.subList(resync, segments.size());
+        for (Segment segment : tail) segment.start += delta;
+        List<Segment> replaced = segments.subList(first, resync);
+        if (!outlineKey(replaced).equals(outlineKey(fresh))) outlineVersion++;
+        outline = null;
+        outlineEntries = null;
+        for (Segment segment : replaced) {
+            for (LabelSite site : segment.labels) {
+                labels.remove(site);
+                labelOwners.remove(site);
+            }
+        }
+        replaced.clear();
+        segments.addAll(first, fresh);
+        for (Segment segment : fresh) {
+            for (LabelSite site : segment.labels) {
+                labels.add(site);
+                labelOwners.put(site, segment);
+            }
+        }
+    }
+
+    /**
+     * What the outline shows of a run of segments, in order, without offsets.
+     */
+    private static List<String> outlineKey(List<Segment> run) {
+        List<String> key = new ArrayList<>();
+        for (Segment segment : run) {
+            for (Object item : outlineItems(segment)) {
+                if (item instanceof HeaderSymbol header) key.add(header.level + " " + header.name);
+                else key.add(((LabelSite) item).kind + " " + ((LabelSite) item).id);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Headers and label definitions of a segment, ordered by (analysis-time) offset.
+     */
+    private static List<Object> outlineItems(Segment segment) {
+        List<LabelSite> definitions = new ArrayList<>();
+        for (LabelSite site : segment.labels) {
+            if (site.isDefinition()) definitions.add(site);
+        }
+        if (definitions.isEmpty()) return new ArrayList<>(segment.headers);
+        definitions.sort(Comparator.comparingInt(site -> site.start));
+
+        List<Object> items = new ArrayList<>(segment.headers.size() + definitions.size());
+        int d = 0;
+        for (HeaderSymbol header : segment.headers) {
+            while (d < definitions.size() && definitions.get(d).start < header.start) items.add(definitions.get(d++));
+            items.add(header);
+        }
+        while (d < definitions.size()) items.add(definitions.get(d++));
+        return items;
+    }
+
+    // ======================= Segment analysis =======================
+
+    private Segment analyzeSegment(int pos) {
+        DocumentCharStream input = new DocumentCharStream(text.snapshot(), pos);
+        SyntaxErrorCollector errors = new SyntaxErrorCollector();
+        MyMDLexer lexer = new MyMDLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+
+        List<Token> tokens = new ArrayList<>();
+        int depth = 0;
+        int end = text.length();
+        try {
+            while (true) {
+                Token t = lexer.nextToken();
+                if (lexer._hitEOF && t.getType() == MyMDLexer.DEDENT && t instanceof CommonToken dedent) {
+                    // 文件末尾补发的 DEDENT 没有位置，放到文末，否则诊断会随段平移到错误的位置
+                    dedent.setStartIndex(text.length());
+                    dedent.setStopIndex(text.length());
+                }
+                tokens.add(t);
+                int type = t.getType();
+                if (type == Token.EOF) break;
+                if (type == MyMDLexer.INDENT) depth++;
+                else if (type == MyMDLexer.DEDENT) depth--;
+                else if (type == MyMDLexer.PARAGRAPH_END) {
+                    int next = t.getStopIndex() + 1;
+                    if (next < text.length() && isBoundary(input, next, depth)) {
+                        end = next;
+                        break;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // 缩进错误：报告后跳到下一个可以重新开始的空行
+            int at = Math.max(pos, lexer._tokenStartCharIndex);
+            end = skipToBoundary(input, at);
+            List<Diagnostic> diagnostics = new ArrayList<>(errors.getErrors());
+            diagnostics.add(error(at, "Compiler Error: " + message(e)));
+            return new Segment(pos, end - pos, Math.max(input.getMaxRead(), end) - pos, diagnostics,
+                    TokenHighlighter.computeSpans(tokens), Collections.emptyList(), Collections.emptyList());
+        }
+
+        // 在块边界处截断时，补上 Lexer 本会在下一行行首发出的 DEDENT
+        List<Token> parseTokens = tokens;
+        if (tokens.get(tokens.size() - 1).getType() != Token.EOF && depth > 0) {
+            parseTokens = new ArrayList<>(tokens);
+            for (int i = 0; i < depth; i++) {
+                CommonToken dedent = new CommonToken(MyMDLexer.DEDENT, "DEDENT");
+                dedent.setStartIndex(end);
+                dedent.setStopIndex(end);
+                parseTokens.add(dedent);
+            }
+        }
+
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        if (pos > 0 && tokens.get(0).getType() == MyMDLexer.YAML_BLOCK) {
+            diagnostics.add(error(pos, "YAML front matter is only allowed at the start of the document"));
+        }
+
+        MyMDParser parser = new MyMDParser(new CommonTokenStream(new ListTokenSource(parseTokens)));
+        parser.removeErrorListeners();
+        parser.addErrorListener(errors);
+        DirectAstBuilder builder = new DirectAstBuilder();
+        parser.setBuildParseTree(false);
+        parser.addParseListener(builder);
+        try {
+            parser.doc();
+        } catch (RuntimeException e) {
+            diagnostics.add(error(pos, "Compiler Error: " + message(e)));
+        }
+        diagnostics.addAll(errors.getErrors());
+        if (builder.getFailure() != null && !errors.hasErrors()) {
+            diagnostics.add(error(pos, "Compiler Error: " + message(builder.getFailure())));
+        }
+
+        List<Block> blocks = errors.hasErrors() || builder.getFailure() != null ? null : builder.getBlocks();
+        return new Segment(pos, end - pos, Math.max(input.getMaxRead(), end) - pos, diagnostics,
+                TokenHighlighter.computeSpans(tokens), collectHeaders(tokens, blocks), builder.getLabels().getSites());
+    }
+
+    /**
+     * Whether the grammar can never continue across the blank line ending just before {@code next}.
+     */
+    private static boolean isBoundary(DocumentCharStream input, int next, int depth) {
+        int c = input.peek(next);
+        if (c == IntStream.EOF || c == ' ' || c == '\t' || c == '\r' || c == '\n') return false;
+        // 列表嵌套未关闭时，顶格的列表项会接续外层列表
+        return depth == 0 || !(c == '-' || c == '+' || c == '(' || Character.isLetterOrDigit(c));
+    }
+
+    /**
+     * Raw fallback after a lexer failure: the first non-blank column-0 character after a blank line.
+     */
+    private int skipToBoundary(DocumentCharStream input, int from) {
+        int i = from;
+        while (i < text.length()) {
+            if (input.peek(i++) != '\n') continue;
+            int j = i;
+            boolean blank = false;
+            while (true) {
+                int c = input.peek(j);
+                if (c == '\r' && input.peek(j + 1) == '\n') c = input.peek(++j);
+                if (c != '\n') break;
+                blank = true;
+                j++;
+            }
+            if (blank && j < text.length()) {
+                int c = input.peek(j);
+                if (c != ' ' && c != '\t' && c != '\r') return j;
+            }
+        }
+        return text.length();
+    }
+
+    private static List<HeaderSymbol> collectHeaders(List<Token> tokens, List<Block> blocks) {
+        List<HeaderSymbol> headers = new ArrayList<>();
+        List<Header> nodes = new ArrayList<>();
+        if (blocks != null) {
+            for (Block block : blocks) {
+                if (block instanceof Header header) nodes.add(header);
+            }
+        }
+
+        int depth = 0;
+        List<int[]> found = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            int type = t.getType();
+            if (type == MyMDLexer.INDENT) depth++;
+            else if (type == MyMDLexer.DEDENT) depth--;
+            if (depth > 0 || type < MyMDLexer.H1 || type > MyMDLexer.H6) continue;
+
+            int lineEnd = -1;
+            for (int j = i + 1; j < tokens.size() && lineEnd < 0; j++) {
+                int next = tokens.get(j).getType();
+                if (next == MyMDLexer.SOFT_BREAK || next == MyMDLexer.PARAGRAPH_END
+                        || next == MyMDLexer.HARD_BREAK || next == Token.EOF) {
+                    lineEnd = tokens.get(j).getStartIndex();
+                }
+            }
+            if (lineEnd < 0) lineEnd = tokens.get(tokens.size() - 1).getStopIndex() + 1;
+            found.add(new int[]{type - MyMDLexer.H1 + 1, t.getStartIndex(), t.getStopIndex() + 1, lineEnd, i});
+        }
+
+        // 解析成功时标题名取自 AST；否则退回到 Token 原文
+        boolean fromAst = nodes.size() == found.size();
+        for (int k = 0; k < found.size(); k++) {
+            int[] h = found.get(k);
+            String name = fromAst
+                    ? InlineText.plainText(nodes.get(k).getContent())
+                    : rawName(tokens, h[4], h[3]);
+            headers.add(new HeaderSymbol(h[0], name, h[1], h[2], h[3]));
+        }
+        return headers;
+    }
+
+    private static String rawName(List<Token> tokens, int headerToken, int lineEnd) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = headerToken + 1; j < tokens.size(); j++) {
+            Token t = tokens.get(j);
+            if (t.getStartIndex() >= lineEnd || t.getType() == Token.EOF) break;
+            switch (t.getType()) {
+                case MyMDLexer.BOLD_MARK, MyMDLexer.STAR, MyMDLexer.REF_ID, MyMDLexer.INDENT, MyMDLexer.DEDENT -> { }
+                default -> sb.append(t.getText());
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    private Diagnostic error(int at, String message) {
+        int line = lines.lineOf(at);
+        int lineEnd = line + 1 < lines.getLineCount() ? lines.getLineStart(line + 1) - 1 : text.length();
+        return new Diagnostic(0, 0, at, Math.max(at + 1, lineEnd), message);
+    }
+
+    private static String message(RuntimeException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    // ======================= Queries =======================
+
+    /** The whole text; copies the document, prefer {@link #getSnapshot()} or {@link #length()}. */
+    public String getText() {
+        return text.toString();
+    }
+
+    /** An immutable view of the current text. */
+    public TextSnapshot getSnapshot() {
+        return text.snapshot();
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    public LineIndex getLineIndex() {
+        return lines;
+    }
+
+    /**
+     * Syntax errors per segment, followed by undefined-reference and duplicate-label warnings in
+     * source order. {@code line} is 1-based and {@code column} 0-based, as reported by {@code SyntaxErrorCollector}.
+     */
+    public List<Diagnostic> getDiagnostics() {
+        List<Diagnostic> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            int shift = segment.shift();
+            for (Diagnostic d : segment.diagnostics) {
+                result.add(at(d.startIndex + shift, d.endIndex + shift, d.message, d.severity));
+            }
+        }
+
+        List<LabelSite> problems = new ArrayList<>(labels.getDanglingUses());
+        problems.addAll(labels.getDuplicateDefinitions());
+        List<LabelSite> shifted = new ArrayList<>(problems.size());
+        for (LabelSite site : problems) shifted.add(shift(site));
+        shifted.sort(Comparator.<LabelSite>comparingInt(site -> site.start).thenComparing(site -> site.id));
+        for (LabelSite site : shifted) {
+            result.add(at(site.start, site.end, labels.describeProblem(site), Diagnostic.Severity.WARNING));
+        }
+        return result;
+    }
+
+    private Diagnostic at(int start, int end, String message, Diagnostic.Severity severity) {
+        int line = lines.lineOf(start);
+        return new Diagnostic(line + 1, start - lines.getLineStart(line), start, end, message, severity);
+    }
+
+    /** Where {@code id} is defined (current offsets), or null. */
+    public LabelSite findDefinition(String id) {
+        LabelSite site = labels.getDefinition(id);
+        return site != null ? shift(site) : null;
+    }
+
+    /** References to {@code id} (current offsets). */
+    public List<LabelSite> findUses(String id) {
+        List<LabelSite> result = new ArrayList<>();
+        for (LabelSite site : labels.getUses(id)) result.add(shift(site));
+        result.sort(Comparator.comparingInt(site -> site.start));
+        return result;
+    }
+
+    /** The label definition or reference covering {@code offset}, or null. */
+    public LabelSite findLabelAt(int offset) {
+        for (Segment segment : segments) {
+            if (offset > segment.end()) continue;
+            if (offset < segment.start) break;
+            for (LabelSite site : segment.labels) {
+                LabelSite current = shift(site);
+                if (current.start <= offset && offset <= current.end) return current;
+            }
+        }
+        return null;
+    }
+
+    private LabelSite shift(LabelSite site) {
+        int delta = labelOwners.get(site).shift();
+        return delta == 0 ? site : new LabelSite(site.id, site.kind, site.start + delta, site.end + delta);
+    }
+
+    public List<HighlightSpan> getSpans() {
+        return getSpans(0, text.length());
+    }
+
+    /**
+     * Spans of the segments overlapping {@code [from, to)}.
+     */
+    public List<HighlightSpan> getSpans(int from, int to) {
+        List<HighlightSpan> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.end() < from) continue;
+            if (segment.start > to) break;
+            int shift = segment.shift();
+            for (HighlightSpan span : segment.spans) {
+                if (span.end + shift < from || span.start + shift > to) continue;
+                result.add(shift == 0 ? span
+                        : new HighlightSpan(span.start + shift, span.end + shift, span.tokenType, span.styles));
+            }
+        }
+        return result;
+    }
+
+    /** Top-level headers in document order. */
+    public List<HeaderSymbol> getHeaders() {
+        List<HeaderSymbol> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            int shift = segment.shift();
+            for (HeaderSymbol header : segment.headers) result.add(header.shift(shift));
+        }
+        return result;
+    }
+
+    /**
+     * Headers nested by level, each with the deeper headers and the labels of its section.
+     * A header's own {@code [sec:id]} becomes its {@link OutlineEntry#labelId} instead of a child.
+     */
+    public List<OutlineEntry> getOutline() {
+        if (outline == null) buildOutline();
+        return outline;
+    }
+
+    /**
+     * All outline entries in document order; {@code getOutlineEntries().get(e.index)} is {@code e}.
+     */
+    public List<OutlineEntry> getOutlineEntries() {
+        if (outline == null) buildOutline();
+        return outlineEntries;
+    }
+
+    /**
+     * Increases whenever an edit changes the outline other than by moving its entries.
+     */
+    public int getOutlineVersion() {
+        return outlineVersion;
+    }
+
+    private void buildOutline() {
+        List<OutlineEntry> entries = new ArrayList<>();
+        Deque<Integer> open = new ArrayDeque<>();
+        for (Segment segment : segments) {
+            int shift = segment.shift();
+            List<Object> items = outlineItems(segment);
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i) instanceof HeaderSymbol header) {
+                    // 标题行末尾的 [sec:id] 是标题自己的标签
+                    String labelId = null;
+                    while (i + 1 < items.size() && items.get(i + 1) instanceof LabelSite site
+                            && site.kind == LabelSite.Kind.HEADER && site.start < header.end) {
+                        labelId = site.id;
+                        i++;
+                    }
+                    entries.add(new OutlineEntry(OutlineEntry.Kind.HEADER, header.level, header.name, labelId,
+                            header.start + shift, header.end + shift, entries.size()));
+                    while (!open.isEmpty() && open.peek() >= header.level) open.pop();
+                    open.push(header.level);
+                } else {
+                    LabelSite site = (LabelSite) items.get(i);
+                    int level = open.isEmpty() ? 1 : open.peek() + 1;
+                    entries.add(new OutlineEntry(OutlineEntry.Kind.LABEL, level, site.id, site.id,
+                            site.start + shift, site.end + shift, entries.size()));
+                }
+            }
+        }
+        outline = OutlineEntry.nest(entries);
+        outlineEntries = Collections.unmodifiableList(entries);
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Characters re-analysed by the last edit (or the whole text after construction). */
+    public int getLastReanalyzedLength() {
+        return lastReanalyzedLength;
+    }
+
+    public int getLastReanalyzedSegments() {
+        return lastReanalyzedSegments;
+    }
+}
@@ -0,0 +1,75 @@
+package com.guaguaaaa.mymd.core.incremental;
+
+import java.util.Arrays;
+
+/**
+ * Start offsets of every line, updated in place on edits.
+ * Lines are 0-based here, as in LSP; {@code Diagnostic.line} adds 1 to match ANTLR.
+ */
+public class LineIndex {
+
+    private int[] starts = new int[64];
+    private int count;
+
+    public LineIndex(CharSequence text) {
+        starts[0] = 0;
+        count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') add(i + 1);
+        }
+    }
+
+    private void add(int start) {
+        if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+        starts[count++] = start;
+    }
+
+    /**
+     * Replaces the text between {@code start} and {@code end} (old offsets) with {@code replacement}.
+     */
+    public void update(int start, int end, CharSequence replacement) {
+        int delta = replacement.length() - (end - start);
+
+        // 被替换区间内的换行：[first, last) 这些行起点落在 (start, end] 中
+        int first = lineOf(start) + 1;
+        int last = first;
+        while (last < count && starts[last] <= end) last++;
+
+        int added = 0;
+        for (int i = 0; i < replacement.length(); i++) {
+            if (replacement.charAt(i) == '\n') added++;
+        }
+
+        int newCount = count - (last - first) + added;
+        int[] target = newCount > starts.length ? Arrays.copyOf(starts, Math.max(newCount, starts.length * 2)) : starts;
+        System.arraycopy(starts, last, target, first + added, count - last);
+        for (int i = first + added; i < newCount; i++) target[i] += delta;
+
+        int slot = first;
+        for (int i = 0; i < replacement.length(); i++) {
+            if (replacement.charAt(i) == '\n') target[slot++] = start + i + 1;
+        }
+        starts = target;
+        count = newCount;
+    }
+
+    public int getLineCount() {
+        return count;
+    }
+
+    public int getLineStart(int line) {
+        return starts[line];
+    }
+
+    /** 0-based line containing {@code offset}. */
+    public int lineOf(int offset) {
+        int slot = Arrays.binarySearch(starts, 0, count, offset);
+        return slot >= 0 ? slot : -slot - 2;
+    }
+
+    /** Offset of an LSP position, clamped to the line start table. */
+    public int offsetOf(int line, int character) {
+        if (line >= count) return starts[count - 1] + character;
+        return starts[line] + character;
+    }
+}
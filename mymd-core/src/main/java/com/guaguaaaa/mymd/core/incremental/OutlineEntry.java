@@ -0,0 +1,80 @@
+package com.guaguaaaa.mymd.core.incremental;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A node of the document outline: a header, with the deeper headers and the equation / figure
+ * labels of its section as children.
+ * <p>
+ * {@code start}/{@code end} are the offsets to jump to when the entry is selected; for a header
+ * they cover the header line, for a label its {@code [eq:id]} or {@code \label{id}}.
+ */
+public class OutlineEntry {
+
+    public enum Kind {
+        HEADER,
+        LABEL
+    }
+
+    public final Kind kind;
+    /** Header level 1-6; for labels, one deeper than the enclosing header (1 before the first header). */
+    public final int level;
+    public final String title;
+    /** The header's trailing {@code [sec:id]}, or the label id; null for a header without label. */
+    public final String labelId;
+    public final int start;
+    public final int end;
+    /** Position of the entry in document order, counting all entries of the outline. */
+    public final int index;
+
+    private final List<OutlineEntry> children = new ArrayList<>();
+
+    public OutlineEntry(Kind kind, int level, String title, String labelId, int start, int end, int index) {
+        this.kind = kind;
+        this.level = level;
+        this.title = title;
+        this.labelId = labelId;
+        this.start = start;
+        this.end = end;
+        this.index = index;
+    }
+
+    public List<OutlineEntry> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    void addChild(OutlineEntry child) {
+        children.add(child);
+    }
+
+    /**
+     * Links entries given in document order into the outline tree: a header goes under the
+     * nearest preceding header of a lower level, a label under the header whose section it is in.
+     * The entries must not have children yet.
+     *
+     * @return the top-level entries
+     */
+    public static List<OutlineEntry> nest(List<OutlineEntry> entries) {
+        List<OutlineEntry> roots = new ArrayList<>();
+        Deque<OutlineEntry> open = new ArrayDeque<>();
+        for (OutlineEntry entry : entries) {
+            if (entry.kind == Kind.HEADER) {
+                while (!open.isEmpty() && open.peek().level >= entry.level) open.pop();
+            }
+            if (open.isEmpty()) roots.add(entry);
+            else open.peek().addChild(entry);
+            if (entry.kind == Kind.HEADER) open.push(entry);
+        }
+        return Collections.unmodifiableList(roots);
+    }
+
+    @Override
+    public String toString() {
+        return (kind == Kind.HEADER ? "H" + level + " " + title : "label") + (labelId != null ? " [" + labelId + "]" : "")
+                + " " + start + "-" + end;
+    }
+}
@@ -0,0 +1,53 @@
+package com.guaguaaaa.mymd.core.incremental;
+
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+
+import java.util.List;
+
+/**
+ * The analysis of one independently parsed run of blocks.
+ * <p>
+ * Results are stored with the offsets they had when the segment was analysed ({@code origin});
+ * edits before the segment only move {@link #start}, and readers add {@link #shift()}.
+ */
+final class Segment {
+
+    final int origin;
+    final int length;
+    /** Characters after {@code origin} the lexer looked at, including the boundary check. */
+    final int lookahead;
+
+    final List<Diagnostic> diagnostics;
+    final List<HighlightSpan> spans;
+    final List<HeaderSymbol> headers;
+    final List<LabelSite> labels;
+
+    int start;
+
+    Segment(int origin, int length, int lookahead, List<Diagnostic> diagnostics,
+            List<HighlightSpan> spans, List<HeaderSymbol> headers, List<LabelSite> labels) {
+        this.origin = origin;
+        this.start = origin;
+        this.length = length;
+        this.lookahead = lookahead;
+        this.diagnostics = diagnostics;
+        this.spans = spans;
+        this.headers = headers;
+        this.labels = labels;
+    }
+
+    int shift() {
+        return start - origin;
+    }
+
+    int end() {
+        return start + length;
+    }
+
+    /** Last offset whose content this segment's analysis depends on. */
+    int lookaheadEnd() {
+        return start + lookahead;
+    }
+}
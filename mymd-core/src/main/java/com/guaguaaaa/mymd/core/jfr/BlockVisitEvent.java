@@ -0,0 +1,32 @@
+package com.guaguaaaa.mymd.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning the conversion of a single block into a Pandoc node.
+ * <p>
+ * Disabled by default; see {@link IndentationEvent} for how to turn it on.
+ */
+@Name("com.guaguaaaa.mymd.BlockVisit")
+@Label("MyMD Block Visit")
+@Category({"MyMD", "AST"})
+@Description("Conversion of one block from the parse tree to the Pandoc AST")
+@Enabled(false)
+@StackTrace(false)
+public class BlockVisitEvent extends Event {
+
+    @Label("Block Type")
+    public String blockType;
+
+    @Label("Start Line")
+    public int startLine;
+
+    @Label("Token Count")
+    public int tokenCount;
+}
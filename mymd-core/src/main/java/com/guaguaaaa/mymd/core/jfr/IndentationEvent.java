@@ -0,0 +1,40 @@
+package com.guaguaaaa.mymd.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted by {@code MyMDLexer.nextToken} whenever a line start
+ * is checked against the indentation stack.
+ * <p>
+ * Disabled by default. Enable it with a custom settings file, e.g.
+ * {@code jfr configure +com.guaguaaaa.mymd.Indentation#enabled=true --output mymd.jfc}.
+ */
+@Name("com.guaguaaaa.mymd.Indentation")
+@Label("MyMD Indentation")
+@Category({"MyMD", "Lexer"})
+@Description("Indentation handling in MyMDLexer.nextToken")
+@Enabled(false)
+@StackTrace(false)
+public class IndentationEvent extends Event {
+
+    @Label("Line")
+    public int line;
+
+    @Label("Indent Width")
+    public int indent;
+
+    @Label("Stack Depth")
+    public int depth;
+
+    @Label("INDENT Tokens")
+    public int indents;
+
+    @Label("DEDENT Tokens")
+    public int dedents;
+}
@@ -0,0 +1,39 @@
+package com.guaguaaaa.mymd.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning a pandoc subprocess from spawn to exit.
+ * <p>
+ * Disabled by default; see {@link IndentationEvent} for how to turn it on.
+ */
+@Name("com.guaguaaaa.mymd.PandocProcess")
+@Label("MyMD Pandoc Process")
+@Category({"MyMD", "Pandoc"})
+@Description("Lifecycle of a pandoc subprocess")
+@Enabled(false)
+@StackTrace(false)
+public class PandocProcessEvent extends Event {
+
+    @Label("Command")
+    public String command;
+
+    @Label("PID")
+    public long pid;
+
+    @Label("Input Characters")
+    public long inputChars;
+
+    @Label("Exit Code")
+    public int exitCode;
+
+    @Label("Stdin Written")
+    @Description("Nanoseconds from spawn until stdin was closed")
+    public long stdinNanos;
+}
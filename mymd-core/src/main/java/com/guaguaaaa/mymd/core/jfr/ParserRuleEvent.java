@@ -0,0 +1,36 @@
+package com.guaguaaaa.mymd.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event spanning entry to exit of an expensive {@code MyMDParser} rule
+ * ({@code paragraph}, {@code orderedList}, {@code nestedBody}).
+ * <p>
+ * Disabled by default; see {@link IndentationEvent} for how to turn it on.
+ */
+@Name("com.guaguaaaa.mymd.ParserRule")
+@Label("MyMD Parser Rule")
+@Category({"MyMD", "Parser"})
+@Description("Time spent inside an expensive MyMDParser rule")
+@Enabled(false)
+@StackTrace(false)
+public class ParserRuleEvent extends Event {
+
+    @Label("Rule")
+    public String rule;
+
+    @Label("Start Line")
+    public int startLine;
+
+    @Label("Start Token Index")
+    public int startTokenIndex;
+
+    @Label("Stop Token Index")
+    public int stopTokenIndex;
+}
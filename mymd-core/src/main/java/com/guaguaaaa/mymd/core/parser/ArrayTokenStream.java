@@ -0,0 +1,311 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link TokenStream} that keeps its tokens as columns of {@code int} arrays (type, start,
+ * stop, line, column) instead of one {@link CommonToken} per token.
+ * <p>
+ * {@link #LA(int)}, which the parser's prediction calls most, reads the type column without
+ * creating anything. {@link #LT(int)} and {@link #get(int)} return small flyweight views; a view's
+ * text is only cut out of the input when {@link Token#getText()} is called, i.e. for the token
+ * types the AST builder actually reads. The tokens pulled from the source die right after their
+ * fields are copied, so a parse retains about 20 bytes per token rather than a token object, its
+ * source pair and possibly its text.
+ * <p>
+ * Like {@link BufferedTokenStream}, tokens are fetched lazily as the parser looks ahead, so lexer
+ * errors are still reported interleaved with parser errors. All tokens are treated as being on the
+ * default channel, which is the only channel {@link MyMDLexer} uses.
+ */
+public class ArrayTokenStream implements TokenStream {
+
+    private final TokenSource tokenSource;
+    private final CharStream input;
+
+    // 从 TokenSnapshot 回放时直接共用快照的数组，不再复制
+    private final TokenSnapshot snapshot;
+    private final ANTLRErrorListener snapshotListener;
+    private int nextError;
+
+    private int[] types;
+    private int[] starts;
+    private int[] stops;
+    private int[] lines;
+    private int[] columns;
+    private int n;
+    private boolean fetchedEOF;
+    private int p;
+
+    // 解析器对同一位置会反复调用 LT(1)，缓存上一次创建的视图
+    private Token lastView;
+
+    public ArrayTokenStream(TokenSource tokenSource) {
+        this.tokenSource = tokenSource;
+        this.input = tokenSource.getInputStream();
+        this.snapshot = null;
+        this.snapshotListener = null;
+        this.types = new int[1024];
+        this.starts = new int[1024];
+        this.stops = new int[1024];
+        this.lines = new int[1024];
+        this.columns = new int[1024];
+    }
+
+    ArrayTokenStream(TokenSnapshot snapshot, TokenSource replay, ANTLRErrorListener listener) {
+        this.tokenSource = replay;
+        this.input = replay.getInputStream();
+        this.snapshot = snapshot;
+        this.snapshotListener = listener;
+        this.types = snapshot.types();
+        this.starts = snapshot.starts();
+        this.stops = snapshot.stops();
+        this.lines = snapshot.lines();
+        this.columns = snapshot.columns();
+    }
+
+    // ======================= Filling =======================
+
+    private void sync(int i) {
+        while (n <= i && !fetchedEOF) fetch();
+    }
+
+    private void fetch() {
+        if (snapshot != null) {
+            nextError = snapshot.reportErrors(nextError, n, snapshotListener);
+            if (n >= snapshot.size()) throw new RuntimeException(snapshot.getFailure());
+        } else {
+            Token t = tokenSource.nextToken();
+            if (n == types.length) grow();
+            types[n] = t.getType();
+            starts[n] = t.getStartIndex();
+            stops[n] = t.getStopIndex();
+            lines[n] = t.getLine();
+            columns[n] = t.getCharPositionInLine();
+        }
+        if (types[n] == Token.EOF) fetchedEOF = true;
+        n++;
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        stops = Arrays.copyOf(stops, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        columns = Arrays.copyOf(columns, capacity);
+    }
+
+    /** Fetches all remaining tokens. */
+    public void fill() {
+        while (!fetchedEOF) fetch();
+    }
+
+    // ======================= TokenStream =======================
+
+    /** Index of the token {@code k} tokens from the current one, or -1 before the start. */
+    private int lookIndex(int k) {
+        if (k < 0) return p + k;
+        int i = p + k - 1;
+        sync(i);
+        return i >= n ? n - 1 : i;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) return Token.INVALID_TYPE;
+        int index = lookIndex(i);
+        return index < 0 ? Token.INVALID_TYPE : types[index];
+    }
+
+    @Override
+    public Token LT(int k) {
+        if (k == 0) return null;
+        int index = lookIndex(k);
+        return index < 0 ? null : view(index);
+    }
+
+    @Override
+    public Token get(int index) {
+        if (index < 0 || index >= n) {
+            throw new IndexOutOfBoundsException("token index " + index + " out of range 0.." + (n - 1));
+        }
+        return view(index);
+    }
+
+    private Token view(int index) {
+        Token last = lastView;
+        if (last != null && last.getTokenIndex() == index) return last;
+        Token view = new View(index);
+        lastView = view;
+        return view;
+    }
+
+    @Override
+    public void consume() {
+        sync(p);
+        if (p < n && types[p] == Token.EOF) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p++;
+        sync(p);
+    }
+
+    @Override
+    public int mark() {
+        return 0;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void seek(int index) {
+        sync(index);
+        p = index;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public String getSourceName() {
+        return tokenSource.getSourceName();
+    }
+
+    @Override
+    public TokenSource getTokenSource() {
+        return tokenSource;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = interval.a;
+        int stop = interval.b;
+        if (start < 0 || stop < 0) return "";
+        sync(stop);
+        if (stop >= n) stop = n - 1;
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i <= stop; i++) {
+            if (types[i] == Token.EOF) break;
+            sb.append(textOf(i));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getText() {
+        fill();
+        return getText(Interval.of(0, n - 1));
+    }
+
+    @Override
+    public String getText(RuleContext ctx) {
+        return getText(ctx.getSourceInterval());
+    }
+
+    @Override
+    public String getText(Token start, Token stop) {
+        if (start == null || stop == null) return "";
+        return getText(Interval.of(start.getTokenIndex(), stop.getTokenIndex()));
+    }
+
+    /** The tokens fetched so far, as views. */
+    public List<Token> getTokens() {
+        List<Token> tokens = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) tokens.add(new View(i));
+        return tokens;
+    }
+
+    private String textOf(int i) {
+        int type = types[i];
+        // 虚拟 Token 没有对应的源文本，与 MyMDLexer 创建时给的文本一致
+        if (type == MyMDLexer.INDENT) return "INDENT";
+        if (type == MyMDLexer.DEDENT) return "DEDENT";
+        int size = input.size();
+        if (starts[i] < size && stops[i] < size) {
+            return input.getText(Interval.of(starts[i], stops[i]));
+        }
+        return "<EOF>";
+    }
+
+    /**
+     * A token that reads its fields from the stream's columns.
+     */
+    private final class View implements Token {
+        private final int index;
+
+        View(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getText() {
+            return textOf(index);
+        }
+
+        @Override
+        public int getType() {
+            return types[index];
+        }
+
+        @Override
+        public int getLine() {
+            return lines[index];
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return columns[index];
+        }
+
+        @Override
+        public int getChannel() {
+            return Token.DEFAULT_CHANNEL;
+        }
+
+        @Override
+        public int getTokenIndex() {
+            return index;
+        }
+
+        @Override
+        public int getStartIndex() {
+            return starts[index];
+        }
+
+        @Override
+        public int getStopIndex() {
+            return stops[index];
+        }
+
+        @Override
+        public TokenSource getTokenSource() {
+            return tokenSource;
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public String toString() {
+            String text = getText().replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+            return "[@" + index + "," + getStartIndex() + ":" + getStopIndex() + "='" + text + "',<"
+                    + getType() + ">," + getLine() + ":" + getCharPositionInLine() + "]";
+        }
+    }
+}
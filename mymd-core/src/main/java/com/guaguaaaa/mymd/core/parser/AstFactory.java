@@ -0,0 +1,213 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.ast.*;
+import com.guaguaaaa.mymd.core.util.ListMarker;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds Pandoc nodes from token text.
+ * Shared by {@link PandocAstVisitor} and {@link DirectAstBuilder} so that both construction
+ * paths produce identical ASTs.
+ */
+final class AstFactory {
+
+    private AstFactory() {
+    }
+
+    /**
+     * Maps an H1..H6 token type to its heading level.
+     */
+    static int headerLevel(int tokenType) {
+        return switch (tokenType) {
+            case MyMDLexer.H1 -> 1;
+            case MyMDLexer.H2 -> 2;
+            case MyMDLexer.H3 -> 3;
+            case MyMDLexer.H4 -> 4;
+            case MyMDLexer.H5 -> 5;
+            case MyMDLexer.H6 -> 6;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Creates a header. A trailing {@code [type:id]} reference is rewritten into {@code \label{type:id}}.
+     */
+    static Header header(int level, List<Inline> inlines) {
+        if (!inlines.isEmpty()) {
+            Inline lastNode = inlines.get(inlines.size() - 1);
+
+            if (lastNode instanceof RawInline raw) {
+                String content = raw.getContent();
+                if ("latex".equals(raw.getFormat()) && content != null && content.startsWith("\\ref{")) {
+                    String id = content.substring(5, content.length() - 1);
+
+                    inlines.remove(inlines.size() - 1);
+
+                    inlines.add(new RawInline("latex", "\\label{" + id + "}"));
+                }
+            }
+        }
+
+        return new Header(level, inlines);
+    }
+
+    /**
+     * Creates a display math paragraph from the BLOCK_MATH token text and an optional REF_ID token text.
+     */
+    static Para blockMath(String blockMathText, String refIdText) {
+        String mathText = blockMathText.substring(2, blockMathText.length() - 2).trim();
+
+        if (refIdText != null) {
+            String labelId = refIdText.substring(1, refIdText.length() - 1);
+            mathText += " \\label{" + labelId + "}";
+        }
+
+        MathNode mathNode = new MathNode(MathNode.MathType.DISPLAY_MATH, mathText);
+        return new Para(Collections.singletonList(mathNode));
+    }
+
+    /**
+     * Creates a code block from the CODE_BLOCK token text. The first line names the language.
+     */
+    static CodeBlock codeBlock(String codeBlockText) {
+        String inner = codeBlockText.substring(3, codeBlockText.length() - 3);
+
+        String language = "";
+        String codeContent = inner;
+
+        int firstNewLineIndex = inner.indexOf('\n');
+        if (firstNewLineIndex > 0) {
+            language = inner.substring(0, firstNewLineIndex).trim();
+            codeContent = inner.substring(firstNewLineIndex + 1);
+        }
+
+        return new CodeBlock(codeContent, language);
+    }
+
+    /**
+     * Creates the blocks of one list item: the first line as a paragraph followed by the nested body.
+     */
+    static List<Block> listItem(List<Inline> firstParaInlines, List<Block> nestedBlocks) {
+        List<Block> blocks = new ArrayList<>();
+        if (!firstParaInlines.isEmpty()) {
+            blocks.add(new Para(firstParaInlines));
+        }
+        if (nestedBlocks != null) {
+            blocks.addAll(nestedBlocks);
+        }
+        return blocks;
+    }
+
+    /**
+     * Creates an ordered list, checking that every explicit marker matches the style of the first one.
+     * @param markerTexts The trimmed marker of each item, {@code "+"} for auto-numbered items.
+     */
+    static OrderedList orderedList(List<String> markerTexts, List<List<Block>> items) {
+        ListMarker firstMarker = null;
+
+        for (String markerText : markerTexts) {
+            if (markerText.equals("+")) continue;
+
+            ListMarker currentMarker = ListMarker.parse(markerText);
+            if (firstMarker == null) {
+                firstMarker = currentMarker;
+            } else {
+                // Strict Check logic
+                boolean styleMatch = (currentMarker.style == firstMarker.style);
+                if (!styleMatch) {
+                    boolean isAlphaRomanConflict =
+                            (firstMarker.style == ListAttributes.Style.LowerAlpha && currentMarker.style == ListAttributes.Style.LowerRoman) ||
+                                    (firstMarker.style == ListAttributes.Style.UpperAlpha && currentMarker.style == ListAttributes.Style.UpperRoman);
+                    if (isAlphaRomanConflict) styleMatch = true;
+                }
+                if (!styleMatch || currentMarker.delim != firstMarker.delim) {
+                    throw new RuntimeException("Syntax Error: List marker mismatch. Expected " +
+                            firstMarker.style + "/" + firstMarker.delim +
+                            ", found " + currentMarker.style + "/" + currentMarker.delim);
+                }
+            }
+        }
+
+        ListAttributes attrs;
+        if (firstMarker != null) {
+            attrs = new ListAttributes(firstMarker.startNumber, firstMarker.style, firstMarker.delim);
+        } else {
+            attrs = new ListAttributes(1, ListAttributes.Style.Decimal, ListAttributes.Delim.Period);
+        }
+
+        return new OrderedList(attrs, items);
+    }
+
+    /**
+     * Creates the node for an escape exception token ({@code \\}, {@code \n}, {@code \*}, ...).
+     */
+    static Inline escapeException(int tokenType, String text) {
+        if (tokenType == MyMDLexer.ESCAPED_NEWLINE) return new LineBreak();
+        // Remove the leading backslash
+        return new Str(text.substring(1));
+    }
+
+    static MathNode inlineMath(String inlineMathText) {
+        return new MathNode(MathNode.MathType.INLINE_MATH, inlineMathText.substring(1, inlineMathText.length() - 1));
+    }
+
+    static Code inlineCode(String inlineCodeText) {
+        return new Code(inlineCodeText.substring(1, inlineCodeText.length() - 1));
+    }
+
+    static Cite citation(String citationText) {
+        return new Cite(citationKey(citationText));
+    }
+
+    /**
+     * Removes the surrounding {@code [@ ]} of a CITATION token.
+     */
+    static String citationKey(String citationText) {
+        return citationText.substring(2, citationText.length() - 1);
+    }
+
+    /**
+     * 处理引用/标签语法 [type:id]，默认生成 LaTeX 的 \ref{type:id}
+     */
+    static RawInline ref(String refIdText) {
+        return new RawInline("latex", "\\ref{" + stripBrackets(refIdText) + "}");
+    }
+
+    /**
+     * Removes the surrounding {@code [ ]} of a REF_ID token.
+     */
+    static String stripBrackets(String refIdText) {
+        return refIdText.substring(1, refIdText.length() - 1);
+    }
+
+    /**
+     * Records the offsets of the tokens {@code ctx} spans for {@code node}. No-op without a map,
+     * for non-nodes and for nodes that already have a position (an inner rule returned them).
+     */
+    static void recordSource(SourceMap sourceMap, Object node, ParserRuleContext ctx) {
+        if (sourceMap == null || !(node instanceof PandocNode pandocNode) || sourceMap.contains(pandocNode)) return;
+        int start = ctx.getStart().getStartIndex();
+        Token stop = ctx.getStop();
+        int end = stop != null ? Math.max(start, stop.getStopIndex() + 1) : start;
+        sourceMap.record(pandocNode, start, end);
+    }
+
+    static void recordSource(SourceMap sourceMap, PandocNode node, Token token) {
+        if (sourceMap != null) sourceMap.record(node, token.getStartIndex(), token.getStopIndex() + 1);
+    }
+
+    /**
+     * Gives the inlines a factory method wrapped into {@code para} (e.g. display math) the position of {@code token}.
+     */
+    static void recordContent(SourceMap sourceMap, Para para, Token token) {
+        if (sourceMap == null) return;
+        for (Object inline : (List<?>) para.c) {
+            if (inline instanceof Inline node) recordSource(sourceMap, node, token);
+        }
+    }
+}
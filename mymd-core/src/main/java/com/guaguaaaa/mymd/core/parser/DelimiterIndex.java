@@ -0,0 +1,170 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import org.antlr.v4.runtime.CharStream;
+
+import java.util.Arrays;
+
+/**
+ * Positions of every closing delimiter in a document, collected in one linear pass.
+ * <p>
+ * The lexer rules for YAML_BLOCK, BLOCK_MATH, CODE_BLOCK, LATEX_ENV_BLOCK and INLINE_MATH scan
+ * non-greedily until their closing delimiter. When that delimiter does not exist, ANTLR scans to
+ * EOF before giving up, and it does so again for every unterminated opener, which makes lexing
+ * quadratic while the user is still typing. With an index installed via
+ * {@link MyMDLexer#setDelimiterIndex(DelimiterIndex)} each rule first asks whether a closer exists
+ * within its maximum extent (a binary search) and is skipped otherwise.
+ * <p>
+ * Documents that lex without errors produce the same tokens with or without an index (given
+ * {@link #UNLIMITED} extents). An unterminated opener is still reported as an error, but the
+ * lexer resumes right after it instead of swallowing the rest of the document.
+ * <p>
+ * All positions are code point indices, as used by ANTLR's {@link CharStream}.
+ */
+public class DelimiterIndex {
+
+    /** No limit: only the existence of a closer is checked. */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final int maxBlockLength;
+    private final int maxInlineMathLength;
+
+    // 各类闭合定界符的起始位置，升序排列
+    private final Positions dollars = new Positions();
+    private final Positions doubleDollars = new Positions();
+    private final Positions fences = new Positions();
+    private final Positions yamlFences = new Positions();
+    private final Positions latexEnds = new Positions();
+
+    // LATEX_ENV_BLOCK 闭合处 '\end{name}' 的结束位置，与 latexEnds 一一对应
+    private final Positions latexEndStops = new Positions();
+
+    public DelimiterIndex(CharStream input) {
+        this(input, UNLIMITED, UNLIMITED);
+    }
+
+    /**
+     * @param maxBlockLength      Longest YAML, display math, code or LaTeX environment block, in code points.
+     * @param maxInlineMathLength Longest inline math span, in code points.
+     */
+    public DelimiterIndex(CharStream input, int maxBlockLength, int maxInlineMathLength) {
+        this.maxBlockLength = maxBlockLength;
+        this.maxInlineMathLength = maxInlineMathLength;
+
+        int saved = input.index();
+        input.seek(0);
+        int size = input.size();
+        int prev = -1;
+        for (int i = 0; i < size; i++) {
+            int c = input.LA(i + 1);
+            switch (c) {
+                case '$':
+                    dollars.add(i);
+                    if (input.LA(i + 2) == '$') doubleDollars.add(i);
+                    break;
+                case '`':
+                    if (input.LA(i + 2) == '`' && input.LA(i + 3) == '`') fences.add(i);
+                    break;
+                case '-':
+                    if ((prev == '\r' || prev == '\n') && input.LA(i + 2) == '-' && input.LA(i + 3) == '-') {
+                        yamlFences.add(i);
+                    }
+                    break;
+                case '\\':
+                    indexLatexEnd(input, i, size);
+                    break;
+                default:
+                    break;
+            }
+            prev = c;
+        }
+        input.seek(saved);
+    }
+
+    /**
+     * Records {@code \end{name}} at {@code i}. Names never overlap, so the pass stays linear.
+     */
+    private void indexLatexEnd(CharStream input, int i, int size) {
+        String prefix = "\\end{";
+        for (int k = 1; k < prefix.length(); k++) {
+            if (input.LA(i + 1 + k) != prefix.charAt(k)) return;
+        }
+        int j = i + prefix.length();
+        int nameStart = j;
+        while (j < size && isEnvNameChar(input.LA(j + 1))) j++;
+        if (j > nameStart && input.LA(j + 1) == '}') {
+            latexEnds.add(i);
+            latexEndStops.add(j + 1);
+        }
+    }
+
+    private static boolean isEnvNameChar(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '*';
+    }
+
+    // ======================= Lexer predicates =======================
+    // tokenStart: 当前 Token 的起点；from: 开始符之后的第一个位置
+
+    /** '$' ~[$] ... '$' */
+    public boolean hasInlineMathClose(int tokenStart, int from) {
+        int close = dollars.next(from);
+        return close >= 0 && withinLimit(tokenStart, close + 1, maxInlineMathLength);
+    }
+
+    /** '$$' ... '$$' */
+    public boolean hasBlockMathClose(int tokenStart, int from) {
+        int close = doubleDollars.next(from);
+        return close >= 0 && withinLimit(tokenStart, close + 2, maxBlockLength);
+    }
+
+    /** '```' ... '```' */
+    public boolean hasCodeBlockClose(int tokenStart, int from) {
+        int close = fences.next(from);
+        return close >= 0 && withinLimit(tokenStart, close + 3, maxBlockLength);
+    }
+
+    /**
+     * '---' [ \t]* [\r\n]+ ... [\r\n]+ '---'. {@code from} is right after the first line break,
+     * and the closing fence needs a line break of its own.
+     */
+    public boolean hasYamlClose(int tokenStart, int from) {
+        int close = yamlFences.next(from + 1);
+        return close >= 0 && withinLimit(tokenStart, close + 3, maxBlockLength);
+    }
+
+    /** '\begin{name}' ... '\end{name}' */
+    public boolean hasLatexEnvClose(int tokenStart, int from) {
+        int slot = latexEnds.slot(from);
+        return slot < latexEnds.size && withinLimit(tokenStart, latexEndStops.get(slot), maxBlockLength);
+    }
+
+    private static boolean withinLimit(int tokenStart, int tokenEnd, int limit) {
+        return limit == UNLIMITED || tokenEnd - tokenStart <= limit;
+    }
+
+    /** Growable sorted int list. */
+    private static final class Positions {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int slot) {
+            return values[slot];
+        }
+
+        /** Index of the first position {@code >= from}, or {@code size}. */
+        int slot(int from) {
+            int slot = Arrays.binarySearch(values, 0, size, from);
+            return slot >= 0 ? slot : -slot - 1;
+        }
+
+        /** First position {@code >= from}, or -1. */
+        int next(int from) {
+            int slot = slot(from);
+            return slot < size ? values[slot] : -1;
+        }
+    }
+}
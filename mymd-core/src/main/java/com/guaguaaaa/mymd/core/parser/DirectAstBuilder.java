@@ -0,0 +1,413 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.ast.*;
+import com.guaguaaaa.mymd.core.jfr.BlockVisitEvent;
+import com.guaguaaaa.mymd.core.util.MetadataConverter;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parse listener that builds the Pandoc AST while the parser runs.
+ * <p>
+ * Install it with {@code parser.addParseListener(builder)} and {@code parser.setBuildParseTree(false)}:
+ * every rule pushes a frame on entry, collects the tokens and child results it sees, and folds them
+ * into a node on exit. Only the frames of the rules currently being parsed are alive, so the full
+ * parse tree is never retained and no second traversal is needed.
+ * <p>
+ * The output is identical to {@link PandocAstVisitor}; node construction is shared via {@link AstFactory}.
+ */
+public class DirectAstBuilder implements ParseTreeListener {
+
+    /** Per-rule scratch space. Frames are pooled and reused across rules. */
+    private static final class Frame {
+        final List<Object> items = new ArrayList<>();
+        BlockVisitEvent event;
+    }
+
+    /** Result of a listItem/orderedListItem rule, consumed by the enclosing list. */
+    private record ListItemResult(String marker, List<Block> blocks) {
+    }
+
+    /** Result of a nestedBody rule. */
+    private record NestedBlocks(List<Block> blocks) {
+    }
+
+    private final List<Frame> frames = new ArrayList<>();
+    private int depth = 0;
+
+    private final JsonObject metadata = new JsonObject();
+    private List<Block> blocks = new ArrayList<>();
+    private RuntimeException failure;
+    private final LabelRecorder labels = new LabelRecorder();
+    private final SourceMap sourceMap;
+
+    public DirectAstBuilder() {
+        this(null);
+    }
+
+    /**
+     * @param sourceMap Receives the source offsets of every block and inline built; may be null.
+     */
+    public DirectAstBuilder(SourceMap sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    public String getPandocJson() {
+        return PandocAstVisitor.toPandocJson(this.metadata, this.blocks);
+    }
+
+    public JsonObject getMetadata() {
+        return metadata;
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Label definitions and references seen while building.
+     */
+    public LabelIndex getLabels() {
+        return labels.getIndex();
+    }
+
+    /**
+     * Citation keys seen while building.
+     */
+    public LabelIndex getCitations() {
+        return labels.getCitations();
+    }
+
+    /** The source map passed to the constructor, or null. */
+    public SourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    /**
+     * Returns the first exception raised while building nodes (e.g. a list marker mismatch).
+     * Building errors are deferred so that syntax errors reported by the parser take precedence,
+     * matching the behaviour of visiting a finished parse tree.
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+        if (depth == frames.size()) {
+            frames.add(new Frame());
+        }
+        Frame frame = frames.get(depth++);
+        frame.items.clear();
+
+        if (ctx.getRuleIndex() == MyMDParser.RULE_block) {
+            BlockVisitEvent event = new BlockVisitEvent();
+            event.begin();
+            frame.event = event;
+        }
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+        Frame frame = frames.get(--depth);
+
+        Object result = null;
+        try {
+            result = build(ctx, frame.items);
+            AstFactory.recordSource(sourceMap, result, ctx);
+        } catch (RuntimeException e) {
+            if (failure == null) failure = e;
+        }
+
+        if (frame.event != null) {
+            BlockVisitEvent event = frame.event;
+            frame.event = null;
+            if (event.shouldCommit()) {
+                event.blockType = result instanceof Block block ? block.t : ctx.getClass().getSimpleName();
+                event.startLine = ctx.getStart().getLine();
+                Token stop = ctx.getStop();
+                if (stop != null) {
+                    event.tokenCount = stop.getTokenIndex() - ctx.getStart().getTokenIndex() + 1;
+                }
+                event.commit();
+            }
+        }
+
+        frame.items.clear();
+        if (result != null && depth > 0) {
+            frames.get(depth - 1).items.add(result);
+        }
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+        if (depth > 0) {
+            frames.get(depth - 1).items.add(node.getSymbol());
+        }
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+        // 语法错误时结果会被丢弃，这里无需处理
+    }
+
+    private Object build(ParserRuleContext ctx, List<Object> items) {
+        switch (ctx.getRuleIndex()) {
+            case MyMDParser.RULE_doc:
+                this.blocks = collect(items, Block.class);
+                return null;
+
+            case MyMDParser.RULE_yaml_block:
+                mergeMetadata(firstToken(items).getText());
+                return null;
+
+            case MyMDParser.RULE_horizontalRule:
+                return new HorizontalRule();
+
+            case MyMDParser.RULE_blockquote: {
+                List<Inline> inlines = collect(items, Inline.class);
+                Para para = new Para(inlines);
+                if (sourceMap != null) sourceMap.recordSpan(para, inlines);
+                return new BlockQuote(Collections.singletonList(para));
+            }
+
+            case MyMDParser.RULE_header: {
+                List<Inline> inlines = collect(items, Inline.class);
+                labels.header(inlines);
+                Inline last = inlines.isEmpty() ? null : inlines.get(inlines.size() - 1);
+                Header header = AstFactory.header(AstFactory.headerLevel(firstToken(items).getType()), inlines);
+                // 末尾的引用被改写成 \label 时沿用原位置
+                if (sourceMap != null && last != null) sourceMap.recordLike(inlines.get(inlines.size() - 1), last);
+                return header;
+            }
+
+            case MyMDParser.RULE_paragraph:
+                return buildParagraph(items);
+
+            case MyMDParser.RULE_blockMath: {
+                Token refId = findToken(items, MyMDLexer.REF_ID);
+                labels.blockMath(firstToken(items), refId);
+                Para para = AstFactory.blockMath(firstToken(items).getText(), refId != null ? refId.getText() : null);
+                AstFactory.recordContent(sourceMap, para, firstToken(items));
+                return para;
+            }
+
+            case MyMDParser.RULE_latexEnv:
+                labels.rawLatex(firstToken(items));
+                return new RawBlock("latex", firstToken(items).getText());
+
+            case MyMDParser.RULE_codeBlock:
+                return AstFactory.codeBlock(firstToken(items).getText());
+
+            case MyMDParser.RULE_bulletList: {
+                List<List<Block>> listItems = new ArrayList<>();
+                for (Object item : items) {
+                    if (item instanceof ListItemResult r) listItems.add(r.blocks());
+                }
+                return new BulletList(listItems);
+            }
+
+            case MyMDParser.RULE_orderedList: {
+                List<String> markers = new ArrayList<>();
+                List<List<Block>> listItems = new ArrayList<>();
+                for (Object item : items) {
+                    if (item instanceof ListItemResult r) {
+                        markers.add(r.marker());
+                        listItems.add(r.blocks());
+                    }
+                }
+                return AstFactory.orderedList(markers, listItems);
+            }
+
+            case MyMDParser.RULE_listItem:
+            case MyMDParser.RULE_orderedListItem:
+                return buildListItem(items);
+
+            case MyMDParser.RULE_nestedBody:
+                return new NestedBlocks(collect(items, Block.class));
+
+            case MyMDParser.RULE_inline:
+                if (ctx instanceof MyMDParser.HardBreakInlineContext) return new LineBreak();
+                return firstNode(items);
+
+            case MyMDParser.RULE_inlineCommon:
+                return buildInlineCommon(ctx, items);
+
+            case MyMDParser.RULE_escapeException: {
+                Token token = firstToken(items);
+                return AstFactory.escapeException(token.getType(), token.getText());
+            }
+
+            case MyMDParser.RULE_rawLatex:
+                labels.rawLatex(firstToken(items));
+                return new RawInline("latex", firstToken(items).getText());
+
+            case MyMDParser.RULE_citation:
+                labels.citation(firstToken(items));
+                return AstFactory.citation(firstToken(items).getText());
+
+            case MyMDParser.RULE_lbracket: return new Str("[");
+            case MyMDParser.RULE_rbracket: return new Str("]");
+            case MyMDParser.RULE_bang: return new Str("!");
+            case MyMDParser.RULE_gt: return new Str(">");
+            case MyMDParser.RULE_lparen: return new Str("(");
+            case MyMDParser.RULE_rparen: return new Str(")");
+            case MyMDParser.RULE_urlText: return new Str(firstToken(items).getText());
+            case MyMDParser.RULE_dash: return new Str("-");
+            case MyMDParser.RULE_star: return new Str("*");
+
+            case MyMDParser.RULE_bold:
+                return new Strong(collect(items, Inline.class));
+
+            case MyMDParser.RULE_italic:
+                return new Emph(collect(items, Inline.class));
+
+            case MyMDParser.RULE_link: {
+                Token refId = findToken(items, MyMDLexer.REF_ID);
+                List<Inline> content = refId != null
+                        ? Collections.singletonList(refText(refId))
+                        : collect(items, Inline.class);
+                return new Link(content, findUrl(items));
+            }
+
+            case MyMDParser.RULE_image: {
+                Token refId = findToken(items, MyMDLexer.REF_ID);
+                List<Inline> altText = refId != null
+                        ? Collections.singletonList(refText(refId))
+                        : collect(items, Inline.class);
+                return new Image(altText, findUrl(items));
+            }
+
+            case MyMDParser.RULE_url: {
+                StringBuilder url = new StringBuilder();
+                for (Object item : items) {
+                    if (item instanceof Token token) url.append(token.getText());
+                }
+                return url.toString();
+            }
+
+            case MyMDParser.RULE_ref: {
+                RawInline ref = AstFactory.ref(firstToken(items).getText());
+                labels.ref(firstToken(items), ref);
+                return ref;
+            }
+
+            default:
+                // block, bulletListBlock, orderedListBlock, inlineNoBreak: 直接透传子节点
+                return firstNode(items);
+        }
+    }
+
+    private Object buildInlineCommon(ParserRuleContext ctx, List<Object> items) {
+        if (ctx instanceof MyMDParser.InlineMathInlineContext) {
+            return AstFactory.inlineMath(firstToken(items).getText());
+        }
+        if (ctx instanceof MyMDParser.InlineCodeInlineContext) {
+            return AstFactory.inlineCode(firstToken(items).getText());
+        }
+        if (ctx instanceof MyMDParser.EscapedInlineContext) {
+            return new Str(firstToken(items).getText().substring(1));
+        }
+        if (ctx instanceof MyMDParser.TextInlineContext) {
+            return new Str(firstToken(items).getText());
+        }
+        if (ctx instanceof MyMDParser.SpaceInlineContext) {
+            return new Space();
+        }
+        return firstNode(items);
+    }
+
+    private Para buildParagraph(List<Object> items) {
+        List<Inline> inlines = new ArrayList<>();
+        for (Object item : items) {
+            if (item instanceof Token token) {
+                if (token.getType() == MyMDLexer.SOFT_BREAK) {
+                    Space space = new Space();
+                    AstFactory.recordSource(sourceMap, space, token);
+                    inlines.add(space);
+                }
+            } else if (item instanceof Inline inline) {
+                inlines.add(inline);
+            }
+        }
+        return new Para(inlines);
+    }
+
+    private ListItemResult buildListItem(List<Object> items) {
+        Token markerToken = firstToken(items);
+        String marker = markerToken.getType() == MyMDLexer.ORDERED_LIST_ITEM ? markerToken.getText().trim() : "+";
+
+        List<Inline> firstParaInlines = new ArrayList<>();
+        List<Block> nestedBlocks = null;
+        for (Object item : items) {
+            if (item instanceof Inline inline) {
+                firstParaInlines.add(inline);
+            } else if (item instanceof NestedBlocks nested) {
+                nestedBlocks = nested.blocks();
+            }
+        }
+        List<Block> blocks = AstFactory.listItem(firstParaInlines, nestedBlocks);
+        if (sourceMap != null && !firstParaInlines.isEmpty()) sourceMap.recordSpan(blocks.get(0), firstParaInlines);
+        return new ListItemResult(marker, blocks);
+    }
+
+    private Str refText(Token refId) {
+        Str str = new Str(AstFactory.stripBrackets(refId.getText()));
+        AstFactory.recordSource(sourceMap, str, refId);
+        return str;
+    }
+
+    private void mergeMetadata(String rawYaml) {
+        JsonObject parsedMeta = MetadataConverter.parseYamlToPandocMeta(rawYaml);
+        if (parsedMeta != null) {
+            for (String key : parsedMeta.keySet()) {
+                this.metadata.add(key, parsedMeta.get(key));
+            }
+        }
+    }
+
+    private static <T> List<T> collect(List<Object> items, Class<T> type) {
+        List<T> result = new ArrayList<>();
+        for (Object item : items) {
+            if (type.isInstance(item)) result.add(type.cast(item));
+        }
+        return result;
+    }
+
+    private static Object firstNode(List<Object> items) {
+        for (Object item : items) {
+            if (!(item instanceof Token)) return item;
+        }
+        return null;
+    }
+
+    private static Token firstToken(List<Object> items) {
+        for (Object item : items) {
+            if (item instanceof Token token) return token;
+        }
+        throw new IllegalStateException("Rule matched no tokens");
+    }
+
+    private static Token findToken(List<Object> items, int type) {
+        for (Object item : items) {
+            if (item instanceof Token token && token.getType() == type) return token;
+        }
+        return null;
+    }
+
+    private static String findUrl(List<Object> items) {
+        for (Object item : items) {
+            if (item instanceof String url) return url;
+        }
+        return "";
+    }
+}
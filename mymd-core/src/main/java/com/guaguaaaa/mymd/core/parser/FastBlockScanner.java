@@ -0,0 +1,432 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.ast.*;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hand-written block scanner that compiles the common subset of MyMD without ANTLR.
+ * <p>
+ * The source is cut into chunks at blank lines. A chunk whose lines are all plain paragraph text,
+ * {@code #} headers or flat {@code - } bullet items (no markup characters, no indentation, no
+ * trailing whitespace) is turned into AST nodes directly. Anything else is handed to the ANTLR
+ * lexer and parser as a region that extends to the next blank line after which a plain chunk
+ * starts at column 0, which is a point where the grammar can never continue a construct.
+ * <p>
+ * {@link #scan()} returns {@code false} whenever a region reports an error; the caller then
+ * recompiles the whole document through the regular pipeline so diagnostics stay identical.
+ */
+public class FastBlockScanner {
+
+    private final String source;
+    private final CompilerOptions options;
+    private final int length;
+    private final boolean bmpOnly;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private final JsonObject metadata = new JsonObject();
+    private final LabelIndex labels = new LabelIndex();
+    private final LabelIndex citations = new LabelIndex();
+
+    private CharStream input;
+    private DelimiterIndex delimiters;
+    private int fastBlockCount = 0;
+    private int fallbackRegionCount = 0;
+
+    // 字符下标与 ANTLR 码点下标之间的增量换算基准
+    private int charBase = 0;
+    private int codePointBase = 0;
+
+    public FastBlockScanner(String source) {
+        this(source, new CompilerOptions());
+    }
+
+    /**
+     * @param options Only the lexer guard settings apply to the ANTLR regions.
+     */
+    public FastBlockScanner(String source, CompilerOptions options) {
+        this.source = source;
+        this.options = options;
+        this.length = source.length();
+        this.bmpOnly = source.codePointCount(0, length) == length;
+    }
+
+    /**
+     * Compiles the whole source.
+     * @return {@code false} if the caller must fall back to the regular pipeline.
+     */
+    public boolean scan() {
+        int pos = 0;
+        while (pos < length) {
+            int next = fastChunkEnd(pos, false);
+            if (next >= 0) {
+                emitFastChunk(pos);
+                pos = next;
+            } else {
+                pos = compileRegion(pos);
+                if (pos < 0) return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public JsonObject getMetadata() {
+        return metadata;
+    }
+
+    /** Labels and references of the ANTLR regions; fast chunks cannot contain any. */
+    public LabelIndex getLabels() {
+        return labels;
+    }
+
+    /** Citation keys of the ANTLR regions, for the same reason. */
+    public LabelIndex getCitations() {
+        return citations;
+    }
+
+    public String getPandocJson() {
+        return PandocAstVisitor.toPandocJson(metadata, blocks);
+    }
+
+    /** Number of blocks produced without ANTLR. */
+    public int getFastBlockCount() {
+        return fastBlockCount;
+    }
+
+    /** Number of regions that went through the ANTLR lexer and parser. */
+    public int getFallbackRegionCount() {
+        return fallbackRegionCount;
+    }
+
+    // ======================= Fast chunks =======================
+
+    /**
+     * Checks whether the chunk starting at {@code start} can be compiled without ANTLR.
+     * @param afterIndent whether the preceding region left list nesting open, in which case a
+     *                    bullet item at column 0 would continue the enclosing list.
+     * @return the offset after the chunk and its blank lines, or -1 if the chunk needs ANTLR.
+     */
+    private int fastChunkEnd(int start, boolean afterIndent) {
+        if (afterIndent && source.charAt(start) == '-') return -1;
+
+        int lineStart = start;
+        while (true) {
+            int lineEnd = lineEnd(lineStart);
+            if (!isFastLine(lineStart, lineEnd)) return -1;
+
+            int nl = newlineLength(lineEnd);
+            if (nl == 0) return length; // EOF
+            int nextLine = lineEnd + nl;
+            if (nextLine >= length) return -1; // 文件末尾的单个换行会被解析成 SOFT_BREAK EOF
+
+            int blank = newlineLength(nextLine);
+            if (blank > 0) {
+                // PARAGRAPH_END：吞掉连续空行
+                int next = nextLine + blank;
+                int more;
+                while ((more = newlineLength(next)) > 0) next += more;
+                if (next < length) {
+                    char c = source.charAt(next);
+                    // 下一块缩进会被当作本块的嵌套内容，交给 ANTLR
+                    if (c == ' ' || c == '\t' || c == '\r') return -1;
+                }
+                return next;
+            }
+            lineStart = nextLine;
+        }
+    }
+
+    /**
+     * A fast line is a header ({@code #..######} + blanks), a bullet item ({@code -} + blanks) or
+     * plain text, followed by at least one safe word and no trailing blanks.
+     */
+    private boolean isFastLine(int start, int end) {
+        if (start >= end) return false;
+        char first = source.charAt(start);
+        if (isBlank(first)) return false; // 行首空白由 Lexer 的缩进逻辑处理
+        int content;
+        boolean textLine = false;
+        if (first == '#') {
+            int hashes = 0;
+            while (start + hashes < end && source.charAt(start + hashes) == '#') hashes++;
+            if (hashes > 6) return false;
+            content = skipBlanks(start + hashes, end);
+            if (content == start + hashes) return false;
+        } else if (first == '-') {
+            content = skipBlanks(start + 1, end);
+            if (content == start + 1) return false;
+        } else {
+            content = start;
+            textLine = true;
+        }
+        if (content >= end) return false;
+
+        int pos = content;
+        while (pos < end) {
+            int wordEnd = pos;
+            while (wordEnd < end && !isBlank(source.charAt(wordEnd))) {
+                if (isMarkupChar(source.charAt(wordEnd))) return false;
+                wordEnd++;
+            }
+            // 段落行首的 "1." / "a." / "iv." 会被当作有序列表
+            if (textLine && pos == content && isOrderedMarker(pos, wordEnd)) return false;
+
+            pos = skipBlanks(wordEnd, end);
+            if (pos == end && pos > wordEnd) return false; // 行尾空白可能构成 HARD_BREAK
+        }
+        return true;
+    }
+
+    /**
+     * Emits the AST for a chunk already accepted by {@link #fastChunkEnd}.
+     */
+    private void emitFastChunk(int start) {
+        List<Inline> paragraph = null;
+        List<List<Block>> bulletItems = null;
+
+        int lineStart = start;
+        while (true) {
+            int lineEnd = lineEnd(lineStart);
+            char first = source.charAt(lineStart);
+
+            if (first == '#') {
+                paragraph = flushParagraph(paragraph);
+                bulletItems = flushBulletList(bulletItems);
+                int hashes = 0;
+                while (source.charAt(lineStart + hashes) == '#') hashes++;
+                List<Inline> inlines = new ArrayList<>();
+                appendWords(inlines, skipBlanks(lineStart + hashes, lineEnd), lineEnd);
+                blocks.add(AstFactory.header(hashes, inlines));
+                fastBlockCount++;
+            } else if (first == '-') {
+                paragraph = flushParagraph(paragraph);
+                if (bulletItems == null) bulletItems = new ArrayList<>();
+                List<Inline> inlines = new ArrayList<>();
+                appendWords(inlines, skipBlanks(lineStart + 1, lineEnd), lineEnd);
+                bulletItems.add(AstFactory.listItem(inlines, null));
+            } else {
+                bulletItems = flushBulletList(bulletItems);
+                if (paragraph == null) {
+                    paragraph = new ArrayList<>();
+                } else {
+                    paragraph.add(new Space()); // SOFT_BREAK
+                }
+                appendWords(paragraph, lineStart, lineEnd);
+            }
+
+            int nl = newlineLength(lineEnd);
+            if (nl == 0 || newlineLength(lineEnd + nl) > 0) break;
+            lineStart = lineEnd + nl;
+        }
+
+        flushParagraph(paragraph);
+        flushBulletList(bulletItems);
+    }
+
+    private void appendWords(List<Inline> inlines, int pos, int end) {
+        while (pos < end) {
+            int wordEnd = pos;
+            while (wordEnd < end && !isBlank(source.charAt(wordEnd))) wordEnd++;
+            int next = skipBlanks(wordEnd, end);
+
+            if (next > wordEnd && isOrderedMarker(pos, wordEnd)) {
+                // ORDERED_LIST_ITEM 连同后面的空白一起成为 Str，不产生 Space
+                inlines.add(new Str(source.substring(pos, next)));
+            } else {
+                inlines.add(new Str(source.substring(pos, wordEnd)));
+                if (next > wordEnd) inlines.add(new Space());
+            }
+            pos = next;
+        }
+    }
+
+    private List<Inline> flushParagraph(List<Inline> paragraph) {
+        if (paragraph != null) {
+            blocks.add(new Para(paragraph));
+            fastBlockCount++;
+        }
+        return null;
+    }
+
+    private List<List<Block>> flushBulletList(List<List<Block>> items) {
+        if (items != null) {
+            blocks.add(new BulletList(items));
+            fastBlockCount++;
+        }
+        return null;
+    }
+
+    // ======================= ANTLR regions =======================
+
+    /**
+     * Lexes from {@code start} until a blank line that is followed by a fast chunk, then parses
+     * exactly those tokens.
+     * @return the offset where the next fast chunk starts, or -1 on any error.
+     */
+    private int compileRegion(int start) {
+        if (input == null) {
+            input = CharStreams.fromString(source);
+            if (options.isLexerGuards()) {
+                delimiters = new DelimiterIndex(input, options.getMaxBlockLength(), options.getMaxInlineMathLength());
+            }
+        }
+        fallbackRegionCount++;
+
+        // 这里只关心有没有错误：出错的区域交给完整解析重新报告
+        SyntaxErrorCollector errorListener = new SyntaxErrorCollector(0);
+        input.seek(toCodePointIndex(start));
+        MyMDLexer lexer = new MyMDLexer(input);
+        lexer.setDelimiterIndex(delimiters);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+
+        List<Token> tokens = new ArrayList<>();
+        int depth = 0;
+        int end = length;
+        try {
+            while (true) {
+                Token t = lexer.nextToken();
+                int type = t.getType();
+                if (type == MyMDLexer.YAML_BLOCK && start > 0) return -1; // 只允许出现在文档开头
+                tokens.add(t);
+
+                if (type == Token.EOF) break;
+                if (type == MyMDLexer.INDENT) depth++;
+                else if (type == MyMDLexer.DEDENT) depth--;
+                else if (type == MyMDLexer.PARAGRAPH_END) {
+                    int next = toCharIndex(t.getStopIndex() + 1);
+                    if (next < length && fastChunkEnd(next, depth > 0) >= 0) {
+                        end = next;
+                        break;
+                    }
+                }
+            }
+
+            // 在块边界处截断时，补上 Lexer 本会在下一行行首发出的 DEDENT
+            if (tokens.get(tokens.size() - 1).getType() != Token.EOF) {
+                for (int i = 0; i < depth; i++) {
+                    tokens.add(new CommonToken(MyMDLexer.DEDENT, "DEDENT"));
+                }
+            }
+
+            MyMDParser parser = new MyMDParser(new CommonTokenStream(new ListTokenSource(tokens)));
+            parser.removeErrorListeners();
+            parser.addErrorListener(errorListener);
+            DirectAstBuilder builder = new DirectAstBuilder();
+            parser.setBuildParseTree(false);
+            parser.addParseListener(builder);
+            parser.doc();
+
+            if (errorListener.hasErrors() || builder.getFailure() != null) return -1;
+
+            blocks.addAll(builder.getBlocks());
+            labels.addAll(builder.getLabels());
+            citations.addAll(builder.getCitations());
+            JsonObject regionMeta = builder.getMetadata();
+            for (String key : regionMeta.keySet()) {
+                metadata.add(key, regionMeta.get(key));
+            }
+            return end;
+        } catch (RuntimeException e) {
+            // 例如缩进错误：交给完整流程报告
+            return -1;
+        }
+    }
+
+    private int toCodePointIndex(int charIndex) {
+        if (bmpOnly) return charIndex;
+        codePointBase += source.codePointCount(charBase, charIndex);
+        charBase = charIndex;
+        return codePointBase;
+    }
+
+    private int toCharIndex(int codePointIndex) {
+        if (bmpOnly) return codePointIndex;
+        charBase = source.offsetByCodePoints(charBase, codePointIndex - codePointBase);
+        codePointBase = codePointIndex;
+        return charBase;
+    }
+
+    // ======================= Character helpers =======================
+
+    /** Offset of the line terminator (or EOF) of the line starting at {@code start}. */
+    private int lineEnd(int start) {
+        int pos = start;
+        while (pos < length) {
+            char c = source.charAt(pos);
+            if (c == '\n') return pos;
+            if (c == '\r' && pos + 1 < length && source.charAt(pos + 1) == '\n') return pos;
+            pos++;
+        }
+        return length;
+    }
+
+    /** Length of the {@code \n} or {@code \r\n} at {@code pos}, or 0. */
+    private int newlineLength(int pos) {
+        if (pos >= length) return 0;
+        char c = source.charAt(pos);
+        if (c == '\n') return 1;
+        if (c == '\r' && pos + 1 < length && source.charAt(pos + 1) == '\n') return 2;
+        return 0;
+    }
+
+    private int skipBlanks(int pos, int end) {
+        while (pos < end && isBlank(source.charAt(pos))) pos++;
+        return pos;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * Characters that start a token other than TEXT/URL_TEXT, plus a lone carriage return.
+     */
+    private static boolean isMarkupChar(char c) {
+        switch (c) {
+            case '*': case '\\': case '$': case '`': case '#':
+            case '[': case ']': case '!': case '>': case '(': case ')':
+            case '-': case '+': case '\r':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether the word would be lexed as ORDERED_LIST_ITEM when followed by blanks:
+     * digits, a single letter or roman numerals, followed by a period.
+     */
+    private boolean isOrderedMarker(int start, int end) {
+        int len = end - start;
+        if (len < 2 || source.charAt(end - 1) != '.') return false;
+        if (len == 2 && isAsciiLetter(source.charAt(start))) return true;
+
+        boolean digits = true;
+        boolean roman = true;
+        for (int i = start; i < end - 1; i++) {
+            char c = source.charAt(i);
+            if (c < '0' || c > '9') digits = false;
+            if ("IVXLCDMivxlcdm".indexOf(c) < 0) roman = false;
+        }
+        return digits || roman;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,102 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.ast.Inline;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+import org.antlr.v4.runtime.Token;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records label definitions and references into a {@link LabelIndex} while the AST is built,
+ * and citation keys into a second index.
+ * Shared by {@link PandocAstVisitor} and {@link DirectAstBuilder}, like {@link AstFactory}.
+ */
+final class LabelRecorder {
+
+    private static final Pattern LATEX_LABEL = Pattern.compile("\\\\(label|ref|eqref|autoref|cref|Cref|pageref|nameref)\\{([^{}]+)}");
+
+    private final LabelIndex index = new LabelIndex();
+    private final LabelIndex citations = new LabelIndex();
+
+    // 最近一个 [type:id] 生成的节点：若它是标题的最后一个行内元素，会被改写成 \label
+    private Inline lastRefNode;
+    private LabelSite lastRefSite;
+
+    LabelIndex getIndex() {
+        return index;
+    }
+
+    LabelIndex getCitations() {
+        return citations;
+    }
+
+    /**
+     * A {@code [@key]} citation.
+     */
+    void citation(Token citation) {
+        citations.add(new LabelSite(AstFactory.citationKey(citation.getText()), LabelSite.Kind.CITATION,
+                citation.getStartIndex(), citation.getStopIndex() + 1));
+    }
+
+    /**
+     * A {@code [type:id]} reference in running text.
+     */
+    void ref(Token refId, Inline node) {
+        LabelSite site = new LabelSite(AstFactory.stripBrackets(refId.getText()), LabelSite.Kind.REF,
+                refId.getStartIndex(), refId.getStopIndex() + 1);
+        index.add(site);
+        lastRefNode = node;
+        lastRefSite = site;
+    }
+
+    /**
+     * Must be called with the header's inlines before {@link AstFactory#header} rewrites a trailing reference.
+     */
+    void header(List<Inline> inlines) {
+        if (lastRefNode != null && !inlines.isEmpty() && inlines.get(inlines.size() - 1) == lastRefNode) {
+            index.remove(lastRefSite);
+            index.add(new LabelSite(lastRefSite.id, LabelSite.Kind.HEADER, lastRefSite.start, lastRefSite.end));
+        }
+        lastRefNode = null;
+        lastRefSite = null;
+    }
+
+    /**
+     * A display math block, optionally followed by {@code [eq:id]}.
+     */
+    void blockMath(Token math, Token refId) {
+        if (refId != null) {
+            index.add(new LabelSite(AstFactory.stripBrackets(refId.getText()), LabelSite.Kind.EQUATION,
+                    refId.getStartIndex(), refId.getStopIndex() + 1));
+        }
+        rawLatex(math);
+    }
+
+    /**
+     * Scans raw LaTeX (inline commands, environments, math) for {@code \label} and {@code \ref}-like commands.
+     */
+    void rawLatex(Token token) {
+        String text = token.getText();
+        if (text.indexOf('\\') < 0) return;
+        Matcher m = LATEX_LABEL.matcher(text);
+        int charPos = 0;
+        int codePointPos = 0;
+        while (m.find()) {
+            // Token 下标以码点计，匹配位置以 UTF-16 计
+            codePointPos += text.codePointCount(charPos, m.start());
+            charPos = m.start();
+            int start = token.getStartIndex() + codePointPos;
+            int end = start + text.codePointCount(m.start(), m.end());
+            LabelSite.Kind kind = m.group(1).equals("label") ? LabelSite.Kind.LATEX_LABEL : LabelSite.Kind.REF;
+            if (kind == LabelSite.Kind.REF) kind = LabelSite.Kind.LATEX_REF;
+            // \cref{a,b} 可以引用多个标签
+            for (String id : m.group(2).split(",")) {
+                String trimmed = id.trim();
+                if (!trimmed.isEmpty()) index.add(new LabelSite(trimmed, kind, start, end));
+            }
+        }
+    }
+}
@@ -1,17 +1,20 @@
 package com.guaguaaaa.mymd.core.parser;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import com.guaguaaaa.mymd.core.ast.*;
+import com.guaguaaaa.mymd.core.jfr.BlockVisitEvent;
 import com.guaguaaaa.mymd.core.util.MetadataConverter;
+import com.guaguaaaa.mymd.core.xref.LabelIndex;
 import com.guaguaaaa.mymd.core.ast.Cite;
-import com.guaguaaaa.mymd.core.util.ListMarker;
 
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -28,25 +31,81 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
     private JsonObject metadata = new JsonObject();
     // 保存正文块
     private List<Block> blocks = new ArrayList<>();
+    // 标签定义与引用
+    private final LabelRecorder labels = new LabelRecorder();
+    // 可选：节点到源码偏移的旁路表
+    private final SourceMap sourceMap;
 
-    private final Gson gson = new GsonBuilder().create();
+    public PandocAstVisitor() {
+        this(null);
+    }
+
+    /**
+     * @param sourceMap Receives the source offsets of every block and inline built; may be null.
+     */
+    public PandocAstVisitor(SourceMap sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    /**
+     * Visits a subtree and, if a source map is kept, records the offsets of the node it produced.
+     */
+    @Override
+    public PandocNode visit(ParseTree tree) {
+        PandocNode node = super.visit(tree);
+        if (sourceMap != null && tree instanceof ParserRuleContext ctx) {
+            AstFactory.recordSource(sourceMap, node, ctx);
+        }
+        return node;
+    }
 
     /**
      * 获取最终的 Pandoc JSON 字符串
      */
     public String getPandocJson() {
-        JsonObject root = new JsonObject();
+        return toPandocJson(this.metadata, this.blocks);
+    }
+
+    public JsonObject getMetadata() {
+        return metadata;
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
 
-        JsonArray apiVersion = new JsonArray();
-        apiVersion.add(1);
-        apiVersion.add(23);
-        root.add("pandoc-api-version", apiVersion);
+    public LabelIndex getLabels() {
+        return labels.getIndex();
+    }
 
-        root.add("meta", this.metadata != null ? this.metadata : new JsonObject());
+    public LabelIndex getCitations() {
+        return labels.getCitations();
+    }
 
-        root.add("blocks", gson.toJsonTree(this.blocks));
+    /** The source map passed to the constructor, or null. */
+    public SourceMap getSourceMap() {
+        return sourceMap;
+    }
 
-        return gson.toJson(root);
+    /**
+     * Serializes metadata and blocks into a Pandoc JSON document.
+     */
+    public static String toPandocJson(JsonObject metadata, List<Block> blocks) {
+        StringWriter buffer = new StringWriter();
+        try (JsonWriter out = AstJson.GSON.newJsonWriter(buffer)) {
+            // 与 Gson.toJson 一样宽松，直接流式写出而不先构建 JsonElement 树
+            out.setLenient(true);
+            out.beginObject();
+            out.name("pandoc-api-version").beginArray().value(1).value(23).endArray();
+            out.name("meta");
+            AstJson.writeValue(out, metadata != null ? metadata : new JsonObject());
+            out.name("blocks");
+            AstJson.writeValue(out, blocks);
+            out.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
     }
 
     /**
@@ -59,13 +118,33 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
         }
 
         this.blocks = ctx.block().stream()
-                .map(this::visit)
+                .map(this::visitBlock)
                 .map(node -> (Block) node)
                 .collect(Collectors.toList());
 
         return null;
     }
 
+    /**
+     * Visits a single block, recording a {@link BlockVisitEvent} when Flight Recorder has it enabled.
+     */
+    private PandocNode visitBlock(ParserRuleContext blockCtx) {
+        BlockVisitEvent event = new BlockVisitEvent();
+        event.begin();
+
+        PandocNode node = visit(blockCtx);
+
+        if (event.shouldCommit()) {
+            event.blockType = node instanceof Block block ? block.t : blockCtx.getClass().getSimpleName();
+            event.startLine = blockCtx.getStart().getLine();
+            if (blockCtx.getStop() != null) {
+                event.tokenCount = blockCtx.getStop().getTokenIndex() - blockCtx.getStart().getTokenIndex() + 1;
+            }
+            event.commit();
+        }
+        return node;
+    }
+
     /**
      * 处理 YAML 块
      */
@@ -125,6 +204,7 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
 
     @Override
     public PandocNode visitLatexEnv(MyMDParser.LatexEnvContext ctx) {
+        labels.rawLatex(ctx.LATEX_ENV_BLOCK().getSymbol());
         return new RawBlock("latex", ctx.LATEX_ENV_BLOCK().getText());
     }
 
@@ -142,6 +222,7 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
                 .collect(Collectors.toList());
 
         Para para = new Para(inlines);
+        if (sourceMap != null) sourceMap.recordSpan(para, inlines);
         return new BlockQuote(Collections.singletonList(para));
     }
 
@@ -153,36 +234,15 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
      */
     @Override
     public PandocNode visitHeader(MyMDParser.HeaderContext ctx) {
-        int level = 0;
-        if (ctx.H1() != null) level = 1;
-        else if (ctx.H2() != null) level = 2;
-        else if (ctx.H3() != null) level = 3;
-        else if (ctx.H4() != null) level = 4;
-        else if (ctx.H5() != null) level = 5;
-        else if (ctx.H6() != null) level = 6;
+        int level = AstFactory.headerLevel(ctx.getStart().getType());
 
         List<Inline> inlines = ctx.inline().stream()
                 .map(this::visit)
                 .map(node -> (Inline) node)
                 .collect(Collectors.toList());
 
-        if (!inlines.isEmpty()) {
-            Inline lastNode = inlines.get(inlines.size() - 1);
-
-            if (lastNode instanceof RawInline) {
-                RawInline raw = (RawInline) lastNode;
-                String content = raw.getContent();
-                if ("latex".equals(raw.getFormat()) && content != null && content.startsWith("\\ref{")) {
-                    String id = content.substring(5, content.length() - 1);
-
-                    inlines.remove(inlines.size() - 1);
-
-                    inlines.add(new RawInline("latex", "\\label{" + id + "}"));
-                }
-            }
-        }
-
-        return new Header(level, inlines);
+        labels.header(inlines);
+        return header(level, inlines);
     }
 
     /**
@@ -192,17 +252,11 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
      */
     @Override
     public PandocNode visitBlockMath(MyMDParser.BlockMathContext ctx) {
-        String fullText = ctx.BLOCK_MATH().getText();
-        String mathText = fullText.substring(2, fullText.length() - 2).trim();
-
-        if (ctx.REF_ID() != null) {
-            String labelRaw = ctx.REF_ID().getText();
-            String labelId = labelRaw.substring(1, labelRaw.length() - 1);
-            mathText += " \\label{" + labelId + "}";
-        }
-
-        MathNode mathNode = new MathNode(MathNode.MathType.DISPLAY_MATH, mathText);
-        return new Para(Collections.singletonList(mathNode));
+        String refIdText = ctx.REF_ID() != null ? ctx.REF_ID().getText() : null;
+        labels.blockMath(ctx.BLOCK_MATH().getSymbol(), ctx.REF_ID() != null ? ctx.REF_ID().getSymbol() : null);
+        Para para = AstFactory.blockMath(ctx.BLOCK_MATH().getText(), refIdText);
+        AstFactory.recordContent(sourceMap, para, ctx.BLOCK_MATH().getSymbol());
+        return para;
     }
 
     /**
@@ -212,22 +266,7 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
      */
     @Override
     public PandocNode visitCodeBlock(MyMDParser.CodeBlockContext ctx) {
-        String fullText = ctx.CODE_BLOCK().getText();
-
-        String inner = fullText.substring(3, fullText.length() - 3);
-
-        String language = "";
-        String codeContent = inner;
-
-        int firstNewLineIndex = inner.indexOf('\n');
-        if (firstNewLineIndex > 0) {
-            language = inner.substring(0, firstNewLineIndex).trim();
-            codeContent = inner.substring(firstNewLineIndex + 1);
-        } else if (!inner.isBlank()) {
-
-        }
-
-        return new CodeBlock(codeContent, language);
+        return AstFactory.codeBlock(ctx.CODE_BLOCK().getText());
     }
 
     /**
@@ -275,7 +314,9 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
         for (ParseTree child : ctx.children) {
             if (child instanceof TerminalNode tn) {
                 if (tn.getSymbol().getType() == MyMDLexer.SOFT_BREAK) {
-                    inlines.add(new Space());
+                    Space space = new Space();
+                    AstFactory.recordSource(sourceMap, space, tn.getSymbol());
+                    inlines.add(space);
                 }
                 continue;
             }
@@ -291,21 +332,13 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
     @Override
     public PandocNode visitEscapedExceptionInline(MyMDParser.EscapedExceptionInlineContext ctx) {
         MyMDParser.EscapeExceptionContext escCtx = ctx.escapeException();
-        if (escCtx.ESCAPED_NEWLINE() != null) return new LineBreak();
-
-        String text = escCtx.getText();
-        // Remove the leading backslash
-        // \\ -> \
-        // \* -> *
-        // \- -> -
-        // \[ -> [
-        // \] -> ]
-        // \` -> `
-        return new Str(text.substring(1));
+        // \\ -> \, \n -> LineBreak, \* -> *, \- -> -, \[ -> [, \] -> ], \` -> `
+        return AstFactory.escapeException(escCtx.getStart().getType(), escCtx.getText());
     }
 
     @Override
     public PandocNode visitRawLatexInline(MyMDParser.RawLatexInlineContext ctx) {
+        labels.rawLatex(ctx.getStart());
         return new RawInline("latex", ctx.getText());
     }
 
@@ -316,9 +349,10 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
         List<Inline> altText;
 
         if (imgCtx.REF_ID() != null) {
-            String text = imgCtx.REF_ID().getText();
-            String linkText = text.substring(1, text.length() - 1);
-            altText = Collections.singletonList(new Str(linkText));
+            String linkText = AstFactory.stripBrackets(imgCtx.REF_ID().getText());
+            Str str = new Str(linkText);
+            AstFactory.recordSource(sourceMap, str, imgCtx.REF_ID().getSymbol());
+            altText = Collections.singletonList(str);
         } else {
             altText = imgCtx.inline().stream()
                     .map(this::visit)
@@ -336,9 +370,10 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
         List<Inline> content;
 
         if (linkCtx.REF_ID() != null) {
-            String text = linkCtx.REF_ID().getText();
-            String linkText = text.substring(1, text.length() - 1);
-            content = Collections.singletonList(new Str(linkText));
+            String linkText = AstFactory.stripBrackets(linkCtx.REF_ID().getText());
+            Str str = new Str(linkText);
+            AstFactory.recordSource(sourceMap, str, linkCtx.REF_ID().getSymbol());
+            content = Collections.singletonList(str);
         } else {
             content = linkCtx.inline().stream()
                     .map(this::visit)
@@ -391,9 +426,7 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
      */
     @Override
     public PandocNode visitInlineCodeInline(MyMDParser.InlineCodeInlineContext ctx) {
-        String fullText = ctx.INLINE_CODE().getText();
-        String codeText = fullText.substring(1, fullText.length() - 1);
-        return new Code(codeText);
+        return AstFactory.inlineCode(ctx.INLINE_CODE().getText());
     }
 
     /**
@@ -459,23 +492,19 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
      */
     @Override
     public PandocNode visitInlineMathInline(MyMDParser.InlineMathInlineContext ctx) {
-        String fullText = ctx.INLINE_MATH().getText();
-        String mathText = fullText.substring(1, fullText.length() - 1);
-        return new MathNode(MathNode.MathType.INLINE_MATH, mathText);
+        return AstFactory.inlineMath(ctx.INLINE_MATH().getText());
     }
 
     @Override
     public PandocNode visitCitationInline(MyMDParser.CitationInlineContext ctx) {
-        String fullText = ctx.citation().getText();
-        String citeId = fullText.substring(2, fullText.length() - 1);
-        return new Cite(citeId);
+        labels.citation(ctx.citation().getStart());
+        return AstFactory.citation(ctx.citation().getText());
     }
 
     @Override
     public PandocNode visitCitation(MyMDParser.CitationContext ctx) {
-        String text = ctx.getText();
-        String citeId = text.substring(2, text.length() - 1);
-        return new Cite(citeId);
+        labels.citation(ctx.getStart());
+        return AstFactory.citation(ctx.getText());
     }
 
     /**
@@ -485,9 +514,9 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
      */
     @Override
     public PandocNode visitRef(MyMDParser.RefContext ctx) {
-        String text = ctx.getText();
-        String labelId = text.substring(1, text.length() - 1);
-        return new RawInline("latex", "\\ref{" + labelId + "}");
+        RawInline ref = AstFactory.ref(ctx.getText());
+        labels.ref(ctx.getStart(), ref);
+        return ref;
     }
 
     /**
@@ -535,43 +564,12 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
 
     @Override
     public PandocNode visitOrderedList(MyMDParser.OrderedListContext ctx) {
+        List<String> markerTexts = new ArrayList<>();
         List<List<Block>> items = new ArrayList<>();
 
-        ListMarker firstMarker = null;
+        for (MyMDParser.OrderedListItemContext itemCtx : ctx.orderedListItem()) {
+            markerTexts.add(itemCtx.ORDERED_LIST_ITEM() != null ? itemCtx.ORDERED_LIST_ITEM().getText().trim() : "+");
 
-        for (int i = 0; i < ctx.orderedListItem().size(); i++) {
-            MyMDParser.OrderedListItemContext itemCtx = ctx.orderedListItem(i);
-
-            // Marker Logic
-            String markerText;
-            if (itemCtx.ORDERED_LIST_ITEM() != null) {
-                markerText = itemCtx.ORDERED_LIST_ITEM().getText().trim();
-            } else {
-                markerText = "+";
-            }
-
-            if (!markerText.equals("+")) {
-                ListMarker currentMarker = ListMarker.parse(markerText);
-                if (firstMarker == null) {
-                    firstMarker = currentMarker;
-                } else {
-                    // Strict Check logic
-                    boolean styleMatch = (currentMarker.style == firstMarker.style);
-                    if (!styleMatch) {
-                        boolean isAlphaRomanConflict =
-                                (firstMarker.style == ListAttributes.Style.LowerAlpha && currentMarker.style == ListAttributes.Style.LowerRoman) ||
-                                        (firstMarker.style == ListAttributes.Style.UpperAlpha && currentMarker.style == ListAttributes.Style.UpperRoman);
-                        if (isAlphaRomanConflict) styleMatch = true;
-                    }
-                    if (!styleMatch || currentMarker.delim != firstMarker.delim) {
-                        throw new RuntimeException("Syntax Error: List marker mismatch. Expected " +
-                                firstMarker.style + "/" + firstMarker.delim +
-                                ", found " + currentMarker.style + "/" + currentMarker.delim);
-                    }
-                }
-            }
-
-            // Content Logic (Updated to use processListItem)
             List<ParseTree> inlineNodes = new ArrayList<>();
             for (ParseTree child : itemCtx.children) {
                 if (child instanceof MyMDParser.InlineCommonContext) {
@@ -581,50 +579,43 @@ public class PandocAstVisitor extends MyMDParserBaseVisitor<PandocNode> {
             items.add(processListItem(inlineNodes, itemCtx.nestedBody()));
         }
 
-        // Attributes Logic
-        ListAttributes attrs;
-        if (firstMarker != null) {
-            attrs = new ListAttributes(firstMarker.startNumber, firstMarker.style, firstMarker.delim);
-        } else {
-            attrs = new ListAttributes(1, ListAttributes.Style.Decimal, ListAttributes.Delim.Period);
-        }
-
-        return new OrderedList(attrs, items);
+        return AstFactory.orderedList(markerTexts, items);
     }
 
     private List<Block> processListItem(List<ParseTree> inlineChildren, MyMDParser.NestedBodyContext nestedBodyCtx) {
-        List<Block> blocks = new ArrayList<>();
-
         // 1. 处理首行文本 (The "Header" Paragraph)
         List<Inline> firstParaInlines = new ArrayList<>();
         for (ParseTree child : inlineChildren) {
-            // 跳过标记符号本身的 Token 已经在调用方处理了，这里只传了 children
-            // 但我们需要过滤掉 null 或者非 inline 的东西
             PandocNode node = visit(child);
             if (node instanceof Inline inline) {
                 firstParaInlines.add(inline);
             }
         }
-        if (!firstParaInlines.isEmpty()) {
-            blocks.add(new Para(firstParaInlines));
-        }
 
         // 2. 处理嵌套内容 (Nested Body)
+        List<Block> nestedBlocks = null;
         if (nestedBodyCtx != null) {
+            nestedBlocks = new ArrayList<>();
             for (ParseTree child : nestedBodyCtx.children) {
-                PandocNode node = visit(child);
+                PandocNode node = child instanceof MyMDParser.BlockContext blockCtx ? visitBlock(blockCtx) : visit(child);
                 if (node instanceof Block block) {
-                    blocks.add(block);
-                } else if (node instanceof List) {
-                    // 有时候 visitBlock 可能返回 List<Block> (虽然现在架构主要是单个Block)
-                    // 以防万一
-                    try {
-                        blocks.addAll((List<Block>) node);
-                    } catch (Exception ignored) {}
+                    nestedBlocks.add(block);
                 }
             }
         }
 
-        return blocks;
+        List<Block> item = AstFactory.listItem(firstParaInlines, nestedBlocks);
+        if (sourceMap != null && !firstParaInlines.isEmpty()) sourceMap.recordSpan(item.get(0), firstParaInlines);
+        return item;
+    }
+
+    /**
+     * {@link AstFactory#header}, keeping the position of a trailing reference it rewrites into a label.
+     */
+    private Header header(int level, List<Inline> inlines) {
+        Inline last = inlines.isEmpty() ? null : inlines.get(inlines.size() - 1);
+        Header header = AstFactory.header(level, inlines);
+        if (sourceMap != null && last != null) sourceMap.recordLike(inlines.get(inlines.size() - 1), last);
+        return header;
     }
-}
\ No newline at end of file
+}
@@ -6,8 +6,49 @@ import org.antlr.v4.runtime.*;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Collects lexer and parser errors as {@link Diagnostic}s.
+ * <p>
+ * A badly broken input (e.g. a pasted binary blob) makes ANTLR report an error for nearly every
+ * character. Only the first {@code maxErrors} distinct errors are kept; the rest are only counted,
+ * without allocating anything, and {@link #getErrors()} ends with one diagnostic stating how many
+ * were left out. An error repeated at the same position with the same message (error recovery
+ * often reports twice) is reported once.
+ */
 public class SyntaxErrorCollector extends BaseErrorListener {
+    /** Enough to fix a file by hand; beyond this the editor would only show noise. */
+    public static final int DEFAULT_MAX_ERRORS = 100;
+
+    private final int maxErrors;
     private final List<Diagnostic> errors = new ArrayList<>();
+    private int errorCount;
+
+    // 最后一条错误，用来去掉紧挨着的重复报告
+    private int lastStart = -1;
+    private String lastMessage;
+
+    // 超过上限后第一条被省略的错误的位置，汇总诊断放在这里
+    private int firstSuppressedLine;
+    private int firstSuppressedColumn;
+    private int firstSuppressedStart;
+
+    // 无 offending token 时的回退位置：已扫描过的 token 不再重复扫描
+    private TokenStream fallbackStream;
+    private int fallbackScanned;
+    private int fallbackStart = -1;
+
+    public SyntaxErrorCollector() {
+        this(DEFAULT_MAX_ERRORS);
+    }
+
+    /**
+     * @param maxErrors how many errors to keep as diagnostics; 0 to only count them, e.g. when the
+     *                  caller just needs {@link #hasErrors()}
+     */
+    public SyntaxErrorCollector(int maxErrors) {
+        if (maxErrors < 0) throw new IllegalArgumentException("maxErrors < 0: " + maxErrors);
+        this.maxErrors = maxErrors;
+    }
 
     @Override
     public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
@@ -25,15 +66,8 @@ public class SyntaxErrorCollector extends BaseErrorListener {
         if (start < 0) {
 
             if (recognizer instanceof Parser) {
-                TokenStream stream = ((Parser) recognizer).getTokenStream();
-                for (int i = stream.size() - 1; i >= 0; i--) {
-                    Token t = stream.get(i);
-                    if (t.getType() != Token.EOF && t.getStartIndex() >= 0) {
-                        start = t.getStopIndex() + 1;
-                        end = start + 1;
-                        break;
-                    }
-                }
+                start = endOfLastToken(((Parser) recognizer).getTokenStream());
+                end = start + 1;
             }
 
             else if (recognizer instanceof Lexer) {
@@ -52,14 +86,72 @@ public class SyntaxErrorCollector extends BaseErrorListener {
             end = 1;
         }
 
-        errors.add(new Diagnostic(line, charPositionInLine, start, end, msg));
+        if (start == lastStart && msg != null && msg.equals(lastMessage)) return;
+        lastStart = start;
+        lastMessage = msg;
+
+        if (errorCount++ < maxErrors) {
+            errors.add(new Diagnostic(line, charPositionInLine, start, end, msg));
+        } else if (errorCount == maxErrors + 1) {
+            firstSuppressedLine = line;
+            firstSuppressedColumn = charPositionInLine;
+            firstSuppressedStart = start;
+        }
+    }
+
+    /**
+     * End offset of the last real token buffered in {@code stream}, or -1. The stream only grows
+     * while parsing, so tokens already looked at are skipped: amortized O(1) per error instead of a
+     * scan over the whole stream.
+     */
+    private int endOfLastToken(TokenStream stream) {
+        if (stream == null) return -1;
+        if (stream != fallbackStream) {
+            fallbackStream = stream;
+            fallbackScanned = 0;
+            fallbackStart = -1;
+        }
+        int size = stream.size();
+        for (int i = size - 1; i >= fallbackScanned; i--) {
+            Token t = stream.get(i);
+            if (t.getType() != Token.EOF && t.getStartIndex() >= 0) {
+                fallbackStart = t.getStopIndex() + 1;
+                break;
+            }
+        }
+        fallbackScanned = Math.max(fallbackScanned, size);
+        return fallbackStart;
     }
 
+    /**
+     * The kept diagnostics, followed by a summary diagnostic if errors were left out.
+     */
     public List<Diagnostic> getErrors() {
-        return errors;
+        if (!isTruncated()) return errors;
+        List<Diagnostic> all = new ArrayList<>(errors.size() + 1);
+        all.addAll(errors);
+        int omitted = errorCount - errors.size();
+        all.add(new Diagnostic(firstSuppressedLine, firstSuppressedColumn, firstSuppressedStart,
+                firstSuppressedStart + 1,
+                "Too many errors: " + omitted + " more not shown (" + errorCount + " in total)"));
+        return all;
+    }
+
+    /**
+     * Number of distinct errors reported, including those that were not kept.
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Whether more errors were reported than kept.
+     */
+    public boolean isTruncated() {
+        return errorCount > errors.size();
     }
 
     public boolean hasErrors() {
-        return !errors.isEmpty();
+        return errorCount > 0;
     }
-}
\ No newline at end of file
+}
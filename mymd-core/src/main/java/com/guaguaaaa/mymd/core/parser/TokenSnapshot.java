@@ -0,0 +1,356 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.text.TextCharStream;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tokens of one revision of a document, lexed once and kept in primitive arrays.
+ * <p>
+ * Highlighting and compiling the same text used to run the lexer twice. A snapshot records
+ * everything the parser would see from {@link MyMDLexer}: the token types, offsets and positions,
+ * the lexer errors (replayed at the same point in the stream) and an exception that stopped the
+ * lexer. It is immutable and can be shared between threads; every consumer gets its own
+ * {@link #newTokenSource token source}.
+ * <p>
+ * Offsets are UTF-16 code units. They equal the code point offsets of the compiler as long as the
+ * text has no supplementary characters; {@link #isBmpOnly()} tells whether that is the case.
+ */
+public final class TokenSnapshot {
+
+    private final CharSequence text;
+    private final int size;
+    private final int[] types;
+    private final int[] starts;
+    private final int[] stops;
+    private final int[] lines;
+    private final int[] columns;
+    private final boolean bmpOnly;
+    private final boolean lexerGuards;
+    private final int maxBlockLength;
+    private final int maxInlineMathLength;
+
+    // 词法错误：报告时下一个 token 的序号、位置和消息
+    private final int[] errorBefore;
+    private final int[] errorLines;
+    private final int[] errorColumns;
+    private final int[] errorStarts;
+    private final String[] errorMessages;
+
+    /** Message of the exception that stopped the lexer after {@link #size} tokens, or null. */
+    private final String failure;
+
+    private TokenSnapshot(Builder b, CharSequence text, boolean bmpOnly, CompilerOptions options) {
+        this.text = text;
+        this.size = b.size;
+        this.types = Arrays.copyOf(b.types, b.size);
+        this.starts = Arrays.copyOf(b.starts, b.size);
+        this.stops = Arrays.copyOf(b.stops, b.size);
+        this.lines = Arrays.copyOf(b.lines, b.size);
+        this.columns = Arrays.copyOf(b.columns, b.size);
+        this.bmpOnly = bmpOnly;
+        this.lexerGuards = options.isLexerGuards();
+        this.maxBlockLength = options.getMaxBlockLength();
+        this.maxInlineMathLength = options.getMaxInlineMathLength();
+        int errors = b.errorMessages.size();
+        this.errorBefore = Arrays.copyOf(b.errorBefore, errors);
+        this.errorLines = Arrays.copyOf(b.errorLines, errors);
+        this.errorColumns = Arrays.copyOf(b.errorColumns, errors);
+        this.errorStarts = Arrays.copyOf(b.errorStarts, errors);
+        this.errorMessages = b.errorMessages.toArray(new String[0]);
+        this.failure = b.failure;
+    }
+
+    /**
+     * Lexes {@code text} the way {@link com.guaguaaaa.mymd.core.MyMDCompiler} would with
+     * {@code options}: with a {@link DelimiterIndex} if {@link CompilerOptions#isLexerGuards()}.
+     */
+    public static TokenSnapshot lex(CharSequence text, CompilerOptions options) {
+        CharStream input = new TextCharStream(text);
+        MyMDLexer lexer = new MyMDLexer(input);
+        if (options.isLexerGuards()) {
+            lexer.setDelimiterIndex(new DelimiterIndex(input, options.getMaxBlockLength(), options.getMaxInlineMathLength()));
+        }
+        Builder builder = new Builder();
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(builder);
+        try {
+            for (Token t = lexer.nextToken(); ; t = lexer.nextToken()) {
+                builder.add(t);
+                if (t.getType() == Token.EOF) break;
+            }
+        } catch (RuntimeException e) {
+            builder.failure = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        return new TokenSnapshot(builder, text, !hasSurrogates(text), options);
+    }
+
+    private static boolean hasSurrogates(CharSequence text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (Character.isSurrogate(text.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the compiler can use these tokens for {@code options}: same lexer configuration and
+     * no supplementary characters (where UTF-16 and code point offsets would differ).
+     */
+    public boolean isUsableFor(CompilerOptions options) {
+        return bmpOnly
+                && lexerGuards == options.isLexerGuards()
+                && (!lexerGuards || (maxBlockLength == options.getMaxBlockLength()
+                        && maxInlineMathLength == options.getMaxInlineMathLength()));
+    }
+
+    public CharSequence getText() {
+        return text;
+    }
+
+    /** Number of tokens, including EOF unless the lexer failed. */
+    public int size() {
+        return size;
+    }
+
+    public int getType(int i) {
+        return types[i];
+    }
+
+    public int getStartIndex(int i) {
+        return starts[i];
+    }
+
+    public int getStopIndex(int i) {
+        return stops[i];
+    }
+
+    public int getLine(int i) {
+        return lines[i];
+    }
+
+    public int getColumn(int i) {
+        return columns[i];
+    }
+
+    public boolean isBmpOnly() {
+        return bmpOnly;
+    }
+
+    /** Message of the exception that stopped the lexer (e.g. an indentation error), or null. */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * The tokens as a list; each element is created on access.
+     */
+    public List<Token> getTokens() {
+        TokenSource source = newTokenSource(new TextCharStream(text));
+        Pair<TokenSource, CharStream> pair = new Pair<>(source, source.getInputStream());
+        return new AbstractList<>() {
+            @Override
+            public Token get(int index) {
+                return token(pair, index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * A token source replaying the snapshot over {@code input}, which must hold the same text.
+     * Lexer errors go to {@code listener} (may be null) right before the token that followed them,
+     * and a lexer failure is rethrown where it happened.
+     */
+    public TokenSource newTokenSource(CharStream input, ANTLRErrorListener listener) {
+        return new Replay(input, listener);
+    }
+
+    public TokenSource newTokenSource(CharStream input) {
+        return newTokenSource(input, null);
+    }
+
+    /**
+     * A token stream for the parser over {@code input}, which must hold the same text. Shares the
+     * snapshot's arrays instead of creating a token per token; errors and a failure are replayed
+     * as by {@link #newTokenSource(CharStream, ANTLRErrorListener)}.
+     */
+    public ArrayTokenStream newTokenStream(CharStream input, ANTLRErrorListener listener) {
+        return new ArrayTokenStream(this, new Replay(input, null), listener);
+    }
+
+    // ArrayTokenStream 只读这些数组
+    int[] types() {
+        return types;
+    }
+
+    int[] starts() {
+        return starts;
+    }
+
+    int[] stops() {
+        return stops;
+    }
+
+    int[] lines() {
+        return lines;
+    }
+
+    int[] columns() {
+        return columns;
+    }
+
+    /**
+     * Reports the lexer errors from {@code nextError} on that were raised before token
+     * {@code next} was produced, and returns the index of the first error not reported.
+     */
+    int reportErrors(int nextError, int next, ANTLRErrorListener listener) {
+        while (nextError < errorMessages.length && errorBefore[nextError] <= next) {
+            if (listener != null) {
+                int start = errorStarts[nextError];
+                listener.syntaxError(null, new ErrorPosition(start), errorLines[nextError],
+                        errorColumns[nextError], errorMessages[nextError], null);
+            }
+            nextError++;
+        }
+        return nextError;
+    }
+
+    private Token token(Pair<TokenSource, CharStream> pair, int i) {
+        int type = types[i];
+        CommonToken token = new CommonToken(pair, type, Token.DEFAULT_CHANNEL, starts[i], stops[i]);
+        token.setLine(lines[i]);
+        token.setCharPositionInLine(columns[i]);
+        if (type == MyMDLexer.INDENT) token.setText("INDENT");
+        else if (type == MyMDLexer.DEDENT) token.setText("DEDENT");
+        return token;
+    }
+
+    private final class Replay implements TokenSource {
+        private final CharStream input;
+        private final ANTLRErrorListener listener;
+        private final Pair<TokenSource, CharStream> pair;
+        private int next;
+        private int nextError;
+
+        Replay(CharStream input, ANTLRErrorListener listener) {
+            this.input = input;
+            this.listener = listener;
+            this.pair = new Pair<>(this, input);
+        }
+
+        @Override
+        public Token nextToken() {
+            nextError = reportErrors(nextError, next, listener);
+            if (next >= size) {
+                if (failure != null) throw new RuntimeException(failure);
+                // 与 Lexer 一样，EOF 之后一直返回 EOF
+                return token(pair, size - 1);
+            }
+            return token(pair, next++);
+        }
+
+        @Override
+        public int getLine() {
+            return next < size ? lines[next] : 0;
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return next < size ? columns[next] : 0;
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public String getSourceName() {
+            return input.getSourceName();
+        }
+
+        @Override
+        public void setTokenFactory(TokenFactory<?> factory) {
+        }
+
+        @Override
+        public TokenFactory<?> getTokenFactory() {
+            return CommonTokenFactory.DEFAULT;
+        }
+    }
+
+    /**
+     * Stands in for the offending symbol of a replayed lexer error, so that
+     * {@link SyntaxErrorCollector} reports it at the original offset.
+     */
+    private static final class ErrorPosition extends CommonToken {
+        ErrorPosition(int start) {
+            super(Token.INVALID_TYPE);
+            setStartIndex(start);
+            setStopIndex(start);
+        }
+    }
+
+    private static final class Builder extends BaseErrorListener {
+        private int size;
+        private int[] types = new int[256];
+        private int[] starts = new int[256];
+        private int[] stops = new int[256];
+        private int[] lines = new int[256];
+        private int[] columns = new int[256];
+
+        private int[] errorBefore = new int[8];
+        private int[] errorLines = new int[8];
+        private int[] errorColumns = new int[8];
+        private int[] errorStarts = new int[8];
+        private final List<String> errorMessages = new ArrayList<>();
+        private String failure;
+
+        void add(Token t) {
+            if (size == types.length) {
+                int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                stops = Arrays.copyOf(stops, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                columns = Arrays.copyOf(columns, capacity);
+            }
+            types[size] = t.getType();
+            starts[size] = t.getStartIndex();
+            stops[size] = t.getStopIndex();
+            lines[size] = t.getLine();
+            columns[size] = t.getCharPositionInLine();
+            size++;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                int charPositionInLine, String msg, RecognitionException e) {
+            int start = e instanceof LexerNoViableAltException
+                    ? ((LexerNoViableAltException) e).getStartIndex()
+                    : ((Lexer) recognizer).getCharIndex();
+            int n = errorMessages.size();
+            if (n == errorBefore.length) {
+                errorBefore = Arrays.copyOf(errorBefore, n * 2);
+                errorLines = Arrays.copyOf(errorLines, n * 2);
+                errorColumns = Arrays.copyOf(errorColumns, n * 2);
+                errorStarts = Arrays.copyOf(errorStarts, n * 2);
+            }
+            errorBefore[n] = size;
+            errorLines[n] = line;
+            errorColumns[n] = charPositionInLine;
+            errorStarts[n] = start;
+            errorMessages.add(msg);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.text.TextSnapshot;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Lexes each revision of one document at most once.
+ * <p>
+ * Keeps the {@link TokenSnapshot} of the latest revision asked for. Callers on different threads
+ * (the highlighter, a compile on save) asking for the same revision share one lexer run: whoever
+ * comes second waits for it instead of lexing again.
+ */
+public class TokenSnapshotCache {
+
+    private final CompilerOptions options;
+    private int version = -1;
+    private CompletableFuture<TokenSnapshot> latest;
+
+    /**
+     * @param options lexer options of the snapshots; use the compiler's so that it can reuse them
+     */
+    public TokenSnapshotCache(CompilerOptions options) {
+        this.options = options.copy();
+    }
+
+    public TokenSnapshot get(TextSnapshot text) {
+        CompletableFuture<TokenSnapshot> future;
+        boolean owner = false;
+        synchronized (this) {
+            if (latest == null || version != text.getVersion()) {
+                latest = new CompletableFuture<>();
+                version = text.getVersion();
+                owner = true;
+            }
+            future = latest;
+        }
+        if (owner) {
+            try {
+                future.complete(TokenSnapshot.lex(text, options));
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return future.join();
+    }
+}
@@ -0,0 +1,541 @@
+package com.guaguaaaa.mymd.core.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Fingerprints the pages of a PDF, so that a viewer only has to re-render the pages that changed
+ * between two builds.
+ * <p>
+ * A page's hash covers its media box, the raw (still compressed) bytes of its content streams and
+ * of the form / image XObjects it uses. Fonts are left out: a page whose text is unchanged draws
+ * the same glyphs even if a font subset grew elsewhere. Resource names and object numbers shift
+ * when earlier pages change, which at worst marks an unchanged page as changed.
+ * <p>
+ * Only what is needed is parsed: the cross-reference table or stream, object streams, the page
+ * tree and the objects it points to. Handles what pdfTeX / xdvipdfmx write (PDF 1.5 xref and object
+ * streams with Flate and PNG predictors); anything else throws {@link IOException}.
+ */
+public final class PdfPageHashes {
+
+    private final byte[] pdf;
+    // 对象号 -> 文件偏移 (type 1) 或 -(对象流号 + 1) 与流内序号 (type 2)
+    private final Map<Integer, long[]> xref = new HashMap<>();
+    private final Map<Integer, ObjectStream> objectStreamCache = new HashMap<>();
+    private Map<String, Object> trailer;
+
+    private PdfPageHashes(byte[] pdf) {
+        this.pdf = pdf;
+    }
+
+    /**
+     * @return One hash per page, in page order.
+     */
+    public static long[] compute(byte[] pdf) throws IOException {
+        try {
+            return new PdfPageHashes(pdf).pageHashes();
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable PDF: " + e, e);
+        }
+    }
+
+    /**
+     * 1-based numbers of the pages whose hash differs, or null if the page counts differ (or there
+     * is no previous build), in which case the whole document has to be reloaded.
+     */
+    public static int[] changedPages(long[] before, long[] after) {
+        if (before == null || after == null || before.length != after.length) return null;
+        int count = 0;
+        int[] changed = new int[after.length];
+        for (int i = 0; i < after.length; i++) {
+            if (before[i] != after[i]) changed[count++] = i + 1;
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    private long[] pageHashes() throws IOException {
+        readXref();
+        Object root = resolve(trailer.get("Root"));
+        if (!(root instanceof Map<?, ?> catalog)) throw new IOException("No document catalog");
+        List<Long> hashes = new ArrayList<>();
+        collectPages(catalog.get("Pages"), null, null, hashes, new HashSet<>());
+        long[] result = new long[hashes.size()];
+        for (int i = 0; i < result.length; i++) result[i] = hashes.get(i);
+        return result;
+    }
+
+    /**
+     * Walks the page tree in order; {@code /Resources} and {@code /MediaBox} are inherited.
+     */
+    private void collectPages(Object ref, Object resources, Object mediaBox, List<Long> hashes, Set<Integer> seen)
+            throws IOException {
+        if (ref instanceof Ref r && !seen.add(r.num)) return;
+        if (!(resolve(ref) instanceof Map<?, ?> dict)) return;
+        if (dict.containsKey("Resources")) resources = dict.get("Resources");
+        if (dict.containsKey("MediaBox")) mediaBox = dict.get("MediaBox");
+        Object kids = resolve(dict.get("Kids"));
+        if ("/Pages".equals(dict.get("Type")) || kids instanceof List) {
+            if (kids instanceof List<?> list) {
+                for (Object kid : list) collectPages(kid, resources, mediaBox, hashes, seen);
+            }
+            return;
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(String.valueOf(resolve(mediaBox)).getBytes(StandardCharsets.ISO_8859_1));
+        Object contents = resolve(dict.get("Contents"));
+        if (contents instanceof List<?> list) {
+            for (Object part : list) updateStream(crc, resolve(part));
+        } else {
+            updateStream(crc, contents);
+        }
+        Object res = resolve(resources);
+        if (res instanceof Map<?, ?> resDict && resolve(resDict.get("XObject")) instanceof Map<?, ?> xobjects) {
+            for (Map.Entry<?, ?> entry : xobjects.entrySet()) {
+                crc.update(((String) entry.getKey()).getBytes(StandardCharsets.ISO_8859_1));
+                updateStream(crc, resolve(entry.getValue()));
+            }
+        }
+        hashes.add(crc.getValue());
+    }
+
+    private void updateStream(CRC32C crc, Object stream) {
+        if (stream instanceof Stream s) {
+            crc.update(s.data, s.offset, s.length);
+        }
+    }
+
+    // ---- cross-reference ----
+
+    private void readXref() throws IOException {
+        int startxref = lastIndexOf("startxref");
+        if (startxref < 0) throw new IOException("No startxref");
+        Lexer lexer = new Lexer(pdf, startxref + 9, pdf.length);
+        long offset = ((Number) lexer.next()).longValue();
+
+        Set<Long> visited = new HashSet<>();
+        while (offset >= 0 && visited.add(offset)) {
+            Map<String, Object> section = readXrefSection((int) offset);
+            if (trailer == null) trailer = section;
+            Object stm = section.get("XRefStm");
+            if (stm instanceof Number hybrid && visited.add(hybrid.longValue())) {
+                readXrefSection(hybrid.intValue());
+            }
+            Object prev = section.get("Prev");
+            offset = prev instanceof Number n ? n.longValue() : -1;
+        }
+        if (trailer == null) throw new IOException("No trailer");
+    }
+
+    /** Reads one xref table or stream; entries already known from a newer section win. */
+    private Map<String, Object> readXrefSection(int offset) throws IOException {
+        Lexer lexer = new Lexer(pdf, offset, pdf.length);
+        lexer.skipSpace();
+        if (lexer.startsWith("xref")) {
+            lexer.pos += 4;
+            while (true) {
+                lexer.skipSpace();
+                if (lexer.startsWith("trailer")) {
+                    lexer.pos += 7;
+                    return asDict(lexer.next());
+                }
+                int first = ((Number) lexer.next()).intValue();
+                int count = ((Number) lexer.next()).intValue();
+                for (int i = 0; i < count; i++) {
+                    lexer.skipSpace();
+                    long entryOffset = Long.parseLong(lexer.ascii(lexer.pos, lexer.pos + 10));
+                    char type = (char) pdf[lexer.pos + 17];
+                    lexer.pos += 18;
+                    if (type == 'n') xref.putIfAbsent(first + i, new long[]{entryOffset, 0});
+                    else xref.putIfAbsent(first + i, null);
+                }
+            }
+        }
+
+        Object object = parseIndirectAt(offset);
+        if (!(object instanceof Stream stream)) throw new IOException("Bad xref at " + offset);
+        byte[] data = decode(stream);
+        List<?> widths = (List<?>) stream.dict.get("W");
+        int w0 = ((Number) widths.get(0)).intValue();
+        int w1 = ((Number) widths.get(1)).intValue();
+        int w2 = ((Number) widths.get(2)).intValue();
+        List<?> index = stream.dict.get("Index") instanceof List<?> l ? l
+                : List.of(0, stream.dict.get("Size"));
+        int pos = 0;
+        for (int s = 0; s + 1 < index.size(); s += 2) {
+            int first = ((Number) index.get(s)).intValue();
+            int count = ((Number) index.get(s + 1)).intValue();
+            for (int i = 0; i < count && pos + w0 + w1 + w2 <= data.length; i++) {
+                long type = w0 == 0 ? 1 : readField(data, pos, w0);
+                long f1 = readField(data, pos + w0, w1);
+                long f2 = readField(data, pos + w0 + w1, w2);
+                pos += w0 + w1 + w2;
+                if (type == 1) xref.putIfAbsent(first + i, new long[]{f1, 0});
+                else if (type == 2) xref.putIfAbsent(first + i, new long[]{-(f1 + 1), f2});
+                else xref.putIfAbsent(first + i, null);
+            }
+        }
+        return stream.dict;
+    }
+
+    private static long readField(byte[] data, int pos, int width) {
+        long value = 0;
+        for (int i = 0; i < width; i++) value = (value << 8) | (data[pos + i] & 0xff);
+        return value;
+    }
+
+    // ---- objects ----
+
+    private Object resolve(Object value) throws IOException {
+        int depth = 0;
+        while (value instanceof Ref ref && depth++ < 32) {
+            value = load(ref.num);
+        }
+        return value;
+    }
+
+    private Object load(int num) throws IOException {
+        long[] entry = xref.get(num);
+        if (entry == null) return null;
+        if (entry[0] >= 0) return parseIndirectAt((int) entry[0]);
+
+        int streamNum = (int) (-entry[0] - 1);
+        ObjectStream cached = objectStreamCache.get(streamNum);
+        if (cached == null) {
+            Object container = load(streamNum);
+            if (!(container instanceof Stream stream)) return null;
+            cached = objectStream(stream);
+            objectStreamCache.put(streamNum, cached);
+        }
+        Integer objOffset = cached.offsets.get(num);
+        return objOffset != null ? new Lexer(cached.data, objOffset, cached.data.length).next() : null;
+    }
+
+    /** Decodes an object stream and reads its header of object number / offset pairs. */
+    private ObjectStream objectStream(Stream stream) throws IOException {
+        byte[] data = decode(stream);
+        int n = ((Number) stream.dict.get("N")).intValue();
+        int first = ((Number) stream.dict.get("First")).intValue();
+        Map<Integer, Integer> offsets = new HashMap<>();
+        Lexer header = new Lexer(data, 0, first);
+        for (int i = 0; i < n; i++) {
+            int objNum = ((Number) header.next()).intValue();
+            int objOffset = ((Number) header.next()).intValue();
+            offsets.put(objNum, first + objOffset);
+        }
+        return new ObjectStream(data, offsets);
+    }
+
+    /** Parses {@code N G obj ... endobj} at {@code offset}, including a following stream. */
+    private Object parseIndirectAt(int offset) throws IOException {
+        Lexer lexer = new Lexer(pdf, offset, pdf.length);
+        lexer.next();
+        lexer.next();
+        lexer.skipSpace();
+        if (!lexer.startsWith("obj")) throw new IOException("No object at " + offset);
+        lexer.pos += 3;
+        Object value = lexer.next();
+        lexer.skipSpace();
+        if (value instanceof Map<?, ?> && lexer.startsWith("stream")) {
+            lexer.pos += 6;
+            if (lexer.pos < pdf.length && pdf[lexer.pos] == '\r') lexer.pos++;
+            if (lexer.pos < pdf.length && pdf[lexer.pos] == '\n') lexer.pos++;
+            Map<String, Object> dict = asDict(value);
+            Object length = dict.get("Length");
+            int len;
+            if (length instanceof Ref) {
+                Object resolved = resolve(length);
+                len = resolved instanceof Number n ? n.intValue() : -1;
+            } else {
+                len = length instanceof Number n ? n.intValue() : -1;
+            }
+            if (len < 0 || lexer.pos + len > pdf.length) {
+                int end = indexOf("endstream", lexer.pos);
+                len = (end < 0 ? pdf.length : end) - lexer.pos;
+            }
+            return new Stream(dict, pdf, lexer.pos, len);
+        }
+        return value;
+    }
+
+    private byte[] decode(Stream stream) throws IOException {
+        Object filter = stream.dict.get("Filter");
+        if (filter instanceof List<?> list) filter = list.size() == 1 ? list.get(0) : list;
+        byte[] data;
+        if (filter == null) {
+            data = Arrays.copyOfRange(stream.data, stream.offset, stream.offset + stream.length);
+        } else if ("/FlateDecode".equals(filter)) {
+            data = inflate(stream.data, stream.offset, stream.length);
+        } else {
+            throw new IOException("Unsupported filter " + filter);
+        }
+
+        Object params = resolve(stream.dict.get("DecodeParms"));
+        if (params instanceof List<?> list) params = list.isEmpty() ? null : resolve(list.get(0));
+        if (params instanceof Map<?, ?> p && p.get("Predictor") instanceof Number predictor && predictor.intValue() >= 10) {
+            int columns = p.get("Columns") instanceof Number c ? c.intValue() : 1;
+            data = unpredictPng(data, columns);
+        }
+        return data;
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data, offset, length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length * 3));
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt Flate stream", e);
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /** Undoes PNG predictors row by row (xref streams use Up, but all five are cheap to support). */
+    private static byte[] unpredictPng(byte[] data, int columns) {
+        int rows = data.length / (columns + 1);
+        byte[] out = new byte[rows * columns];
+        for (int r = 0; r < rows; r++) {
+            int type = data[r * (columns + 1)] & 0xff;
+            int in = r * (columns + 1) + 1;
+            int o = r * columns;
+            for (int c = 0; c < columns; c++) {
+                int raw = data[in + c] & 0xff;
+                int left = c > 0 ? out[o + c - 1] & 0xff : 0;
+                int up = r > 0 ? out[o - columns + c] & 0xff : 0;
+                int upLeft = r > 0 && c > 0 ? out[o - columns + c - 1] & 0xff : 0;
+                int value = switch (type) {
+                    case 1 -> raw + left;
+                    case 2 -> raw + up;
+                    case 3 -> raw + ((left + up) >> 1);
+                    case 4 -> {
+                        int p = left + up - upLeft;
+                        int pa = Math.abs(p - left), pb = Math.abs(p - up), pc = Math.abs(p - upLeft);
+                        yield raw + (pa <= pb && pa <= pc ? left : pb <= pc ? up : upLeft);
+                    }
+                    default -> raw;
+                };
+                out[o + c] = (byte) value;
+            }
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asDict(Object value) throws IOException {
+        if (value instanceof Map<?, ?> map) return (Map<String, Object>) map;
+        throw new IOException("Expected a dictionary");
+    }
+
+    private int lastIndexOf(String token) {
+        byte[] needle = token.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = pdf.length - needle.length; i >= Math.max(0, pdf.length - 4096); i--) {
+            if (matches(i, needle)) return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(String token, int from) {
+        byte[] needle = token.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = from; i <= pdf.length - needle.length; i++) {
+            if (matches(i, needle)) return i;
+        }
+        return -1;
+    }
+
+    private boolean matches(int at, byte[] needle) {
+        for (int j = 0; j < needle.length; j++) {
+            if (pdf[at + j] != needle[j]) return false;
+        }
+        return true;
+    }
+
+    private record Ref(int num, int gen) {
+    }
+
+    private record Stream(Map<String, Object> dict, byte[] data, int offset, int length) {
+    }
+
+    private record ObjectStream(byte[] data, Map<Integer, Integer> offsets) {
+    }
+
+    /**
+     * Reads PDF objects: names become {@code "/Name"} strings, strings become byte arrays,
+     * dictionaries {@code Map}s and arrays {@code List}s; {@code N G R} becomes a {@link Ref}.
+     */
+    private static final class Lexer {
+        private final byte[] data;
+        private final int limit;
+        int pos;
+
+        Lexer(byte[] data, int pos, int limit) {
+            this.data = data;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        Object next() throws IOException {
+            skipSpace();
+            if (pos >= limit) throw new IOException("Unexpected end of data");
+            byte b = data[pos];
+            switch (b) {
+                case '/':
+                    return name();
+                case '(':
+                    return literalString();
+                case '[': {
+                    pos++;
+                    List<Object> list = new ArrayList<>();
+                    while (true) {
+                        skipSpace();
+                        if (pos >= limit) throw new IOException("Unterminated array");
+                        if (data[pos] == ']') {
+                            pos++;
+                            return list;
+                        }
+                        list.add(next());
+                    }
+                }
+                case '<': {
+                    if (pos + 1 < limit && data[pos + 1] == '<') {
+                        pos += 2;
+                        Map<String, Object> dict = new LinkedHashMap<>();
+                        while (true) {
+                            skipSpace();
+                            if (pos + 1 >= limit) throw new IOException("Unterminated dictionary");
+                            if (data[pos] == '>' && data[pos + 1] == '>') {
+                                pos += 2;
+                                return dict;
+                            }
+                            String key = name().substring(1);
+                            dict.put(key, next());
+                        }
+                    }
+                    int end = pos + 1;
+                    while (end < limit && data[end] != '>') end++;
+                    byte[] hex = Arrays.copyOfRange(data, pos, Math.min(end + 1, limit));
+                    pos = end + 1;
+                    return hex;
+                }
+                default:
+                    break;
+            }
+            if (b == '+' || b == '-' || b == '.' || (b >= '0' && b <= '9')) {
+                Number number = number();
+                // N G R
+                if (number instanceof Integer num) {
+                    int save = pos;
+                    skipSpace();
+                    if (pos < limit && data[pos] >= '0' && data[pos] <= '9') {
+                        Number gen = number();
+                        skipSpace();
+                        if (gen instanceof Integer g && pos < limit && data[pos] == 'R'
+                                && (pos + 1 >= limit || isDelimiterOrSpace(data[pos + 1]))) {
+                            pos++;
+                            return new Ref(num, g);
+                        }
+                    }
+                    pos = save;
+                }
+                return number;
+            }
+            int start = pos;
+            while (pos < limit && !isDelimiterOrSpace(data[pos])) pos++;
+            if (pos == start) {
+                pos++;
+                return next();
+            }
+            String keyword = ascii(start, pos);
+            return switch (keyword) {
+                case "true" -> Boolean.TRUE;
+                case "false" -> Boolean.FALSE;
+                case "null" -> null;
+                default -> keyword;
+            };
+        }
+
+        private String name() {
+            int start = pos++;
+            while (pos < limit && !isDelimiterOrSpace(data[pos])) pos++;
+            return ascii(start, pos);
+        }
+
+        private Number number() {
+            int start = pos;
+            boolean real = false;
+            if (data[pos] == '+' || data[pos] == '-') pos++;
+            while (pos < limit && ((data[pos] >= '0' && data[pos] <= '9') || data[pos] == '.')) {
+                if (data[pos] == '.') real = true;
+                pos++;
+            }
+            String text = ascii(start, pos);
+            if (text.equals("+") || text.equals("-") || text.equals(".")) return 0;
+            if (real) return Double.parseDouble(text);
+            long value = Long.parseLong(text);
+            if (value == (int) value) return (int) value;
+            return value;
+        }
+
+        private byte[] literalString() {
+            int start = pos++;
+            int depth = 1;
+            while (pos < limit && depth > 0) {
+                byte b = data[pos++];
+                if (b == '\\') pos++;
+                else if (b == '(') depth++;
+                else if (b == ')') depth--;
+            }
+            return Arrays.copyOfRange(data, start, Math.min(pos, limit));
+        }
+
+        void skipSpace() {
+            while (pos < limit) {
+                byte b = data[pos];
+                if (b == '%') {
+                    while (pos < limit && data[pos] != '\n' && data[pos] != '\r') pos++;
+                } else if (b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0) {
+                    pos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        boolean startsWith(String keyword) {
+            if (pos + keyword.length() > limit) return false;
+            for (int i = 0; i < keyword.length(); i++) {
+                if (data[pos + i] != keyword.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        String ascii(int start, int end) {
+            return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        private static boolean isDelimiterOrSpace(byte b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0
+                    || b == '/' || b == '[' || b == ']' || b == '<' || b == '>' || b == '(' || b == ')'
+                    || b == '{' || b == '}' || b == '%';
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.guaguaaaa.mymd.core.sync;
+
+/**
+ * A position in the PDF: 1-based page, and PDF points measured from the top-left corner of the page.
+ * {@code y} is the baseline of the line, {@code height} its height above the baseline.
+ */
+public class PdfLocation {
+    public final int page;
+    public final double x;
+    public final double y;
+    public final double height;
+
+    public PdfLocation(int page, double x, double y, double height) {
+        this.page = page;
+        this.x = x;
+        this.y = y;
+        this.height = height;
+    }
+
+    @Override
+    public String toString() {
+        return "page " + page + " (" + x + ", " + y + ")";
+    }
+}
@@ -0,0 +1,55 @@
+package com.guaguaaaa.mymd.core.sync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Maps between source offsets and PDF positions for one build: source offset -> .tex line through
+ * the {@link SyncMarkers} of the .tex file ({@link TexLineMap}), .tex line -> PDF box through
+ * SyncTeX ({@link SyncTexIndex}), and back.
+ * <p>
+ * The granularity is the top-level block; offsets refer to the text the PDF was built from.
+ */
+public class SourcePdfSync {
+
+    private final TexLineMap lineMap;
+    private final SyncTexIndex index;
+
+    public SourcePdfSync(TexLineMap lineMap, SyncTexIndex index) {
+        this.lineMap = lineMap;
+        this.index = index;
+    }
+
+    /**
+     * Loads the tables for {@code tex} and the {@code .synctex.gz} next to it.
+     * @return null if there is no SyncTeX file, e.g. the engine ran without {@code -synctex=1}.
+     */
+    public static SourcePdfSync load(Path tex) throws IOException {
+        String name = tex.getFileName().toString();
+        String base = name.endsWith(".tex") ? name.substring(0, name.length() - 4) : name;
+        Path synctex = tex.resolveSibling(base + ".synctex.gz");
+        if (!Files.exists(synctex)) return null;
+        return new SourcePdfSync(TexLineMap.read(tex), SyncTexIndex.load(synctex, name));
+    }
+
+    /**
+     * Where the block containing {@code offset} starts in the PDF, or null if it was not typeset
+     * (e.g. the offset is in the YAML front matter, or the block produced no boxes).
+     */
+    public PdfLocation toPdf(int offset) {
+        int texLine = lineMap.texLineAt(offset);
+        if (texLine < 0) return null;
+        return index.locate(texLine, lineMap.nextMarkerLine(texLine));
+    }
+
+    /**
+     * The start offset of the block typeset at the given point, or -1.
+     * @param x PDF points from the left edge of the page.
+     * @param y PDF points from the top edge of the page.
+     */
+    public int toSource(int page, double x, double y) {
+        int texLine = index.lineAt(page, x, y);
+        return texLine < 0 ? -1 : lineMap.offsetAt(texLine);
+    }
+}
@@ -0,0 +1,44 @@
+package com.guaguaaaa.mymd.core.sync;
+
+import com.guaguaaaa.mymd.core.ast.Block;
+import com.guaguaaaa.mymd.core.ast.RawBlock;
+import com.guaguaaaa.mymd.core.ast.SourceMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a LaTeX comment {@code %mymd:<offset>} before every top-level block, so that lines of the
+ * generated .tex file, and through SyncTeX positions in the PDF, can be traced back to the source.
+ * Comments do not change the typeset output.
+ */
+public final class SyncMarkers {
+
+    public static final String PREFIX = "%mymd:";
+
+    private SyncMarkers() {
+    }
+
+    /**
+     * @param source The compiled text; the map holds code point offsets, markers carry UTF-16
+     *               offsets as used by the editor.
+     * @return {@code blocks} with a marker before each block that has a position.
+     */
+    public static List<Block> insert(List<Block> blocks, SourceMap sourceMap, String source) {
+        List<Block> result = new ArrayList<>(blocks.size() * 2);
+        int codePoint = 0;
+        int charIndex = 0;
+        for (Block block : blocks) {
+            int start = sourceMap.getStart(block);
+            if (start >= codePoint) {
+                while (codePoint < start && charIndex < source.length()) {
+                    charIndex += Character.charCount(source.codePointAt(charIndex));
+                    codePoint++;
+                }
+                result.add(new RawBlock("latex", PREFIX + charIndex));
+            }
+            result.add(block);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,351 @@
+package com.guaguaaaa.mymd.core.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The boxes of a {@code .synctex.gz} file that belong to one .tex file, indexed for lookups in
+ * both directions.
+ * <p>
+ * Boxes are kept in primitive arrays. For .tex line -> PDF they are sorted by line, so
+ * {@link #locate} is a binary search. For PDF -> line each page's boxes are sorted by top edge and
+ * the page remembers its tallest box; {@link #lineAt} binary-searches the point and then scans
+ * upwards over the boxes whose top is at most that height above it. This is O(log n + k), where k
+ * is usually a few lines of text but grows with the tallest box on the page, e.g. a figure.
+ * <p>
+ * {@link #load(Path, String)} parses a file once and caches the result until the file changes.
+ * The cache keeps the eight most recently used files.
+ */
+public class SyncTexIndex {
+
+    private static final double SP_PER_BP = 65781.76;
+
+    static final int CACHE_CAPACITY = 8;
+
+    // 由自身保护；按访问顺序淘汰
+    private static final Map<Path, SyncTexIndex> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, SyncTexIndex> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+
+    private final long modified;
+    private final long size;
+
+    // 每个盒子：页码、行号、左/右、上/基线/下（PDF 点，自页面左上角起）
+    private final int[] page;
+    private final int[] line;
+    private final float[] left;
+    private final float[] right;
+    private final float[] top;
+    private final float[] baseline;
+    private final float[] bottom;
+
+    // 按行号排序的盒子编号
+    private final int[] byLine;
+    private final int[] byLineKeys;
+    // 每页按上边排序的盒子编号: pageBoxes[p - 1]
+    private final int[][] pageBoxes;
+    private final float[][] pageTops;
+    private final float[] pageMaxHeight;
+
+    private SyncTexIndex(Parser parser, long modified, long size) {
+        this.modified = modified;
+        this.size = size;
+        int n = parser.count;
+        this.page = Arrays.copyOf(parser.page, n);
+        this.line = Arrays.copyOf(parser.line, n);
+        this.left = Arrays.copyOf(parser.left, n);
+        this.right = Arrays.copyOf(parser.right, n);
+        this.top = Arrays.copyOf(parser.top, n);
+        this.baseline = Arrays.copyOf(parser.baseline, n);
+        this.bottom = Arrays.copyOf(parser.bottom, n);
+
+        // 稳定排序保持同一行内的文档顺序
+        this.byLine = sortedIndices(n, (a, b) -> Integer.compare(line[a], line[b]));
+        this.byLineKeys = new int[n];
+        for (int i = 0; i < n; i++) byLineKeys[i] = line[byLine[i]];
+
+        int pages = 0;
+        for (int i = 0; i < n; i++) pages = Math.max(pages, page[i]);
+        List<List<Integer>> perPage = new ArrayList<>();
+        for (int p = 0; p < pages; p++) perPage.add(new ArrayList<>());
+        for (int i = 0; i < n; i++) perPage.get(page[i] - 1).add(i);
+
+        this.pageBoxes = new int[pages][];
+        this.pageTops = new float[pages][];
+        this.pageMaxHeight = new float[pages];
+        for (int p = 0; p < pages; p++) {
+            List<Integer> boxes = perPage.get(p);
+            boxes.sort((a, b) -> Float.compare(top[a], top[b]));
+            int[] ids = new int[boxes.size()];
+            float[] tops = new float[boxes.size()];
+            float maxHeight = 0;
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = boxes.get(i);
+                tops[i] = top[ids[i]];
+                maxHeight = Math.max(maxHeight, bottom[ids[i]] - top[ids[i]]);
+            }
+            pageBoxes[p] = ids;
+            pageTops[p] = tops;
+            pageMaxHeight[p] = maxHeight;
+        }
+    }
+
+    /**
+     * Parses {@code synctex} (a {@code .synctex.gz} file), or returns the cached index if the file
+     * has not changed since.
+     * @param texName File name of the .tex file whose boxes are kept, e.g. {@code "paper.tex"}.
+     */
+    public static SyncTexIndex load(Path synctex, String texName) throws IOException {
+        Path key = synctex.toAbsolutePath().normalize();
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        long size = Files.size(key);
+        synchronized (cache) {
+            SyncTexIndex cached = cache.get(key);
+            if (cached != null && cached.modified == modified && cached.size == size) {
+                return cached;
+            }
+        }
+        // 在锁外解析，大文件不阻塞其他文件的查找
+        SyncTexIndex index;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(key), 1 << 16)) {
+            index = parse(in, texName, modified, size);
+        }
+        synchronized (cache) {
+            cache.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Parses uncompressed SyncTeX data.
+     */
+    public static SyncTexIndex parse(InputStream synctex, String texName) throws IOException {
+        return parse(synctex, texName, 0, 0);
+    }
+
+    private static SyncTexIndex parse(InputStream synctex, String texName, long modified, long size) throws IOException {
+        Parser parser = new Parser(texName);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(synctex, StandardCharsets.UTF_8), 1 << 16);
+        String record;
+        while ((record = reader.readLine()) != null) {
+            parser.accept(record);
+        }
+        return new SyncTexIndex(parser, modified, size);
+    }
+
+    /** Number of boxes kept. */
+    public int size() {
+        return page.length;
+    }
+
+    public int getPageCount() {
+        return pageBoxes.length;
+    }
+
+    /**
+     * The first box typeset from a line in {@code [fromLine, toLine)}, or null.
+     */
+    public PdfLocation locate(int fromLine, int toLine) {
+        int i = Arrays.binarySearch(byLineKeys, fromLine);
+        if (i < 0) {
+            i = -i - 1;
+        } else {
+            while (i > 0 && byLineKeys[i - 1] == fromLine) i--;
+        }
+        if (i >= byLine.length || byLineKeys[i] >= toLine) return null;
+        int box = byLine[i];
+        return new PdfLocation(page[box], left[box], baseline[box], baseline[box] - top[box]);
+    }
+
+    /**
+     * The .tex line of the innermost box under the point, or of the vertically closest box on the
+     * page if none contains it; -1 for an empty or unknown page.
+     * @param x PDF points from the left edge.
+     * @param y PDF points from the top edge.
+     */
+    public int lineAt(int pageNumber, double x, double y) {
+        if (pageNumber < 1 || pageNumber > pageBoxes.length) return -1;
+        int[] boxes = pageBoxes[pageNumber - 1];
+        float[] tops = pageTops[pageNumber - 1];
+        if (boxes.length == 0) return -1;
+
+        // 最后一个上边 <= y 的盒子；能覆盖 y 的盒子上边都在 [y - maxHeight, y] 内
+        int last = upperBound(tops, (float) y) - 1;
+        double minTop = y - pageMaxHeight[pageNumber - 1];
+        int best = -1;
+        double bestArea = Double.MAX_VALUE;
+        for (int i = last; i >= 0 && tops[i] >= minTop; i--) {
+            int box = boxes[i];
+            if (y > bottom[box] || x < left[box] || x > right[box]) continue;
+            double area = (right[box] - left[box]) * (double) (bottom[box] - top[box]);
+            if (area < bestArea) {
+                bestArea = area;
+                best = box;
+            }
+        }
+        if (best >= 0) return line[best];
+
+        // 落在空白处：取竖直方向最近的盒子
+        double bestDistance = Double.MAX_VALUE;
+        int from = Math.max(0, last - 64);
+        int to = Math.min(boxes.length, last + 65);
+        for (int i = from; i < to; i++) {
+            int box = boxes[i];
+            double distance = y < top[box] ? top[box] - y : Math.max(0, y - bottom[box]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = box;
+            }
+        }
+        return line[best];
+    }
+
+    private static int upperBound(float[] sorted, float key) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int[] sortedIndices(int n, Comparator<Integer> order) {
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++) boxed[i] = i;
+        Arrays.sort(boxed, order);
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) result[i] = boxed[i];
+        return result;
+    }
+
+    /**
+     * Reads SyncTeX records line by line. Only horizontal boxes ({@code (} and {@code h}) of the
+     * requested input are kept: they are the typeset lines; vertical boxes span whole pages.
+     */
+    private static final class Parser {
+        private final String texName;
+        private final Map<Integer, Boolean> wanted = new HashMap<>();
+        private double scale = 1 / SP_PER_BP;
+        private double xOffset;
+        private double yOffset;
+        private int magnification = 1000;
+        private int unit = 1;
+        private boolean content;
+        private int currentPage;
+
+        int count;
+        int[] page = new int[1024];
+        int[] line = new int[1024];
+        float[] left = new float[1024];
+        float[] right = new float[1024];
+        float[] top = new float[1024];
+        float[] baseline = new float[1024];
+        float[] bottom = new float[1024];
+
+        Parser(String texName) {
+            this.texName = texName;
+        }
+
+        void accept(String record) {
+            if (record.isEmpty()) return;
+            if (record.startsWith("Input:")) {
+                // Input:<tag>:<path>
+                int colon = record.indexOf(':', 6);
+                if (colon < 0) return;
+                String path = record.substring(colon + 1).replace('\\', '/');
+                int tag = parseInt(record, 6, colon);
+                String name = path.substring(path.lastIndexOf('/') + 1);
+                wanted.put(tag, name.equals(texName) || path.endsWith("/" + texName) || path.equals(texName));
+                return;
+            }
+            if (!content) {
+                if (record.startsWith("Magnification:")) magnification = parseInt(record, 14, record.length());
+                else if (record.startsWith("Unit:")) unit = parseInt(record, 5, record.length());
+                else if (record.startsWith("X Offset:")) xOffset = parseInt(record, 9, record.length());
+                else if (record.startsWith("Y Offset:")) yOffset = parseInt(record, 9, record.length());
+                else if (record.startsWith("Content:")) {
+                    content = true;
+                    scale = unit * (magnification / 1000.0) / SP_PER_BP;
+                }
+                return;
+            }
+
+            char type = record.charAt(0);
+            if (type == '{') {
+                currentPage = parseInt(record, 1, record.length());
+                return;
+            }
+            if (type != '(' && type != 'h' || currentPage < 1) return;
+
+            // (tag,line[,column]:x,y:W,H,D
+            int comma = record.indexOf(',', 1);
+            int colon = record.indexOf(':', 1);
+            if (comma < 0 || colon < 0 || comma > colon) return;
+            int tag = parseInt(record, 1, comma);
+            if (!Boolean.TRUE.equals(wanted.get(tag))) return;
+            int lineEnd = record.indexOf(',', comma + 1);
+            if (lineEnd < 0 || lineEnd > colon) lineEnd = colon;
+            int texLine = parseInt(record, comma + 1, lineEnd);
+
+            int[] values = new int[5];
+            int pos = colon + 1;
+            for (int v = 0; v < 5; v++) {
+                int end = pos;
+                while (end < record.length() && record.charAt(end) != ',' && record.charAt(end) != ':') end++;
+                if (end == pos) return;
+                values[v] = parseInt(record, pos, end);
+                pos = end + 1;
+                if (end >= record.length() && v < 4) return;
+            }
+
+            if (count == page.length) grow();
+            double x = values[0] * scale + xOffset * scale;
+            double y = values[1] * scale + yOffset * scale;
+            page[count] = currentPage;
+            line[count] = texLine;
+            left[count] = (float) x;
+            right[count] = (float) (x + values[2] * scale);
+            baseline[count] = (float) y;
+            top[count] = (float) (y - values[3] * scale);
+            bottom[count] = (float) (y + values[4] * scale);
+            count++;
+        }
+
+        private void grow() {
+            int capacity = page.length * 2;
+            page = Arrays.copyOf(page, capacity);
+            line = Arrays.copyOf(line, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            top = Arrays.copyOf(top, capacity);
+            baseline = Arrays.copyOf(baseline, capacity);
+            bottom = Arrays.copyOf(bottom, capacity);
+        }
+
+        private static int parseInt(String s, int from, int to) {
+            try {
+                return Integer.parseInt(s, from, to, 10);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.guaguaaaa.mymd.core.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The {@link SyncMarkers} of a generated .tex file: which source offset each stretch of lines came from.
+ */
+public class TexLineMap {
+
+    // 两个数组都按行号（也即偏移）递增
+    private final int[] lines;
+    private final int[] offsets;
+
+    private TexLineMap(int[] lines, int[] offsets) {
+        this.lines = lines;
+        this.offsets = offsets;
+    }
+
+    public static TexLineMap read(Path tex) throws IOException {
+        try (Reader reader = Files.newBufferedReader(tex, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    public static TexLineMap read(Reader tex) throws IOException {
+        BufferedReader reader = tex instanceof BufferedReader buffered ? buffered : new BufferedReader(tex);
+        int[] lines = new int[64];
+        int[] offsets = new int[64];
+        int count = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (!line.startsWith(SyncMarkers.PREFIX)) continue;
+            int offset;
+            try {
+                offset = Integer.parseInt(line.substring(SyncMarkers.PREFIX.length()).trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (count > 0 && offset < offsets[count - 1]) continue;
+            if (count == lines.length) {
+                lines = Arrays.copyOf(lines, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            lines[count] = lineNumber;
+            offsets[count] = offset;
+            count++;
+        }
+        return new TexLineMap(Arrays.copyOf(lines, count), Arrays.copyOf(offsets, count));
+    }
+
+    /** Number of markers found. */
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * Source offset of the block that produced 1-based .tex line {@code texLine}, or -1 if the
+     * line comes before the first block (the preamble).
+     */
+    public int offsetAt(int texLine) {
+        int i = floor(lines, texLine);
+        return i >= 0 ? offsets[i] : -1;
+    }
+
+    /**
+     * The .tex line of the marker of the block containing source offset {@code offset}, or -1 if
+     * there are no markers. The block's own lines follow it.
+     */
+    public int texLineAt(int offset) {
+        if (lines.length == 0) return -1;
+        int i = floor(offsets, offset);
+        return lines[Math.max(i, 0)];
+    }
+
+    /**
+     * The first line after the block whose marker is at {@code texLine}, or {@code Integer.MAX_VALUE}.
+     */
+    public int nextMarkerLine(int texLine) {
+        int i = floor(lines, texLine) + 1;
+        return i < lines.length ? lines[i] : Integer.MAX_VALUE;
+    }
+
+    /** Index of the last element {@code <= key}, or -1. */
+    private static int floor(int[] sorted, int key) {
+        int i = Arrays.binarySearch(sorted, key);
+        if (i < 0) return -i - 2;
+        while (i + 1 < sorted.length && sorted[i + 1] == key) i++;
+        return i;
+    }
+}
@@ -0,0 +1,244 @@
+package com.guaguaaaa.mymd.core.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The editor's document as a piece table: the text it was loaded with, an append-only buffer of
+ * everything typed since, and a list of pieces pointing into the two.
+ * <p>
+ * An edit appends the inserted text to the buffer and rewrites a few pieces; typing at the end of
+ * the last insertion only extends its piece. Nothing is proportional to the document length, so
+ * typing latency does not grow with the file. Listeners receive every edit as a
+ * {@link TextChange}, and {@link #snapshot()} gives an immutable view for background readers.
+ * <p>
+ * Not thread-safe: edits and listeners belong to one thread (the FX thread in the IDE).
+ */
+public class PieceTable implements CharSequence {
+
+    /** Above this many pieces the text is flattened into a new original buffer. */
+    static final int MAX_PIECES = 4096;
+
+    private String original;
+    private char[] added = new char[256];
+    private int addedLength;
+
+    private int count;
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private boolean[] fromAdded = new boolean[16];
+    /** Document offset of every piece; {@code offsets[count]} is the length. */
+    private int[] offsets = new int[17];
+
+    private int version;
+    private TextSnapshot snapshot;
+    private final List<Consumer<TextChange>> listeners = new ArrayList<>();
+
+    public PieceTable(String text) {
+        reset(text);
+    }
+
+    private void reset(String text) {
+        original = text;
+        added = new char[256];
+        addedLength = 0;
+        count = 0;
+        if (!text.isEmpty()) {
+            count = 1;
+            starts[0] = 0;
+            lengths[0] = text.length();
+            fromAdded[0] = false;
+        }
+        offsets[0] = 0;
+        offsets[count] = text.length();
+    }
+
+    public void addListener(Consumer<TextChange> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<TextChange> listener) {
+        listeners.remove(listener);
+    }
+
+    /** Incremented by every edit. */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Replaces the text between {@code start} and {@code end} with {@code replacement} and notifies
+     * the listeners.
+     */
+    public void replace(int start, int end, String replacement) {
+        int length = length();
+        if (start < 0 || end < start || end > length) {
+            throw new IllegalArgumentException("Invalid edit range " + start + "-" + end + " for length " + length);
+        }
+        if (start == end && replacement.isEmpty()) return;
+
+        String removed = start == end ? "" : snapshot().getText(start, end);
+        if (start == 0 && end == length) {
+            // 整篇替换（例如打开文件）：直接换掉原始缓冲区
+            reset(replacement);
+        } else if (start == end && canExtendLastInsertion(start)) {
+            int piece = pieceEndingAt(start);
+            append(replacement);
+            lengths[piece] += replacement.length();
+            shiftOffsets(piece + 1, replacement.length());
+        } else {
+            splice(start, end, replacement);
+        }
+        if (count > MAX_PIECES) {
+            reset(snapshot(false).toString());
+        }
+
+        version++;
+        snapshot = null;
+        TextChange change = new TextChange(start, removed, replacement);
+        for (Consumer<TextChange> listener : List.copyOf(listeners)) {
+            listener.accept(change);
+        }
+    }
+
+    /** Whether an insertion at {@code offset} continues the text appended last. */
+    private boolean canExtendLastInsertion(int offset) {
+        int piece = pieceEndingAt(offset);
+        return piece >= 0 && fromAdded[piece] && starts[piece] + lengths[piece] == addedLength;
+    }
+
+    /** The piece that ends exactly at {@code offset}, or -1. */
+    private int pieceEndingAt(int offset) {
+        if (offset == 0 || count == 0) return -1;
+        int piece = pieceAt(offset - 1);
+        return offsets[piece + 1] == offset ? piece : -1;
+    }
+
+    private void splice(int start, int end, String replacement) {
+        // 受影响的 piece 是 [first, stop)，换成：左半段、新插入的文本、右半段
+        int length = length();
+        int first = start < length ? pieceAt(start) : count;
+        int rightPiece = end < length ? pieceAt(end) : -1;
+        int stop = rightPiece >= 0 ? rightPiece + 1 : count;
+
+        int[] newStarts = new int[3];
+        int[] newLengths = new int[3];
+        boolean[] newFromAdded = new boolean[3];
+        int n = 0;
+        if (first < count && offsets[first] < start) {
+            newStarts[n] = starts[first];
+            newLengths[n] = start - offsets[first];
+            newFromAdded[n] = fromAdded[first];
+            n++;
+        }
+        if (!replacement.isEmpty()) {
+            newStarts[n] = addedLength;
+            newLengths[n] = replacement.length();
+            newFromAdded[n] = true;
+            append(replacement);
+            n++;
+        }
+        if (rightPiece >= 0) {
+            newStarts[n] = starts[rightPiece] + end - offsets[rightPiece];
+            newLengths[n] = offsets[rightPiece + 1] - end;
+            newFromAdded[n] = fromAdded[rightPiece];
+            n++;
+        }
+
+        int newCount = count - (stop - first) + n;
+        ensureCapacity(newCount);
+        int tail = count - stop;
+        System.arraycopy(starts, stop, starts, first + n, tail);
+        System.arraycopy(lengths, stop, lengths, first + n, tail);
+        System.arraycopy(fromAdded, stop, fromAdded, first + n, tail);
+        System.arraycopy(newStarts, 0, starts, first, n);
+        System.arraycopy(newLengths, 0, lengths, first, n);
+        System.arraycopy(newFromAdded, 0, fromAdded, first, n);
+        count = newCount;
+        for (int i = first; i < count; i++) {
+            offsets[i + 1] = offsets[i] + lengths[i];
+        }
+    }
+
+    private void append(String text) {
+        int needed = addedLength + text.length();
+        if (needed > added.length) {
+            // 换成新数组，旧快照继续引用旧数组；之后只在已有长度之后追加，快照读到的部分不会再变
+            added = Arrays.copyOf(added, Math.max(needed, added.length * 2));
+        }
+        text.getChars(0, text.length(), added, addedLength);
+        addedLength = needed;
+    }
+
+    private void shiftOffsets(int fromPiece, int delta) {
+        for (int i = fromPiece; i <= count; i++) {
+            offsets[i] += delta;
+        }
+    }
+
+    private void ensureCapacity(int pieces) {
+        if (pieces <= starts.length) return;
+        int size = Math.max(pieces, starts.length * 2);
+        starts = Arrays.copyOf(starts, size);
+        lengths = Arrays.copyOf(lengths, size);
+        fromAdded = Arrays.copyOf(fromAdded, size);
+        offsets = Arrays.copyOf(offsets, size + 1);
+    }
+
+    /** Index of the piece containing {@code offset}, which must be below the length. */
+    private int pieceAt(int offset) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= offset) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * An immutable view of the current text; cached until the next edit.
+     */
+    public TextSnapshot snapshot() {
+        if (snapshot == null) snapshot = snapshot(true);
+        return snapshot;
+    }
+
+    private TextSnapshot snapshot(boolean copy) {
+        return new TextSnapshot(original, added, count,
+                copy ? Arrays.copyOf(starts, count) : starts,
+                copy ? Arrays.copyOf(lengths, count) : lengths,
+                copy ? Arrays.copyOf(fromAdded, count) : fromAdded,
+                copy ? Arrays.copyOf(offsets, count + 1) : offsets,
+                version);
+    }
+
+    /** Number of pieces, for tests and statistics. */
+    int getPieceCount() {
+        return count;
+    }
+
+    @Override
+    public int length() {
+        return offsets[count];
+    }
+
+    @Override
+    public char charAt(int index) {
+        return snapshot().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return snapshot().getText(start, end);
+    }
+
+    /** The whole text; copies the document, prefer a {@link #snapshot()} for reading. */
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
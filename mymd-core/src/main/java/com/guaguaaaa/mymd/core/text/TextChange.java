@@ -0,0 +1,32 @@
+package com.guaguaaaa.mymd.core.text;
+
+/**
+ * One edit of a {@link PieceTable}: {@code removed} was replaced by {@code inserted} at
+ * {@code offset}. Offsets are UTF-16 code units.
+ */
+public class TextChange {
+    public final int offset;
+    public final String removed;
+    public final String inserted;
+
+    public TextChange(int offset, String removed, String inserted) {
+        this.offset = offset;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+
+    /** End of the removed text in the document before the change. */
+    public int getRemovalEnd() {
+        return offset + removed.length();
+    }
+
+    /** End of the inserted text in the document after the change. */
+    public int getInsertionEnd() {
+        return offset + inserted.length();
+    }
+
+    @Override
+    public String toString() {
+        return offset + ": -" + removed.length() + " +" + inserted.length();
+    }
+}
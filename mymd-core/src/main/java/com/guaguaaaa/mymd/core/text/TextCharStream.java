@@ -0,0 +1,84 @@
+package com.guaguaaaa.mymd.core.text;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A {@link CharStream} reading straight from a {@link CharSequence}, typically a
+ * {@link TextSnapshot}, so the lexer can run over the editor's document without copying it into a
+ * {@code String} first.
+ * <p>
+ * Indices are UTF-16 code units, the editor's offsets, unlike {@code CharStreams.fromString} which
+ * counts code points.
+ */
+public final class TextCharStream implements CharStream {
+
+    private final CharSequence text;
+    private final int length;
+    private final String sourceName;
+    private int p;
+
+    public TextCharStream(CharSequence text) {
+        this(text, UNKNOWN_SOURCE_NAME);
+    }
+
+    public TextCharStream(CharSequence text, String sourceName) {
+        this.text = text;
+        this.length = text.length();
+        this.sourceName = sourceName;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) return 0;
+        int index = i > 0 ? p + i - 1 : p + i;
+        if (index < 0 || index >= length) return IntStream.EOF;
+        return text.charAt(index);
+    }
+
+    @Override
+    public void consume() {
+        if (p >= length) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p++;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void seek(int index) {
+        p = Math.min(index, length);
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = interval.a;
+        int stop = Math.min(interval.b, length - 1);
+        if (start >= length || stop < start) return "";
+        return text.subSequence(start, stop + 1).toString();
+    }
+}
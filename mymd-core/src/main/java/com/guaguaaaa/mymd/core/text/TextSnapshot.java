@@ -0,0 +1,100 @@
+package com.guaguaaaa.mymd.core.text;
+
+/**
+ * An immutable view of a {@link PieceTable} at one version.
+ * <p>
+ * Taking a snapshot copies the piece list, not the text: both buffers are shared with the table,
+ * which only ever appends to them. A snapshot can therefore be handed to a background thread
+ * (highlighter, compiler) while the editor keeps changing the table.
+ */
+public final class TextSnapshot implements CharSequence {
+
+    private final String original;
+    private final char[] added;
+    private final int count;
+    private final int[] starts;
+    private final int[] lengths;
+    private final boolean[] fromAdded;
+    /** Document offset of every piece; {@code offsets[count]} is the length. */
+    private final int[] offsets;
+    private final int version;
+
+    // 顺序读取时命中上一次的 piece；多个线程共用也没关系，使用前都会校验
+    private int lastPiece;
+
+    TextSnapshot(String original, char[] added, int count, int[] starts, int[] lengths,
+                 boolean[] fromAdded, int[] offsets, int version) {
+        this.original = original;
+        this.added = added;
+        this.count = count;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.fromAdded = fromAdded;
+        this.offsets = offsets;
+        this.version = version;
+    }
+
+    /** The {@link PieceTable#getVersion() version} of the table this snapshot was taken from. */
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public int length() {
+        return offsets[count];
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        }
+        int piece = lastPiece;
+        if (piece >= count || offsets[piece] > index || offsets[piece + 1] <= index) {
+            piece = pieceAt(index);
+            lastPiece = piece;
+        }
+        int at = starts[piece] + index - offsets[piece];
+        return fromAdded[piece] ? added[at] : original.charAt(at);
+    }
+
+    /**
+     * The text between {@code start} (inclusive) and {@code end} (exclusive).
+     */
+    public String getText(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("range " + start + "-" + end + ", length " + length());
+        }
+        if (start == end) return "";
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int piece = pieceAt(start); piece < count && offsets[piece] < end; piece++) {
+            int from = starts[piece] + Math.max(start, offsets[piece]) - offsets[piece];
+            int to = starts[piece] + Math.min(end, offsets[piece + 1]) - offsets[piece];
+            if (fromAdded[piece]) sb.append(added, from, to - from);
+            else sb.append(original, from, to);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return getText(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return getText(0, length());
+    }
+
+    /** Index of the piece containing {@code index}, which must be below the length. */
+    private int pieceAt(int index) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= index) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+}
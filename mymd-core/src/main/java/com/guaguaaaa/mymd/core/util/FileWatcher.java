@@ -0,0 +1,181 @@
+package com.guaguaaaa.mymd.core.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Watches a set of files for changes made by other programs.
+ * <p>
+ * The directories of the files are registered with a {@link WatchService}. Events are collected
+ * until none has arrived for the debounce delay, so an editor that writes a file in several steps
+ * (truncate, write, rename) causes one notification. Each file's content hash (CRC32C) is recorded
+ * when it is first watched; a file whose hash is unchanged when the events settle, e.g. because it
+ * was only touched or was written back by ourselves (see {@link #refresh}), is not reported.
+ * <p>
+ * The listener is called on the watcher thread with the files that really changed; a deleted
+ * file counts as changed.
+ */
+public class FileWatcher implements Closeable {
+
+    private static final long MISSING = -1;
+
+    private final WatchService service;
+    private final long debounceMillis;
+    private final Consumer<Set<Path>> listener;
+
+    // 以下字段由 this 保护
+    private final Map<Path, Long> hashes = new HashMap<>();
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+
+    public FileWatcher(long debounceMillis, Consumer<Set<Path>> listener) throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = debounceMillis;
+        this.listener = listener;
+        Thread thread = new Thread(this::run, "mymd-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Replaces the set of watched files. Files already watched keep their recorded hash; the
+     * others are hashed now. Files that do not exist yet are watched for their creation.
+     */
+    public synchronized void watch(Collection<Path> files) throws IOException {
+        Map<Path, Long> previous = new HashMap<>(hashes);
+        hashes.clear();
+        for (Path file : files) {
+            Path key = file.toAbsolutePath().normalize();
+            Long hash = previous.get(key);
+            hashes.put(key, hash != null ? hash : hash(key));
+        }
+
+        Set<Path> needed = new LinkedHashSet<>();
+        for (Path file : hashes.keySet()) {
+            if (file.getParent() != null && Files.isDirectory(file.getParent())) needed.add(file.getParent());
+        }
+        directories.entrySet().removeIf(entry -> {
+            if (needed.contains(entry.getKey())) return false;
+            entry.getValue().cancel();
+            return true;
+        });
+        for (Path dir : needed) {
+            if (!directories.containsKey(dir)) {
+                directories.put(dir, dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+            }
+        }
+    }
+
+    /**
+     * Records the current content of {@code file}, so that a change we made ourselves (e.g. saving
+     * from the editor) is not reported.
+     */
+    public synchronized void refresh(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        if (hashes.containsKey(key)) hashes.put(key, hash(key));
+    }
+
+    public synchronized Set<Path> getWatchedFiles() {
+        return Set.copyOf(hashes.keySet());
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private void run() {
+        Set<Path> pending = new LinkedHashSet<>();
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? service.take() : service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    // 防抖时间内没有新事件：合并后的改动一次性处理
+                    Set<Path> changed = settle(pending);
+                    pending.clear();
+                    if (!changed.isEmpty()) notifyListener(changed);
+                    continue;
+                }
+                collect(key, pending);
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 关闭
+        }
+    }
+
+    private synchronized void collect(WatchKey key, Set<Path> pending) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 事件丢失：该目录下的所有文件都重新比较哈希
+                for (Path file : hashes.keySet()) {
+                    if (dir.equals(file.getParent())) pending.add(file);
+                }
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if (hashes.containsKey(file)) pending.add(file);
+        }
+    }
+
+    private synchronized Set<Path> settle(Set<Path> pending) {
+        Set<Path> changed = new LinkedHashSet<>();
+        for (Path file : pending) {
+            Long old = hashes.get(file);
+            if (old == null) continue; // 其间已不再监视
+            long hash = hash(file);
+            if (hash != old) {
+                hashes.put(file, hash);
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+
+    private void notifyListener(Set<Path> changed) {
+        try {
+            listener.accept(changed);
+        } catch (RuntimeException e) {
+            System.err.println("File watcher listener failed: " + e);
+        }
+    }
+
+    /**
+     * CRC32C of the file content combined with its size, or {@link #MISSING} if it cannot be read.
+     */
+    private static long hash(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            CRC32C crc = new CRC32C();
+            for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Integer.MAX_VALUE, size - position));
+                crc.update(data);
+            }
+            // 混入常量，空文件不会与 MISSING 相同
+            return crc.getValue() ^ (size << 32) ^ 0x5A5A5A5AL;
+        } catch (IOException e) {
+            return MISSING;
+        }
+    }
+}
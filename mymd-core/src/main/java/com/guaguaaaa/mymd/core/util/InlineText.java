@@ -0,0 +1,51 @@
+package com.guaguaaaa.mymd.core.util;
+
+import com.guaguaaaa.mymd.core.ast.Inline;
+
+import java.util.List;
+
+/**
+ * Flattens inline nodes to plain text, e.g. for outline entries and symbol names.
+ */
+public class InlineText {
+
+    public static String plainText(List<? extends Inline> inlines) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, inlines);
+        return sb.toString().trim();
+    }
+
+    private static void append(StringBuilder sb, List<?> inlines) {
+        for (Object item : inlines) {
+            if (!(item instanceof Inline inline)) continue;
+            switch (inline.t) {
+                case "Str":
+                    sb.append((String) inline.c);
+                    break;
+                case "Space":
+                case "SoftBreak":
+                case "LineBreak":
+                    sb.append(' ');
+                    break;
+                case "Emph":
+                case "Strong":
+                    append(sb, (List<?>) inline.c);
+                    break;
+                case "Code":
+                case "Math":
+                    // c = [attr 或 mathType, text]
+                    sb.append((String) ((List<?>) inline.c).get(1));
+                    break;
+                case "Link":
+                case "Image":
+                case "Cite":
+                    // Link/Image: [attr, content, target]; Cite: [citations, fallback]
+                    append(sb, (List<?>) ((List<?>) inline.c).get(1));
+                    break;
+                default:
+                    // RawInline (\ref / \label) 不属于可见文本
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.guaguaaaa.mymd.core.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes files in the background, one file at a time.
+ * <p>
+ * Each write goes to a temporary file in the target directory, is forced to disk and then renamed
+ * over the target, so the file is never seen half-written, even after a crash. Saves of a file
+ * that arrive while an earlier save of it is still queued are coalesced: only the latest text is
+ * written, and all of those saves complete together.
+ */
+public class SaveService implements Closeable {
+
+    private static final class Pending {
+        String text;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(String text) {
+            this.text = text;
+        }
+    }
+
+    private final ExecutorService executor;
+    // 已排队但尚未开始写入的保存，按文件合并
+    private final Map<Path, Pending> pending = new HashMap<>();
+
+    public SaveService() {
+        this(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "mymd-save");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    /**
+     * @param executor runs the writes; should run one task at a time so writes keep their order
+     */
+    public SaveService(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Queues {@code text} to be written to {@code file} as UTF-8.
+     *
+     * @return completes when this text, or text saved after it, is on disk
+     */
+    public CompletableFuture<Void> save(Path file, String text) {
+        Path key = file.toAbsolutePath().normalize();
+        synchronized (pending) {
+            Pending queued = pending.get(key);
+            if (queued != null) {
+                queued.text = text;
+                return queued.done;
+            }
+            queued = new Pending(text);
+            pending.put(key, queued);
+            executor.execute(() -> write(key));
+            return queued.done;
+        }
+    }
+
+    private void write(Path file) {
+        Pending job;
+        synchronized (pending) {
+            job = pending.remove(file);
+        }
+        try {
+            writeAtomically(file, job.text.getBytes(StandardCharsets.UTF_8));
+            job.done.complete(null);
+        } catch (IOException | RuntimeException e) {
+            job.done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Writes {@code data} to a temporary file next to {@code file}, forces it to disk and renames
+     * it to {@code file}. Falls back to a plain replacing move where the file system cannot
+     * rename atomically.
+     */
+    public static void writeAtomically(Path file, byte[] data) throws IOException {
+        Path target = file.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            // 临时文件默认只有所有者可读写，沿用原文件的权限
+            if (Files.exists(target)) {
+                try {
+                    Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+                } catch (UnsupportedOperationException ignored) {
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Finishes the queued saves, waiting up to a few seconds, then stops the writer thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.guaguaaaa.mymd.core.xref;
+
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Label definitions and references of a document, keyed by id.
+ * <p>
+ * Filled while the AST is built, so dangling references and duplicate labels are found without a
+ * LaTeX run. Sites can be removed again, which lets an incrementally analysed document swap the
+ * sites of re-parsed blocks in and out instead of rebuilding the index.
+ */
+public class LabelIndex {
+
+    private static final class Entry {
+        final List<LabelSite> definitions = new ArrayList<>(1);
+        final List<LabelSite> uses = new ArrayList<>(2);
+
+        boolean isEmpty() {
+            return definitions.isEmpty() && uses.isEmpty();
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int size;
+
+    public void add(LabelSite site) {
+        Entry entry = entries.computeIfAbsent(site.id, id -> new Entry());
+        (site.isDefinition() ? entry.definitions : entry.uses).add(site);
+        size++;
+    }
+
+    public void addAll(LabelIndex other) {
+        for (Entry entry : other.entries.values()) {
+            entry.definitions.forEach(this::add);
+            entry.uses.forEach(this::add);
+        }
+    }
+
+    /**
+     * Removes exactly this site object.
+     * @return false if it was not in the index.
+     */
+    public boolean remove(LabelSite site) {
+        Entry entry = entries.get(site.id);
+        if (entry == null || !(site.isDefinition() ? entry.definitions : entry.uses).remove(site)) {
+            return false;
+        }
+        if (entry.isEmpty()) entries.remove(site.id);
+        size--;
+        return true;
+    }
+
+    /** The definition of {@code id}, or null. If the label is defined twice, the first one recorded. */
+    public LabelSite getDefinition(String id) {
+        Entry entry = entries.get(id);
+        return entry != null && !entry.definitions.isEmpty() ? entry.definitions.get(0) : null;
+    }
+
+    public List<LabelSite> getDefinitions(String id) {
+        Entry entry = entries.get(id);
+        return entry != null ? Collections.unmodifiableList(entry.definitions) : Collections.emptyList();
+    }
+
+    public List<LabelSite> getUses(String id) {
+        Entry entry = entries.get(id);
+        return entry != null ? Collections.unmodifiableList(entry.uses) : Collections.emptyList();
+    }
+
+    /** All sites, definitions of an id before its uses. */
+    public List<LabelSite> getSites() {
+        List<LabelSite> result = new ArrayList<>(size);
+        for (Entry entry : entries.values()) {
+            result.addAll(entry.definitions);
+            result.addAll(entry.uses);
+        }
+        return result;
+    }
+
+    /** Every id with at least one site. */
+    public Set<String> getIds() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /** Number of sites (definitions and uses). */
+    public int size() {
+        return size;
+    }
+
+    /** References to ids that are never defined. */
+    public List<LabelSite> getDanglingUses() {
+        List<LabelSite> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.definitions.isEmpty()) result.addAll(entry.uses);
+        }
+        return result;
+    }
+
+    /** Every definition of ids that are defined more than once. */
+    public List<LabelSite> getDuplicateDefinitions() {
+        List<LabelSite> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.definitions.size() > 1) result.addAll(entry.definitions);
+        }
+        return result;
+    }
+
+    /**
+     * Warning text for a site returned by {@link #getDanglingUses()} or {@link #getDuplicateDefinitions()}.
+     */
+    public String describeProblem(LabelSite site) {
+        if (site.isDefinition()) {
+            return "Duplicate label: " + site.id + " (defined " + getDefinitions(site.id).size() + " times)";
+        }
+        return "Undefined reference: " + site.id;
+    }
+
+    /**
+     * Dangling references and duplicate labels as warnings, in source order.
+     * @param source The compiled text; offsets are code point indices, as reported by the ANTLR lexer.
+     */
+    public List<Diagnostic> getDiagnostics(String source) {
+        List<LabelSite> problems = new ArrayList<>(getDanglingUses());
+        problems.addAll(getDuplicateDefinitions());
+        return toWarnings(problems, this::describeProblem, source);
+    }
+
+    /**
+     * Turns sites into warnings in source order, computing line and column from {@code source}.
+     * @param source The compiled text; offsets are code point indices, as reported by the ANTLR lexer.
+     */
+    public static List<Diagnostic> toWarnings(List<LabelSite> sites, Function<LabelSite, String> message, String source) {
+        if (sites.isEmpty()) return Collections.emptyList();
+        List<LabelSite> sorted = new ArrayList<>(sites);
+        sorted.sort(Comparator.<LabelSite>comparingInt(site -> site.start).thenComparing(site -> site.id));
+
+        // 按码点顺序扫描一次源码，求出行号和列号
+        List<Diagnostic> diagnostics = new ArrayList<>(sorted.size());
+        int line = 1;
+        int lineStart = 0;
+        int codePoint = 0;
+        int charIndex = 0;
+        for (LabelSite site : sorted) {
+            while (codePoint < site.start && charIndex < source.length()) {
+                int c = source.codePointAt(charIndex);
+                charIndex += Character.charCount(c);
+                codePoint++;
+                if (c == '\n') {
+                    line++;
+                    lineStart = codePoint;
+                }
+            }
+            diagnostics.add(new Diagnostic(line, site.start - lineStart, site.start, site.end,
+                    message.apply(site), Diagnostic.Severity.WARNING));
+        }
+        return diagnostics;
+    }
+}
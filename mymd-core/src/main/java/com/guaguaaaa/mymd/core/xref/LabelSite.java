@@ -0,0 +1,48 @@
+package com.guaguaaaa.mymd.core.xref;
+
+/**
+ * One occurrence of a label id: a definition ({@code \label}) or a use ({@code \ref}).
+ * Offsets are those of the tokens the site was recorded from.
+ */
+public class LabelSite {
+
+    public enum Kind {
+        /** {@code # Title [sec:id]}: a trailing reference on a header becomes its label. */
+        HEADER,
+        /** {@code $$ ... $$ [eq:id]} */
+        EQUATION,
+        /** {@code \label{id}} written as raw LaTeX, inside math or a LaTeX environment. */
+        LATEX_LABEL,
+        /** {@code [type:id]} in running text. */
+        REF,
+        /** {@code \ref{id}}, {@code \eqref{id}}, ... written as raw LaTeX. */
+        LATEX_REF,
+        /** {@code [@key]}: a bibliography citation. Kept in a separate index, see {@code CompilationResult.citations}. */
+        CITATION;
+
+        public boolean isDefinition() {
+            return this == HEADER || this == EQUATION || this == LATEX_LABEL;
+        }
+    }
+
+    public final String id;
+    public final Kind kind;
+    public final int start;
+    public final int end;
+
+    public LabelSite(String id, Kind kind, int start, int end) {
+        this.id = id;
+        this.kind = kind;
+        this.start = start;
+        this.end = end;
+    }
+
+    public boolean isDefinition() {
+        return kind.isDefinition();
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + id + " " + start + "-" + end;
+    }
+}
@@ -0,0 +1,104 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential tests: the hand-written adapters must write what Gson's reflective adapter writes.
+ */
+class AstJsonTest {
+
+    private static final Gson REFLECTIVE = new GsonBuilder().create();
+
+    private static final String DOC = "---\ntitle: Doc <a & b>\ndate: 2024\n---\n\n" +
+            "# Intro [sec:intro]\n\n" +
+            "Some *italic* and **bold** text\nwith $x^2$, [link](http://a.b?x=1) and [@knuth].\n\n" +
+            "1. first\n2. second `code`\n\n" +
+            "- item\n    - nested\n\n" +
+            "> quoted words\n\n" +
+            "```java\nint x = 1;\n```\n\n" +
+            "$$\nE = mc^2\n$$ [eq:e]";
+
+    @Test
+    void writeValue_compiledDocument_shouldMatchReflectiveGson() {
+        CompilationResult result = MyMDCompiler.compile(DOC, new CompilerOptions().setSourcePositions(true));
+        assertFalse(result.hasErrors(), String.valueOf(result.diagnostics));
+        PandocAst ast = (PandocAst) result.rootAst;
+
+        assertEquals(REFLECTIVE.toJson(ast), AstJson.GSON.toJson(ast));
+        assertEquals(REFLECTIVE.toJson(ast.getBlocks()), AstJson.GSON.toJson(ast.getBlocks()));
+        assertEquals(REFLECTIVE.toJsonTree(ast.getBlocks()), AstJson.GSON.toJsonTree(ast.getBlocks()));
+
+        // 流式写出的 Pandoc JSON 与先构建 JsonElement 树再输出的结果逐字相同
+        JsonObject root = new JsonObject();
+        JsonArray apiVersion = new JsonArray();
+        apiVersion.add(1);
+        apiVersion.add(23);
+        root.add("pandoc-api-version", apiVersion);
+        root.add("meta", JsonParser.parseString(result.pandocJson).getAsJsonObject().get("meta"));
+        root.add("blocks", REFLECTIVE.toJsonTree(ast.getBlocks()));
+        assertEquals(REFLECTIVE.toJson(root), result.pandocJson);
+    }
+
+    @Test
+    void writeValue_everyNodeType_shouldMatchReflectiveGson() {
+        List<Inline> text = List.of(new Str("a"), new Space(), new LineBreak(), new Str("b<c>"));
+        List<Block> blocks = List.of(
+                new Header(2, text),
+                new Para(List.of(new Emph(text), new Strong(text), new Code("x"),
+                        new MathNode(MathNode.MathType.INLINE_MATH, "x"), new Cite("key"),
+                        new Link(text, "http://a"), new Image(text, "fig.png"), new RawInline("tex", "\\x"))),
+                new CodeBlock("code", "java"),
+                new CodeBlock("code", null),
+                new BlockQuote(List.of(new Para(text))),
+                new BulletList(List.of(List.of(new Para(text)), List.of())),
+                new OrderedList(new ListAttributes(3, ListAttributes.Style.LowerRoman, ListAttributes.Delim.OneParen),
+                        List.of(List.of(new Para(text)))),
+                new HorizontalRule(),
+                new RawBlock("latex", "\\newpage"));
+
+        for (Block block : blocks) {
+            assertEquals(REFLECTIVE.toJson(block), AstJson.GSON.toJson(block));
+        }
+        assertEquals(REFLECTIVE.toJson(new Citation("k")), AstJson.GSON.toJson(new Citation("k")));
+        ListAttributes attrs = new ListAttributes(1, ListAttributes.Style.Decimal, ListAttributes.Delim.Period);
+        assertEquals(REFLECTIVE.toJson(attrs), AstJson.GSON.toJson(attrs));
+    }
+
+    @Test
+    void read_shouldGoThroughPandocJsonReader() {
+        assertInstanceOf(Space.class, AstJson.GSON.fromJson("{\"t\":\"Space\"}", Inline.class));
+        assertInstanceOf(GenericBlock.class, AstJson.GSON.fromJson("{\"t\":\"Div\",\"c\":[[\"\",[],[]],[]]}", Block.class));
+        assertThrows(JsonParseException.class, () -> AstJson.GSON.fromJson("{\"t\":\"Space\"}", Block.class));
+    }
+
+    @Test
+    void read_citationAndListAttributes_shouldRoundTrip() {
+        Citation citation = AstJson.GSON.fromJson(AstJson.GSON.toJson(new Citation("knuth")), Citation.class);
+        assertEquals("knuth", citation.citationId);
+        ListAttributes attrs = new ListAttributes(3, ListAttributes.Style.LowerRoman, ListAttributes.Delim.OneParen);
+        assertEquals(AstJson.GSON.toJson(attrs),
+                AstJson.GSON.toJson(AstJson.GSON.fromJson(AstJson.GSON.toJson(attrs), ListAttributes.class)));
+        assertNull(AstJson.GSON.fromJson("null", Citation.class));
+
+        assertThrows(JsonParseException.class, () -> AstJson.GSON.fromJson("{}", Citation.class));
+        // Citation 只保存键：带前缀等非默认字段时不能静默丢弃
+        String withPrefix = AstJson.GSON.toJson(new Citation("k")).replace("\"citationPrefix\":[]",
+                "\"citationPrefix\":[{\"t\":\"Str\",\"c\":\"see\"}]");
+        assertThrows(JsonParseException.class, () -> AstJson.GSON.fromJson(withPrefix, Citation.class));
+        assertThrows(JsonParseException.class, () -> AstJson.GSON.fromJson(
+                "{\"startNumber\":1,\"style\":\"Roman\",\"delim\":\"Period\"}", ListAttributes.class));
+    }
+}
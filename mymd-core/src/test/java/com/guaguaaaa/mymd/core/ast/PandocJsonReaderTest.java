@@ -0,0 +1,108 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PandocJsonReaderTest {
+
+    private static final String DOC = "---\ntitle: Doc\n---\n\n" +
+            "# Intro [sec:intro]\n\n" +
+            "Some *italic* and **bold** text\nwith $x^2$, [link](http://a.b) and [@knuth].\n\n" +
+            "1. first\n2. second `code`\n\n" +
+            "- item\n    - nested\n\n" +
+            "> quoted words\n\n" +
+            "```java\nint x = 1;\n```\n\n" +
+            "$$\nE = mc^2\n$$ [eq:e]";
+
+    @Test
+    void readDocument_compiledDocument_shouldWriteBackUnchanged() throws IOException {
+        CompilationResult result = MyMDCompiler.compile(DOC, new CompilerOptions());
+        assertFalse(result.hasErrors(), String.valueOf(result.diagnostics));
+
+        PandocAst ast = new PandocJsonReader(new StringReader(result.pandocJson)).readDocument();
+        assertEquals(result.pandocJson, AstJson.GSON.toJson(ast));
+
+        List<Block> blocks = ast.getBlocks();
+        assertInstanceOf(Header.class, blocks.get(0));
+        assertEquals(1, ((Header) blocks.get(0)).getLevel());
+        assertInstanceOf(Para.class, blocks.get(1));
+        assertInstanceOf(OrderedList.class, blocks.get(2));
+        assertInstanceOf(BulletList.class, blocks.get(3));
+        assertInstanceOf(BlockQuote.class, blocks.get(4));
+        assertInstanceOf(CodeBlock.class, blocks.get(5));
+        for (Block block : blocks) {
+            assertFalse(block instanceof GenericBlock, block.t);
+        }
+    }
+
+    @Test
+    void readDocument_pandocOutput_shouldKeepWhatWeCannotModel() throws IOException {
+        String json = "{\"pandoc-api-version\":[1,23,1],\"meta\":{\"ratio\":{\"t\":\"MetaString\",\"c\":\"1.5\"}},\"blocks\":["
+                + "{\"t\":\"Header\",\"c\":[2,[\"intro\",[],[]],[{\"t\":\"Str\",\"c\":\"Hi\"}]]},"
+                + "{\"t\":\"Div\",\"c\":[[\"\",[\"note\"],[]],[{\"t\":\"Plain\",\"c\":[{\"t\":\"Str\",\"c\":\"a\"},{\"t\":\"SoftBreak\"}]}]]},"
+                + "{\"t\":\"HorizontalRule\"},"
+                + "{\"c\":[{\"t\":\"Link\",\"c\":[[\"\",[],[]],[{\"t\":\"Str\",\"c\":\"x\"}],[\"http://a\",\"title\"]]},"
+                + "{\"t\":\"Math\",\"c\":[{\"t\":\"InlineMath\"},\"y\"]}],\"t\":\"Para\"},"
+                + "{\"t\":\"Table\",\"c\":[[\"\",[],[]],[null,[]],[[{\"t\":\"AlignDefault\"},{\"t\":\"ColWidth\",\"c\":0.5}]],"
+                + "[[\"\",[],[]],[]],[],[[\"\",[],[]],[]]]}]}";
+
+        PandocAst ast = new PandocJsonReader(new StringReader(json)).readDocument();
+        assertEquals(JsonParser.parseString(json), JsonParser.parseString(AstJson.GSON.toJson(ast)));
+        assertEquals(List.of(1, 23, 1), ast.getPandocApiVersion());
+
+        List<Block> blocks = ast.getBlocks();
+        assertInstanceOf(GenericBlock.class, blocks.get(0), "header with an identifier");
+        assertInstanceOf(GenericBlock.class, blocks.get(1));
+        assertInstanceOf(GenericBlock.class, blocks.get(2), "rule without content");
+        Para para = assertInstanceOf(Para.class, blocks.get(3));
+        List<?> inlines = (List<?>) para.c;
+        assertInstanceOf(GenericInline.class, inlines.get(0), "link with a title");
+        assertInstanceOf(MathNode.class, inlines.get(1));
+
+        // Div 里的节点同样被识别
+        List<?> div = (List<?>) blocks.get(1).c;
+        Block plain = (Block) ((List<?>) div.get(1)).get(0);
+        assertEquals("Plain", plain.t);
+        assertInstanceOf(Str.class, ((List<?>) plain.c).get(0));
+    }
+
+    @Test
+    void nextBlock_shouldStreamBlocksOneAtATime() throws IOException {
+        StringBuilder json = new StringBuilder("{\"pandoc-api-version\":[1,23],\"meta\":{\"k\":{\"t\":\"MetaBool\",\"c\":true}},\"blocks\":[");
+        for (int i = 0; i < 10000; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"t\":\"Para\",\"c\":[{\"t\":\"Str\",\"c\":\"p").append(i).append("\"}]}");
+        }
+        json.append("],\"extra\":1}");
+
+        try (PandocJsonReader reader = new PandocJsonReader(new StringReader(json.toString()))) {
+            int count = 0;
+            while (reader.hasNextBlock()) {
+                Para para = assertInstanceOf(Para.class, reader.nextBlock());
+                assertEquals("p" + count, ((Str) ((List<?>) para.c).get(0)).c);
+                assertTrue(reader.getMeta().containsKey("k"));
+                count++;
+            }
+            assertEquals(10000, count);
+            assertEquals(List.of(1, 23), reader.getApiVersion());
+            assertFalse(reader.hasNextBlock());
+        }
+    }
+
+    @Test
+    void nextBlock_inlineAtTopLevel_shouldFail() {
+        String json = "{\"pandoc-api-version\":[1,23],\"meta\":{},\"blocks\":[{\"t\":\"Str\",\"c\":\"x\"}]}";
+        PandocJsonReader reader = new PandocJsonReader(new StringReader(json));
+        assertThrows(JsonParseException.class, reader::readDocument);
+    }
+}
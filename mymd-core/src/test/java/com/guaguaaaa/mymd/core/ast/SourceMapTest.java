@@ -0,0 +1,82 @@
+package com.guaguaaaa.mymd.core.ast;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceMapTest {
+
+    private static final String DOC = "# Intro [sec:intro]\n\n" +
+            "Some *italic* and **bold** text\nwith $x^2$ and [link](http://a.b).\n\n" +
+            "- first item\n- second `code`\n\n" +
+            "> quoted words\n\n" +
+            "$$\nE = mc^2\n$$ [eq:e]";
+
+    @Test
+    void compile_shouldRecordPositionsOfEveryNode() {
+        CompilationResult result = MyMDCompiler.compile(DOC, new CompilerOptions().setSourcePositions(true));
+        assertFalse(result.hasErrors());
+        SourceMap map = result.sourceMap;
+        assertNotNull(map);
+
+        List<PandocNode> nodes = new ArrayList<>();
+        collect(((PandocAst) result.rootAst).getBlocks(), nodes);
+        for (PandocNode node : nodes) {
+            assertTrue(map.contains(node), "no position for " + ((node instanceof Block b) ? b.t : ((Inline) node).t));
+            assertTrue(map.getStart(node) <= map.getEnd(node));
+        }
+
+        Block header = ((PandocAst) result.rootAst).getBlocks().get(0);
+        assertEquals("# Intro [sec:intro]", DOC.substring(map.getStart(header), map.getEnd(header)).trim());
+        for (PandocNode node : nodes) {
+            if (node instanceof Str str) {
+                // [link] 这类 REF_ID 的位置包括方括号
+                String source = DOC.substring(map.getStart(node), map.getEnd(node));
+                assertTrue(source.equals(str.c) || source.equals("[" + str.c + "]"), source);
+            }
+        }
+        // 标题末尾的 \label 沿用 [sec:intro] 的位置
+        Inline label = ((Header) header).getContent().get(((Header) header).getContent().size() - 1);
+        assertEquals("[sec:intro]", DOC.substring(map.getStart(label), map.getEnd(label)));
+    }
+
+    @Test
+    void directAst_shouldRecordSamePositionsAsVisitor() {
+        CompilationResult visitor = MyMDCompiler.compile(DOC, new CompilerOptions().setSourcePositions(true));
+        CompilationResult direct = MyMDCompiler.compile(DOC,
+                new CompilerOptions().setSourcePositions(true).setDirectAst(true).setFastPath(true));
+
+        assertEquals(spans(visitor), spans(direct));
+        assertEquals(MyMDCompiler.compile(DOC).pandocJson, visitor.pandocJson);
+        assertNull(MyMDCompiler.compile(DOC).sourceMap);
+    }
+
+    private static List<String> spans(CompilationResult result) {
+        List<PandocNode> nodes = new ArrayList<>();
+        collect(((PandocAst) result.rootAst).getBlocks(), nodes);
+        List<String> spans = new ArrayList<>();
+        for (PandocNode node : nodes) {
+            String type = node instanceof Block b ? b.t : ((Inline) node).t;
+            spans.add(type + " " + result.sourceMap.getStart(node) + "-" + result.sourceMap.getEnd(node));
+        }
+        return spans;
+    }
+
+    private static void collect(Object value, List<PandocNode> nodes) {
+        if (value instanceof Block block) {
+            nodes.add(block);
+            collect(block.c, nodes);
+        } else if (value instanceof Inline inline) {
+            nodes.add(inline);
+            collect(inline.c, nodes);
+        } else if (value instanceof List<?> list) {
+            for (Object item : list) collect(item, nodes);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.guaguaaaa.mymd.core.bib;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BibDatabaseTest {
+
+    private static final String BIB = "% lab bibliography\n" +
+            "@string{acm = \"ACM Press\"}\n\n" +
+            "@article{knuth1984,\n  author = {Donald E. Knuth},\n  title = {Literate {Programming}},\n  year = 1984\n}\n\n" +
+            "@comment{@article{ghost, title={not an entry}}}\n\n" +
+            "@InProceedings ( smith:2020 , title = \"Nested (parens) and {braces}\", crossref = {conf2020} )\n\n" +
+            "@proceedings{conf2020,\n  publisher = acm,\n  year = {2020}\n}\n\n" +
+            "@book{unused,\n  title = {Never cited}\n}\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void load_shouldIndexKeysAndSkipComments() throws Exception {
+        BibDatabase bib = BibDatabase.load(write("refs.bib", BIB));
+
+        assertEquals(Set.of("knuth1984", "smith:2020", "conf2020", "unused"), bib.getKeys());
+        assertFalse(bib.contains("ghost"));
+        assertTrue(bib.getEntry("knuth1984").startsWith("@article{knuth1984,"));
+        assertTrue(bib.getEntry("knuth1984").endsWith("year = 1984\n}"));
+        assertTrue(bib.getEntry("smith:2020").endsWith("{conf2020} )"));
+    }
+
+    @Test
+    void load_shouldReuseIndexUntilContentChanges() throws Exception {
+        Path file = write("refs.bib", BIB);
+        BibDatabase first = BibDatabase.load(file);
+        assertSame(first, BibDatabase.load(file));
+
+        // 内容不变、只改时间戳：沿用索引
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+        assertSame(first, BibDatabase.load(file));
+
+        Files.writeString(file, BIB + "@misc{added, title={New}}\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+        BibDatabase second = BibDatabase.load(file);
+        assertNotSame(first, second);
+        assertTrue(second.contains("added"));
+    }
+
+    @Test
+    void load_changedFile_shouldDropStaleEntriesAndNotReadThroughThem() throws Exception {
+        Path file = write("refs.bib", BIB);
+        BibDatabase first = BibDatabase.load(file);
+
+        // 原地截断：旧对象不再读文件内容，而是报告文件已变化
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(10);
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+        assertThrows(IOException.class, () -> first.getEntry("knuth1984"));
+        assertThrows(IOException.class, () -> first.writePruned(List.of("knuth1984"), dir.resolve("cited.bib")));
+
+        BibDatabase truncated = BibDatabase.load(file);
+        assertNotSame(first, truncated);
+        assertEquals(Set.of(), truncated.getKeys());
+
+        BibDatabase.invalidate(file);
+        assertNotSame(truncated, BibDatabase.load(file));
+    }
+
+    @Test
+    void load_manyFiles_shouldKeepOnlyTheMostRecent() throws Exception {
+        Path first = write("refs0.bib", BIB);
+        BibDatabase database = BibDatabase.load(first);
+        for (int i = 1; i <= BibDatabase.CACHE_CAPACITY; i++) {
+            BibDatabase.load(write("refs" + i + ".bib", BIB));
+        }
+        assertNotSame(database, BibDatabase.load(first));
+    }
+
+    @Test
+    void writePruned_shouldKeepCitedEntriesParentsAndStrings() throws Exception {
+        BibDatabase bib = BibDatabase.load(write("refs.bib", BIB));
+        Path pruned = dir.resolve("cited.bib");
+
+        assertEquals(2, bib.writePruned(List.of("smith:2020", "missing"), pruned));
+
+        BibDatabase reloaded = BibDatabase.load(pruned);
+        assertEquals(Set.of("smith:2020", "conf2020"), reloaded.getKeys());
+        assertEquals(bib.getEntry("conf2020"), reloaded.getEntry("conf2020"));
+        assertTrue(Files.readString(pruned).startsWith("@string{acm = \"ACM Press\"}"));
+    }
+
+    @Test
+    void compile_shouldWarnAboutUnknownCitationKeys() throws Exception {
+        BibDatabase bib = BibDatabase.load(write("refs.bib", BIB));
+        String source = "As shown in [@knuth1984] and [@nobody].\n\n# Results\n\nSee [@smith:2020].";
+
+        CompilationResult result = MyMDCompiler.compile(source, new CompilerOptions().setBibliography(bib));
+        assertFalse(result.hasErrors());
+        assertEquals(Set.of("knuth1984", "nobody", "smith:2020"), result.citations.getIds());
+        assertEquals(1, result.diagnostics.size());
+        assertEquals("Unknown citation key: nobody", result.diagnostics.get(0).message);
+        assertEquals("[@nobody]", source.substring(result.diagnostics.get(0).startIndex, result.diagnostics.get(0).endIndex));
+
+        CompilationResult direct = MyMDCompiler.compile(source,
+                new CompilerOptions().setBibliography(bib).setDirectAst(true).setFastPath(true));
+        assertEquals(result.diagnostics.toString(), direct.diagnostics.toString());
+        assertEquals(result.pandocJson, direct.pandocJson);
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path file = dir.resolve(name);
+        Files.writeString(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,133 @@
+package com.guaguaaaa.mymd.core.book;
+
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookCompilerTest {
+
+    private static final String MAIN = "---\n" +
+            "title: Book\n" +
+            "chapters:\n" +
+            "  - chapters/intro.mymd\n" +
+            "  - chapters/method.mymd\n" +
+            "---\n\n" +
+            "Preface.";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readChapters_shouldReadFrontMatterList() {
+        assertEquals(List.of("chapters/intro.mymd", "chapters/method.mymd"), BookCompiler.readChapters(MAIN));
+        assertEquals(List.of("one.mymd"), BookCompiler.readChapters("---\nchapters: one.mymd\n---\n"));
+        assertEquals(List.of(), BookCompiler.readChapters("# No front matter\n"));
+        assertEquals(List.of(), BookCompiler.readChapters("---\ntitle: x\n---\n"));
+    }
+
+    @Test
+    void readFrontMatter_shouldParseOnlyTheLeadingYamlBlock() {
+        assertEquals("@*", BookCompiler.readFrontMatter("---\nnocite: \"@*\"\n---\n\nText").get("nocite"));
+        assertNull(BookCompiler.readFrontMatter("# Notes\n\nnocite appears in the text\n").get("nocite"));
+        assertTrue(BookCompiler.readFrontMatter("---\n- a\n---\n").isEmpty());
+        assertTrue(BookCompiler.readFrontMatter("---\n: [\n---\n").isEmpty());
+    }
+
+    @Test
+    void build_shouldOnlyMarkChangedChaptersDirty() throws IOException {
+        writeChapters("# Intro [sec:intro]\n\nSee [sec:method].\n", "# Method [sec:method]\n\nText.\n");
+        BookCompiler compiler = new BookCompiler(dir.resolve("book.mymd"), new CompilerOptions());
+
+        BookResult first = compiler.build(MAIN);
+        assertFalse(first.hasErrors());
+        assertEquals(2, first.getDirtyChapters().size());
+        assertTrue(Files.exists(dir.resolve("mymd-build/chapters/intro.json")));
+
+        // LaTeX 片段已生成：没有改动的章节不再是脏的
+        for (BookUnit chapter : first.chapters) Files.writeString(chapter.texFragment, "% fragment");
+        BookResult second = compiler.build(MAIN);
+        assertTrue(second.getDirtyChapters().isEmpty());
+        assertSame(first.chapters.get(0).result, second.chapters.get(0).result);
+
+        Files.writeString(dir.resolve("chapters/method.mymd"), "# Method [sec:method]\n\nChanged text.\n");
+        BookResult third = compiler.build(MAIN);
+        assertEquals(List.of("method"), third.getDirtyChapters().stream().map(c -> c.name).toList());
+        assertSame(first.chapters.get(0).result, third.chapters.get(0).result);
+
+        // 新实例（例如重启 IDE）：片段内容未变，仍然不是脏的
+        BookResult fresh = new BookCompiler(dir.resolve("book.mymd"), new CompilerOptions()).build(MAIN);
+        assertTrue(fresh.getDirtyChapters().isEmpty());
+    }
+
+    @Test
+    void build_changedRenderStamp_shouldMarkAllChaptersDirty() throws IOException {
+        writeChapters("# Intro\n\nSee [@knuth].\n", "# Method\n\nText.\n");
+        BookCompiler compiler = new BookCompiler(dir.resolve("book.mymd"), new CompilerOptions());
+        BookResult first = compiler.build(MAIN, "bib 1\ncsl a");
+        for (BookUnit chapter : first.chapters) Files.writeString(chapter.texFragment, "% fragment");
+        assertTrue(compiler.build(MAIN, "bib 1\ncsl a").getDirtyChapters().isEmpty());
+
+        // 文献库或引用样式变化后，章节 JSON 不变也要重新生成 LaTeX
+        assertEquals(2, compiler.build(MAIN, "bib 2\ncsl a").getDirtyChapters().size());
+        assertTrue(compiler.build(MAIN, "bib 2\ncsl a").getDirtyChapters().isEmpty());
+        assertEquals(2, compiler.build(MAIN, "bib 2\ncsl b").getDirtyChapters().size());
+    }
+
+    @Test
+    void build_shouldAssembleIncludesAndStitchChapters() throws IOException {
+        writeChapters("# Intro\n\nSee [@knuth].\n", "# Method\n\nText.\n");
+        BookResult result = new BookCompiler(dir.resolve("book.mymd"), new CompilerOptions()).build(MAIN);
+
+        assertTrue(result.assemblyJson.contains("\\\\include{mymd-build/chapters/intro}"), result.assemblyJson);
+        assertTrue(result.assemblyJson.indexOf("intro}") < result.assemblyJson.indexOf("method}"));
+        assertTrue(result.assemblyJson.contains("\"nocite\""));
+        assertTrue(result.assemblyJson.contains("\"citationId\":\"knuth\""));
+
+        assertTrue(result.stitchedJson.contains("Preface"));
+        assertTrue(result.stitchedJson.indexOf("Intro") < result.stitchedJson.indexOf("Method"));
+        assertFalse(result.stitchedJson.contains("\\\\include"));
+    }
+
+    @Test
+    void build_shouldCheckReferencesAcrossChapters() throws IOException {
+        writeChapters("# Intro [sec:intro]\n\nSee [sec:method] and [sec:missing].\n",
+                "# Method [sec:method]\n\nBack to [sec:intro].\n\n# Again [sec:intro]\n");
+        BookResult result = new BookCompiler(dir.resolve("book.mymd"),
+                new CompilerOptions().setReferenceCheck(true)).build(MAIN);
+
+        List<String> intro = messages(result.chapters.get(0).diagnostics);
+        List<String> method = messages(result.chapters.get(1).diagnostics);
+        assertTrue(intro.contains("Undefined reference: sec:missing"), intro.toString());
+        assertFalse(intro.contains("Undefined reference: sec:method"), intro.toString());
+        assertTrue(intro.stream().anyMatch(m -> m.startsWith("Duplicate label: sec:intro")), intro.toString());
+        assertTrue(method.stream().anyMatch(m -> m.startsWith("Duplicate label: sec:intro")), method.toString());
+    }
+
+    @Test
+    void build_shouldReportMissingChapterAsError() throws IOException {
+        BookResult result = new BookCompiler(dir.resolve("book.mymd"), new CompilerOptions())
+                .build("---\nchapters: [gone.mymd]\n---\n\nText.");
+        assertTrue(result.hasErrors());
+        assertNull(result.assemblyJson);
+        assertEquals("Chapter not found: gone.mymd", result.chapters.get(0).diagnostics.get(0).message);
+    }
+
+    private void writeChapters(String intro, String method) throws IOException {
+        Files.createDirectories(dir.resolve("chapters"));
+        Files.writeString(dir.resolve("chapters/intro.mymd"), intro, StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("chapters/method.mymd"), method, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> messages(List<Diagnostic> diagnostics) {
+        return diagnostics.stream().map(d -> d.message).toList();
+    }
+}
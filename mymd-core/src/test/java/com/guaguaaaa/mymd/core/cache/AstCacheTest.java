@@ -0,0 +1,132 @@
+package com.guaguaaaa.mymd.core.cache;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.ast.AstJson;
+import com.guaguaaaa.mymd.core.ast.PandocAst;
+import com.guaguaaaa.mymd.core.incremental.IncrementalDocument;
+import com.guaguaaaa.mymd.core.incremental.OutlineEntry;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AstCacheTest {
+
+    private static final String DOC = "---\ntitle: Doc\n---\n\n" +
+            "# Intro [sec:intro]\n\n" +
+            "Some *italic* and **bold** text, 中文 and $x^2$, see [eq:e] and [@knuth].\n\n" +
+            "## Details\n\n" +
+            "1. first\n2. second `code`\n\n" +
+            "- item\n    - nested\n\n" +
+            "$$\nE = mc^2\n$$ [eq:e]\n\n" +
+            "# Next\n\n" +
+            "> quoted words";
+
+    // 只有需要源码位置时编译结果才带 AST
+    private static final CompilerOptions OPTIONS = new CompilerOptions().setReferenceCheck(true).setSourcePositions(true);
+
+    @TempDir
+    Path dir;
+
+    private CachedAst storeAndLoad(Path source, String text) throws IOException {
+        CompilationResult result = MyMDCompiler.compile(text, OPTIONS);
+        assertFalse(result.hasErrors(), String.valueOf(result.diagnostics));
+        AstCache.store(source, text, new IncrementalDocument(text).getOutlineEntries(), result);
+        return AstCache.load(source, text);
+    }
+
+    @Test
+    void load_afterStore_shouldGiveBackTheSameDocument() throws IOException {
+        Path source = dir.resolve("doc.mymd");
+        CompilationResult result = MyMDCompiler.compile(DOC, OPTIONS);
+        CachedAst cached = storeAndLoad(source, DOC);
+        assertNotNull(cached);
+        assertTrue(Files.isRegularFile(dir.resolve("mymd-build").resolve("cache").resolve("doc.mymd.ast")));
+
+        PandocAst ast = (PandocAst) result.rootAst;
+        assertEquals(ast.getBlocks().size(), cached.getBlockCount());
+        assertEquals(AstJson.GSON.toJson(ast.getBlocks().get(2)), AstJson.GSON.toJson(cached.getBlock(2)));
+        assertSame(cached.getBlock(2), cached.getBlock(2));
+        assertEquals(AstJson.GSON.toJson(ast), AstJson.GSON.toJson(cached.toPandocAst()));
+    }
+
+    @Test
+    void load_shouldRestoreOutlineAndLabels() throws IOException {
+        IncrementalDocument document = new IncrementalDocument(DOC);
+        CachedAst cached = storeAndLoad(dir.resolve("doc.mymd"), DOC);
+
+        assertEquals(document.getOutlineEntries().toString(), cached.getOutlineEntries().toString());
+        List<OutlineEntry> roots = cached.getOutline();
+        assertEquals(2, roots.size());
+        assertEquals("sec:intro", roots.get(0).labelId);
+        assertEquals("Details", roots.get(0).getChildren().get(0).title);
+        assertEquals("eq:e", roots.get(0).getChildren().get(0).getChildren().get(0).labelId);
+
+        LabelSite definition = cached.getLabels().getDefinition("eq:e");
+        assertNotNull(definition);
+        assertEquals(LabelSite.Kind.EQUATION, definition.kind);
+        assertEquals(1, cached.getLabels().getUses("eq:e").size());
+        assertEquals(List.of(), List.copyOf(cached.getLabels().getDanglingUses()));
+        assertTrue(cached.getCitations().getIds().contains("knuth"));
+    }
+
+    @Test
+    void load_labels_shouldReproduceReferenceWarnings() throws IOException {
+        String text = DOC + "\n\nSee [eq:missing].";
+        CachedAst cached = storeAndLoad(dir.resolve("doc.mymd"), text);
+        List<?> expected = MyMDCompiler.compile(text, OPTIONS).diagnostics;
+        assertEquals(1, expected.size());
+        assertEquals(expected.toString(), cached.getLabels().getDiagnostics(text).toString());
+    }
+
+    @Test
+    void load_otherTextOrFormat_shouldMiss() throws IOException {
+        Path source = dir.resolve("doc.mymd");
+        assertNull(AstCache.load(source, DOC));
+        assertNotNull(storeAndLoad(source, DOC));
+
+        assertNull(AstCache.load(source, DOC.replace("Intro", "Intra")));
+        assertNull(AstCache.load(source, DOC + " more"));
+
+        // 旧格式版本的缓存被忽略
+        Path file = AstCache.cacheFile(source);
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(4, AstCache.FORMAT_VERSION + 1);
+        Files.write(file, bytes);
+        assertNull(AstCache.load(source, DOC));
+    }
+
+    @Test
+    void load_corruptFile_shouldMiss() throws IOException {
+        Path source = dir.resolve("doc.mymd");
+        assertNotNull(storeAndLoad(source, DOC));
+        Path file = AstCache.cacheFile(source);
+        byte[] stored = Files.readAllBytes(file);
+
+        // 大纲偏移指向文件末尾：读取越界
+        byte[] bytes = stored.clone();
+        ByteBuffer.wrap(bytes).putInt(AstCache.OUTLINE_AT, bytes.length - 1);
+        Files.write(file, bytes);
+        assertNull(AstCache.load(source, DOC));
+
+        // 字符串表偏移越界
+        bytes = stored.clone();
+        ByteBuffer.wrap(bytes).putInt(AstCache.STRINGS_AT, bytes.length + 100);
+        Files.write(file, bytes);
+        assertNull(AstCache.load(source, DOC));
+
+        // 节的内容被截掉
+        Files.write(file, Arrays.copyOf(stored, AstCache.HEADER_SIZE + 2));
+        assertNull(AstCache.load(source, DOC));
+    }
+}
@@ -0,0 +1,111 @@
+package com.guaguaaaa.mymd.core.filter;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.ast.AstJson;
+import com.guaguaaaa.mymd.core.ast.Block;
+import com.guaguaaaa.mymd.core.ast.Header;
+import com.guaguaaaa.mymd.core.ast.HorizontalRule;
+import com.guaguaaaa.mymd.core.ast.Para;
+import com.guaguaaaa.mymd.core.ast.Str;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterChainTest {
+
+    // 每个标题后加一条分隔线
+    private static final BlockFilter RULE_AFTER_HEADERS = block ->
+            block instanceof Header ? List.of(block, new HorizontalRule()) : List.of(block);
+
+    // 删除分隔线
+    private static final BlockFilter DROP_RULES = block ->
+            block instanceof HorizontalRule ? List.of() : List.of(block);
+
+    @Test
+    void apply_shouldMatchRunningEachFilterInTurn() {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            blocks.add(i % 3 == 0 ? new Header(2, List.of(new Str("h" + i))) : new Para(List.of(new Str("p" + i))));
+        }
+        // 不是块局部的过滤器：给段落编号，依赖前面的块
+        PandocFilter numbering = (list, metadata) -> {
+            List<Block> result = new ArrayList<>();
+            int n = 0;
+            for (Block block : list) {
+                result.add(block instanceof Para ? new Para(List.of(new Str(++n + "."))) : block);
+            }
+            metadata.addProperty("paragraphs", n);
+            return result;
+        };
+        List<PandocFilter> filters = List.of(RULE_AFTER_HEADERS, DROP_RULES, RULE_AFTER_HEADERS, numbering, DROP_RULES);
+
+        JsonObject expectedMeta = new JsonObject();
+        List<Block> expected = blocks;
+        for (PandocFilter filter : filters) expected = filter.apply(expected, expectedMeta);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            JsonObject metadata = new JsonObject();
+            List<Block> actual = new FilterChain(filters, pool).apply(blocks, metadata);
+            // 编号过滤器每次都新建节点，所以比较序列化结果
+            assertEquals(AstJson.GSON.toJson(expected), AstJson.GSON.toJson(actual));
+            assertEquals(expectedMeta, metadata);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void apply_shouldFuseConsecutiveBlockFilters() {
+        AtomicInteger calls = new AtomicInteger();
+        BlockFilter counting = block -> {
+            calls.incrementAndGet();
+            return List.of(block);
+        };
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < FilterChain.PARALLEL_THRESHOLD * 4; i++) blocks.add(new Para(List.of(new Str("p"))));
+
+        List<Block> result = new FilterChain(List.of(counting, RULE_AFTER_HEADERS, counting)).apply(blocks, new JsonObject());
+        assertEquals(blocks, result);
+        assertEquals(2 * blocks.size(), calls.get());
+        assertSame(blocks, new FilterChain(List.of()).apply(blocks, new JsonObject()));
+    }
+
+    @Test
+    void compile_withFilters_shouldRewriteOutput() {
+        PandocFilter title = (blocks, metadata) -> {
+            metadata.addProperty("filtered", true);
+            return blocks;
+        };
+        for (CompilerOptions options : List.of(new CompilerOptions(), new CompilerOptions().setDirectAst(true),
+                new CompilerOptions().setFastPath(true))) {
+            options.setFilters(List.of(RULE_AFTER_HEADERS, title));
+            CompilationResult result = MyMDCompiler.compile("# Title\n\nText", options);
+            assertFalse(result.hasErrors(), String.valueOf(result.diagnostics));
+
+            JsonObject json = JsonParser.parseString(result.pandocJson).getAsJsonObject();
+            assertEquals(3, json.getAsJsonArray("blocks").size());
+            assertEquals("HorizontalRule", json.getAsJsonArray("blocks").get(1).getAsJsonObject().get("t").getAsString());
+            assertTrue(json.getAsJsonObject("meta").get("filtered").getAsBoolean());
+        }
+    }
+
+    @Test
+    void compile_failingFilter_shouldReportCompilerError() {
+        BlockFilter failing = block -> {
+            throw new IllegalStateException("boom");
+        };
+        CompilationResult result = MyMDCompiler.compile("Text", new CompilerOptions().setFilters(List.of(failing)));
+        assertTrue(result.hasErrors());
+        assertTrue(result.diagnostics.get(0).message.contains("boom"), result.diagnostics.get(0).message);
+    }
+}
@@ -0,0 +1,145 @@
+package com.guaguaaaa.mymd.core.incremental;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential tests: after any sequence of edits the incremental analysis must equal a fresh
+ * analysis of the final text.
+ */
+class IncrementalDocumentTest {
+
+    private static final String[] BLOCKS = {
+            "# Title",
+            "## Section **bold** [sec:intro]",
+            "Plain text over\ntwo lines",
+            "Some *italic* and **bold** text",
+            "See [sec:intro] and [@knuth84].",
+            "$$\nE = mc^2\n$$ [eq:energy]",
+            "```java\nint x = 1;\n\nint y = 2;\n```",
+            "> quoted text",
+            "- a\n- b\n    - nested\n    - more",
+            "1. one\n2. two\n    a. sub",
+            "**unclosed bold",
+            "\\begin{center}\nhi\n\\end{center}",
+    };
+
+    /** Fragments typed into the document, including ones that open or close constructs. */
+    private static final String[] INSERTS = {
+            "x", " ", "\n", "\n\n", "*", "**", "$", "$$\n", "```", "# ", "- ", "    ", "[", "]", "---\n", "中文",
+    };
+
+    @Test
+    void edits_shouldMatchFreshAnalysis() {
+        Random random = new Random(20240715L);
+        for (int round = 0; round < 60; round++) {
+            StringBuilder initial = new StringBuilder();
+            int blocks = 3 + random.nextInt(8);
+            for (int i = 0; i < blocks; i++) {
+                if (i > 0) initial.append(random.nextInt(3) == 0 ? "\n\n\n" : "\n\n");
+                initial.append(BLOCKS[random.nextInt(BLOCKS.length)]);
+            }
+
+            IncrementalDocument doc = new IncrementalDocument(initial.toString());
+            for (int edit = 0; edit < 25; edit++) {
+                String text = doc.getText();
+                int start = random.nextInt(text.length() + 1);
+                int end = Math.min(text.length(), start + (random.nextInt(3) == 0 ? random.nextInt(12) : 0));
+                String replacement = random.nextInt(4) == 0 ? "" : INSERTS[random.nextInt(INSERTS.length)];
+                doc.applyEdit(start, end, replacement);
+                String context = "edit " + start + "-" + end + " '" + replacement + "' on: " + text;
+                assertSameAnalysis(new IncrementalDocument(doc.getText()), doc, context);
+            }
+        }
+    }
+
+    @Test
+    void edit_shouldOnlyReanalyzeNearbySegments() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("## Section ").append(i).append("\n\nParagraph with *italic* text ").append(i).append("\n\n");
+        }
+        IncrementalDocument doc = new IncrementalDocument(text.toString());
+        int offset = text.indexOf("Paragraph with *italic* text 1000");
+        int outlineVersion = doc.getOutlineVersion();
+
+        doc.applyEdit(offset, offset, "**");
+        assertTrue(doc.getLastReanalyzedSegments() <= 2, "re-analysed " + doc.getLastReanalyzedSegments());
+        assertFalse(doc.getDiagnostics().isEmpty());
+
+        doc.applyEdit(offset, offset + 2, "");
+        assertTrue(doc.getDiagnostics().isEmpty());
+        assertEquals(2000, doc.getHeaders().size());
+        assertEquals("Section 1999", doc.getHeaders().get(1999).name);
+        assertEquals(outlineVersion, doc.getOutlineVersion());
+        assertEquals(2000, doc.getOutlineEntries().size());
+    }
+
+    @Test
+    void outline_shouldNestHeadersAndLabelsAndTrackStructuralChanges() {
+        String text = "Intro.\n\n" +
+                "# Model [sec:model]\n\nText.\n\n" +
+                "$$\nE = mc^2\n$$ [eq:energy]\n\n" +
+                "## Details\n\n\\begin{figure}\n\\label{fig:plot}\n\\end{figure}\n\n" +
+                "# Results\n\nSee [eq:energy].";
+        IncrementalDocument doc = new IncrementalDocument(text);
+
+        List<OutlineEntry> roots = doc.getOutline();
+        assertEquals(2, roots.size(), doc.getOutlineEntries().toString());
+        OutlineEntry model = roots.get(0);
+        assertEquals("Model", model.title);
+        assertEquals("sec:model", model.labelId);
+        assertEquals(2, model.getChildren().size());
+        assertEquals("eq:energy", model.getChildren().get(0).labelId);
+        assertEquals(OutlineEntry.Kind.LABEL, model.getChildren().get(0).kind);
+        OutlineEntry details = model.getChildren().get(1);
+        assertEquals("Details", details.title);
+        assertEquals("fig:plot", details.getChildren().get(0).labelId);
+        assertEquals(3, details.getChildren().get(0).level);
+        assertTrue(roots.get(1).getChildren().isEmpty());
+        for (OutlineEntry entry : doc.getOutlineEntries()) {
+            assertSame(entry, doc.getOutlineEntries().get(entry.index));
+        }
+
+        // 只移动条目：版本不变，偏移更新
+        int version = doc.getOutlineVersion();
+        doc.applyEdit(0, 0, "Preface.\n\n");
+        assertEquals(version, doc.getOutlineVersion());
+        assertEquals(doc.getText().indexOf("# Model"), doc.getOutline().get(0).start);
+
+        // 改标题：版本变化
+        int at = doc.getText().indexOf("Details");
+        doc.applyEdit(at, at + "Details".length(), "Derivation");
+        assertNotEquals(version, doc.getOutlineVersion());
+        assertEquals("Derivation", doc.getOutline().get(0).getChildren().get(1).title);
+        assertEquals(new IncrementalDocument(doc.getText()).getOutlineEntries().toString(), doc.getOutlineEntries().toString());
+    }
+
+    @Test
+    void headersAndDiagnostics_shouldAgreeWithCompiler() {
+        String text = "# One *two*\n\nText\n\n## Three [sec:three]\n\n**broken";
+        IncrementalDocument doc = new IncrementalDocument(text);
+
+        List<HeaderSymbol> headers = doc.getHeaders();
+        assertEquals(2, headers.size());
+        assertEquals("One two", headers.get(0).name);
+        assertEquals(2, headers.get(1).level);
+        assertEquals("Three", headers.get(1).name);
+
+        assertEquals(MyMDCompiler.compile(text).diagnostics.size(), doc.getDiagnostics().size());
+        assertEquals(7, doc.getDiagnostics().get(0).line);
+    }
+
+    private static void assertSameAnalysis(IncrementalDocument expected, IncrementalDocument actual, String context) {
+        assertEquals(expected.getDiagnostics().toString(), actual.getDiagnostics().toString(), context);
+        assertEquals(expected.getSpans().toString(), actual.getSpans().toString(), context);
+        assertEquals(expected.getHeaders().toString(), actual.getHeaders().toString(), context);
+        assertEquals(expected.getOutlineEntries().toString(), actual.getOutlineEntries().toString(), context);
+        assertEquals(expected.getSegmentCount(), actual.getSegmentCount(), context);
+    }
+}
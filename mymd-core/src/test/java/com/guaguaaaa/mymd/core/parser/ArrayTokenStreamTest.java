@@ -0,0 +1,111 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.text.TextCharStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential tests: parsing from an {@link ArrayTokenStream} must give the tree and errors a
+ * {@link CommonTokenStream} gives.
+ */
+class ArrayTokenStreamTest {
+
+    private static final String[] DOCUMENTS = {
+            "# Title [sec:a]\n\nSee [sec:a] and [@knuth].",
+            "---\ntitle: Doc\n---\n\nSome **bold** and *italic* text.",
+            "- one\n- two\n    - nested\n- three",
+            "$$\nE = mc^2\n$$ [eq:e]\n\nText with $x$ math.",
+            "Unclosed $math and ``` fence",
+            "Bad \u0000 control \u0001 chars",
+            "```java\nint x = 1;\n```",
+    };
+
+    @Test
+    void parse_shouldMatchCommonTokenStream() {
+        for (String source : DOCUMENTS) {
+            assertEquals(parse(source, false), parse(source, true), source);
+        }
+    }
+
+    @Test
+    void snapshotStream_shouldMatchLexerStream() {
+        CompilerOptions options = new CompilerOptions().setLexerGuards(true);
+        for (String source : DOCUMENTS) {
+            TokenSnapshot snapshot = TokenSnapshot.lex(source, options);
+            ArrayTokenStream replayed = snapshot.newTokenStream(new TextCharStream(source), null);
+            CharStream input = CharStreams.fromString(source);
+            MyMDLexer lexer = new MyMDLexer(input);
+            lexer.setDelimiterIndex(new DelimiterIndex(input, options.getMaxBlockLength(), options.getMaxInlineMathLength()));
+            lexer.removeErrorListeners();
+            ArrayTokenStream lexed = new ArrayTokenStream(lexer);
+            replayed.fill();
+            lexed.fill();
+            assertEquals(lexed.size(), replayed.size(), source);
+            for (int i = 0; i < lexed.size(); i++) {
+                assertEquals(lexed.get(i).getType(), replayed.get(i).getType(), source);
+                assertEquals(lexed.get(i).getText(), replayed.get(i).getText(), source);
+            }
+        }
+    }
+
+    @Test
+    void views_shouldReadColumnsLazily() {
+        String source = "Some *text*\n\n- item\n    - nested";
+        ArrayTokenStream stream = new ArrayTokenStream(new MyMDLexer(CharStreams.fromString(source)));
+        CommonTokenStream reference = new CommonTokenStream(new MyMDLexer(CharStreams.fromString(source)));
+
+        assertEquals(0, stream.size());
+        assertEquals(reference.LA(1), stream.LA(1));
+        assertEquals(1, stream.size());
+
+        reference.fill();
+        stream.fill();
+        assertEquals(reference.size(), stream.size());
+        for (int i = 0; i < reference.size(); i++) {
+            Token expected = reference.get(i);
+            Token actual = stream.get(i);
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getText(), actual.getText());
+            assertEquals(expected.getLine(), actual.getLine());
+            assertEquals(expected.getCharPositionInLine(), actual.getCharPositionInLine());
+            assertEquals(expected.getStartIndex(), actual.getStartIndex());
+            assertEquals(i, actual.getTokenIndex());
+        }
+        assertEquals(reference.getText(), stream.getText());
+
+        stream.seek(2);
+        assertEquals(stream.get(1).getType(), stream.LT(-1).getType());
+        assertNull(new ArrayTokenStream(new MyMDLexer(CharStreams.fromString(source))).LT(-1));
+    }
+
+    @Test
+    void consume_shouldStopAtEof() {
+        ArrayTokenStream stream = new ArrayTokenStream(new MyMDLexer(CharStreams.fromString("Text")));
+        while (stream.LA(1) != Token.EOF) stream.consume();
+        assertEquals(Token.EOF, stream.LA(2));
+        assertThrows(IllegalStateException.class, stream::consume);
+    }
+
+    private static String parse(String source, boolean arrays) {
+        SyntaxErrorCollector errors = new SyntaxErrorCollector();
+        MyMDLexer lexer = new MyMDLexer(CharStreams.fromString(source));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        TokenStream tokens = arrays ? new ArrayTokenStream(lexer) : new CommonTokenStream(lexer);
+        MyMDParser parser = new MyMDParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errors);
+        String tree = parser.doc().toStringTree(parser);
+
+        StringBuilder sb = new StringBuilder(tree).append('\n');
+        errors.getErrors().forEach(d -> sb.append(d).append(" @").append(d.startIndex).append('\n'));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Lexes adversarial documents full of unterminated openers with and without a {@link DelimiterIndex}.
+ * <p>
+ * Not a unit test; run it manually, e.g. from the IDE or with
+ * {@code java -cp <test-classpath> com.guaguaaaa.mymd.core.parser.DelimiterIndexBenchmark}.
+ */
+public class DelimiterIndexBenchmark {
+
+    // 这些开始符不能互相闭合，每一个都会让未加索引的 Lexer 扫描到文件末尾
+    private static final String[] OPENERS = {"\\begin{x} ", "x ---\n", "\\begin{x} $$ ``` x ---\n"};
+
+    public static void main(String[] args) {
+        int[] sizes = {1_000, 2_000, 4_000, 8_000};
+
+        System.out.printf("%-28s %8s %12s %12s%n", "opener", "count", "plain ms", "indexed ms");
+        for (String opener : OPENERS) {
+            for (int count : sizes) {
+                String doc = adversarial(opener, count);
+                lex(doc, false);
+                lex(doc, true); // 预热
+
+                long plain = time(doc, false);
+                long indexed = time(doc, true);
+                System.out.printf("%-28s %8d %12.1f %12.1f%n",
+                        opener.replace("\n", "\\n"), count, plain / 1e6, indexed / 1e6);
+            }
+        }
+    }
+
+    /**
+     * {@code count} paragraphs, each starting with an opener that is never closed
+     * (except by another opener in the mixed case, which still leaves half of them open).
+     */
+    private static String adversarial(String opener, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(opener).append("word ").append(i).append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    private static long time(String doc, boolean indexed) {
+        long start = System.nanoTime();
+        lex(doc, indexed);
+        return System.nanoTime() - start;
+    }
+
+    private static int lex(String doc, boolean indexed) {
+        CharStream input = CharStreams.fromString(doc);
+        MyMDLexer lexer = new MyMDLexer(input);
+        if (indexed) {
+            lexer.setDelimiterIndex(new DelimiterIndex(input));
+        }
+        lexer.removeErrorListeners();
+        int tokens = 0;
+        while (lexer.nextToken().getType() != Token.EOF) tokens++;
+        return tokens;
+    }
+}
@@ -0,0 +1,86 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DelimiterIndexTest {
+
+    private static final String[] DOCUMENTS = {
+            "---\ntitle: Test Doc\n---\n# Header 1\nHello World",
+            "---\r\ntitle: crlf\r\n---\r\nBody",
+            "---\n---\n\ntext",
+            "---\n\n---",
+            "Inline $x^2$ and $$\nE = mc^2\n$$ [eq:e] and $a\nb$ spanning lines",
+            "Unclosed $x and more text without a closer",
+            "$$$ three $$",
+            "$$ unclosed display math\n\nstill going",
+            "```java\nint x = 1;\n```\n\n``````\n\n```unclosed",
+            "\\begin{center}\nhi\n\\end{center} then \\begin{a}x\\end{b} and \\begin{open}\nnever closed",
+            "\\begin{x}\\end{}\\end{y*}",
+            "Mixed 中文 $𝔘$ and `code` and $$ 𝔘𝔫𝔦 $$",
+    };
+
+    @Test
+    void unlimitedIndex_shouldNotChangeTokensBeforeFirstError() {
+        for (String doc : DOCUMENTS) {
+            List<String> plain = lex(doc, false, DelimiterIndex.UNLIMITED);
+            List<String> guarded = lex(doc, true, DelimiterIndex.UNLIMITED);
+
+            int error = plain.indexOf("ERROR");
+            if (error < 0) {
+                assertEquals(plain, guarded, doc);
+            } else {
+                // 未闭合的开始符：之前的 Token 完全一致，之后索引模式会继续词法分析而不是吞掉剩余文本
+                assertEquals(plain.subList(0, error + 1), guarded.subList(0, error + 1), doc);
+            }
+        }
+    }
+
+    @Test
+    void unterminatedOpener_shouldNotSwallowRestOfDocument() {
+        List<String> guarded = lex("Unclosed $x and more", true, DelimiterIndex.UNLIMITED);
+        assertTrue(guarded.contains("ERROR"));
+        assertEquals("URL_TEXT 16:19", guarded.get(guarded.size() - 1));
+    }
+
+    @Test
+    void blockLongerThanLimit_shouldBeLexedAsUnterminated() {
+        String doc = "$$\n0123456789\n$$";
+        assertTrue(lex(doc, true, 100).get(0).startsWith(MyMDLexer.VOCABULARY.getSymbolicName(MyMDLexer.BLOCK_MATH)));
+        assertFalse(lex(doc, true, 10).get(0).startsWith(MyMDLexer.VOCABULARY.getSymbolicName(MyMDLexer.BLOCK_MATH)));
+    }
+
+    /**
+     * Renders every token (and every recognition error) as "TYPE start:stop".
+     */
+    private static List<String> lex(String doc, boolean guarded, int limit) {
+        List<String> out = new ArrayList<>();
+        CharStream input = CharStreams.fromString(doc);
+        MyMDLexer lexer = new MyMDLexer(input);
+        if (guarded) {
+            lexer.setDelimiterIndex(new DelimiterIndex(input, limit, limit));
+        }
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                    int charPositionInLine, String msg, RecognitionException e) {
+                out.add("ERROR");
+            }
+        });
+        for (Token t = lexer.nextToken(); t.getType() != Token.EOF; t = lexer.nextToken()) {
+            out.add(MyMDLexer.VOCABULARY.getSymbolicName(t.getType()) + " " + t.getStartIndex() + ":" + t.getStopIndex());
+        }
+        return out;
+    }
+}
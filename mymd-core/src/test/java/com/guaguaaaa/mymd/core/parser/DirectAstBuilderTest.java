@@ -0,0 +1,51 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectAstBuilderTest {
+
+    private static final String[] DOCUMENTS = {
+            "---\ntitle: Test Doc\nauthor: [A, B]\n---\n# Header 1\nHello World",
+            "Plain *italic* and **bold *nested*** text with `code` and $x^2$.",
+            "## Section [sec:intro]\n\nSee [sec:intro] and [@knuth84].",
+            "A [link](http://example.com/a_b) and ![alt](img/fig-1.png) and ![[fig:a]](b.png)",
+            "$$\nE = mc^2\n$$ [eq:energy]\n\nAfter.",
+            "```java\nint x = 1;\n```\n\n\\begin{center}\nhi\n\\end{center}",
+            "> quoted **text**\n\n---\n\nline one  \nline two\nline three",
+            "- a\n- b\n    - nested\n    - more\n- c\n\nafter list",
+            "1. one\n2. two\n    a. sub\n    b. sub\n3. three",
+            "(i) first\n(ii) second\n+ third",
+            "Escapes \\* \\[ \\] \\- \\` \\\\ and \\n and \\% and \\textbf{raw} \\cite[p. 1]{x}",
+            "Text with ( parens ) and > gt and ! bang and - dash and 2024. year",
+    };
+
+    @Test
+    void directAst_shouldMatchParseTreeVisitorOutput() {
+        CompilerOptions direct = new CompilerOptions().setDirectAst(true);
+        for (String doc : DOCUMENTS) {
+            CompilationResult expected = MyMDCompiler.compile(doc);
+            CompilationResult actual = MyMDCompiler.compile(doc, direct);
+
+            assertFalse(expected.hasErrors(), () -> "unexpected errors for: " + doc + " " + expected.diagnostics);
+            assertEquals(expected.pandocJson, actual.pandocJson, doc);
+        }
+    }
+
+    @Test
+    void directAst_shouldReportSameErrors() {
+        CompilerOptions direct = new CompilerOptions().setDirectAst(true);
+        String[] broken = {"text\n", "**unclosed", "1. a\nb) b", "  bad indent"};
+        for (String doc : broken) {
+            CompilationResult expected = MyMDCompiler.compile(doc);
+            CompilationResult actual = MyMDCompiler.compile(doc, direct);
+
+            assertTrue(expected.hasErrors(), doc);
+            assertEquals(expected.diagnostics.toString(), actual.diagnostics.toString(), doc);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential tests: the fast path must produce exactly what the ANTLR pipeline produces.
+ */
+class FastBlockScannerTest {
+
+    /** Chunks the scanner handles on its own. */
+    private static final String[] FAST_CHUNKS = {
+            "Hello World",
+            "Plain text over\ntwo lines",
+            "# Title",
+            "###   Spaced header words",
+            "- first\n- second\n- third",
+            "Text then\n# Header\n- item",
+            "Sentence ending in 2024. and did. it",
+            "Unicode 中文 text 𝔘𝔫𝔦𝔠𝔬𝔡𝔢 here",
+            "Tabs\tbetween\twords",
+    };
+
+    /** Chunks that must go through ANTLR. */
+    private static final String[] ANTLR_CHUNKS = {
+            "Some *italic* and **bold** text",
+            "## Section [sec:intro]",
+            "See [sec:intro] and [@knuth84].",
+            "A [link](http://example.com) and ![alt](img.png)",
+            "$$\nE = mc^2\n$$ [eq:energy]",
+            "```java\nint x = 1;\n\nint y = 2;\n```",
+            "\\begin{center}\nhi\n\\end{center}",
+            "> quoted text",
+            "---",
+            "line one  \nline two",
+            "- a\n- b\n    - nested\n    - more",
+            "1. one\n2. two\n    a. sub",
+            "(i) first\n(ii) second",
+            "Escapes \\* and \\textbf{raw}",
+            "I. roman start",
+    };
+
+    private static final String[] SEPARATORS = {"\n\n", "\n\n\n", "\r\n\r\n"};
+
+    @Test
+    void fastPath_shouldMatchRegularPipelineOnRandomDocuments() {
+        CompilerOptions fast = new CompilerOptions().setFastPath(true);
+        Random random = new Random(20240601L);
+
+        for (int i = 0; i < 300; i++) {
+            StringBuilder doc = new StringBuilder();
+            if (random.nextInt(4) == 0) {
+                doc.append("---\ntitle: Random ").append(i).append("\n---\n");
+            }
+            int chunks = 1 + random.nextInt(6);
+            for (int j = 0; j < chunks; j++) {
+                if (j > 0) doc.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+                String[] pool = random.nextBoolean() ? FAST_CHUNKS : ANTLR_CHUNKS;
+                doc.append(pool[random.nextInt(pool.length)]);
+            }
+            assertSameResult(doc.toString(), fast);
+        }
+    }
+
+    @Test
+    void fastPath_shouldReportSameErrors() {
+        CompilerOptions fast = new CompilerOptions().setFastPath(true);
+        String[] broken = {
+                "text\n",
+                "Fine\n\n**unclosed",
+                "Fine\n\n1. a\nb) b\n\nFine again",
+                "Fine\n\n  bad indent",
+                "Fine\n\n---\ntitle: late\n---",
+        };
+        for (String doc : broken) {
+            assertSameResult(doc, fast);
+        }
+    }
+
+    @Test
+    void scanner_shouldSkipAntlrForPlainDocuments() {
+        FastBlockScanner scanner = new FastBlockScanner("# Title\n\nSome text\nmore text\n\n- a\n- b");
+        assertTrue(scanner.scan());
+        assertEquals(3, scanner.getFastBlockCount());
+        assertEquals(0, scanner.getFallbackRegionCount());
+        assertEquals(MyMDCompiler.compile("# Title\n\nSome text\nmore text\n\n- a\n- b").pandocJson, scanner.getPandocJson());
+    }
+
+    @Test
+    void scanner_shouldFallBackOnlyForMarkupRegions() {
+        String doc = "Plain\n\nWith **bold**\n\nPlain again\n\n- a\n    - nested\n\n- b\n\nEnd";
+        FastBlockScanner scanner = new FastBlockScanner(doc);
+        assertTrue(scanner.scan());
+        assertEquals(2, scanner.getFallbackRegionCount());
+        assertEquals(MyMDCompiler.compile(doc).pandocJson, scanner.getPandocJson());
+    }
+
+    private static void assertSameResult(String doc, CompilerOptions options) {
+        CompilationResult expected = MyMDCompiler.compile(doc);
+        CompilationResult actual = MyMDCompiler.compile(doc, options);
+        assertEquals(expected.pandocJson, actual.pandocJson, doc);
+        assertEquals(expected.diagnostics.toString(), actual.diagnostics.toString(), doc);
+    }
+}
@@ -0,0 +1,66 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntaxErrorCollectorTest {
+
+    @Test
+    void syntaxError_shouldCapAndCountTheRest() {
+        SyntaxErrorCollector collector = new SyntaxErrorCollector(3);
+        for (int i = 0; i < 10; i++) {
+            collector.syntaxError(null, null, 1, i, "error " + i, null);
+        }
+
+        List<Diagnostic> errors = collector.getErrors();
+        assertEquals(10, collector.getErrorCount());
+        assertTrue(collector.isTruncated());
+        assertEquals(4, errors.size());
+        assertEquals("error 2", errors.get(2).message);
+        assertEquals("Too many errors: 7 more not shown (10 in total)", errors.get(3).message);
+        assertEquals(3, errors.get(3).column);
+    }
+
+    @Test
+    void syntaxError_shouldDropRepeatedReports() {
+        SyntaxErrorCollector collector = new SyntaxErrorCollector();
+        collector.syntaxError(null, null, 1, 0, "missing X", null);
+        collector.syntaxError(null, null, 1, 0, "missing X", null);
+        collector.syntaxError(null, null, 1, 0, "extraneous Y", null);
+
+        assertEquals(2, collector.getErrorCount());
+        assertEquals(List.of("missing X", "extraneous Y"),
+                collector.getErrors().stream().map(d -> d.message).toList());
+    }
+
+    @Test
+    void countOnly_shouldStillReportErrors() {
+        SyntaxErrorCollector collector = new SyntaxErrorCollector(0);
+        collector.syntaxError(null, null, 1, 0, "error", null);
+        assertTrue(collector.hasErrors());
+        assertEquals(1, collector.getErrors().size());
+    }
+
+    @Test
+    void compile_binaryGarbage_shouldKeepDiagnosticsBounded() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder("# Title\n\n");
+        for (int i = 0; i < 50_000; i++) {
+            sb.append((char) random.nextInt(0x80));
+        }
+
+        CompilationResult result = MyMDCompiler.compile(sb.toString(), new CompilerOptions());
+
+        assertTrue(result.hasErrors());
+        assertTrue(result.diagnostics.size() <= SyntaxErrorCollector.DEFAULT_MAX_ERRORS + 1,
+                "diagnostics: " + result.diagnostics.size());
+    }
+}
@@ -0,0 +1,91 @@
+package com.guaguaaaa.mymd.core.parser;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.highlight.TokenHighlighter;
+import com.guaguaaaa.mymd.core.text.PieceTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential tests: compiling from a snapshot must give exactly what lexing again gives.
+ */
+class TokenSnapshotTest {
+
+    private static final String[] DOCUMENTS = {
+            "# Title [sec:a]\n\nSee [sec:a] and [@knuth].",
+            "---\ntitle: Doc\n---\n\nSome **bold** and *italic* text.",
+            "- one\n- two\n    - nested\n- three",
+            "$$\nE = mc^2\n$$ [eq:e]\n\nText with $x$ math.",
+            "Unclosed $math and ``` fence",
+            "Bad \u0000 control \u0001 chars",
+            "Line\n   three-space indent",
+            "```java\nint x = 1;\n```",
+    };
+
+    @Test
+    void compile_withSnapshot_shouldMatchCompileWithoutSnapshot() {
+        for (CompilerOptions options : List.of(new CompilerOptions(),
+                new CompilerOptions().setLexerGuards(true),
+                new CompilerOptions().setLexerGuards(true).setDirectAst(true).setReferenceCheck(true))) {
+            for (String source : DOCUMENTS) {
+                TokenSnapshot tokens = TokenSnapshot.lex(source, options);
+                assertTrue(tokens.isUsableFor(options));
+
+                CompilationResult expected = MyMDCompiler.compile(source, options);
+                CompilationResult actual = MyMDCompiler.compile(source, tokens, options);
+                assertEquals(expected.pandocJson, actual.pandocJson, source);
+                assertEquals(describe(expected.diagnostics), describe(actual.diagnostics), source);
+            }
+        }
+    }
+
+    @Test
+    void computeSpans_withSnapshot_shouldMatchLexingAgain() {
+        for (String source : DOCUMENTS) {
+            TokenSnapshot tokens = TokenSnapshot.lex(source, new CompilerOptions().setLexerGuards(true));
+            if (tokens.getFailure() != null) continue;
+            assertEquals(TokenHighlighter.computeSpans(source).toString(),
+                    TokenHighlighter.computeSpans(tokens).toString(), source);
+        }
+    }
+
+    @Test
+    void isUsableFor_shouldRejectOtherOptionsAndSupplementaryCharacters() {
+        CompilerOptions guarded = new CompilerOptions().setLexerGuards(true);
+        TokenSnapshot tokens = TokenSnapshot.lex("Plain text", guarded);
+        assertFalse(tokens.isUsableFor(new CompilerOptions()));
+        assertFalse(tokens.isUsableFor(new CompilerOptions().setLexerGuards(true).setMaxBlockLength(10)));
+
+        TokenSnapshot astral = TokenSnapshot.lex("Math 𝔘 here", guarded);
+        assertFalse(astral.isBmpOnly());
+        assertFalse(astral.isUsableFor(guarded));
+    }
+
+    @Test
+    void cache_shouldLexEachRevisionOnce() {
+        PieceTable document = new PieceTable("Hello");
+        TokenSnapshotCache cache = new TokenSnapshotCache(new CompilerOptions().setLexerGuards(true));
+
+        TokenSnapshot first = cache.get(document.snapshot());
+        assertSame(first, cache.get(document.snapshot()));
+
+        document.replace(5, 5, " world");
+        TokenSnapshot second = cache.get(document.snapshot());
+        assertNotSame(first, second);
+        assertEquals("Hello world", second.getText().toString());
+    }
+
+    private static String describe(List<Diagnostic> diagnostics) {
+        StringBuilder sb = new StringBuilder();
+        for (Diagnostic d : diagnostics) {
+            sb.append(d).append(" @").append(d.startIndex).append('-').append(d.endIndex).append('\n');
+        }
+        return sb.toString();
+    }
+}
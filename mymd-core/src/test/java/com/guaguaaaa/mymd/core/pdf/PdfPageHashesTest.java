@@ -0,0 +1,77 @@
+package com.guaguaaaa.mymd.core.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PdfPageHashesTest {
+
+    @Test
+    void changedPages_shouldOnlyReportPagesWhoseContentChanged() throws IOException {
+        long[] before = PdfPageHashes.compute(pdf("BT (one) Tj ET", "BT (two) Tj ET", "BT (three) Tj ET"));
+        long[] after = PdfPageHashes.compute(pdf("BT (one) Tj ET", "BT (two, edited) Tj ET", "BT (three) Tj ET"));
+
+        assertEquals(3, before.length);
+        assertArrayEquals(before, PdfPageHashes.compute(pdf("BT (one) Tj ET", "BT (two) Tj ET", "BT (three) Tj ET")));
+        assertArrayEquals(new int[]{2}, PdfPageHashes.changedPages(before, after));
+        assertArrayEquals(new int[0], PdfPageHashes.changedPages(before, before));
+    }
+
+    @Test
+    void changedPages_shouldRequireFullReloadWhenPageCountChanges() throws IOException {
+        long[] before = PdfPageHashes.compute(pdf("BT (one) Tj ET", "BT (two) Tj ET"));
+        long[] after = PdfPageHashes.compute(pdf("BT (one) Tj ET", "BT (two) Tj ET", "BT (three) Tj ET"));
+        assertNull(PdfPageHashes.changedPages(before, after));
+        assertNull(PdfPageHashes.changedPages(null, after));
+    }
+
+    @Test
+    void compute_shouldRejectDataThatIsNotAPdf() {
+        assertThrows(IOException.class, () -> PdfPageHashes.compute("not a pdf".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * 最小的 PDF：目录、页树、每页一个内容流，传统 xref 表
+     */
+    private static byte[] pdf(String... pageContents) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Integer> offsets = new ArrayList<>();
+        write(out, "%PDF-1.4\n");
+
+        int pages = pageContents.length;
+        StringBuilder kids = new StringBuilder();
+        for (int i = 0; i < pages; i++) kids.append(3 + 2 * i).append(" 0 R ");
+
+        offsets.add(out.size());
+        write(out, "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        offsets.add(out.size());
+        write(out, "2 0 obj\n<< /Type /Pages /Kids [" + kids + "] /Count " + pages
+                + " /MediaBox [0 0 612 792] >>\nendobj\n");
+        for (int i = 0; i < pages; i++) {
+            int page = 3 + 2 * i;
+            offsets.add(out.size());
+            write(out, page + " 0 obj\n<< /Type /Page /Parent 2 0 R /Contents " + (page + 1) + " 0 R >>\nendobj\n");
+            offsets.add(out.size());
+            write(out, (page + 1) + " 0 obj\n<< /Length " + pageContents[i].length() + " >>\nstream\n"
+                    + pageContents[i] + "\nendstream\nendobj\n");
+        }
+
+        int xref = out.size();
+        StringBuilder table = new StringBuilder("xref\n0 " + (offsets.size() + 1) + "\n0000000000 65535 f \n");
+        for (int offset : offsets) table.append(String.format("%010d 00000 n \n", offset));
+        table.append("trailer\n<< /Size ").append(offsets.size() + 1).append(" /Root 1 0 R >>\nstartxref\n")
+                .append(xref).append("\n%%EOF\n");
+        write(out, table.toString());
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,157 @@
+package com.guaguaaaa.mymd.core.sync;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourcePdfSyncTest {
+
+    private static final double SP = 65781.76;
+
+    private static final String TEX = "\\documentclass{article}\n" +
+            "\\begin{document}\n" +
+            "%mymd:0\n" +
+            "First paragraph.\n" +
+            "\n" +
+            "%mymd:18\n" +
+            "Second paragraph that\n" +
+            "breaks across pages.\n" +
+            "\\end{document}\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void compile_withSyncMarkers_shouldMarkEveryTopLevelBlockWithUtf16Offset() {
+        String source = "# A\n\n\uD83D\uDE00 x\n\nMore";
+        CompilationResult result = MyMDCompiler.compile(source, new CompilerOptions().setSyncMarkers(true));
+        assertFalse(result.hasErrors());
+
+        assertTrue(result.pandocJson.contains("%mymd:0"), result.pandocJson);
+        assertTrue(result.pandocJson.contains("%mymd:5"), result.pandocJson);
+        // 表情符号占两个 UTF-16 单元
+        assertTrue(result.pandocJson.contains("%mymd:11"), result.pandocJson);
+        assertFalse(MyMDCompiler.compile(source).pandocJson.contains("%mymd:"));
+    }
+
+    @Test
+    void texLineMap_shouldMapLinesToBlockOffsets() throws IOException {
+        TexLineMap map = TexLineMap.read(write("doc.tex", TEX));
+        assertEquals(2, map.size());
+        assertEquals(-1, map.offsetAt(2));
+        assertEquals(0, map.offsetAt(4));
+        assertEquals(18, map.offsetAt(8));
+        assertEquals(3, map.texLineAt(17));
+        assertEquals(6, map.texLineAt(40));
+        assertEquals(6, map.nextMarkerLine(4));
+        assertEquals(Integer.MAX_VALUE, map.nextMarkerLine(7));
+    }
+
+    @Test
+    void sync_shouldMapBothWays() throws IOException {
+        Path tex = write("doc.tex", TEX);
+        writeSyncTex(dir.resolve("doc.synctex.gz"));
+        SourcePdfSync sync = SourcePdfSync.load(tex);
+        assertNotNull(sync);
+
+        PdfLocation first = sync.toPdf(5);
+        assertEquals(1, first.page);
+        assertEquals(72, first.x, 0.01);
+        assertEquals(100, first.y, 0.01);
+        assertEquals(10, first.height, 0.01);
+
+        PdfLocation second = sync.toPdf(30);
+        assertEquals(1, second.page);
+        assertEquals(200, second.y, 0.01);
+
+        assertEquals(0, sync.toSource(1, 150, 95));
+        assertEquals(18, sync.toSource(1, 150, 195));
+        assertEquals(18, sync.toSource(2, 100, 100));
+        // 空白处取竖直方向最近的行
+        assertEquals(18, sync.toSource(1, 150, 150));
+        assertEquals(-1, sync.toSource(3, 100, 100));
+    }
+
+    @Test
+    void syncTexIndex_shouldKeepOnlyBoxesOfTheTexFileAndCacheUntilChanged() throws IOException {
+        Path synctex = dir.resolve("doc.synctex.gz");
+        writeSyncTex(synctex);
+
+        SyncTexIndex index = SyncTexIndex.load(synctex, "doc.tex");
+        assertEquals(3, index.size());
+        assertEquals(2, index.getPageCount());
+        assertSame(index, SyncTexIndex.load(synctex, "doc.tex"));
+
+        Files.setLastModifiedTime(synctex, FileTime.fromMillis(
+                Files.getLastModifiedTime(synctex).toMillis() + 2000));
+        assertNotSame(index, SyncTexIndex.load(synctex, "doc.tex"));
+    }
+
+    @Test
+    void syncTexIndex_manyFiles_shouldKeepOnlyTheMostRecent() throws IOException {
+        Path first = dir.resolve("doc0.synctex.gz");
+        writeSyncTex(first);
+        SyncTexIndex index = SyncTexIndex.load(first, "doc.tex");
+        for (int i = 1; i <= SyncTexIndex.CACHE_CAPACITY; i++) {
+            Path other = dir.resolve("doc" + i + ".synctex.gz");
+            writeSyncTex(other);
+            SyncTexIndex.load(other, "doc.tex");
+        }
+        assertNotSame(index, SyncTexIndex.load(first, "doc.tex"));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 两页：第 1 页有第 4、7 行，第 2 页有第 8 行；article.cls 的盒子应被忽略
+     */
+    private static void writeSyncTex(Path target) throws IOException {
+        String content = "SyncTeX Version:1\n" +
+                "Input:1:./doc.tex\n" +
+                "Input:2:/usr/share/texmf/tex/latex/base/article.cls\n" +
+                "Output:pdf\n" +
+                "Magnification:1000\n" +
+                "Unit:1\n" +
+                "X Offset:0\n" +
+                "Y Offset:0\n" +
+                "Content:\n" +
+                "!120\n" +
+                "{1\n" +
+                "[1,3:" + sp(72) + "," + sp(72) + ":" + sp(450) + "," + sp(600) + ",0\n" +
+                box('(', 1, 4, 72, 100, 300, 10, 2) +
+                ")\n" +
+                box('h', 1, 7, 72, 200, 300, 10, 2) +
+                box('(', 2, 4, 72, 300, 300, 10, 2) +
+                "]\n" +
+                "}1\n" +
+                "{2\n" +
+                box('(', 1, 8, 72, 100, 300, 10, 2) +
+                "}2\n" +
+                "Postamble:\n";
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(target))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String box(char type, int tag, int line, double x, double y, double width, double height, double depth) {
+        return type + "" + tag + "," + line + ":" + sp(x) + "," + sp(y) + ":" + sp(width) + "," + sp(height) + "," + sp(depth) + "\n";
+    }
+
+    private static long sp(double points) {
+        return Math.round(points * SP);
+    }
+}
@@ -0,0 +1,88 @@
+package com.guaguaaaa.mymd.core.text;
+
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.highlight.TokenHighlighter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PieceTableTest {
+
+    @Test
+    void replace_randomEdits_shouldMatchStringBuilder() {
+        Random random = new Random(7);
+        PieceTable table = new PieceTable("# Title\n\nSome text here.");
+        StringBuilder expected = new StringBuilder("# Title\n\nSome text here.");
+
+        for (int i = 0; i < 5000; i++) {
+            int start = random.nextInt(expected.length() + 1);
+            int end = Math.min(expected.length(), start + (random.nextInt(4) == 0 ? random.nextInt(8) : 0));
+            String inserted = random.nextInt(5) == 0 ? "" : "ab\nc".substring(0, 1 + random.nextInt(4));
+            table.replace(start, end, inserted);
+            expected.replace(start, end, inserted);
+
+            assertEquals(expected.length(), table.length());
+            if (i % 97 == 0) assertEquals(expected.toString(), table.toString());
+        }
+        assertEquals(expected.toString(), table.toString());
+        assertTrue(table.getPieceCount() <= PieceTable.MAX_PIECES);
+    }
+
+    @Test
+    void replace_typing_shouldExtendOnePiece() {
+        PieceTable table = new PieceTable("Hello world");
+        int caret = 5;
+        for (char c : " and more".toCharArray()) {
+            table.replace(caret, caret, String.valueOf(c));
+            caret++;
+        }
+        assertEquals("Hello and more world", table.toString());
+        assertEquals(3, table.getPieceCount());
+    }
+
+    @Test
+    void replace_shouldNotifyListenersWithChange() {
+        PieceTable table = new PieceTable("abcdef");
+        List<String> changes = new ArrayList<>();
+        table.addListener(c -> changes.add(c.offset + ":" + c.removed + ">" + c.inserted));
+
+        table.replace(1, 3, "XY Z");
+        table.replace(0, 0, "!");
+        table.replace(2, 2, "");
+
+        assertEquals(List.of("1:bc>XY Z", "0:>!"), changes);
+        assertEquals(2, table.getVersion());
+    }
+
+    @Test
+    void snapshot_shouldNotSeeLaterEdits() {
+        PieceTable table = new PieceTable("one two");
+        table.replace(3, 3, " and");
+        TextSnapshot snapshot = table.snapshot();
+
+        for (int i = 0; i < 1000; i++) table.replace(table.length(), table.length(), "x");
+        table.replace(0, 3, "ONE");
+
+        assertEquals("one and two", snapshot.toString());
+        assertEquals("and", snapshot.getText(4, 7));
+        assertEquals('t', snapshot.charAt(8));
+        assertSame(table.snapshot(), table.snapshot());
+    }
+
+    @Test
+    void textCharStream_shouldLexLikeStringInput() {
+        String text = "# Title [sec:a]\n\nSome **bold** and $x^2$ text.\n\n- item\n- other";
+        PieceTable table = new PieceTable("");
+        for (int i = 0; i < text.length(); i++) {
+            table.replace(i, i, text.substring(i, i + 1));
+        }
+
+        List<HighlightSpan> expected = TokenHighlighter.computeSpans(text);
+        List<HighlightSpan> actual = TokenHighlighter.computeSpans(new TextCharStream(table.snapshot()));
+        assertEquals(expected.toString(), actual.toString());
+    }
+}
@@ -0,0 +1,76 @@
+package com.guaguaaaa.mymd.core.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileWatcherTest {
+
+    private static final long DEBOUNCE = 200;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void watch_burstOfWrites_shouldReportOnlyRealChangesOnce() throws Exception {
+        Path doc = dir.resolve("doc.mymd");
+        Path bib = dir.resolve("doc.bib");
+        Path other = dir.resolve("other.txt");
+        Files.writeString(doc, "# Title");
+        Files.writeString(bib, "@book{a, title={A}}");
+
+        BlockingQueue<Set<Path>> events = new LinkedBlockingQueue<>();
+        try (FileWatcher watcher = new FileWatcher(DEBOUNCE, events::add)) {
+            watcher.watch(List.of(doc, bib));
+
+            // 编辑器分几步写入同一个文件；.bib 只是被 touch；未监视的文件不报告
+            Files.writeString(doc, "");
+            Files.writeString(doc, "# Title\n\nText");
+            Files.setLastModifiedTime(bib, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+            Files.writeString(other, "x");
+
+            Set<Path> changed = events.poll(10, TimeUnit.SECONDS);
+            assertEquals(Set.of(doc.toAbsolutePath().normalize()), changed);
+            assertNull(events.poll(DEBOUNCE * 3, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void refresh_ownWrite_shouldNotBeReported() throws Exception {
+        Path doc = dir.resolve("doc.mymd");
+        Files.writeString(doc, "one");
+
+        BlockingQueue<Set<Path>> events = new LinkedBlockingQueue<>();
+        try (FileWatcher watcher = new FileWatcher(DEBOUNCE, events::add)) {
+            watcher.watch(List.of(doc));
+            Files.writeString(doc, "two");
+            watcher.refresh(doc);
+            assertNull(events.poll(DEBOUNCE * 5, TimeUnit.MILLISECONDS));
+
+            Files.delete(doc);
+            assertEquals(Set.of(doc.toAbsolutePath().normalize()), events.poll(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void watch_fileCreatedLater_shouldBeReported() throws IOException, InterruptedException {
+        Path image = dir.resolve("figure.png");
+        BlockingQueue<Set<Path>> events = new LinkedBlockingQueue<>();
+        try (FileWatcher watcher = new FileWatcher(DEBOUNCE, events::add)) {
+            watcher.watch(List.of(image));
+            Files.write(image, new byte[]{1, 2, 3});
+            assertEquals(Set.of(image.toAbsolutePath().normalize()), events.poll(10, TimeUnit.SECONDS));
+        }
+    }
+}
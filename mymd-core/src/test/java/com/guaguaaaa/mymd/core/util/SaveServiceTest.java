@@ -0,0 +1,87 @@
+package com.guaguaaaa.mymd.core.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaveServiceTest {
+
+    @TempDir
+    Path dir;
+
+    /** 手动执行排队的任务，便于观察合并 */
+    private static final class QueuedExecutor extends AbstractExecutorService {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        void runAll() {
+            while (!tasks.isEmpty()) tasks.remove(0).run();
+        }
+
+        @Override public void execute(Runnable command) { tasks.add(command); }
+        @Override public void shutdown() { }
+        @Override public List<Runnable> shutdownNow() { return tasks; }
+        @Override public boolean isShutdown() { return false; }
+        @Override public boolean isTerminated() { return tasks.isEmpty(); }
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit) { runAll(); return true; }
+    }
+
+    @Test
+    void save_rapidSaves_shouldWriteOnlyTheLatestText() throws Exception {
+        Path doc = dir.resolve("doc.mymd");
+        Path other = dir.resolve("other.mymd");
+        QueuedExecutor executor = new QueuedExecutor();
+        SaveService service = new SaveService(executor);
+
+        CompletableFuture<Void> first = service.save(doc, "one");
+        CompletableFuture<Void> second = service.save(doc, "two");
+        CompletableFuture<Void> third = service.save(other, "中文");
+        assertSame(first, second);
+        assertEquals(2, executor.tasks.size());
+        assertFalse(Files.exists(doc));
+
+        executor.runAll();
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(third.isDone());
+        assertEquals("two", Files.readString(doc));
+        assertEquals("中文", Files.readString(other));
+
+        // 写入开始后的保存重新排队
+        CompletableFuture<Void> fourth = service.save(doc, "three");
+        assertNotSame(first, fourth);
+        service.close();
+        assertEquals("three", Files.readString(doc));
+    }
+
+    @Test
+    void writeAtomically_shouldReplaceFileAndLeaveNoTempFiles() throws Exception {
+        Path doc = dir.resolve("doc.mymd");
+        Files.writeString(doc, "old content that is longer");
+        boolean posix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (posix) Files.setPosixFilePermissions(doc, PosixFilePermissions.fromString("rw-r--r--"));
+
+        SaveService.writeAtomically(doc, "new".getBytes());
+        assertEquals("new", Files.readString(doc));
+        if (posix) assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(doc)));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(doc), files.toList());
+        }
+    }
+
+    @Test
+    void save_missingDirectory_shouldFailTheFuture() {
+        SaveService service = new SaveService();
+        CompletableFuture<Void> done = service.save(dir.resolve("missing").resolve("doc.mymd"), "x");
+        assertThrows(Exception.class, () -> done.get(10, TimeUnit.SECONDS));
+        service.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.guaguaaaa.mymd.core.xref;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.incremental.IncrementalDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LabelIndexTest {
+
+    private static final String DOC = "# Intro [sec:intro]\n\n" +
+            "See [sec:intro], [eq:energy], [fig:plot] and [sec:missing].\n\n" +
+            "$$\nE = mc^2\n$$ [eq:energy]\n\n" +
+            "\\begin{figure}\n\\label{fig:plot}\n\\end{figure}\n\n" +
+            "## Again [sec:intro]";
+
+    @Test
+    void compile_shouldIndexLabelsAndWarnAboutDanglingAndDuplicateRefs() {
+        CompilationResult result = MyMDCompiler.compile(DOC, new CompilerOptions().setReferenceCheck(true));
+
+        assertFalse(result.hasErrors());
+        assertNotNull(result.pandocJson);
+
+        LabelIndex labels = result.labels;
+        assertEquals(LabelSite.Kind.EQUATION, labels.getDefinition("eq:energy").kind);
+        assertEquals(LabelSite.Kind.LATEX_LABEL, labels.getDefinition("fig:plot").kind);
+        assertEquals(2, labels.getDefinitions("sec:intro").size());
+        assertEquals(1, labels.getUses("sec:intro").size());
+        assertEquals("[sec:intro]", DOC.substring(labels.getUses("sec:intro").get(0).start, labels.getUses("sec:intro").get(0).end));
+
+        List<Diagnostic> warnings = result.diagnostics;
+        assertEquals(3, warnings.size(), warnings.toString());
+        assertTrue(warnings.stream().noneMatch(Diagnostic::isError));
+        assertEquals("Duplicate label: sec:intro (defined 2 times)", warnings.get(0).message);
+        assertEquals(1, warnings.get(0).line);
+        assertEquals("Undefined reference: sec:missing", warnings.get(1).message);
+        assertEquals(3, warnings.get(1).line);
+        assertEquals(13, warnings.get(2).line);
+    }
+
+    @Test
+    void allPipelines_shouldReportSameWarnings() {
+        String expected = MyMDCompiler.compile(DOC, new CompilerOptions().setReferenceCheck(true)).diagnostics.toString();
+        assertEquals(expected, MyMDCompiler.compile(DOC,
+                new CompilerOptions().setReferenceCheck(true).setDirectAst(true)).diagnostics.toString());
+        assertEquals(expected, MyMDCompiler.compile(DOC,
+                new CompilerOptions().setReferenceCheck(true).setFastPath(true)).diagnostics.toString());
+        assertEquals(expected, new IncrementalDocument(DOC).getDiagnostics().toString());
+    }
+
+    @Test
+    void incrementalDocument_shouldUpdateIndexOnEdits() {
+        IncrementalDocument doc = new IncrementalDocument(DOC + "\n\n# Missing [sec:missing]");
+        assertEquals(2, doc.getDiagnostics().size());
+        assertNotNull(doc.findDefinition("sec:missing"));
+
+        // 删掉第二个 sec:intro 标题的标签
+        int again = doc.getText().indexOf(" [sec:intro]", doc.getText().indexOf("## Again"));
+        doc.applyEdit(again, again + " [sec:intro]".length(), "");
+        assertTrue(doc.getDiagnostics().isEmpty(), doc.getDiagnostics().toString());
+
+        // 在开头插入文本后，定义和引用位置随之平移
+        doc.applyEdit(0, 0, "Preface\n\n");
+        LabelSite definition = doc.findDefinition("eq:energy");
+        assertEquals("[eq:energy]", doc.getText().substring(definition.start, definition.end));
+        LabelSite use = doc.findUses("fig:plot").get(0);
+        assertEquals("fig:plot", doc.findLabelAt(use.start + 2).id);
+    }
+}
@@ -0,0 +1,420 @@
+package com.guaguaaaa.mymd.ide.util;
+
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.highlight.TokenHighlighter;
+import com.guaguaaaa.mymd.core.parser.TokenSnapshot;
+import com.guaguaaaa.mymd.core.parser.TokenSnapshotCache;
+import com.guaguaaaa.mymd.core.text.PieceTable;
+import com.guaguaaaa.mymd.core.text.TextChange;
+import com.guaguaaaa.mymd.core.text.TextSnapshot;
+import javafx.application.Platform;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Editor highlighting as two independent layers: syntax spans from the lexer and an overlay of
+ * error / warning markers from the last compilation.
+ * <p>
+ * Both layers are computed on background threads and merged there as interval sets. The merged
+ * result is compared with what the editor already shows, and only the range that differs is passed
+ * to {@link CodeArea#setStyleSpans} on the FX thread. A diagnostics update reuses the syntax layer of the unchanged
+ * text instead of lexing it again.
+ * <p>
+ * The public methods must be called on the FX thread. At most one computation is in flight;
+ * changes that arrive meanwhile are coalesced into the next one.
+ * <p>
+ * While a large file is still being loaded the highlighter can be {@linkplain #setDeferred deferred}:
+ * edits are only recorded, and {@link #highlightRange} lexes just the given range (e.g. the visible
+ * paragraphs) on its own. The whole document is highlighted once deferral ends.
+ */
+public class LayeredHighlighter {
+
+    private final CodeArea codeArea;
+    private final PieceTable document;
+    private final TokenSnapshotCache tokens;
+
+    // 语法层在单独的线程上计算，并按文本版本缓存
+    private final ExecutorService syntaxExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mymd-highlight-syntax");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService overlayExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mymd-highlight-overlay");
+        t.setDaemon(true);
+        return t;
+    });
+    private int syntaxVersion = -1;     // 只在 syntaxExecutor 上读写
+    private Runs syntaxLayer;
+
+    // ---- 以下字段只在 FX 线程上读写 ----
+    private int version;
+    private List<Diagnostic> diagnostics = List.of();
+    /** The merged layers the editor currently shows, as of before the edits in the dirty range. */
+    private Runs applied;
+    /** Range of the current text covering every edit since {@link #applied}; empty if start > end. */
+    private int dirtyStart = Integer.MAX_VALUE;
+    private int dirtyEnd = Integer.MIN_VALUE;
+    private boolean inFlight;
+    private boolean pending;
+    private boolean deferred;
+
+    /**
+     * @param document the text shown by {@code codeArea}
+     * @param tokens   lexes the document's revisions; shared with the compiler, so a revision that
+     *                 was highlighted is not lexed again when it is compiled
+     */
+    public LayeredHighlighter(CodeArea codeArea, PieceTable document, TokenSnapshotCache tokens) {
+        this.codeArea = codeArea;
+        this.document = document;
+        this.tokens = tokens;
+    }
+
+    /**
+     * 文本改动：记录改动范围，再重新计算语法层
+     */
+    public void textChanged(TextChange change) {
+        version++;
+        int start = change.offset;
+        int removedEnd = change.getRemovalEnd();
+        int insertedEnd = change.getInsertionEnd();
+        if (dirtyStart <= dirtyEnd) {
+            dirtyStart = mapOffset(dirtyStart, start, removedEnd, insertedEnd, false);
+            dirtyEnd = mapOffset(dirtyEnd, start, removedEnd, insertedEnd, true);
+        }
+        dirtyStart = Math.min(dirtyStart, start);
+        dirtyEnd = Math.max(dirtyEnd, insertedEnd);
+        schedule();
+    }
+
+    /**
+     * 诊断变化：只重新计算错误层，语法层沿用缓存
+     */
+    public void diagnosticsChanged(List<? extends Diagnostic> diagnostics) {
+        this.diagnostics = List.copyOf(diagnostics);
+        schedule();
+    }
+
+    /**
+     * 重新计算并应用全部样式，例如编辑器刚创建时
+     */
+    public void refresh() {
+        applied = null;
+        schedule();
+    }
+
+    /**
+     * 推迟整篇文档的高亮（例如大文件仍在加载）；结束推迟时重新计算全部样式
+     */
+    public void setDeferred(boolean deferred) {
+        if (this.deferred == deferred) return;
+        this.deferred = deferred;
+        if (!deferred) refresh();
+    }
+
+    /**
+     * 只对 {@code [start, end)} 单独做词法分析并应用样式，范围应从段落开头开始。
+     * 不依赖前文的词法状态，所以只是近似结果，推迟结束后的整篇高亮会覆盖它
+     */
+    public void highlightRange(int start, int end) {
+        TextSnapshot text = document.snapshot();
+        int from = Math.max(0, Math.min(start, text.length()));
+        int to = Math.max(from, Math.min(end, text.length()));
+        if (from == to) return;
+        String window = text.getText(from, to);
+        CompletableFuture.supplyAsync(() -> syntaxLayer(window.length(), TokenHighlighter.computeSpans(window))
+                .toStyleSpans(0, window.length()), syntaxExecutor)
+                .whenComplete((spans, error) -> Platform.runLater(() -> {
+                    // 加载期间只会在末尾追加文本，范围内的文字不变
+                    if (error == null && deferred && to <= codeArea.getLength()) codeArea.setStyleSpans(from, spans);
+                }));
+    }
+
+    public void shutdown() {
+        syntaxExecutor.shutdownNow();
+        overlayExecutor.shutdownNow();
+    }
+
+    private static int mapOffset(int offset, int start, int removedEnd, int insertedEnd, boolean isEnd) {
+        if (offset <= start) return offset;
+        if (offset >= removedEnd) return offset + (insertedEnd - removedEnd);
+        return isEnd ? insertedEnd : start;
+    }
+
+    private void schedule() {
+        if (deferred) return;
+        if (inFlight) {
+            pending = true;
+            return;
+        }
+        inFlight = true;
+        pending = false;
+
+        TextSnapshot text = document.snapshot();
+        int v = version;
+        List<Diagnostic> overlayDiagnostics = diagnostics;
+        Runs base = applied;
+        int editStart = dirtyStart;
+        int editEnd = dirtyEnd;
+
+        CompletableFuture<Runs> syntax = CompletableFuture.supplyAsync(() -> {
+            if (syntaxVersion != v) {
+                TokenSnapshot snapshot = tokens.get(text);
+                if (snapshot.getFailure() != null) throw new IllegalStateException(snapshot.getFailure());
+                syntaxLayer = syntaxLayer(text.length(), TokenHighlighter.computeSpans(snapshot));
+                syntaxVersion = v;
+            }
+            return syntaxLayer;
+        }, syntaxExecutor);
+        CompletableFuture<Runs> overlay = CompletableFuture.supplyAsync(
+                () -> overlayLayer(text.length(), overlayDiagnostics), overlayExecutor);
+
+        syntax.thenCombine(overlay, (s, o) -> {
+            Runs merged = merge(s, o);
+            return new Update(v, merged, diff(base, merged, editStart, editEnd));
+        }).whenComplete((update, error) -> Platform.runLater(() -> finish(update, error)));
+    }
+
+    private void finish(Update update, Throwable error) {
+        inFlight = false;
+        if (error != null) {
+            // Lexer 对输入到一半的缩进会抛异常：保留当前样式，等下一次改动
+        } else if (update.version == version && update.merged.length() == codeArea.getLength()) {
+            if (update.start >= 0) {
+                codeArea.setStyleSpans(update.start, update.spans);
+            }
+            applied = update.merged;
+            dirtyStart = Integer.MAX_VALUE;
+            dirtyEnd = Integer.MIN_VALUE;
+        }
+        // 计算期间文本已变化时结果被丢弃，改动范围继续累积，下一次与 applied 比较
+        if (pending || (update != null && update.version != version)) schedule();
+    }
+
+    private static final class Update {
+        final int version;
+        final Runs merged;
+        /** First changed offset, or -1 if nothing changed. */
+        final int start;
+        final StyleSpans<Collection<String>> spans;
+
+        Update(int version, Runs merged, int[] range) {
+            this.version = version;
+            this.merged = merged;
+            if (range == null) {
+                this.start = -1;
+                this.spans = null;
+            } else {
+                this.start = range[0];
+                this.spans = merged.toStyleSpans(range[0], range[1]);
+            }
+        }
+    }
+
+    // ======================= Layers =======================
+
+    /**
+     * Style runs covering {@code [0, length())} without gaps; adjacent runs differ in style.
+     */
+    static final class Runs {
+        /** {@code bounds[i]} is where run {@code i} starts; the last entry is the total length. */
+        final int[] bounds;
+        final List<List<String>> styles;
+
+        Runs(int[] bounds, List<List<String>> styles) {
+            this.bounds = bounds;
+            this.styles = styles;
+        }
+
+        int length() {
+            return bounds[bounds.length - 1];
+        }
+
+        int size() {
+            return styles.size();
+        }
+
+        StyleSpans<Collection<String>> toStyleSpans(int from, int to) {
+            StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+            int i = runAt(from);
+            while (i < size() && bounds[i] < to) {
+                int start = Math.max(bounds[i], from);
+                int end = Math.min(bounds[i + 1], to);
+                builder.add(styles.get(i), end - start);
+                i++;
+            }
+            return builder.create();
+        }
+
+        private int runAt(int offset) {
+            int lo = 0;
+            int hi = size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (bounds[mid] <= offset) lo = mid;
+                else hi = mid - 1;
+            }
+            return lo;
+        }
+    }
+
+    /** Collects runs, merging a run into the previous one when the styles are equal. */
+    private static final class RunsBuilder {
+        private int[] bounds = new int[16];
+        private final List<List<String>> styles = new ArrayList<>();
+        private int end;
+
+        void add(List<String> style, int length) {
+            if (length <= 0) return;
+            int n = styles.size();
+            if (n > 0 && styles.get(n - 1).equals(style)) {
+                end += length;
+                return;
+            }
+            if (n + 1 >= bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            bounds[n] = end;
+            styles.add(style);
+            end += length;
+        }
+
+        Runs build() {
+            // 空文本也用一个空的 run 表示
+            if (styles.isEmpty()) styles.add(Collections.emptyList());
+            int n = styles.size();
+            int[] result = Arrays.copyOf(bounds, n + 1);
+            result[n] = end;
+            return new Runs(result, styles);
+        }
+    }
+
+    static Runs syntaxLayer(int length, List<HighlightSpan> spans) {
+        RunsBuilder builder = new RunsBuilder();
+        int last = 0;
+        for (HighlightSpan span : spans) {
+            int start = Math.min(Math.max(span.start, last), length);
+            int end = Math.min(span.end, length);
+            builder.add(Collections.emptyList(), start - last);
+            builder.add(span.styles, end - start);
+            last = Math.max(last, end);
+        }
+        builder.add(Collections.emptyList(), length - last);
+        return builder.build();
+    }
+
+    /**
+     * 错误层：诊断按起点排序（排序的是副本，不修改调用方的列表），重叠部分保留先出现的
+     */
+    static Runs overlayLayer(int length, List<Diagnostic> diagnostics) {
+        List<Diagnostic> sorted = new ArrayList<>(diagnostics);
+        sorted.sort(Comparator.comparingInt(d -> d.startIndex));
+
+        List<String> error = List.of("error-marker");
+        List<String> warning = List.of("warning-marker");
+        RunsBuilder builder = new RunsBuilder();
+        int last = 0;
+        for (Diagnostic d : sorted) {
+            int start = Math.max(0, d.startIndex);
+            int end = Math.max(start + 1, d.endIndex);
+            if (end > length) {
+                end = length;
+                if (start >= end && end > 0) start = end - 1;
+            }
+            start = Math.max(start, last);
+            if (start >= end) continue;
+            builder.add(Collections.emptyList(), start - last);
+            builder.add(d.isError() ? error : warning, end - start);
+            last = end;
+        }
+        builder.add(Collections.emptyList(), length - last);
+        return builder.build();
+    }
+
+    /**
+     * 两层按区间合并：重叠部分的样式是两层样式的并集
+     */
+    static Runs merge(Runs base, Runs overlay) {
+        RunsBuilder builder = new RunsBuilder();
+        int length = Math.min(base.length(), overlay.length());
+        int i = 0;
+        int j = 0;
+        int pos = 0;
+        while (pos < length) {
+            while (base.bounds[i + 1] <= pos) i++;
+            while (overlay.bounds[j + 1] <= pos) j++;
+            int end = Math.min(Math.min(base.bounds[i + 1], overlay.bounds[j + 1]), length);
+            List<String> over = overlay.styles.get(j);
+            List<String> style = base.styles.get(i);
+            if (!over.isEmpty()) {
+                List<String> combined = new ArrayList<>(style.size() + over.size());
+                combined.addAll(style);
+                combined.addAll(over);
+                style = combined;
+            }
+            builder.add(style, end - pos);
+            pos = end;
+        }
+        return builder.build();
+    }
+
+    /**
+     * The range {@code [start, end)} of {@code after} whose styles differ from {@code before}, or
+     * null if none. Edits since {@code before} all lie within {@code [editStart, editEnd)} of the
+     * current text, so offsets before it are compared directly and offsets after it aligned from
+     * the end; the edited range itself is always included.
+     */
+    static int[] diff(Runs before, Runs after, int editStart, int editEnd) {
+        int n = after.length();
+        if (before == null) return n > 0 ? new int[]{0, n} : null;
+        int m = before.length();
+
+        int prefixLimit = Math.min(Math.min(editStart, n), m);
+        int start = matchingPrefix(before, after, prefixLimit);
+        int suffixLimit = Math.min(n - Math.max(editEnd, start), m - start);
+        int end = n - matchingSuffix(before, after, Math.max(suffixLimit, 0));
+        return start < end ? new int[]{start, end} : null;
+    }
+
+    private static int matchingPrefix(Runs a, Runs b, int limit) {
+        int i = 0;
+        int j = 0;
+        int pos = 0;
+        while (pos < limit) {
+            if (!a.styles.get(i).equals(b.styles.get(j))) return pos;
+            int end = Math.min(a.bounds[i + 1], b.bounds[j + 1]);
+            if (end >= limit) return limit;
+            pos = end;
+            if (a.bounds[i + 1] == end) i++;
+            if (b.bounds[j + 1] == end) j++;
+        }
+        return limit;
+    }
+
+    private static int matchingSuffix(Runs a, Runs b, int limit) {
+        int i = a.size() - 1;
+        int j = b.size() - 1;
+        int la = a.length();
+        int lb = b.length();
+        int matched = 0;
+        while (matched < limit) {
+            if (!a.styles.get(i).equals(b.styles.get(j))) return matched;
+            int run = Math.min(la - a.bounds[i], lb - b.bounds[j]);
+            if (run >= limit) return limit;
+            matched = run;
+            if (la - a.bounds[i] == run) i--;
+            if (lb - b.bounds[j] == run) j--;
+        }
+        return limit;
+    }
+}
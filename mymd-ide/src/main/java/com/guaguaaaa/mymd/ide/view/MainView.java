@@ -1,31 +1,33 @@
 package com.guaguaaaa.mymd.ide.view;
 
 import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.incremental.OutlineEntry;
+import com.guaguaaaa.mymd.core.sync.PdfLocation;
+import com.guaguaaaa.mymd.core.text.PieceTable;
 import com.guaguaaaa.mymd.ide.viewmodel.MainViewModel;
-import com.guaguaaaa.mymd.ide.util.SyntaxHighlighter;
+import com.guaguaaaa.mymd.ide.util.LayeredHighlighter;
 
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.TreeCell;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import javafx.scene.input.KeyCode;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
 import javafx.scene.web.WebView;
 import javafx.stage.FileChooser;
 import javafx.scene.layout.StackPane;
-import javafx.concurrent.Task;
 import javafx.application.Platform;
 import javafx.concurrent.Worker;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.Base64;
 
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
-import org.fxmisc.richtext.model.StyleSpans;
 
 import java.io.File;
 import java.io.IOException;
@@ -43,12 +45,20 @@ public class MainView {
     @FXML private javafx.scene.control.Label statusLabel;
     @FXML private javafx.scene.control.ProgressBar progressBar;
     @FXML private StackPane editorContainer;
+    @FXML private TreeView<OutlineEntry> outlineTree;
 
     private CodeArea codeArea;
     private MainViewModel viewModel;
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
-    private List<Diagnostic> currentDiagnostics = new ArrayList<>();
-    private final SyntaxHighlighter syntaxHighlighter = new SyntaxHighlighter();
+    private LayeredHighlighter highlighter;
+    private boolean syncingDocument = false;
+    // 大文件载入期间最近一次高亮的可见段落范围，编码为 first * 2^32 + last
+    private long lastHighlightedParagraphs = -1;
+
+    // WebView 只弱引用注入给 JS 的对象，桥接对象必须由这里强引用
+    private final PreviewBridge previewBridge = new PreviewBridge();
+    private boolean reverseSyncing = false;
+    private int lastSyncPage = -1;
+    private double lastSyncY = Double.NaN;
 
     public void setViewModel(MainViewModel viewModel) {
         this.viewModel = viewModel;
@@ -59,24 +69,40 @@ public class MainView {
         codeArea.setStyle("-fx-font-family: 'Monospaced', 'Consolas', 'Courier New'; -fx-font-size: 14;");
         editorContainer.getChildren().add(codeArea);
 
-        String content = this.viewModel.inputContentProperty().get();
-        codeArea.replaceText(0, 0, content == null ? "" : content);
-
-        this.viewModel.inputContentProperty().addListener((obs, oldVal, newVal) -> {
-            if (!newVal.equals(codeArea.getText())) {
-                codeArea.replaceText(newVal);
+        // 编辑器与 view-model 的文档之间只传递改动（位置、删除、插入），不再复制整篇文本
+        PieceTable document = this.viewModel.getDocument();
+        codeArea.replaceText(0, 0, document.toString());
+        codeArea.plainTextChanges().subscribe(change -> {
+            if (syncingDocument) return;
+            syncingDocument = true;
+            try {
+                document.replace(change.getPosition(), change.getRemovalEnd(), change.getInserted());
+            } finally {
+                syncingDocument = false;
             }
         });
-
-        codeArea.textProperty().addListener((obs, oldText, newText) -> {
-            this.viewModel.inputContentProperty().set(newText);
-            computeHighlightingAsync(newText);
+        document.addListener(change -> {
+            if (syncingDocument) return;
+            // 改动来自 view-model（例如打开文件）
+            syncingDocument = true;
+            try {
+                codeArea.replaceText(change.offset, change.getRemovalEnd(), change.inserted);
+            } finally {
+                syncingDocument = false;
+            }
         });
 
-        viewModel.getDiagnostics().addListener((javafx.collections.ListChangeListener.Change<? extends Diagnostic> c) -> {
-            this.currentDiagnostics = new ArrayList<>(viewModel.getDiagnostics());
-            computeHighlightingAsync(codeArea.getText());
-        });
+        // 语法层和错误层在后台分别计算，只把变化的范围应用到编辑器
+        this.highlighter = new LayeredHighlighter(codeArea, document, viewModel.getTokenSnapshots());
+        document.addListener(highlighter::textChanged);
+        highlighter.refresh();
+
+        setUpProgressiveLoading();
+        setUpOutline();
+        setUpPdfSync();
+
+        viewModel.getDiagnostics().addListener((javafx.collections.ListChangeListener.Change<? extends Diagnostic> c) ->
+                highlighter.diagnosticsChanged(viewModel.getDiagnostics()));
 
         // 监听生成的 PDF 路径
         this.viewModel.generatedPdfPathProperty().addListener((obs, oldVal, newVal) -> {
@@ -87,6 +113,9 @@ public class MainView {
 
             try {
                 byte[] pdfBytes = Files.readAllBytes(pdfFile.toPath());
+                // 与上一版 PDF 相比内容变化的页；null 表示整篇重新加载
+                int[] changedPages = this.viewModel.getChangedPdfPages();
+                String changedJs = changedPages == null ? "null" : Arrays.toString(changedPages);
                 String base64 = Base64.getEncoder().encodeToString(pdfBytes);
 
                 Platform.runLater(() -> {
@@ -137,7 +166,11 @@ public class MainView {
                                         "  if (window.PDFViewerApplication && window.PDFViewerApplication.open && window.updatePDF) {" +
                                         "    clearInterval(__timer);" +
                                         "    try {" +
-                                        "      window.updatePDF(window.__pdfBase64);" +
+                                        "      if (window.mymdPreview) {" +
+                                        "        window.mymdPreview.update(window.__pdfBase64, " + changedJs + ");" +
+                                        "      } else {" +
+                                        "        window.updatePDF(window.__pdfBase64);" +
+                                        "      }" +
                                         "      window.__pdfBase64 = '';" +
                                         "    } catch(e) { console.error('Open Error: ' + e); }" +
                                         "  }" +
@@ -162,6 +195,7 @@ public class MainView {
                         engine.getLoadWorker().stateProperty().addListener((observable, oldState2, newState2) -> {
                             if (newState2 == Worker.State.SUCCEEDED) {
                                 // 定义函数 + 注入数据 + 等 ready 再打开
+                                installPreviewScripts();
                                 engine.executeScript(defineUpdatePdfFn);
                                 injectBase64Chunks.run();
                                 openPdfWhenReady.run();
@@ -187,38 +221,190 @@ public class MainView {
         );
     }
 
-    public static class JavaConsoleBridge {
-        public void log(String text) {
-            System.out.println("JS LOG: " + text);
-        }
-        public void error(String text) {
-            System.err.println("JS ERROR: " + text);
+    /**
+     * 大文件分块载入期间编辑器只读，只高亮可见的段落；载入完成后恢复整篇高亮
+     */
+    private void setUpProgressiveLoading() {
+        viewModel.loadingProperty().addListener((obs, wasLoading, loading) -> {
+            codeArea.setEditable(!loading);
+            highlighter.setDeferred(loading);
+            lastHighlightedParagraphs = -1;
+        });
+        // 每追加一块、每次滚动后检查可见段落
+        viewModel.getDocument().addListener(change -> {
+            if (viewModel.loadingProperty().get()) Platform.runLater(this::highlightVisibleParagraphs);
+        });
+        codeArea.estimatedScrollYProperty().addListener((obs, oldY, newY) -> {
+            if (viewModel.loadingProperty().get()) highlightVisibleParagraphs();
+        });
+    }
+
+    private void highlightVisibleParagraphs() {
+        if (!viewModel.loadingProperty().get() || codeArea.getParagraphs().isEmpty()) return;
+        int first;
+        int last;
+        try {
+            first = codeArea.firstVisibleParToAllParIndex();
+            last = codeArea.lastVisibleParToAllParIndex();
+        } catch (RuntimeException e) {
+            // 尚未布局：先按首屏估计
+            first = 0;
+            last = Math.min(codeArea.getParagraphs().size() - 1, 100);
         }
+        long key = ((long) first << 32) | last;
+        if (key == lastHighlightedParagraphs) return;
+        lastHighlightedParagraphs = key;
+        int start = codeArea.getAbsolutePosition(first, 0);
+        int end = codeArea.getAbsolutePosition(last, codeArea.getParagraphLength(last));
+        highlighter.highlightRange(start, end);
     }
 
-    private void computeHighlightingAsync(String text) {
-        Task<StyleSpans<Collection<String>>> task = new Task<>() {
+    /**
+     * 大纲树：标题按层级嵌套，公式/图表标签挂在所在章节下；单击跳转到对应位置
+     */
+    private void setUpOutline() {
+        outlineTree.setShowRoot(false);
+        outlineTree.setCellFactory(tree -> new TreeCell<>() {
             @Override
-            protected StyleSpans<Collection<String>> call() {
-                return syntaxHighlighter.computeHighlighting(text);
+            protected void updateItem(OutlineEntry entry, boolean empty) {
+                super.updateItem(entry, empty);
+                if (empty || entry == null) {
+                    setText(null);
+                } else if (entry.kind == OutlineEntry.Kind.HEADER) {
+                    String title = entry.title.isEmpty() ? "(untitled)" : entry.title;
+                    setText(entry.labelId != null ? title + "  [" + entry.labelId + "]" : title);
+                } else {
+                    setText("[" + entry.labelId + "]");
+                }
             }
-        };
+        });
 
-        task.setOnSucceeded(event -> {
-            StyleSpans<Collection<String>> spans = task.getValue();
-            if (spans != null) {
-                // FIX: 长度检查，防止 IndexOutOfBoundsException
-                int currentLength = codeArea.getLength();
-                int spansLength = spans.length();
+        viewModel.outlineProperty().addListener((obs, oldOutline, newOutline) -> {
+            TreeItem<OutlineEntry> root = new TreeItem<>();
+            addOutlineItems(root, newOutline);
+            outlineTree.setRoot(root);
+        });
 
-                if (currentLength == spansLength) {
-                    codeArea.setStyleSpans(0, spans);
-                }
-            }
+        outlineTree.setOnMouseClicked(event -> jumpToOutlineSelection());
+        outlineTree.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER) jumpToOutlineSelection();
         });
+    }
 
-        // 提交任务到线程池
-        executor.execute(task);
+    private void jumpToOutlineSelection() {
+        TreeItem<OutlineEntry> item = outlineTree.getSelectionModel().getSelectedItem();
+        if (item == null || item.getValue() == null) return;
+        int offset = Math.min(viewModel.getOutlineOffset(item.getValue()), codeArea.getLength());
+        codeArea.moveTo(offset);
+        codeArea.requestFollowCaret();
+        codeArea.requestFocus();
+    }
+
+    private static void addOutlineItems(TreeItem<OutlineEntry> parent, List<OutlineEntry> entries) {
+        for (OutlineEntry entry : entries) {
+            TreeItem<OutlineEntry> item = new TreeItem<>(entry);
+            item.setExpanded(true);
+            addOutlineItems(item, entry.getChildren());
+            parent.getChildren().add(item);
+        }
+    }
+
+    /**
+     * 正向同步：光标移到另一个块时，把 PDF 滚动到该块排版出的位置
+     */
+    private void setUpPdfSync() {
+        codeArea.caretPositionProperty().addListener((obs, oldPos, newPos) -> {
+            if (reverseSyncing) return;
+            PdfLocation location = viewModel.pdfLocationOf(newPos);
+            if (location == null || (location.page == lastSyncPage && location.y == lastSyncY)) return;
+            lastSyncPage = location.page;
+            lastSyncY = location.y;
+            scrollPdfTo(location);
+        });
+    }
+
+    /**
+     * 滚动到 PDF 中的位置；PDF.js 的 XYZ 目标以页面左下角为原点，所以要用页高翻转 y
+     */
+    private void scrollPdfTo(PdfLocation location) {
+        String script =
+                "(function(p, x, top) {" +
+                "  var app = window.PDFViewerApplication;" +
+                "  if (!app || !app.pdfDocument || !app.pdfViewer) return;" +
+                "  var view = app.pdfViewer.getPageView(p - 1);" +
+                "  if (!view || !view.pdfPage) return;" +
+                "  var height = view.pdfPage.view[3];" +
+                "  app.pdfViewer.scrollPageIntoView({ pageNumber: p," +
+                "    destArray: [null, { name: 'XYZ' }, Math.max(0, x - 20), height - top + 20, null] });" +
+                "})(" + location.page + ", " + location.x + ", " + (location.y - location.height) + ");";
+        try {
+            previewWebView.getEngine().executeScript(script);
+        } catch (RuntimeException e) {
+            // 预览尚未加载
+        }
+    }
+
+    /**
+     * 注入按页更新预览的脚本 (preview.js)，以及反向同步：在 PDF 上双击，光标跳到排版出该处的块
+     */
+    private void installPreviewScripts() {
+        var engine = previewWebView.getEngine();
+        JSObject window = (JSObject) engine.executeScript("window");
+        window.setMember("mymdBridge", previewBridge);
+        try (var in = getClass().getResourceAsStream("preview.js")) {
+            if (in != null) engine.executeScript(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        engine.executeScript(
+                "if (!window.__mymdSyncInstalled) {" +
+                "  window.__mymdSyncInstalled = true;" +
+                "  document.addEventListener('dblclick', function(e) {" +
+                "    var app = window.PDFViewerApplication;" +
+                "    var page = e.target.closest ? e.target.closest('.page') : null;" +
+                "    if (!app || !app.pdfViewer || !page) return;" +
+                "    var n = parseInt(page.getAttribute('data-page-number'), 10);" +
+                "    var view = app.pdfViewer.getPageView(n - 1);" +
+                "    if (!view || !view.pdfPage) return;" +
+                "    var box = (view.canvas || view.div).getBoundingClientRect();" +
+                "    var pt = view.viewport.convertToPdfPoint(e.clientX - box.left, e.clientY - box.top);" +
+                "    window.mymdBridge.jumpTo(n, pt[0], view.pdfPage.view[3] - pt[1]);" +
+                "  });" +
+                "}");
+    }
+
+    /**
+     * 由预览页中的脚本调用（在 FX 线程上）
+     */
+    public class PreviewBridge {
+        public void jumpTo(int page, double x, double y) {
+            int offset = viewModel.sourceOffsetOf(page, x, y);
+            if (offset < 0) return;
+            reverseSyncing = true;
+            try {
+                codeArea.moveTo(Math.min(offset, codeArea.getLength()));
+                codeArea.requestFollowCaret();
+                codeArea.requestFocus();
+            } finally {
+                reverseSyncing = false;
+            }
+        }
+
+        /**
+         * 预览更新完成：mode 为 full（整篇重新加载）、pages（只替换了变化的页）或 unchanged
+         */
+        public void previewUpdated(String mode, int pages, int total, double millis) {
+            viewModel.reportPreviewUpdate(mode, pages, total, millis);
+        }
+    }
+
+    public static class JavaConsoleBridge {
+        public void log(String text) {
+            System.out.println("JS LOG: " + text);
+        }
+        public void error(String text) {
+            System.err.println("JS ERROR: " + text);
+        }
     }
 
     @FXML
@@ -280,11 +466,7 @@ public class MainView {
     private void handleSave() {
         File currentFile = viewModel.getCurrentFile();
         if (currentFile != null) {
-            try {
-                viewModel.saveFile(currentFile);
-            } catch (IOException e) {
-                showErrorDialog("Save Failed", "Could not save file.", e.getMessage());
-            }
+            viewModel.saveFile(currentFile);
         } else {
             handleSaveAs();
         }
@@ -299,17 +481,16 @@ public class MainView {
         if (initialDir.exists()) fileChooser.setInitialDirectory(initialDir);
         File file = fileChooser.showSaveDialog(editorContainer.getScene().getWindow());
         if (file != null) {
-            try {
-                viewModel.saveFile(file);
-            } catch (IOException e) {
-                showErrorDialog("Save Failed", "Could not save file.", e.getMessage());
-            }
+            viewModel.saveFile(file);
         }
     }
 
     public void shutdown() {
-        if (executor != null) {
-            executor.shutdownNow();
+        if (highlighter != null) {
+            highlighter.shutdown();
+        }
+        if (viewModel != null) {
+            viewModel.shutdown();
         }
     }
 
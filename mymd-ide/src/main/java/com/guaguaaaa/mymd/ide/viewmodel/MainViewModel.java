@@ -3,15 +3,38 @@ package com.guaguaaaa.mymd.ide.viewmodel;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.guaguaaaa.mymd.core.util.CslGenerator;
+import com.guaguaaaa.mymd.core.ast.Block;
+import com.guaguaaaa.mymd.core.ast.Inline;
+import com.guaguaaaa.mymd.core.ast.PandocAst;
 import com.guaguaaaa.mymd.core.ast.PandocNode;
 import com.guaguaaaa.mymd.core.MyMDCompiler;
 import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
 import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.bib.BibDatabase;
+import com.guaguaaaa.mymd.core.book.BookCompiler;
+import com.guaguaaaa.mymd.core.book.BookResult;
+import com.guaguaaaa.mymd.core.book.BookUnit;
+import com.guaguaaaa.mymd.core.cache.AstCache;
+import com.guaguaaaa.mymd.core.cache.CachedAst;
+import com.guaguaaaa.mymd.core.incremental.IncrementalDocument;
+import com.guaguaaaa.mymd.core.incremental.OutlineEntry;
+import com.guaguaaaa.mymd.core.jfr.PandocProcessEvent;
+import com.guaguaaaa.mymd.core.pdf.PdfPageHashes;
+import com.guaguaaaa.mymd.core.sync.PdfLocation;
+import com.guaguaaaa.mymd.core.sync.SourcePdfSync;
+import com.guaguaaaa.mymd.core.parser.TokenSnapshotCache;
+import com.guaguaaaa.mymd.core.text.PieceTable;
+import com.guaguaaaa.mymd.core.text.TextSnapshot;
+import com.guaguaaaa.mymd.core.util.FileWatcher;
+import com.guaguaaaa.mymd.core.util.SaveService;
 
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.application.Platform;
@@ -19,28 +42,83 @@ import javafx.application.Platform;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class MainViewModel {
 
-    private final StringProperty inputContent = new SimpleStringProperty("");
+    // 编辑器文档：按键只改动 piece table，不再复制整篇文本
+    private final PieceTable document = new PieceTable("");
+    // 每个版本只词法分析一次，高亮和编译共用同一份 Token 快照
+    private final TokenSnapshotCache tokenSnapshots = new TokenSnapshotCache(new CompilerOptions().setLexerGuards(true));
     private final StringProperty generatedPdfPath = new SimpleStringProperty();
 
     private final StringProperty citationTemplate = new SimpleStringProperty();
     private final StringProperty statusMessage = new SimpleStringProperty("Ready");
     private final BooleanProperty isCompiling = new SimpleBooleanProperty(false);
+    private final BooleanProperty loading = new SimpleBooleanProperty(false);
     private final ObservableList<Diagnostic> diagnostics = FXCollections.observableArrayList();
+    private final ObjectProperty<List<OutlineEntry>> outline = new SimpleObjectProperty<>(Collections.emptyList());
 
-    public StringProperty inputContentProperty() { return inputContent; }
+    // 大纲在后台线程上增量维护：编辑按顺序排队，只重新分析受影响的块
+    private final ExecutorService outlineExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mymd-outline");
+        t.setDaemon(true);
+        return t;
+    });
+    private IncrementalDocument outlineDocument;
+    private int publishedOutlineVersion = -1;
+    private volatile List<OutlineEntry> outlineEntries = Collections.emptyList();
+
+    // 最近一次生成的 PDF 与源码之间的对应表；偏移指向那次编译时的文本
+    private volatile SourcePdfSync pdfSync;
+
+    // 保存在后台线程上原子写入（临时文件 + fsync + 重命名），连续的保存合并成一次写入
+    private final SaveService saveService = new SaveService();
+
+    // 外部编辑器改动 .mymd、同名 .bib、章节或引用的图片时自动重新编译；防抖后按内容哈希过滤
+    private static final long WATCH_DEBOUNCE_MILLIS = 300;
+    private FileWatcher fileWatcher;
+    private List<Path> referencedImages = Collections.emptyList();
+    // 最近一次从磁盘读入或写入磁盘的文本，用来判断编辑器里是否有未保存的改动
+    private String savedText;
+    private boolean rebuildPending;
+
+    // 超过该大小（字节）的文件分块流式载入文档，首屏立即显示，编译推迟到载入完成
+    private long largeFileThreshold = Long.getLong("mymd.largeFileThreshold", 8L << 20);
+    private static final int FIRST_CHUNK_CHARS = 16 * 1024;
+    private static final int LOAD_CHUNK_CHARS = 256 * 1024;
+    // 每次打开文件递增；旧的载入线程发现编号变化后停止
+    private int loadGeneration;
+
+    // 上一版 PDF 的逐页哈希，用来判断预览需要重新渲染哪些页
+    private long[] lastPdfPageHashes;
+    private volatile int[] changedPdfPages;
+
+    public PieceTable getDocument() { return document; }
+    public TokenSnapshotCache getTokenSnapshots() { return tokenSnapshots; }
     public StringProperty generatedPdfPathProperty() { return generatedPdfPath; }
 
     public StringProperty citationTemplateProperty() { return citationTemplate; }
     public StringProperty statusMessageProperty() { return statusMessage; }
     public BooleanProperty isCompilingProperty() { return isCompiling; }
+    /** True while a large file is still being streamed into the document. */
+    public BooleanProperty loadingProperty() { return loading; }
     public ObservableList<Diagnostic> getDiagnostics() { return diagnostics; }
+    public ObjectProperty<List<OutlineEntry>> outlineProperty() { return outline; }
 
     private String getPandocExecutable() {
         String pandocHome = System.getenv("PANDOC_HOME");
@@ -56,63 +134,335 @@ public class MainViewModel {
 
     private File currentFile;
 
+    public MainViewModel() {
+        document.addListener(change -> applyOutlineEdit(change.offset, change.getRemovalEnd(), change.inserted));
+        // 编译期间到来的外部改动合并成编译结束后的一次重新编译
+        isCompiling.addListener((obs, was, compiling) -> {
+            if (!compiling && rebuildPending) {
+                rebuildPending = false;
+                rebuildFromDisk();
+            }
+        });
+    }
+
+    // 书籍模式：主文件 front matter 里列出的章节各自编译，结果按文件缓存。
+    // 只在编译线程上使用，isCompiling 保证同一时间只有一个编译
+    private BookCompiler bookCompiler;
+    private Path bookMainFile;
+    private BibDatabase bookBibliography;
+
+    /**
+     * 把文档的一次文本改动同步到大纲文档（调用顺序必须与编辑顺序一致）。
+     * 只有标题或标签真正变化时才发布新的大纲树；仅发生位移时树保持不变，跳转时按最新偏移定位。
+     */
+    private void applyOutlineEdit(int start, int end, String replacement) {
+        outlineExecutor.execute(() -> {
+            if (outlineDocument == null) outlineDocument = new IncrementalDocument("");
+            outlineDocument.applyEdit(start, end, replacement);
+            outlineEntries = outlineDocument.getOutlineEntries();
+            int version = outlineDocument.getOutlineVersion();
+            if (version != publishedOutlineVersion) {
+                publishedOutlineVersion = version;
+                List<OutlineEntry> roots = outlineDocument.getOutline();
+                Platform.runLater(() -> outline.set(roots));
+            }
+        });
+    }
+
+    /**
+     * 大纲条目当前所在的偏移（条目可能来自较早发布的树，其间的编辑只会移动它）
+     */
+    public int getOutlineOffset(OutlineEntry entry) {
+        List<OutlineEntry> current = outlineEntries;
+        return entry.index < current.size() ? current.get(entry.index).start : entry.start;
+    }
+
+    public void shutdown() {
+        outlineExecutor.shutdownNow();
+        // 等待排队的保存写完
+        saveService.close();
+        if (fileWatcher != null) {
+            try {
+                fileWatcher.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
     public File getCurrentFile() {
         return currentFile;
     }
 
+    public long getLargeFileThreshold() {
+        return largeFileThreshold;
+    }
+
+    public void setLargeFileThreshold(long largeFileThreshold) {
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
     /**
      * 从文件加载内容到输入框
      */
     public void loadFile(File file) throws IOException {
+        if (Files.size(file.toPath()) > largeFileThreshold) {
+            loadFileProgressively(file);
+            return;
+        }
+        loadGeneration++;
+        loading.set(false);
         String content = Files.readString(file.toPath(), StandardCharsets.UTF_8);
-        inputContent.set(content);
+        // 上次保存时的编译结果仍然有效：先显示缓存的大纲，后台分析完成后再替换
+        CachedAst cached = loadAstCache(file, content);
+        if (cached != null) {
+            outlineEntries = cached.getOutlineEntries();
+            outline.set(cached.getOutline());
+        }
+        document.replace(0, document.length(), content);
         this.currentFile = file;
+        this.savedText = content;
+        this.referencedImages = Collections.emptyList();
+        updateWatchedFiles();
+        if (cached != null) showCachedWarnings(content, cached);
+    }
+
+    /**
+     * 用缓存的标签和引用索引算出引用警告，打开文件时立即显示，不必等第一次编译。
+     * 对照文献库需要读 .bib，在后台线程上进行；其间文档被编辑或开始编译时丢弃结果
+     */
+    private void showCachedWarnings(String content, CachedAst cached) {
+        int version = document.getVersion();
+        File bibFile = getAssociatedBibFile();
+        Thread t = new Thread(() -> {
+            List<Diagnostic> warnings = new ArrayList<>(cached.getLabels().getDiagnostics(content));
+            BibDatabase bibliography = loadBibliography(bibFile);
+            if (bibliography != null) {
+                warnings.addAll(bibliography.getDiagnostics(cached.getCitations(), content));
+                warnings.sort(Comparator.comparingInt(d -> d.startIndex));
+            }
+            Platform.runLater(() -> {
+                if (document.getVersion() == version && !isCompiling.get()) diagnostics.setAll(warnings);
+            });
+        }, "mymd-warnings");
+        t.setDaemon(true);
+        t.start();
     }
 
     /**
-     * 将输入框内容保存到文件
+     * 大文件：后台线程按块读取，每块追加到文档末尾后再读下一块。
+     * 第一块很小，首屏立即显示；大纲随追加增量更新；编译和整篇高亮等到载入完成
      */
-    public void saveFile(File file) throws IOException {
-        Files.writeString(file.toPath(), inputContent.get(), StandardCharsets.UTF_8);
+    private void loadFileProgressively(File file) {
+        int generation = ++loadGeneration;
+        long size = file.length();
         this.currentFile = file;
+        this.savedText = null;
+        this.referencedImages = Collections.emptyList();
+        loading.set(true);
+        document.replace(0, document.length(), "");
+        statusMessage.set("Loading " + file.getName() + "...");
+
+        Thread t = new Thread(() -> {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[LOAD_CHUNK_CHARS];
+                StringBuilder carry = new StringBuilder();
+                long loaded = 0;
+                int want = FIRST_CHUNK_CHARS;
+                int n;
+                while ((n = reader.read(buffer, 0, want)) >= 0) {
+                    carry.append(buffer, 0, n);
+                    if (carry.length() < want) continue;
+                    // 在最后一个换行处切开，每次追加的都是整行
+                    int cut = carry.lastIndexOf("\n") + 1;
+                    if (cut == 0) cut = Character.isHighSurrogate(carry.charAt(carry.length() - 1)) ? carry.length() - 1 : carry.length();
+                    String chunk = carry.substring(0, cut);
+                    carry.delete(0, cut);
+                    loaded += chunk.length();
+                    if (!appendChunk(generation, chunk, (int) Math.min(99, loaded * 100 / Math.max(1, size)))) return;
+                    want = LOAD_CHUNK_CHARS;
+                }
+                if (carry.length() > 0 && !appendChunk(generation, carry.toString(), 99)) return;
+                Platform.runLater(() -> finishLoading(generation, file));
+            } catch (IOException e) {
+                Platform.runLater(() -> {
+                    if (generation != loadGeneration) return;
+                    loading.set(false);
+                    statusMessage.set("Error: " + e.getMessage());
+                });
+            }
+        }, "mymd-load");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 在 FX 线程上把一块文本追加到文档末尾，并等待追加完成，避免事件队列堆积
+     * @return false 表示这次载入已被新打开的文件取代
+     */
+    private boolean appendChunk(int generation, String chunk, int percent) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            boolean current = generation == loadGeneration;
+            if (current) {
+                document.replace(document.length(), document.length(), chunk);
+                statusMessage.set("Loading " + currentFile.getName() + "... " + percent + "%");
+            }
+            done.complete(current);
+        });
+        return done.join();
+    }
 
-        compilePdfInBackground(file);
+    private void finishLoading(int generation, File file) {
+        if (generation != loadGeneration) return;
+        savedText = document.toString();
+        loading.set(false);
+        statusMessage.set("Loaded: " + file.getName());
+        updateWatchedFiles();
+        if (rebuildPending) {
+            rebuildPending = false;
+            rebuildFromDisk();
+        }
+        showCachedWarningsAfterLoading(generation, file, savedText);
+    }
+
+    /**
+     * 全文载入后才能按哈希查找 AST 缓存；大文件的哈希在后台线程上计算。
+     * 大纲已随载入增量生成，这里只补上缓存的引用警告
+     */
+    private void showCachedWarningsAfterLoading(int generation, File file, String content) {
+        int version = document.getVersion();
+        Thread t = new Thread(() -> {
+            CachedAst cached = loadAstCache(file, content);
+            if (cached == null) return;
+            Platform.runLater(() -> {
+                if (generation == loadGeneration && document.getVersion() == version) showCachedWarnings(content, cached);
+            });
+        }, "mymd-cache");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static CachedAst loadAstCache(File file, String content) {
+        try {
+            return AstCache.load(file.toPath(), content);
+        } catch (IOException e) {
+            System.err.println("Failed to read AST cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 在大纲线程上写入 AST 缓存，这样大纲条目与编译的文本一致；其间又有编辑时跳过这次保存
+     */
+    private void storeAstCache(File sourceFile, String mymdText, CompilationResult result) {
+        outlineExecutor.execute(() -> {
+            if (outlineDocument == null || !mymdText.contentEquals(outlineDocument.getSnapshot())) return;
+            try {
+                AstCache.store(sourceFile.toPath(), mymdText, outlineDocument.getOutlineEntries(), result);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to write AST cache: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 将输入框内容保存到文件。写入在后台进行，编译直接从内存中的快照开始，不等待写入完成
+     */
+    public void saveFile(File file) {
+        if (loading.get()) {
+            // 文档还不完整，保存会截断文件
+            statusMessage.set("Still loading; try again when loading has finished");
+            return;
+        }
+        TextSnapshot snapshot = document.snapshot();
+        String text = snapshot.toString();
+        this.currentFile = file;
+        this.savedText = text;
+        updateWatchedFiles();
+
+        saveService.save(file.toPath(), text).whenComplete((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                Platform.runLater(() -> statusMessage.set("Save failed: " + cause.getMessage()));
+            } else if (fileWatcher != null) {
+                // 自己写入的内容不算外部改动
+                fileWatcher.refresh(file.toPath());
+            }
+        });
+
+        compilePdfInBackground(file, text, snapshot);
     }
 
     /**
      * 后台 PDF 编译任务
      */
-    private void compilePdfInBackground(File sourceFile) {
+    private void compilePdfInBackground(File sourceFile, String mymdText, TextSnapshot snapshot) {
         if (isCompiling.get()) return;
 
         isCompiling.set(true);
         statusMessage.set("Compiling...");
 
-        String mymdText = inputContent.get();
         if (mymdText == null || mymdText.isBlank()) {
             isCompiling.set(false);
             statusMessage.set("Skipped: Content is empty");
             return;
         }
 
-        CompilationResult result = MyMDCompiler.compile(mymdText);
+        File bibFile = getAssociatedBibFile();
+        String template = citationTemplate.get();
 
-        Platform.runLater(() -> {
-            diagnostics.setAll(result.diagnostics);
-        });
+        // 文献库、书籍章节和编译都在后台线程上完成，FX 线程只接收结果
+        Thread t = new Thread(() -> {
+            File citedBib = null;
+            try {
+                // 文献库按路径、大小和修改时间缓存，.bib 被改动时由文件监视器作废
+                BibDatabase bibliography = loadBibliography(bibFile);
 
-        if (result.hasErrors()) {
-            Platform.runLater(() -> {
-                statusMessage.set("Syntax Error: " + result.diagnostics.get(0).message);
-                isCompiling.set(false);
-            });
-            return;
-        }
+                // 悬空引用、重复标签和未知文献键作为警告显示，不阻止编译
+                CompilerOptions options = new CompilerOptions().setLexerGuards(true)
+                        .setReferenceCheck(true).setBibliography(bibliography).setSyncMarkers(true);
+
+                String userTemplate = template;
+                if (userTemplate == null || userTemplate.isBlank()) {
+                    userTemplate = "{author} ({year}). {title}.";
+                }
+                String cslXml = CslGenerator.generateCslXml(userTemplate);
 
-        String jsonOutput = result.pandocJson;
+                // front matter 里列出 chapters 时按书籍编译：每章是独立的编译单元，只重新生成改动过的章节
+                // (章节的 LaTeX 还取决于文献库和引用样式，二者变化时所有章节都要重新生成)
+                String renderStamp = "bib " + (bibliography != null ? Long.toHexString(bibliography.getHash()) : "none")
+                        + "\ncsl " + cslXml;
+                BookResult book = buildBook(mymdText, sourceFile, options, renderStamp);
+                CompilationResult result = book != null ? book.main.result
+                        : MyMDCompiler.compile(mymdText, tokenSnapshots.get(snapshot), options);
+                List<Diagnostic> shown = book != null ? book.main.diagnostics : result.diagnostics;
+
+                Platform.runLater(() -> {
+                    diagnostics.setAll(shown);
+                });
+
+                // 章节的警告无法标在编辑器里，编译成功后显示在状态栏
+                String chapterWarning = chapterWarningMessage(book);
+
+                String errorMessage = firstErrorMessage(book, result);
+                if (errorMessage != null) {
+                    Platform.runLater(() -> {
+                        statusMessage.set(errorMessage);
+                        isCompiling.set(false);
+                    });
+                    return;
+                }
+
+                if (book == null) storeAstCache(sourceFile, mymdText, result);
+                List<Path> images = referencedImagesOf(sourceFile, book, result);
+                Platform.runLater(() -> watchReferencedImages(images));
+
+                String jsonOutput = book != null ? book.assemblyJson : result.pandocJson;
+                Set<String> citedKeys = new HashSet<>(result.citations.getIds());
+                if (book != null) {
+                    for (BookUnit chapter : book.chapters) citedKeys.addAll(chapter.result.citations.getIds());
+                }
 
-        Thread t = new Thread(() -> {
-            try {
                 String sourcePath = sourceFile.getAbsolutePath();
                 String basePath = sourcePath.lastIndexOf(".") > 0 ?
                         sourcePath.substring(0, sourcePath.lastIndexOf(".")) :
@@ -121,16 +471,22 @@ public class MainViewModel {
                 String pdfPath = basePath + ".pdf";
                 String texPath = basePath + ".tex";
 
-                File bibFile = getAssociatedBibFile();
-                boolean useBib = bibFile.exists();
+                boolean useBib = bibliography != null;
+                File bibForPandoc = bibFile;
+                if (useBib && !hasNocite(mymdText)) {
+                    // 只把正文引用到的条目交给 citeproc，大文献库时省去整库解析
+                    // (front matter 里的 nocite 会引用正文以外的条目，此时仍传完整文献库)
+                    citedBib = File.createTempFile("mymd-cited-", ".bib");
+                    bibliography.writePruned(citedKeys, citedBib.toPath());
+                    bibForPandoc = citedBib;
+                }
                 File cslFile = new File("custom_style.csl");
+                Files.writeString(cslFile.toPath(), cslXml, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 
-                String userTemplate = citationTemplate.get();
-                if (userTemplate == null || userTemplate.isBlank()) {
-                    userTemplate = "{author} ({year}). {title}.";
+                // 0. Book: LaTeX fragments of the changed chapters, \include'd by the main .tex
+                if (book != null) {
+                    renderChapters(book.getDirtyChapters(), useBib ? bibForPandoc : null, cslFile, workDir);
                 }
-                String cslXml = CslGenerator.generateCslXml(userTemplate);
-                Files.writeString(cslFile.toPath(), cslXml, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 
                 // 1. Generate LaTeX (.tex)
                 List<String> texCommand = new ArrayList<>();
@@ -142,7 +498,7 @@ public class MainViewModel {
 
                 if (useBib) {
                     texCommand.add("--citeproc");
-                    texCommand.add("--bibliography"); texCommand.add(bibFile.getAbsolutePath());
+                    texCommand.add("--bibliography"); texCommand.add(bibForPandoc.getAbsolutePath());
                     texCommand.add("--csl"); texCommand.add(cslFile.getAbsolutePath());
                     texCommand.add("--metadata=link-bibliography=false");
                 }
@@ -150,33 +506,22 @@ public class MainViewModel {
                 runProcessWithInput(texCommand, jsonOutput, workDir);
                 System.out.println("LaTeX file generated: " + texPath);
 
-                // 2. Generate PDF (.pdf)
-                List<String> pdfCommand = new ArrayList<>();
-                pdfCommand.add(getPandocExecutable());
-                pdfCommand.add("-f"); pdfCommand.add("json");
-                pdfCommand.add("-t"); pdfCommand.add("pdf");
-                pdfCommand.add("-o"); pdfCommand.add(pdfPath);
-                pdfCommand.add("--pdf-engine=xelatex");
-                // pdfCommand.add("-V"); pdfCommand.add("mainfont=Microsoft YaHei");
-
-                if (useBib) {
-                    pdfCommand.add("--citeproc");
-                    pdfCommand.add("--bibliography"); pdfCommand.add(bibFile.getAbsolutePath());
-                    pdfCommand.add("--csl"); pdfCommand.add(cslFile.getAbsolutePath());
-                    pdfCommand.add("--metadata=link-bibliography=false");
-                }
-
-                ProcessExecutionResult pdfResult = runProcessWithInput(pdfCommand, jsonOutput, workDir);
+                // 2. Generate PDF (.pdf) from the .tex above, with SyncTeX data for editor <-> PDF navigation
+                ProcessExecutionResult pdfResult = runXelatex(texPath, workDir);
+                SourcePdfSync sync = pdfResult.exitCode == 0 ? loadPdfSync(texPath) : null;
+                if (sync != null) pdfSync = sync;
+                if (pdfResult.exitCode == 0) diffPdfPages(pdfPath);
 
                 Platform.runLater(() -> {
                     isCompiling.set(false);
                     if (pdfResult.exitCode == 0) {
-                        statusMessage.set("Saved: " + new File(pdfPath).getName() + " (& .tex)");
+                        String saved = "Saved: " + new File(pdfPath).getName() + " (& .tex)";
+                        statusMessage.set(chapterWarning != null ? saved + " | " + chapterWarning : saved);
                         generatedPdfPath.set(null); // Force update if path is same
                         generatedPdfPath.set(pdfPath);
                     } else {
                         statusMessage.set("PDF Error (Code " + pdfResult.exitCode + ")");
-                        System.err.println("Pandoc Error:\n" + pdfResult.errorOutput);
+                        System.err.println("XeLaTeX Error (see " + basePath + ".log):\n" + pdfResult.errorOutput);
                     }
                 });
 
@@ -186,6 +531,8 @@ public class MainViewModel {
                     isCompiling.set(false);
                     statusMessage.set("Error: " + e.getMessage());
                 });
+            } finally {
+                if (citedBib != null) citedBib.delete();
             }
         });
 
@@ -193,6 +540,274 @@ public class MainViewModel {
         t.start();
     }
 
+    /**
+     * 监视当前文件、同名 .bib、书籍章节和最近一次编译引用的图片
+     */
+    private void updateWatchedFiles() {
+        if (currentFile == null) return;
+        Path source = currentFile.toPath().toAbsolutePath();
+        List<Path> files = new ArrayList<>();
+        files.add(source);
+        files.add(getAssociatedBibFile().toPath());
+        for (String chapter : BookCompiler.readChapters(savedText != null ? savedText : "")) {
+            try {
+                files.add(source.resolveSibling(chapter));
+            } catch (InvalidPathException ignored) {
+            }
+        }
+        files.addAll(referencedImages);
+        try {
+            if (fileWatcher == null) {
+                fileWatcher = new FileWatcher(WATCH_DEBOUNCE_MILLIS,
+                        changed -> Platform.runLater(() -> onExternalChange(changed)));
+            }
+            fileWatcher.watch(files);
+        } catch (IOException e) {
+            System.err.println("Failed to watch files: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 外部程序改动了被监视的文件（已防抖，且内容确实变化）
+     */
+    private void onExternalChange(Set<Path> changed) {
+        if (currentFile == null) return;
+        // 改动过的 .bib 从缓存中作废，下次编译在后台线程上重新索引
+        Path bib = getAssociatedBibFile().toPath().toAbsolutePath().normalize();
+        if (changed.contains(bib)) BibDatabase.invalidate(bib);
+        if (loading.get()) return;
+        Path source = currentFile.toPath().toAbsolutePath().normalize();
+        if (changed.contains(source)) {
+            reloadFromDisk();
+        } else {
+            rebuildFromDisk();
+        }
+    }
+
+    /**
+     * 在后台线程上读入源文件并和当前文本比较，FX 线程只替换实际变化的那一段，
+     * 大纲、高亮和 Token 快照都只重新分析这部分。比较期间文档或保存状态变了就重新比较
+     */
+    private void reloadFromDisk() {
+        File file = currentFile;
+        Path source = file.toPath().toAbsolutePath().normalize();
+        TextSnapshot snapshot = document.snapshot();
+        int version = document.getVersion();
+        String saved = savedText;
+
+        Thread t = new Thread(() -> {
+            String content;
+            try {
+                content = Files.readString(source, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                Platform.runLater(() -> statusMessage.set("File changed on disk and could not be read: " + e.getMessage()));
+                return;
+            }
+            String current = snapshot.toString();
+            boolean unsavedEdits = !current.equals(saved);
+            int max = Math.min(current.length(), content.length());
+            int prefix = 0;
+            while (prefix < max && current.charAt(prefix) == content.charAt(prefix)) prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix
+                    && current.charAt(current.length() - 1 - suffix) == content.charAt(content.length() - 1 - suffix)) {
+                suffix++;
+            }
+            boolean unchanged = prefix == current.length() && prefix == content.length();
+            int start = prefix;
+            int end = current.length() - suffix;
+            String replacement = content.substring(prefix, content.length() - suffix);
+
+            Platform.runLater(() -> {
+                if (file != currentFile || loading.get()) return;
+                if (document.getVersion() != version || savedText != saved) {
+                    reloadFromDisk();
+                    return;
+                }
+                if (unsavedEdits) {
+                    statusMessage.set("File changed on disk; unsaved edits kept");
+                    return;
+                }
+                if (!unchanged) document.replace(start, end, replacement);
+                savedText = content;
+                updateWatchedFiles();
+                rebuildFromDisk();
+            });
+        }, "mymd-reload");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void rebuildFromDisk() {
+        if (currentFile == null) return;
+        if (isCompiling.get() || loading.get()) {
+            rebuildPending = true;
+            return;
+        }
+        TextSnapshot snapshot = document.snapshot();
+        compilePdfInBackground(currentFile, snapshot.toString(), snapshot);
+    }
+
+    /**
+     * 从编译结果中收集本地图片路径，图片被替换后也会重新编译
+     */
+    private static List<Path> referencedImagesOf(File sourceFile, BookResult book, CompilationResult result) {
+        List<String> urls = new ArrayList<>();
+        if (book == null) {
+            collectImageUrls(result.rootAst, urls);
+        } else {
+            for (BookUnit unit : book.getUnits()) collectImageUrls(unit.result.rootAst, urls);
+        }
+        Path dir = sourceFile.toPath().toAbsolutePath().getParent();
+        List<Path> images = new ArrayList<>();
+        for (String url : urls) {
+            if (url.isBlank() || url.contains("://") || url.startsWith("data:")) continue;
+            try {
+                images.add(dir.resolve(url).normalize());
+            } catch (InvalidPathException ignored) {
+            }
+        }
+        return images;
+    }
+
+    private void watchReferencedImages(List<Path> images) {
+        if (!images.equals(referencedImages)) {
+            referencedImages = images;
+            updateWatchedFiles();
+        }
+    }
+
+    private static void collectImageUrls(Object value, List<String> urls) {
+        if (value instanceof PandocAst ast) {
+            collectImageUrls(ast.getBlocks(), urls);
+        } else if (value instanceof Inline inline) {
+            // Image 的内容是 [attr, alt, [url, title]]
+            if ("Image".equals(inline.t) && inline.c instanceof List<?> c && c.size() == 3
+                    && c.get(2) instanceof List<?> target && !target.isEmpty() && target.get(0) instanceof String url) {
+                urls.add(url);
+            }
+            collectImageUrls(inline.c, urls);
+        } else if (value instanceof Block block) {
+            collectImageUrls(block.c, urls);
+        } else if (value instanceof List<?> list) {
+            for (Object element : list) collectImageUrls(element, urls);
+        }
+    }
+
+    /**
+     * 主文件声明了 chapters 时按书籍编译，否则返回 null。
+     * 章节的编译结果缓存在 {@link BookCompiler} 里，文献库变化后整本重新编译。
+     * 会编译章节并写入中间 JSON，只能在编译线程上调用
+     */
+    private BookResult buildBook(String mymdText, File sourceFile, CompilerOptions options, String renderStamp) throws IOException {
+        if (BookCompiler.readChapters(mymdText).isEmpty()) {
+            bookCompiler = null;
+            return null;
+        }
+        Path mainFile = sourceFile.toPath().toAbsolutePath();
+        if (bookCompiler == null || !mainFile.equals(bookMainFile) || options.getBibliography() != bookBibliography) {
+            bookCompiler = new BookCompiler(mainFile, options);
+            bookMainFile = mainFile;
+            bookBibliography = options.getBibliography();
+        }
+        return bookCompiler.build(mymdText, renderStamp);
+    }
+
+    /**
+     * front matter 是否声明了 nocite（按解析后的 YAML 判断，正文里出现这个词不算）
+     */
+    private static boolean hasNocite(String mymdText) {
+        Object nocite = BookCompiler.readFrontMatter(mymdText).get("nocite");
+        return nocite != null && !String.valueOf(nocite).isBlank();
+    }
+
+    /**
+     * 状态栏显示的第一个错误；章节里的错误带上章节文件名
+     */
+    private static String firstErrorMessage(BookResult book, CompilationResult result) {
+        if (book == null) {
+            return result.hasErrors() ? "Syntax Error: " + result.diagnostics.get(0).message : null;
+        }
+        for (BookUnit unit : book.getUnits()) {
+            for (Diagnostic d : unit.diagnostics) {
+                if (!d.isError()) continue;
+                return unit == book.main
+                        ? "Syntax Error: " + d.message
+                        : "Syntax Error in " + unit.source.getFileName() + ": " + d.message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 状态栏显示的章节警告：第一条带上章节文件名，其余只计数；没有警告时返回 null
+     */
+    private static String chapterWarningMessage(BookResult book) {
+        if (book == null) return null;
+        String first = null;
+        int count = 0;
+        for (BookUnit chapter : book.chapters) {
+            for (Diagnostic d : chapter.diagnostics) {
+                if (d.isError()) continue;
+                if (first == null) first = "Warning in " + chapter.source.getFileName() + ": " + d.message;
+                count++;
+            }
+        }
+        if (first == null) return null;
+        return count == 1 ? first : first + " (+" + (count - 1) + " more)";
+    }
+
+    /**
+     * 并行地把改动过的章节转换成 LaTeX 片段（不带 -s，由主文件 \include）。
+     * 每章单独跑 citeproc 生成引用文字，参考文献表只由主文件生成一次
+     */
+    private void renderChapters(List<BookUnit> chapters, File bib, File cslFile, File workDir) throws IOException {
+        if (chapters.isEmpty()) return;
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(chapters.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<ProcessExecutionResult>> runs = new ArrayList<>();
+            for (BookUnit chapter : chapters) {
+                List<String> command = new ArrayList<>();
+                command.add(getPandocExecutable());
+                command.add("-f"); command.add("json");
+                command.add("-t"); command.add("latex");
+                command.add("-o"); command.add(chapter.texFragment.toString());
+                if (bib != null) {
+                    command.add("--citeproc");
+                    command.add("--bibliography"); command.add(bib.getAbsolutePath());
+                    command.add("--csl"); command.add(cslFile.getAbsolutePath());
+                    command.add("--metadata=link-bibliography=false");
+                    command.add("--metadata=suppress-bibliography=true");
+                }
+                String json = Files.readString(chapter.jsonFragment, StandardCharsets.UTF_8);
+                runs.add(pool.submit(() -> runProcessWithInput(command, json, workDir)));
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                ProcessExecutionResult run;
+                try {
+                    run = runs.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while rendering chapters", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException io ? io : new IOException(cause);
+                }
+                if (run.exitCode != 0) {
+                    // 删掉片段，下次编译时这一章仍然是脏的
+                    Files.deleteIfExists(chapters.get(i).texFragment);
+                    throw new IOException("Pandoc failed on " + chapters.get(i).source.getFileName()
+                            + ": " + run.errorOutput);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("%d chapter(s) rendered in %.1f ms%n", chapters.size(), (System.nanoTime() - start) / 1e6);
+    }
+
     /**
      * 辅助类：保存进程执行结果
      */
@@ -233,12 +848,17 @@ public class MainViewModel {
             pb.environment().put(key, value);
         }
 
+        PandocProcessEvent event = new PandocProcessEvent();
+        event.begin();
+        long spawnNanos = System.nanoTime();
+
         Process process = pb.start();
 
         // 写入 stdin
         try (OutputStreamWriter writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
             writer.write(input);
         }
+        long stdinNanos = System.nanoTime() - spawnNanos;
 
         // 读取 stderr
         StringBuilder errorOutput = new StringBuilder();
@@ -257,9 +877,120 @@ public class MainViewModel {
         }
 
         int exitCode = process.waitFor();
+
+        if (event.shouldCommit()) {
+            event.command = String.join(" ", command);
+            event.pid = process.pid();
+            event.inputChars = input.length();
+            event.exitCode = exitCode;
+            event.stdinNanos = stdinNanos;
+            event.commit();
+        }
         return new ProcessExecutionResult(exitCode, errorOutput.toString());
     }
 
+    /**
+     * 用 xelatex 编译 .tex（与 pandoc --pdf-engine=xelatex 相同的引擎），同时写出 .synctex.gz；
+     * 交叉引用和目录需要多跑几遍
+     */
+    private ProcessExecutionResult runXelatex(String texPath, File workDir) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("xelatex");
+        command.add("-synctex=1");
+        command.add("-interaction=nonstopmode");
+        command.add(new File(texPath).getName());
+
+        File logFile = new File(texPath.substring(0, texPath.length() - 4) + ".log");
+        ProcessExecutionResult result = null;
+        for (int run = 0; run < 3; run++) {
+            result = runProcessWithInput(command, "", workDir);
+            if (result.exitCode != 0 || !logFile.exists()) break;
+            if (!Files.readString(logFile.toPath(), StandardCharsets.ISO_8859_1).contains("Rerun to get")) break;
+        }
+        return result;
+    }
+
+    /**
+     * 读取本次构建的 SyncTeX 对应表；没有 .synctex.gz 或读取失败时返回 null
+     */
+    private SourcePdfSync loadPdfSync(String texPath) {
+        try {
+            return SourcePdfSync.load(Path.of(texPath));
+        } catch (IOException e) {
+            System.err.println("Failed to read SyncTeX data for " + texPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 计算新 PDF 的逐页哈希，与上一版比较；无法解析时整篇重新加载
+     */
+    private synchronized void diffPdfPages(String pdfPath) {
+        long start = System.nanoTime();
+        long[] hashes;
+        try {
+            hashes = PdfPageHashes.compute(Files.readAllBytes(Path.of(pdfPath)));
+        } catch (IOException e) {
+            System.err.println("Failed to hash PDF pages of " + pdfPath + ": " + e.getMessage());
+            hashes = null;
+        }
+        changedPdfPages = PdfPageHashes.changedPages(lastPdfPageHashes, hashes);
+        lastPdfPageHashes = hashes;
+        System.out.printf("PDF pages hashed in %.1f ms: %s%n", (System.nanoTime() - start) / 1e6,
+                changedPdfPages == null ? "full reload" : changedPdfPages.length + " changed");
+    }
+
+    /**
+     * 1-based pages of the last generated PDF that differ from the one before, or null if the
+     * preview has to reload the whole document.
+     */
+    public int[] getChangedPdfPages() {
+        return changedPdfPages;
+    }
+
+    /**
+     * Called by the preview once an update has been rendered.
+     */
+    public void reportPreviewUpdate(String mode, int pages, int total, double millis) {
+        String what = switch (mode) {
+            case "pages" -> pages + " of " + total + " pages re-rendered";
+            case "unchanged" -> "no page changed";
+            default -> total + " pages reloaded";
+        };
+        String message = String.format("Preview: %s in %.0f ms", what, millis);
+        System.out.println(message);
+        statusMessage.set(message);
+    }
+
+    /**
+     * Where the block at {@code offset} of the last built text is in the PDF, or null.
+     */
+    public PdfLocation pdfLocationOf(int offset) {
+        SourcePdfSync sync = pdfSync;
+        return sync != null ? sync.toPdf(offset) : null;
+    }
+
+    /**
+     * Offset of the block typeset at the given PDF point (points from the page's top-left), or -1.
+     */
+    public int sourceOffsetOf(int page, double x, double y) {
+        SourcePdfSync sync = pdfSync;
+        return sync != null ? sync.toSource(page, x, y) : -1;
+    }
+
+    /**
+     * 读取（或从缓存取出）文献库；文件不存在或无法读取时返回 null
+     */
+    private BibDatabase loadBibliography(File bibFile) {
+        if (!bibFile.exists()) return null;
+        try {
+            return BibDatabase.load(bibFile.toPath());
+        } catch (IOException e) {
+            System.err.println("Failed to read bibliography " + bibFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * 根据当前 Markdown 文件，推算同名的 .bib 文件路径
      */
@@ -280,7 +1011,7 @@ public class MainViewModel {
     }
 
     public void saveAsLatex(File outputFile) throws IOException, InterruptedException {
-        String mymdText = inputContent.get();
+        String mymdText = document.toString();
         CompilationResult result = MyMDCompiler.compile(mymdText);
 
         if (result.hasErrors()) {
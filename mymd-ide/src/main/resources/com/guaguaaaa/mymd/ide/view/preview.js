@@ -0,0 +1,161 @@
+// MyMD 预览更新：按页对比，只替换内容变化的页面，并保持当前视口。
+// 由 MainView 在 PDF.js 的 viewer.html 加载完成后注入。
+// 替换过页面后 PDFViewerApplication.pdfDocument 仍是旧文档，查找、打印和下载用的是它，
+// 所以这些操作之前先整篇重新打开最新的 PDF。
+(function () {
+  if (window.mymdPreview) return;
+
+  // 每页当前显示的 PDFPageProxy 所属的文档；未替换过的页属于 PDFViewerApplication.pdfDocument
+  var pageDocs = [];
+  // 为替换页面而加载的文档；不再有页面引用时销毁
+  var swapDocs = [];
+  var worker = null;
+  var queue = Promise.resolve();
+  // 替换过页面时最新的 PDF；整篇打开后为 null
+  var staleBytes = null;
+  var installed = false;
+
+  function toBytes(base64Data) {
+    var raw = atob(base64Data);
+    var bytes = new Uint8Array(raw.length);
+    for (var i = 0; i < raw.length; i++) bytes[i] = raw.charCodeAt(i);
+    return bytes;
+  }
+
+  function report(mode, pages, total, start) {
+    var elapsed = performance.now() - start;
+    if (window.mymdBridge) {
+      window.mymdBridge.previewUpdated(mode, pages, total, elapsed);
+    }
+  }
+
+  // 第一次渲染完成（可见页）时回调
+  function onNextRender(app, pageNumbers, callback) {
+    var waiting = pageNumbers ? new Set(pageNumbers) : null;
+    function listener(evt) {
+      if (waiting) {
+        waiting.delete(evt.pageNumber);
+        if (waiting.size > 0) return;
+      }
+      app.eventBus.off('pagerendered', listener);
+      callback();
+    }
+    app.eventBus.on('pagerendered', listener);
+  }
+
+  function releaseUnusedDocs() {
+    var inUse = new Set(pageDocs);
+    swapDocs = swapDocs.filter(function (doc) {
+      if (inUse.has(doc)) return true;
+      doc.destroy();
+      return false;
+    });
+  }
+
+  function fullOpen(app, bytes, start) {
+    // 页数变了：整篇重新打开，但通过 initialBookmark 恢复页码、缩放和滚动位置
+    var location = app.pdfViewer && app.pdfViewer._location;
+    if (app.pdfDocument && location && location.pdfOpenParams) {
+      app.initialBookmark = location.pdfOpenParams.substring(1);
+    }
+    swapDocs.forEach(function (doc) { doc.destroy(); });
+    swapDocs = [];
+    pageDocs = [];
+    staleBytes = null;
+    onNextRender(app, null, function () {
+      report('full', app.pagesCount, app.pagesCount, start);
+    });
+    return app.open({ data: bytes });
+  }
+
+  function swapPages(app, bytes, changed, start) {
+    var viewer = app.pdfViewer;
+    if (changed.length === 0) {
+      report('unchanged', 0, app.pagesCount, start);
+      return Promise.resolve();
+    }
+    worker = worker || new pdfjsLib.PDFWorker();
+    return pdfjsLib.getDocument({ data: bytes, worker: worker }).promise.then(function (doc) {
+      if (doc.numPages !== app.pagesCount) {
+        doc.destroy();
+        return fullOpen(app, bytes, start);
+      }
+      return Promise.all(changed.map(function (n) { return doc.getPage(n); })).then(function (pages) {
+        var visible = viewer._getVisiblePages().ids;
+        var waiting = [];
+        pages.forEach(function (page, i) {
+          var n = changed[i];
+          var view = viewer.getPageView(n - 1);
+          if (!view) return;
+          view.setPdfPage(page);
+          pageDocs[n - 1] = doc;
+          if (visible.has(n)) waiting.push(n);
+        });
+        swapDocs.push(doc);
+        releaseUnusedDocs();
+        staleBytes = bytes;
+
+        if (waiting.length > 0) {
+          onNextRender(app, waiting, function () {
+            report('pages', changed.length, app.pagesCount, start);
+          });
+        } else {
+          report('pages', changed.length, app.pagesCount, start);
+        }
+        viewer.update();
+      });
+    });
+  }
+
+  // 有页面被替换过时整篇重新打开，排在尚未完成的更新之后
+  function reloadIfStale(app) {
+    queue = queue.then(function () {
+      if (staleBytes) return fullOpen(app, staleBytes, performance.now());
+    }).catch(function (e) {
+      console.error('Preview reload failed: ' + e);
+    });
+    return queue;
+  }
+
+  function install(app) {
+    if (installed) return;
+    installed = true;
+    // 查找控制器按 pdfDocument 提取文本：先换成最新的文档，再重放这次查找
+    app.eventBus.on('find', function (state) {
+      if (!staleBytes) return;
+      reloadIfStale(app).then(function () {
+        app.eventBus.dispatch('find', state);
+      });
+    });
+    var triggerPrinting = app.triggerPrinting;
+    app.triggerPrinting = function () {
+      var self = this;
+      reloadIfStale(self).then(function () { triggerPrinting.call(self); });
+    };
+    var downloadOrSave = app.downloadOrSave;
+    app.downloadOrSave = function (options) {
+      var self = this;
+      return reloadIfStale(self).then(function () { return downloadOrSave.call(self, options); });
+    };
+  }
+
+  window.mymdPreview = {
+    /**
+     * @param base64Data 新的 PDF
+     * @param changed    内容变化的页码（从 1 开始）；null 表示需要整篇重新加载
+     */
+    update: function (base64Data, changed) {
+      var start = performance.now();
+      var bytes = toBytes(base64Data);
+      queue = queue.then(function () {
+        var app = window.PDFViewerApplication;
+        install(app);
+        if (!app.pdfDocument || !changed) return fullOpen(app, bytes, start);
+        return swapPages(app, bytes, changed, start);
+      }).catch(function (e) {
+        console.error('Preview update failed: ' + e);
+        return fullOpen(window.PDFViewerApplication, bytes, start);
+      });
+    }
+  };
+})();
@@ -0,0 +1,292 @@
+package com.guaguaaaa.mymd.server;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.highlight.TokenHighlighter;
+import com.guaguaaaa.mymd.core.incremental.IncrementalDocument;
+import com.guaguaaaa.mymd.core.text.TextSnapshot;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Open documents and the results computed for their current revision.
+ * <p>
+ * Each revision computes its compilation and highlighting at most once, however many clients ask
+ * for it concurrently. Updating a document with unchanged text keeps the cached results.
+ * Requests that send text without a URI share a small LRU cache keyed by the text itself.
+ * <p>
+ * An open document is kept in an {@link IncrementalDocument}. Edits, and new full texts reduced
+ * to the range that differs, only re-analyse the blocks around the change, and the diagnostics
+ * and highlight spans of the latest revision come from that analysis. The Pandoc JSON of
+ * {@code compile} still comes from compiling the whole text.
+ */
+public class DocumentCache {
+
+    private static final int ANONYMOUS_CAPACITY = 64;
+
+    /**
+     * Replaces {@code [start, end)} (UTF-16 offsets into the text after the preceding edits) with {@code text}.
+     */
+    public record Edit(int start, int end, String text) {
+    }
+
+    /**
+     * One immutable revision of a document with lazily computed results.
+     */
+    public static final class Document {
+        public final String uri;
+        public final int version;
+        private final Results results;
+
+        Document(String uri, int version, Results results) {
+            this.uri = uri;
+            this.version = version;
+            this.results = results;
+        }
+
+        public String getText() {
+            return results.getText();
+        }
+
+        public CompilationResult getCompilation() {
+            return results.getCompilation();
+        }
+
+        public List<Diagnostic> getDiagnostics() {
+            return results.getDiagnostics();
+        }
+
+        public List<HighlightSpan> getSpans() {
+            return results.getSpans();
+        }
+
+        Document withVersion(int newVersion) {
+            return new Document(uri, newVersion, results);
+        }
+    }
+
+    /**
+     * The results of one text, shared by the revisions that have it.
+     */
+    private static final class Results {
+        private final CharSequence source;
+        private final CompilerOptions options;
+        // 该文本由哪个打开的文档在哪次修订时分析；匿名文本为 null
+        private final OpenDocument open;
+        private final int revision;
+
+        // ReentrantLock 而非 synchronized：避免虚拟线程在计算期间被钉住
+        private final ReentrantLock lock = new ReentrantLock();
+        private String text;
+        private CompilationResult compilation;
+        private List<Diagnostic> diagnostics;
+        private List<HighlightSpan> spans;
+
+        Results(CharSequence source, CompilerOptions options, OpenDocument open, int revision) {
+            this.source = source;
+            this.options = options;
+            this.open = open;
+            this.revision = revision;
+        }
+
+        String getText() {
+            lock.lock();
+            try {
+                if (text == null) text = source.toString();
+                return text;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        CompilationResult getCompilation() {
+            lock.lock();
+            try {
+                if (compilation == null) {
+                    compilation = MyMDCompiler.compile(getText(), options);
+                }
+                return compilation;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<Diagnostic> getDiagnostics() {
+            lock.lock();
+            try {
+                if (diagnostics == null) {
+                    diagnostics = fromAnalysis(IncrementalDocument::getDiagnostics);
+                    if (diagnostics == null) diagnostics = getCompilation().diagnostics;
+                }
+                return diagnostics;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<HighlightSpan> getSpans() {
+            lock.lock();
+            try {
+                if (spans == null) {
+                    spans = fromAnalysis(IncrementalDocument::getSpans);
+                    if (spans == null) spans = TokenHighlighter.computeSpans(getText());
+                }
+                return spans;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Queries the incremental analysis if it is still at this revision, or returns null. The
+         * analysis counts UTF-16 units and the compiler code points, so text with supplementary
+         * characters is always computed from scratch.
+         */
+        private <T> T fromAnalysis(Function<IncrementalDocument, T> query) {
+            if (open == null || hasSurrogates(source)) return null;
+            open.lock.lock();
+            try {
+                return open.revision == revision ? query.apply(open.analysis) : null;
+            } finally {
+                open.lock.unlock();
+            }
+        }
+
+        private static boolean hasSurrogates(CharSequence text) {
+            for (int i = 0, n = text.length(); i < n; i++) {
+                if (Character.isSurrogate(text.charAt(i))) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The analysis of an open document and its latest revision; guarded by {@code lock}.
+     */
+    private static final class OpenDocument {
+        final ReentrantLock lock = new ReentrantLock();
+        final IncrementalDocument analysis;
+        int revision;
+        Document current;
+
+        OpenDocument(String text) {
+            this.analysis = new IncrementalDocument(text);
+        }
+    }
+
+    private final CompilerOptions options;
+    private final Map<String, OpenDocument> documents = new ConcurrentHashMap<>();
+    private final Map<String, Document> anonymous = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+            return size() > ANONYMOUS_CAPACITY;
+        }
+    };
+
+    public DocumentCache(CompilerOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Opens or replaces a document.
+     */
+    public Document update(String uri, int version, String text) {
+        OpenDocument open = documents.computeIfAbsent(uri, key -> new OpenDocument(text));
+        open.lock.lock();
+        try {
+            if (open.current == null) return newRevision(uri, version, open);
+            if (!replaceChangedRange(open.analysis, text)) {
+                open.current = open.current.withVersion(version);
+                return open.current;
+            }
+            return newRevision(uri, version, open);
+        } finally {
+            open.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies {@code edits} in order to an open document.
+     * @throws IllegalArgumentException if the document is not open or an edit is out of range
+     */
+    public Document edit(String uri, int version, List<Edit> edits) {
+        OpenDocument open = documents.get(uri);
+        if (open == null) throw new IllegalArgumentException("Document is not open: " + uri);
+        open.lock.lock();
+        try {
+            try {
+                for (Edit edit : edits) {
+                    open.analysis.applyEdit(edit.start(), edit.end(), edit.text());
+                }
+            } finally {
+                // 中途出错时，之前的编辑也已生效
+                newRevision(uri, version, open);
+            }
+            return open.current;
+        } finally {
+            open.lock.unlock();
+        }
+    }
+
+    private Document newRevision(String uri, int version, OpenDocument open) {
+        open.revision++;
+        open.current = new Document(uri, version,
+                new Results(open.analysis.getSnapshot(), options, open, open.revision));
+        return open.current;
+    }
+
+    /**
+     * Applies a new full text as an edit of the range where it differs from the current one.
+     * @return false if the text is unchanged
+     */
+    private static boolean replaceChangedRange(IncrementalDocument analysis, String text) {
+        TextSnapshot old = analysis.getSnapshot();
+        int max = Math.min(old.length(), text.length());
+        int prefix = 0;
+        while (prefix < max && old.charAt(prefix) == text.charAt(prefix)) prefix++;
+        if (prefix == old.length() && prefix == text.length()) return false;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+            suffix++;
+        }
+        analysis.applyEdit(prefix, old.length() - suffix, text.substring(prefix, text.length() - suffix));
+        return true;
+    }
+
+    public Document get(String uri) {
+        OpenDocument open = documents.get(uri);
+        if (open == null) return null;
+        open.lock.lock();
+        try {
+            return open.current;
+        } finally {
+            open.lock.unlock();
+        }
+    }
+
+    public void remove(String uri) {
+        documents.remove(uri);
+    }
+
+    /**
+     * A document for text sent inline with a request.
+     */
+    public Document forText(String text) {
+        synchronized (anonymous) {
+            return anonymous.computeIfAbsent(text, t -> new Document(null, 0, new Results(t, options, null, 0)));
+        }
+    }
+
+    public int size() {
+        return documents.size();
+    }
+}
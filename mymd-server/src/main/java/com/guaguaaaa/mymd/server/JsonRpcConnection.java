@@ -0,0 +1,242 @@
+package com.guaguaaaa.mymd.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One client connection speaking JSON-RPC 2.0 with language-server style framing
+ * ({@code Content-Length: n\r\n\r\n} followed by n bytes of UTF-8 JSON).
+ * <p>
+ * Messages about one document ({@code params.textDocument.uri} or {@code params.uri}) are handled
+ * one after another in arrival order, on virtual threads: a request sees exactly the edits sent
+ * before it, and the responses for a document are sent in request order. Messages about different
+ * documents, and requests without a document, run concurrently and may complete out of order;
+ * responses carry the request id. Notifications without a document are applied on the reading
+ * thread.
+ */
+public class JsonRpcConnection implements Runnable {
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final JsonRpcHandler handler;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // 每个文档最后排队的消息；只由读取线程添加，完成后自行移除
+    private final Map<String, CompletableFuture<Void>> queues = new ConcurrentHashMap<>();
+
+    public JsonRpcConnection(InputStream in, OutputStream out, JsonRpcHandler handler) {
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+        this.handler = handler;
+    }
+
+    /**
+     * Serves the connection until the client sends {@code exit} or closes the stream, then waits
+     * for the requests still in flight.
+     */
+    @Override
+    public void run() {
+        try (ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                serve(requests);
+            } finally {
+                // 排队的消息要在执行器关闭前提交出去
+                CompletableFuture.allOf(queues.values().toArray(new CompletableFuture[0])).join();
+            }
+        } catch (IOException e) {
+            System.err.println("Connection closed: " + e.getMessage());
+        }
+    }
+
+    private void serve(ExecutorService requests) throws IOException {
+        while (true) {
+            String body = readMessage();
+            if (body == null) break;
+
+            JsonObject message;
+            try {
+                message = JsonParser.parseString(body).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                sendError(null, new JsonRpcException(JsonRpcException.PARSE_ERROR, "Parse error"));
+                continue;
+            }
+
+            JsonElement methodElement = message.get("method");
+            if (methodElement == null || !methodElement.isJsonPrimitive() || !methodElement.getAsJsonPrimitive().isString()) {
+                sendError(message.get("id"), new JsonRpcException(JsonRpcException.INVALID_REQUEST, "Missing method"));
+                continue;
+            }
+            String method = methodElement.getAsString();
+            if (method.equals("exit")) break;
+
+            Runnable task = message.has("id") ? () -> respond(message) : () -> notify(method, message);
+            String document = documentOf(message);
+            if (document != null) {
+                enqueue(document, task, requests);
+            } else if (message.has("id")) {
+                requests.submit(task);
+            } else {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Runs {@code task} after the messages queued before it for the same document.
+     */
+    private void enqueue(String document, Runnable task, ExecutorService executor) {
+        CompletableFuture<Void> previous = queues.get(document);
+        CompletableFuture<Void> next = previous != null
+                ? previous.thenRunAsync(task, executor)
+                : CompletableFuture.runAsync(task, executor);
+        queues.put(document, next);
+        next.whenComplete((ignored, e) -> queues.remove(document, next));
+    }
+
+    /** The URI of the document a message is about, or null. */
+    private static String documentOf(JsonObject message) {
+        JsonObject params = params(message);
+        JsonElement textDocument = params.get("textDocument");
+        JsonElement uri = textDocument != null && textDocument.isJsonObject()
+                ? textDocument.getAsJsonObject().get("uri")
+                : params.get("uri");
+        return uri != null && uri.isJsonPrimitive() ? uri.getAsString() : null;
+    }
+
+    private void notify(String method, JsonObject message) {
+        try {
+            handler.handle(method, params(message));
+        } catch (RuntimeException e) {
+            // 通知没有响应，只记录错误
+            System.err.println("Notification " + method + " failed: " + e.getMessage());
+        }
+    }
+
+    private void respond(JsonObject message) {
+        JsonElement id = message.get("id");
+        try {
+            JsonElement result = handler.handle(message.get("method").getAsString(), params(message));
+            JsonObject response = new JsonObject();
+            response.addProperty("jsonrpc", "2.0");
+            response.add("id", id);
+            response.add("result", result);
+            send(response);
+        } catch (JsonRpcException e) {
+            sendError(id, e);
+        } catch (RuntimeException e) {
+            String msg = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            sendError(id, new JsonRpcException(JsonRpcException.INTERNAL_ERROR, msg));
+        }
+    }
+
+    private static JsonObject params(JsonObject message) {
+        JsonElement params = message.get("params");
+        return params != null && params.isJsonObject() ? params.getAsJsonObject() : new JsonObject();
+    }
+
+    /**
+     * Sends a server-to-client notification, e.g. {@code textDocument/publishDiagnostics}.
+     */
+    public void sendNotification(String method, JsonElement params) {
+        JsonObject notification = new JsonObject();
+        notification.addProperty("jsonrpc", "2.0");
+        notification.addProperty("method", method);
+        notification.add("params", params);
+        send(notification);
+    }
+
+    private void sendError(JsonElement id, JsonRpcException e) {
+        JsonObject error = new JsonObject();
+        error.addProperty("code", e.code);
+        error.addProperty("message", e.getMessage());
+
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("id", id);
+        response.add("error", error);
+        send(response);
+    }
+
+    private void send(JsonObject message) {
+        byte[] body = message.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] header = ("Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        writeLock.lock();
+        try {
+            out.write(header);
+            out.write(body);
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to send message: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads one framed message. A malformed {@code Content-Length} is answered with a parse error,
+     * and reading resumes at the next {@code Content-Length} header.
+     * @return the JSON body, or null at end of stream.
+     */
+    private String readMessage() throws IOException {
+        int contentLength = -1;
+        boolean resync = false;
+        while (true) {
+            String line = readHeaderLine();
+            if (line == null) return null;
+            if (resync) {
+                // 长度无效时不知道消息体在哪里结束：跳过输入直到下一个 Content-Length 头
+                int header = line.toLowerCase(Locale.ROOT).indexOf("content-length");
+                if (header < 0) continue;
+                line = line.substring(header);
+                resync = false;
+            }
+            if (line.isEmpty()) {
+                if (contentLength >= 0) break;
+                continue; // 忽略消息之间多余的空行
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                String value = line.substring(colon + 1).trim();
+                try {
+                    contentLength = Integer.parseInt(value);
+                    if (contentLength < 0) throw new NumberFormatException();
+                } catch (NumberFormatException e) {
+                    sendError(null, new JsonRpcException(JsonRpcException.PARSE_ERROR, "Invalid Content-Length: " + value));
+                    contentLength = -1;
+                    resync = true;
+                }
+            }
+        }
+
+        byte[] body = in.readNBytes(contentLength);
+        if (body.length < contentLength) return null;
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private String readHeaderLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return line.toString(StandardCharsets.US_ASCII).trim();
+            }
+            line.write(b);
+        }
+        return null;
+    }
+}
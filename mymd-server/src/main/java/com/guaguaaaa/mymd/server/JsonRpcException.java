@@ -0,0 +1,20 @@
+package com.guaguaaaa.mymd.server;
+
+/**
+ * An error returned to the client in the {@code error} member of a JSON-RPC response.
+ */
+public class JsonRpcException extends RuntimeException {
+
+    public static final int PARSE_ERROR = -32700;
+    public static final int INVALID_REQUEST = -32600;
+    public static final int METHOD_NOT_FOUND = -32601;
+    public static final int INVALID_PARAMS = -32602;
+    public static final int INTERNAL_ERROR = -32603;
+
+    public final int code;
+
+    public JsonRpcException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+}
@@ -0,0 +1,16 @@
+package com.guaguaaaa.mymd.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * The methods behind a {@link JsonRpcConnection}: the compile daemon API or the language server.
+ */
+public interface JsonRpcHandler {
+
+    /**
+     * Handles one request or notification. The result of a notification is ignored.
+     * @throws JsonRpcException for unknown methods and bad parameters
+     */
+    JsonElement handle(String method, JsonObject params);
+}
@@ -0,0 +1,69 @@
+package com.guaguaaaa.mymd.server;
+
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request latency per method. Keeps the most recent {@link #WINDOW} samples of each method and
+ * reports percentiles over them.
+ */
+public class LatencyRecorder {
+
+    public static final int WINDOW = 1024;
+
+    private static final class Samples {
+        final long[] nanos = new long[WINDOW];
+        long count = 0;
+
+        synchronized void add(long value) {
+            nanos[(int) (count % WINDOW)] = value;
+            count++;
+        }
+
+        /** The total count and the samples in the window, taken together. */
+        synchronized Snapshot snapshot() {
+            return new Snapshot(count, Arrays.copyOf(nanos, (int) Math.min(count, WINDOW)));
+        }
+    }
+
+    private record Snapshot(long count, long[] nanos) {
+    }
+
+    private final Map<String, Samples> samples = new ConcurrentHashMap<>();
+
+    public void record(String method, long nanos) {
+        samples.computeIfAbsent(method, m -> new Samples()).add(nanos);
+    }
+
+    /**
+     * {@code {"compile": {"count": 12, "p50Ms": 1.2, "p90Ms": ..., "p99Ms": ..., "maxMs": ...}, ...}}
+     */
+    public JsonObject toJson() {
+        JsonObject result = new JsonObject();
+        for (Map.Entry<String, Samples> entry : new TreeMap<>(samples).entrySet()) {
+            Snapshot snapshot = entry.getValue().snapshot();
+            long[] sorted = snapshot.nanos();
+            Arrays.sort(sorted);
+
+            JsonObject stats = new JsonObject();
+            stats.addProperty("count", snapshot.count());
+            stats.addProperty("p50Ms", percentile(sorted, 0.50));
+            stats.addProperty("p90Ms", percentile(sorted, 0.90));
+            stats.addProperty("p99Ms", percentile(sorted, 0.99));
+            stats.addProperty("maxMs", sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+            result.add(entry.getKey(), stats);
+        }
+        return result;
+    }
+
+    /** Nearest-rank percentile in milliseconds. */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, rank)] / 1e6;
+    }
+}
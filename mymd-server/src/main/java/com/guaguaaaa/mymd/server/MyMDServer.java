@@ -0,0 +1,87 @@
+package com.guaguaaaa.mymd.server;
+
+import com.guaguaaaa.mymd.server.lsp.MyMDLanguageServer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Long-running compile daemon.
+ * <p>
+ * Usage: {@code MyMDServer [--stdio | --port <n> | --lsp] [--no-warm-up]}. With {@code --stdio} (the default)
+ * one client talks to the daemon over stdin/stdout. With {@code --port} the daemon listens on the
+ * loopback interface only and serves every client on its own virtual thread. With {@code --lsp} the
+ * process is a Language Server on stdin/stdout for VS Code, Neovim and other LSP clients.
+ * Logs go to stderr.
+ */
+public class MyMDServer {
+
+    private static final int WARM_UP_ITERATIONS = 20;
+
+    public static void main(String[] args) throws IOException {
+        int port = -1;
+        boolean lsp = false;
+        boolean warmUp = true;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--stdio" -> port = -1;
+                case "--lsp" -> lsp = true;
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--no-warm-up" -> warmUp = false;
+                default -> {
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        // stdout 属于协议通道，任何误打印都会破坏消息帧
+        PrintStream protocolOut = System.out;
+        System.setOut(System.err);
+
+        if (lsp) {
+            MyMDLanguageServer server = new MyMDLanguageServer();
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    System.err.println("Request latency: " + server.getLatency().toJson())));
+            JsonRpcConnection connection = new JsonRpcConnection(System.in, protocolOut, server);
+            server.connect(connection);
+            connection.run();
+            return;
+        }
+
+        MyMDService service = new MyMDService();
+        if (warmUp) {
+            long start = System.nanoTime();
+            service.warmUp(WARM_UP_ITERATIONS);
+            System.err.printf("MyMD server warmed up in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                System.err.println("Request latency: " + service.getLatency().toJson())));
+
+        if (port < 0) {
+            new JsonRpcConnection(System.in, protocolOut, service).run();
+        } else {
+            serveSocket(port, service);
+        }
+    }
+
+    private static void serveSocket(int port, MyMDService service) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("MyMD server listening on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                Thread.ofVirtual().name("mymd-client-" + socket.getPort()).start(() -> {
+                    try (socket) {
+                        new JsonRpcConnection(socket.getInputStream(), socket.getOutputStream(), service).run();
+                    } catch (IOException e) {
+                        System.err.println("Client error: " + e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+}
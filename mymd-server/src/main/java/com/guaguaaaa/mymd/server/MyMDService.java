@@ -0,0 +1,197 @@
+package com.guaguaaaa.mymd.server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilationResult;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.highlight.TokenHighlighter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The methods served by the daemon. Shared by all connections, so one warm JVM (ANTLR DFA caches,
+ * JIT-compiled lexer and parser) and one document cache serve every client.
+ *
+ * <pre>
+ * document/open, document/change  {uri, version?, text}   -> {uri, version}
+ * document/change                 {uri, version?, edits: [{start, end, text}]} -> {uri, version}
+ * document/close                  {uri}                   -> null
+ * compile                         {uri} | {text}          -> {pandocJson, diagnostics}
+ * diagnostics                     {uri} | {text}          -> {diagnostics}
+ * highlight                       {uri} | {text}          -> {spans: [{start, end, styles}]}
+ * stats                           {}                      -> {documents, latency: {method: {count, p50Ms, ...}}}
+ * shutdown                        {}                      -> null
+ * </pre>
+ */
+public class MyMDService implements JsonRpcHandler {
+
+    private static final Gson gson = new GsonBuilder().create();
+
+    // 覆盖大部分语法，用于启动时预热 ANTLR 的 DFA 缓存和 JIT
+    private static final String WARM_UP_DOCUMENT = "---\ntitle: Warm up\n---\n" +
+            "# Header [sec:a]\n\nText with *italic*, **bold**, `code`, $x^2$ and [@key].\n\n" +
+            "$$\nE = mc^2\n$$ [eq:e]\n\n- item\n    - nested\n\n1. one\n2. two\n\n" +
+            "> quote\n\n```java\nint x;\n```\n\nSee [sec:a] and ![alt](img.png).";
+
+    private final CompilerOptions options;
+    private final DocumentCache documents;
+    private final LatencyRecorder latency = new LatencyRecorder();
+
+    public MyMDService() {
+        this(new CompilerOptions().setDirectAst(true).setFastPath(true).setLexerGuards(true).setReferenceCheck(true));
+    }
+
+    public MyMDService(CompilerOptions options) {
+        this.options = options;
+        this.documents = new DocumentCache(options);
+    }
+
+    /**
+     * Compiles and highlights a representative document a few times so the first real request
+     * does not pay for DFA construction.
+     */
+    public void warmUp(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            MyMDCompiler.compile(WARM_UP_DOCUMENT, options);
+            TokenHighlighter.computeSpans(WARM_UP_DOCUMENT);
+        }
+    }
+
+    public LatencyRecorder getLatency() {
+        return latency;
+    }
+
+    /**
+     * Handles one request and records its latency.
+     * @throws JsonRpcException for unknown methods and bad parameters
+     */
+    @Override
+    public JsonElement handle(String method, JsonObject params) {
+        long start = System.nanoTime();
+        try {
+            return dispatch(method, params != null ? params : new JsonObject());
+        } finally {
+            latency.record(method, System.nanoTime() - start);
+        }
+    }
+
+    private JsonElement dispatch(String method, JsonObject params) {
+        switch (method) {
+            case "document/open":
+            case "document/change": {
+                String uri = requireString(params, "uri");
+                int version = optionalInt(params, "version", 0);
+                DocumentCache.Document doc = method.equals("document/change") && params.has("edits")
+                        ? edit(uri, version, params)
+                        : documents.update(uri, version, requireString(params, "text"));
+                JsonObject result = new JsonObject();
+                result.addProperty("uri", doc.uri);
+                result.addProperty("version", doc.version);
+                return result;
+            }
+
+            case "document/close":
+                documents.remove(requireString(params, "uri"));
+                return JsonNull.INSTANCE;
+
+            case "compile": {
+                CompilationResult compilation = resolve(params).getCompilation();
+                JsonObject result = new JsonObject();
+                result.addProperty("pandocJson", compilation.pandocJson);
+                result.add("diagnostics", gson.toJsonTree(compilation.diagnostics));
+                return result;
+            }
+
+            case "diagnostics": {
+                JsonObject result = new JsonObject();
+                result.add("diagnostics", gson.toJsonTree(resolve(params).getDiagnostics()));
+                return result;
+            }
+
+            case "highlight": {
+                JsonArray spans = new JsonArray();
+                for (HighlightSpan span : resolve(params).getSpans()) {
+                    JsonObject item = new JsonObject();
+                    item.addProperty("start", span.start);
+                    item.addProperty("end", span.end);
+                    item.add("styles", gson.toJsonTree(span.styles));
+                    spans.add(item);
+                }
+                JsonObject result = new JsonObject();
+                result.add("spans", spans);
+                return result;
+            }
+
+            case "stats": {
+                JsonObject result = new JsonObject();
+                result.addProperty("documents", documents.size());
+                result.add("latency", latency.toJson());
+                return result;
+            }
+
+            case "shutdown":
+                return JsonNull.INSTANCE;
+
+            default:
+                throw new JsonRpcException(JsonRpcException.METHOD_NOT_FOUND, "Method not found: " + method);
+        }
+    }
+
+    private DocumentCache.Document edit(String uri, int version, JsonObject params) {
+        List<DocumentCache.Edit> edits = new ArrayList<>();
+        try {
+            for (JsonElement item : params.getAsJsonArray("edits")) {
+                JsonObject edit = item.getAsJsonObject();
+                edits.add(new DocumentCache.Edit(edit.get("start").getAsInt(), edit.get("end").getAsInt(),
+                        requireString(edit, "text")));
+            }
+            return documents.edit(uri, version, edits);
+        } catch (IllegalStateException | NullPointerException | UnsupportedOperationException | ClassCastException
+                 | IllegalArgumentException e) {
+            throw new JsonRpcException(JsonRpcException.INVALID_PARAMS, "Invalid edits: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An open document by {@code uri}, or the inline {@code text}.
+     */
+    private DocumentCache.Document resolve(JsonObject params) {
+        if (params.has("uri")) {
+            String uri = params.get("uri").getAsString();
+            DocumentCache.Document doc = documents.get(uri);
+            if (doc == null) {
+                throw new JsonRpcException(JsonRpcException.INVALID_PARAMS, "Document is not open: " + uri);
+            }
+            return doc;
+        }
+        return documents.forText(requireString(params, "text"));
+    }
+
+    private static int optionalInt(JsonObject params, String name, int defaultValue) {
+        JsonElement value = params.get(name);
+        if (value == null || value.isJsonNull()) return defaultValue;
+        if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+            throw new JsonRpcException(JsonRpcException.INVALID_PARAMS, "Invalid parameter: " + name);
+        }
+        try {
+            return value.getAsJsonPrimitive().getAsBigDecimal().intValueExact();
+        } catch (ArithmeticException e) {
+            throw new JsonRpcException(JsonRpcException.INVALID_PARAMS, "Invalid parameter: " + name);
+        }
+    }
+
+    private static String requireString(JsonObject params, String name) {
+        JsonElement value = params.get(name);
+        if (value == null || !value.isJsonPrimitive()) {
+            throw new JsonRpcException(JsonRpcException.INVALID_PARAMS, "Missing parameter: " + name);
+        }
+        return value.getAsString();
+    }
+}
@@ -0,0 +1,319 @@
+package com.guaguaaaa.mymd.server.lsp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.api.Diagnostic;
+import com.guaguaaaa.mymd.core.incremental.IncrementalDocument;
+import com.guaguaaaa.mymd.core.incremental.LineIndex;
+import com.guaguaaaa.mymd.core.incremental.OutlineEntry;
+import com.guaguaaaa.mymd.core.xref.LabelSite;
+import com.guaguaaaa.mymd.server.JsonRpcConnection;
+import com.guaguaaaa.mymd.server.JsonRpcException;
+import com.guaguaaaa.mymd.server.JsonRpcHandler;
+import com.guaguaaaa.mymd.server.LatencyRecorder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Language Server Protocol front end for VS Code, Neovim and other LSP clients.
+ * <p>
+ * Documents use incremental text sync: every {@code didChange} range is applied to an
+ * {@link IncrementalDocument}, which re-lexes and re-parses only the blocks around the edit, and
+ * the document's diagnostics are published right after. Semantic tokens use the same
+ * classification as the JavaFX editor; document symbols are the document outline. Go-to-definition
+ * and find-references resolve labels through the document's label index.
+ * <p>
+ * Positions are UTF-16 offsets, the LSP default, which is also how the core indexes text.
+ */
+public class MyMDLanguageServer implements JsonRpcHandler {
+
+    private static final int SYMBOL_KIND_STRING = 15;
+    private static final int SYMBOL_KIND_KEY = 20;
+    private static final int SEVERITY_ERROR = 1;
+    private static final int SEVERITY_WARNING = 2;
+
+    private static final class OpenDocument {
+        final ReentrantLock lock = new ReentrantLock();
+        final IncrementalDocument document;
+        int version;
+
+        OpenDocument(String text, int version) {
+            this.document = new IncrementalDocument(text);
+            this.version = version;
+        }
+    }
+
+    private final Map<String, OpenDocument> documents = new ConcurrentHashMap<>();
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private JsonRpcConnection client;
+
+    /**
+     * The connection diagnostics are published on. Must be set before the first {@code didOpen}.
+     */
+    public void connect(JsonRpcConnection client) {
+        this.client = client;
+    }
+
+    public LatencyRecorder getLatency() {
+        return latency;
+    }
+
+    @Override
+    public JsonElement handle(String method, JsonObject params) {
+        long start = System.nanoTime();
+        try {
+            return dispatch(method, params != null ? params : new JsonObject());
+        } finally {
+            latency.record(method, System.nanoTime() - start);
+        }
+    }
+
+    private JsonElement dispatch(String method, JsonObject params) {
+        switch (method) {
+            case "initialize":
+                return initializeResult();
+
+            case "initialized":
+            case "shutdown":
+            case "textDocument/didSave":
+                return JsonNull.INSTANCE;
+
+            case "textDocument/didOpen": {
+                JsonObject item = params.getAsJsonObject("textDocument");
+                String uri = item.get("uri").getAsString();
+                OpenDocument doc = new OpenDocument(item.get("text").getAsString(), item.get("version").getAsInt());
+                documents.put(uri, doc);
+                publishDiagnostics(uri, doc);
+                return JsonNull.INSTANCE;
+            }
+
+            case "textDocument/didChange": {
+                String uri = uri(params);
+                OpenDocument doc = document(uri);
+                doc.lock.lock();
+                try {
+                    for (JsonElement change : params.getAsJsonArray("contentChanges")) {
+                        applyChange(doc.document, change.getAsJsonObject());
+                    }
+                    doc.version = params.getAsJsonObject("textDocument").get("version").getAsInt();
+                } finally {
+                    doc.lock.unlock();
+                }
+                publishDiagnostics(uri, doc);
+                return JsonNull.INSTANCE;
+            }
+
+            case "textDocument/didClose": {
+                String uri = uri(params);
+                documents.remove(uri);
+                // 关闭后清空客户端里残留的诊断
+                JsonObject clear = new JsonObject();
+                clear.addProperty("uri", uri);
+                clear.add("diagnostics", new JsonArray());
+                if (client != null) client.sendNotification("textDocument/publishDiagnostics", clear);
+                return JsonNull.INSTANCE;
+            }
+
+            case "textDocument/semanticTokens/full":
+            case "textDocument/semanticTokens/range": {
+                OpenDocument doc = document(uri(params));
+                doc.lock.lock();
+                try {
+                    IncrementalDocument document = doc.document;
+                    LineIndex lines = document.getLineIndex();
+                    int length = document.length();
+                    int from = 0;
+                    int to = length;
+                    if (params.has("range")) {
+                        JsonObject range = params.getAsJsonObject("range");
+                        from = Math.min(length, offset(lines, range.getAsJsonObject("start")));
+                        to = Math.min(length, offset(lines, range.getAsJsonObject("end")));
+                    }
+                    JsonObject result = new JsonObject();
+                    result.add("data", SemanticTokenEncoder.encode(document.getSpans(from, to), lines, document.getSnapshot()));
+                    return result;
+                } finally {
+                    doc.lock.unlock();
+                }
+            }
+
+            case "textDocument/documentSymbol": {
+                OpenDocument doc = document(uri(params));
+                doc.lock.lock();
+                try {
+                    return documentSymbols(doc.document);
+                } finally {
+                    doc.lock.unlock();
+                }
+            }
+
+            case "textDocument/definition":
+            case "textDocument/references": {
+                String uri = uri(params);
+                OpenDocument doc = document(uri);
+                doc.lock.lock();
+                try {
+                    IncrementalDocument document = doc.document;
+                    int offset = offset(document.getLineIndex(), params.getAsJsonObject("position"));
+                    LabelSite site = document.findLabelAt(offset);
+                    if (site == null) return JsonNull.INSTANCE;
+                    if (method.equals("textDocument/definition")) {
+                        LabelSite definition = document.findDefinition(site.id);
+                        return definition != null ? location(uri, document.getLineIndex(), definition) : JsonNull.INSTANCE;
+                    }
+                    JsonArray locations = new JsonArray();
+                    JsonObject context = params.getAsJsonObject("context");
+                    if (context != null && context.has("includeDeclaration") && context.get("includeDeclaration").getAsBoolean()) {
+                        LabelSite definition = document.findDefinition(site.id);
+                        if (definition != null) locations.add(location(uri, document.getLineIndex(), definition));
+                    }
+                    for (LabelSite use : document.findUses(site.id)) {
+                        locations.add(location(uri, document.getLineIndex(), use));
+                    }
+                    return locations;
+                } finally {
+                    doc.lock.unlock();
+                }
+            }
+
+            default:
+                if (method.startsWith("$/")) return JsonNull.INSTANCE; // 可选的协议通知，如 $/cancelRequest
+                throw new JsonRpcException(JsonRpcException.METHOD_NOT_FOUND, "Method not found: " + method);
+        }
+    }
+
+    private static JsonObject initializeResult() {
+        JsonObject sync = new JsonObject();
+        sync.addProperty("openClose", true);
+        sync.addProperty("change", 2); // Incremental
+
+        JsonObject semanticTokens = new JsonObject();
+        semanticTokens.add("legend", SemanticTokenEncoder.legend());
+        semanticTokens.addProperty("full", true);
+        semanticTokens.addProperty("range", true);
+
+        JsonObject capabilities = new JsonObject();
+        capabilities.add("textDocumentSync", sync);
+        capabilities.add("semanticTokensProvider", semanticTokens);
+        capabilities.addProperty("documentSymbolProvider", true);
+        capabilities.addProperty("definitionProvider", true);
+        capabilities.addProperty("referencesProvider", true);
+
+        JsonObject serverInfo = new JsonObject();
+        serverInfo.addProperty("name", "mymd-server");
+
+        JsonObject result = new JsonObject();
+        result.add("capabilities", capabilities);
+        result.add("serverInfo", serverInfo);
+        return result;
+    }
+
+    private static void applyChange(IncrementalDocument document, JsonObject change) {
+        String text = change.get("text").getAsString();
+        if (!change.has("range")) {
+            document.applyEdit(0, document.length(), text);
+            return;
+        }
+        JsonObject range = change.getAsJsonObject("range");
+        int length = document.length();
+        int start = Math.min(length, offset(document.getLineIndex(), range.getAsJsonObject("start")));
+        int end = Math.min(length, offset(document.getLineIndex(), range.getAsJsonObject("end")));
+        document.applyEdit(start, Math.max(start, end), text);
+    }
+
+    private void publishDiagnostics(String uri, OpenDocument doc) {
+        if (client == null) return;
+        JsonObject params = new JsonObject();
+        doc.lock.lock();
+        try {
+            IncrementalDocument document = doc.document;
+            LineIndex lines = document.getLineIndex();
+            int length = document.length();
+            JsonArray diagnostics = new JsonArray();
+            for (Diagnostic d : document.getDiagnostics()) {
+                JsonObject item = new JsonObject();
+                item.add("range", range(lines, Math.min(d.startIndex, length), Math.min(Math.max(d.endIndex, d.startIndex), length)));
+                item.addProperty("severity", d.isError() ? SEVERITY_ERROR : SEVERITY_WARNING);
+                item.addProperty("source", "mymd");
+                item.addProperty("message", d.message);
+                diagnostics.add(item);
+            }
+            params.addProperty("uri", uri);
+            params.addProperty("version", doc.version);
+            params.add("diagnostics", diagnostics);
+        } finally {
+            doc.lock.unlock();
+        }
+        client.sendNotification("textDocument/publishDiagnostics", params);
+    }
+
+    /**
+     * The document outline: headers nested by level, with the equation and figure labels of each section.
+     */
+    private static JsonArray documentSymbols(IncrementalDocument document) {
+        return symbols(document.getOutline(), document.getLineIndex());
+    }
+
+    private static JsonArray symbols(List<OutlineEntry> entries, LineIndex lines) {
+        JsonArray result = new JsonArray();
+        for (OutlineEntry entry : entries) {
+            JsonObject symbol = new JsonObject();
+            boolean header = entry.kind == OutlineEntry.Kind.HEADER;
+            symbol.addProperty("name", entry.title.isEmpty() ? "(untitled)" : entry.title);
+            if (header && entry.labelId != null) symbol.addProperty("detail", entry.labelId);
+            symbol.addProperty("kind", header ? SYMBOL_KIND_STRING : SYMBOL_KIND_KEY);
+            symbol.add("range", range(lines, entry.start, entry.end));
+            symbol.add("selectionRange", range(lines, entry.start, entry.end));
+            symbol.add("children", symbols(entry.getChildren(), lines));
+            result.add(symbol);
+        }
+        return result;
+    }
+
+    private static JsonObject location(String uri, LineIndex lines, LabelSite site) {
+        JsonObject location = new JsonObject();
+        location.addProperty("uri", uri);
+        location.add("range", range(lines, site.start, site.end));
+        return location;
+    }
+
+    private static JsonObject range(LineIndex lines, int start, int end) {
+        JsonObject range = new JsonObject();
+        range.add("start", position(lines, start));
+        range.add("end", position(lines, end));
+        return range;
+    }
+
+    private static JsonObject position(LineIndex lines, int offset) {
+        int line = lines.lineOf(offset);
+        JsonObject position = new JsonObject();
+        position.addProperty("line", line);
+        position.addProperty("character", offset - lines.getLineStart(line));
+        return position;
+    }
+
+    private static int offset(LineIndex lines, JsonObject position) {
+        return lines.offsetOf(position.get("line").getAsInt(), position.get("character").getAsInt());
+    }
+
+    private static String uri(JsonObject params) {
+        JsonObject item = params.getAsJsonObject("textDocument");
+        if (item == null || !item.has("uri")) {
+            throw new JsonRpcException(JsonRpcException.INVALID_PARAMS, "Missing parameter: textDocument.uri");
+        }
+        return item.get("uri").getAsString();
+    }
+
+    private OpenDocument document(String uri) {
+        OpenDocument doc = documents.get(uri);
+        if (doc == null) {
+            throw new JsonRpcException(JsonRpcException.INVALID_PARAMS, "Document is not open: " + uri);
+        }
+        return doc;
+    }
+}
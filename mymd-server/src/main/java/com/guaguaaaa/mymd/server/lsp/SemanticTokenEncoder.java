@@ -0,0 +1,89 @@
+package com.guaguaaaa.mymd.server.lsp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.incremental.LineIndex;
+
+import java.util.List;
+
+/**
+ * Encodes highlight spans as LSP semantic tokens.
+ * <p>
+ * Token types are the editor's style classes, so VS Code and Neovim themes can map the same
+ * names the JavaFX stylesheet uses. Bold and italic text are modifiers; a span that is only bold
+ * or italic gets the {@code text} type.
+ */
+final class SemanticTokenEncoder {
+
+    static final List<String> TOKEN_TYPES = List.of(
+            "header", "code-block", "inline-code", "math", "blockquote", "link-marker", "yaml-marker",
+            "bold-marker", "italic-marker", "list-marker", "image-marker", "text");
+
+    static final List<String> TOKEN_MODIFIERS = List.of("bold", "italic");
+
+    private static final int TEXT_TYPE = TOKEN_TYPES.indexOf("text");
+
+    private SemanticTokenEncoder() {
+    }
+
+    static JsonObject legend() {
+        JsonArray types = new JsonArray();
+        TOKEN_TYPES.forEach(types::add);
+        JsonArray modifiers = new JsonArray();
+        TOKEN_MODIFIERS.forEach(modifiers::add);
+        JsonObject legend = new JsonObject();
+        legend.add("tokenTypes", types);
+        legend.add("tokenModifiers", modifiers);
+        return legend;
+    }
+
+    /**
+     * @param text the document the spans and line index belong to
+     * @return the relative {@code [deltaLine, deltaStart, length, type, modifiers]} integer stream.
+     */
+    static JsonArray encode(List<HighlightSpan> spans, LineIndex lines, CharSequence text) {
+        int textLength = text.length();
+        JsonArray data = new JsonArray();
+        int prevLine = 0;
+        int prevChar = 0;
+        for (HighlightSpan span : spans) {
+            int type = TEXT_TYPE;
+            int modifiers = 0;
+            for (String style : span.styles) {
+                int modifier = TOKEN_MODIFIERS.indexOf(style);
+                if (modifier >= 0) {
+                    modifiers |= 1 << modifier;
+                } else {
+                    int index = TOKEN_TYPES.indexOf(style);
+                    if (index >= 0) type = index;
+                }
+            }
+
+            // 语义 Token 不能跨行：代码块、公式块按行拆开
+            int start = span.start;
+            int end = Math.min(span.end, textLength);
+            int line = lines.lineOf(start);
+            while (start < end) {
+                int lineEnd = line + 1 < lines.getLineCount() ? lines.getLineStart(line + 1) - 1 : textLength;
+                // CRLF 换行：\r 不属于可见的行内容
+                if (lineEnd < textLength && lineEnd > lines.getLineStart(line) && text.charAt(lineEnd - 1) == '\r') lineEnd--;
+                int pieceEnd = Math.min(end, lineEnd);
+                if (pieceEnd > start) {
+                    int character = start - lines.getLineStart(line);
+                    data.add(line - prevLine);
+                    data.add(line == prevLine ? character - prevChar : character);
+                    data.add(pieceEnd - start);
+                    data.add(type);
+                    data.add(modifiers);
+                    prevLine = line;
+                    prevChar = character;
+                }
+                line++;
+                if (line >= lines.getLineCount()) break;
+                start = Math.max(start, lines.getLineStart(line));
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,61 @@
+package com.guaguaaaa.mymd.server;
+
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import com.guaguaaaa.mymd.core.api.CompilerOptions;
+import com.guaguaaaa.mymd.core.highlight.TokenHighlighter;
+import com.guaguaaaa.mymd.core.incremental.IncrementalDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentCacheTest {
+
+    private static final String URI = "file:///a.mymd";
+
+    @Test
+    void edit_shouldUpdateTextAndAnalysis() {
+        DocumentCache cache = new DocumentCache(new CompilerOptions());
+        String text = "# Intro\n\nSome **bold\n\n## Details\n\nText";
+        DocumentCache.Document first = cache.update(URI, 1, text);
+        assertFalse(first.getDiagnostics().isEmpty());
+
+        int at = text.indexOf("bold") + 4;
+        DocumentCache.Document second = cache.edit(URI, 2, List.of(
+                new DocumentCache.Edit(at, at, "**"),
+                new DocumentCache.Edit(0, 1, "##")));
+        String expected = "## Intro\n\nSome **bold**\n\n## Details\n\nText";
+        assertEquals(expected, second.getText());
+        assertEquals(2, second.version);
+        assertSame(second, cache.get(URI));
+        assertEquals(List.of(), second.getDiagnostics());
+        assertEquals(new IncrementalDocument(expected).getSpans().toString(), second.getSpans().toString());
+        assertEquals(MyMDCompiler.compile(expected).pandocJson, second.getCompilation().pandocJson);
+
+        // 旧修订的结果仍按它自己的文本计算
+        assertEquals(text, first.getText());
+        assertEquals(TokenHighlighter.computeSpans(text).toString(), first.getSpans().toString());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> cache.edit(URI, 3, List.of(new DocumentCache.Edit(0, expected.length() + 1, ""))));
+        assertThrows(IllegalArgumentException.class, () -> cache.edit("file:///other.mymd", 1, List.of()));
+    }
+
+    @Test
+    void update_fullText_shouldReuseResultsOrApplyTheDifference() {
+        DocumentCache cache = new DocumentCache(new CompilerOptions());
+        DocumentCache.Document first = cache.update(URI, 1, "# One\n\nText");
+        DocumentCache.Document same = cache.update(URI, 2, "# One\n\nText");
+        assertEquals(2, same.version);
+        assertSame(first.getSpans(), same.getSpans());
+
+        DocumentCache.Document changed = cache.update(URI, 3, "# One\n\nMore text");
+        assertEquals("# One\n\nMore text", changed.getText());
+        assertEquals(new IncrementalDocument("# One\n\nMore text").getSpans().toString(), changed.getSpans().toString());
+
+        // 含补充平面字符时偏移按码点计算，与编译器一致
+        String emoji = "# 😀 *x*";
+        assertEquals(TokenHighlighter.computeSpans(emoji).toString(), cache.update(URI, 4, emoji).getSpans().toString());
+    }
+}
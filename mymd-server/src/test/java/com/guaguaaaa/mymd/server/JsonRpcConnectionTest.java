@@ -0,0 +1,143 @@
+package com.guaguaaaa.mymd.server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.guaguaaaa.mymd.core.MyMDCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonRpcConnectionTest {
+
+    private static final int NULL_ID = -1;
+
+    @Test
+    void connection_shouldServeRequestsAgainstOpenDocuments() {
+        String doc = "# Title\n\nSome **bold** text";
+        StringBuilder in = new StringBuilder();
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"method\":\"document/open\",\"params\":{\"uri\":\"file:///a.mymd\",\"version\":1,\"text\":\"" + escape(doc) + "\"}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"compile\",\"params\":{\"uri\":\"file:///a.mymd\"}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"highlight\",\"params\":{\"uri\":\"file:///a.mymd\"}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"diagnostics\",\"params\":{\"text\":\"**unclosed\"}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":4,\"method\":\"nope\"}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MyMDService service = new MyMDService();
+        new JsonRpcConnection(new ByteArrayInputStream(in.toString().getBytes(StandardCharsets.UTF_8)), out, service).run();
+
+        Map<Integer, JsonObject> responses = parseResponses(out.toString(StandardCharsets.UTF_8));
+        assertEquals(4, responses.size());
+
+        JsonObject compile = responses.get(1).getAsJsonObject("result");
+        assertEquals(MyMDCompiler.compile(doc).pandocJson, compile.get("pandocJson").getAsString());
+        assertEquals(0, compile.getAsJsonArray("diagnostics").size());
+
+        assertTrue(responses.get(2).getAsJsonObject("result").getAsJsonArray("spans").size() > 0);
+        assertTrue(responses.get(3).getAsJsonObject("result").getAsJsonArray("diagnostics").size() > 0);
+        assertEquals(JsonRpcException.METHOD_NOT_FOUND, responses.get(4).getAsJsonObject("error").get("code").getAsInt());
+
+        assertEquals(1, service.getLatency().toJson().getAsJsonObject("compile").get("count").getAsInt());
+    }
+
+    @Test
+    void connection_requestsAndEditsOfADocument_shouldBeHandledInArrivalOrder() {
+        String[] versions = {"# One", "# Two\n\n*text*", "# Three"};
+        StringBuilder in = new StringBuilder();
+        for (int v = 0; v < versions.length; v++) {
+            String method = v == 0 ? "document/open" : "document/change";
+            in.append(frame("{\"jsonrpc\":\"2.0\",\"method\":\"" + method + "\",\"params\":{\"uri\":\"file:///a.mymd\",\"version\":"
+                    + (v + 1) + ",\"text\":\"" + escape(versions[v]) + "\"}}"));
+            in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":" + (v + 1) + ",\"method\":\"compile\",\"params\":{\"uri\":\"file:///a.mymd\"}}"));
+        }
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonRpcConnection(new ByteArrayInputStream(in.toString().getBytes(StandardCharsets.UTF_8)), out, new MyMDService()).run();
+
+        // 每个请求都基于它之前的那次编辑，响应按请求顺序发出
+        String output = out.toString(StandardCharsets.UTF_8);
+        Map<Integer, JsonObject> responses = parseResponses(output);
+        for (int v = 0; v < versions.length; v++) {
+            assertEquals(MyMDCompiler.compile(versions[v]).pandocJson,
+                    responses.get(v + 1).getAsJsonObject("result").get("pandocJson").getAsString());
+        }
+        assertTrue(output.indexOf("\"id\":1") < output.indexOf("\"id\":2"));
+        assertTrue(output.indexOf("\"id\":2") < output.indexOf("\"id\":3"));
+    }
+
+    @Test
+    void connection_invalidContentLength_shouldReplyParseErrorAndResync() {
+        String bad = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"stats\"}";
+        String in = "Content-Length: abc\r\n\r\n" + bad
+                + frame("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"stats\"}")
+                + "Content-Length: -5\r\n\r\n" + bad + "\n"
+                + frame("{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"stats\"}")
+                + frame("{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonRpcConnection(new ByteArrayInputStream(in.getBytes(StandardCharsets.UTF_8)), out, new MyMDService()).run();
+
+        // 两个无效长度各得到一个 id 为 null 的解析错误；其后的消息照常处理
+        Map<Integer, JsonObject> responses = parseResponses(out.toString(StandardCharsets.UTF_8));
+        assertEquals(Set.of(NULL_ID, 2, 3), responses.keySet());
+        assertEquals(JsonRpcException.PARSE_ERROR, responses.get(NULL_ID).getAsJsonObject("error").get("code").getAsInt());
+        assertTrue(responses.get(2).has("result"));
+        assertTrue(responses.get(3).has("result"));
+        assertEquals(2, countOccurrences(out.toString(StandardCharsets.UTF_8), "Invalid Content-Length"));
+    }
+
+    @Test
+    void connection_badMethodOrVersion_shouldReplyErrorsAndKeepServing() {
+        String in = frame("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":null}")
+                + frame("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":{}}")
+                + frame("{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"document/open\",\"params\":{\"uri\":\"file:///a.mymd\",\"version\":\"x\",\"text\":\"a\"}}")
+                + frame("{\"jsonrpc\":\"2.0\",\"id\":4,\"method\":\"stats\"}")
+                + frame("{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonRpcConnection(new ByteArrayInputStream(in.getBytes(StandardCharsets.UTF_8)), out, new MyMDService()).run();
+
+        Map<Integer, JsonObject> responses = parseResponses(out.toString(StandardCharsets.UTF_8));
+        assertEquals(JsonRpcException.INVALID_REQUEST, responses.get(1).getAsJsonObject("error").get("code").getAsInt());
+        assertEquals(JsonRpcException.INVALID_REQUEST, responses.get(2).getAsJsonObject("error").get("code").getAsInt());
+        assertEquals(JsonRpcException.INVALID_PARAMS, responses.get(3).getAsJsonObject("error").get("code").getAsInt());
+        assertTrue(responses.get(4).has("result"));
+    }
+
+    private static int countOccurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) count++;
+        return count;
+    }
+
+    private static String frame(String json) {
+        return "Content-Length: " + json.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + json;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static Map<Integer, JsonObject> parseResponses(String output) {
+        Map<Integer, JsonObject> responses = new HashMap<>();
+        int pos = 0;
+        while (pos < output.length()) {
+            int headerEnd = output.indexOf("\r\n\r\n", pos);
+            int length = Integer.parseInt(output.substring(pos, headerEnd).replace("Content-Length:", "").trim());
+            // 测试消息均为 ASCII，字节长度等于字符长度
+            String body = output.substring(headerEnd + 4, headerEnd + 4 + length);
+            JsonObject response = JsonParser.parseString(body).getAsJsonObject();
+            responses.put(response.get("id").isJsonNull() ? NULL_ID : response.get("id").getAsInt(), response);
+            pos = headerEnd + 4 + length;
+        }
+        return responses;
+    }
+}
@@ -0,0 +1,112 @@
+package com.guaguaaaa.mymd.server.lsp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.guaguaaaa.mymd.core.highlight.HighlightSpan;
+import com.guaguaaaa.mymd.core.incremental.LineIndex;
+import com.guaguaaaa.mymd.server.JsonRpcConnection;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MyMDLanguageServerTest {
+
+    @Test
+    void server_shouldPublishDiagnosticsAndServeSymbolsAfterIncrementalChanges() {
+        String doc = "# Intro\n\nSome **bold\n\n## Details\n\nText";
+        String uri = "file:///a.mymd";
+        StringBuilder in = new StringBuilder();
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"initialize\",\"params\":{}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didOpen\",\"params\":{\"textDocument\":{\"uri\":\"" + uri
+                + "\",\"languageId\":\"mymd\",\"version\":1,\"text\":\"" + escape(doc) + "\"}}}"));
+        // 在第 2 行 "Some **bold" 末尾补上 "**"
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/didChange\",\"params\":{\"textDocument\":{\"uri\":\"" + uri
+                + "\",\"version\":2},\"contentChanges\":[{\"range\":{\"start\":{\"line\":2,\"character\":11},"
+                + "\"end\":{\"line\":2,\"character\":11}},\"text\":\"**\"}]}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"textDocument/documentSymbol\",\"params\":{\"textDocument\":{\"uri\":\"" + uri + "\"}}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"textDocument/semanticTokens/full\",\"params\":{\"textDocument\":{\"uri\":\"" + uri + "\"}}}"));
+        in.append(frame("{\"jsonrpc\":\"2.0\",\"method\":\"exit\"}"));
+
+        MyMDLanguageServer server = new MyMDLanguageServer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonRpcConnection connection = new JsonRpcConnection(
+                new ByteArrayInputStream(in.toString().getBytes(StandardCharsets.UTF_8)), out, server);
+        server.connect(connection);
+        connection.run();
+
+        List<JsonObject> published = new ArrayList<>();
+        Map<Integer, JsonObject> responses = new HashMap<>();
+        for (JsonObject message : parseMessages(out.toString(StandardCharsets.UTF_8))) {
+            if (message.has("id")) {
+                responses.put(message.get("id").getAsInt(), message);
+            } else {
+                published.add(message.getAsJsonObject("params"));
+            }
+        }
+
+        JsonObject capabilities = responses.get(1).getAsJsonObject("result").getAsJsonObject("capabilities");
+        assertEquals(2, capabilities.getAsJsonObject("textDocumentSync").get("change").getAsInt());
+
+        assertEquals(2, published.size());
+        assertTrue(published.get(0).getAsJsonArray("diagnostics").size() > 0);
+        assertEquals(0, published.get(1).getAsJsonArray("diagnostics").size());
+        assertEquals(2, published.get(1).get("version").getAsInt());
+
+        JsonArray symbols = responses.get(2).getAsJsonArray("result");
+        assertEquals(1, symbols.size());
+        JsonObject intro = symbols.get(0).getAsJsonObject();
+        assertEquals("Intro", intro.get("name").getAsString());
+        assertEquals("Details", intro.getAsJsonArray("children").get(0).getAsJsonObject().get("name").getAsString());
+
+        JsonArray data = responses.get(3).getAsJsonObject("result").getAsJsonArray("data");
+        assertEquals(0, data.size() % 5);
+        // 第一个 Token 是第 0 行的 "#"，类型为 header
+        assertEquals(0, data.get(0).getAsInt());
+        assertEquals(SemanticTokenEncoder.TOKEN_TYPES.indexOf("header"), data.get(3).getAsInt());
+    }
+
+    @Test
+    void semanticTokens_crlfBlock_shouldNotCoverLineBreaks() {
+        String text = "$$\r\nx^2\r\n$$\r\n\r\nText";
+        int end = text.indexOf("\r\n\r\n");
+        JsonArray data = SemanticTokenEncoder.encode(List.of(new HighlightSpan(0, end, 0, List.of("math"))),
+                new LineIndex(text), text);
+
+        // 每行一个 Token，长度为可见字符数："$$"、"x^2"、"$$"
+        assertEquals(15, data.size());
+        assertEquals(2, data.get(2).getAsInt());
+        assertEquals(3, data.get(7).getAsInt());
+        assertEquals(2, data.get(12).getAsInt());
+    }
+
+    private static String frame(String json) {
+        return "Content-Length: " + json.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + json;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static List<JsonObject> parseMessages(String output) {
+        List<JsonObject> messages = new ArrayList<>();
+        int pos = 0;
+        while (pos < output.length()) {
+            int headerEnd = output.indexOf("\r\n\r\n", pos);
+            int length = Integer.parseInt(output.substring(pos, headerEnd).replace("Content-Length:", "").trim());
+            // 测试消息均为 ASCII，字节长度等于字符长度
+            String body = output.substring(headerEnd + 4, headerEnd + 4 + length);
+            messages.add(JsonParser.parseString(body).getAsJsonObject());
+            pos = headerEnd + 4 + length;
+        }
+        return messages;
+    }
+}